@@ -14,13 +14,10 @@
  * limitations under the License.
  */
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
@@ -30,7 +27,6 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Reader;
-import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -39,10 +35,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
 
 /**
  * Gathers statistics about attribute usage in layout files. This is how the "topAttrs"
@@ -53,6 +52,10 @@ import javax.xml.parsers.ParserConfigurationException;
  * This program takes one or more directory paths, and then it searches all of them recursively
  * for layout files that are not in folders containing the string "test", and computes and
  * prints frequency statistics.
+ * <p>
+ * The layouts are parsed in parallel while the directories are walked. Each thread streams
+ * the files through its own SAX parser and counts into its own frequency tables, which are
+ * merged once all the files have been parsed.
  */
 public class Analyzer {
     /** Number of attributes to print for each view */
@@ -61,7 +64,6 @@ public class Analyzer {
     public static final int THRESHOLD = 10; // percent
 
     private List<File> mDirectories;
-    private File mCurrentFile;
     private boolean mListAdvanced;
 
     /** Map from view id to map from attribute to frequency count */
@@ -78,6 +80,22 @@ public class Analyzer {
     private int mLayoutFileCount;
     private File mXmlMetadataFile;
 
+    /** Executor parsing the layout files found by {@link #scanDirectory} */
+    private ExecutorService mExecutor;
+
+    /** The scanners of all the threads of {@link #mExecutor} */
+    private final List<LayoutScanner> mScanners =
+            Collections.synchronizedList(new ArrayList<LayoutScanner>());
+
+    private final ThreadLocal<LayoutScanner> mScanner = new ThreadLocal<LayoutScanner>() {
+        @Override
+        protected LayoutScanner initialValue() {
+            LayoutScanner scanner = new LayoutScanner();
+            mScanners.add(scanner);
+            return scanner;
+        }
+    };
+
     private Analyzer(List<File> directories, File xmlMetadataFile, boolean listAdvanced) {
         mDirectories = directories;
         mXmlMetadataFile = xmlMetadataFile;
@@ -141,8 +159,25 @@ public class Analyzer {
     }
 
     private void analyze() {
-        for (File directory : mDirectories) {
-            scanDirectory(directory);
+        mExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            for (File directory : mDirectories) {
+                scanDirectory(directory);
+            }
+        } finally {
+            mExecutor.shutdown();
+        }
+
+        try {
+            mExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            System.err.println("Interrupted while analyzing layouts");
+            System.exit(-7);
+        }
+
+        for (LayoutScanner scanner : mScanners) {
+            merge(scanner.mFrequencies, mFrequencies);
+            merge(scanner.mLayoutAttributeFrequencies, mLayoutAttributeFrequencies);
         }
 
         if (mListAdvanced) {
@@ -192,128 +227,234 @@ public class Analyzer {
 
     }
 
-    private void analyzeLayout(File file) {
-        mCurrentFile = file;
+    private void analyzeLayout(final File file) {
         mLayoutFileCount++;
-        Document document = null;
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        InputSource is = new InputSource(new StringReader(readFile(file)));
-        try {
-            factory.setNamespaceAware(true);
-            factory.setValidating(false);
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            document = builder.parse(is);
-
-            analyzeDocument(document);
-
-        } catch (ParserConfigurationException e) {
-            // pass -- ignore files we can't parse
-        } catch (SAXException e) {
-            // pass -- ignore files we can't parse
-        } catch (IOException e) {
-            // pass -- ignore files we can't parse
-        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mScanner.get().scan(file);
+            }
+        });
     }
 
+    /** Adds the counts of the given frequency tables to the target tables */
+    private static void merge(Map<String, Map<String, Usage>> frequencies,
+            Map<String, Map<String, Usage>> target) {
+        for (Entry<String, Map<String, Usage>> entry : frequencies.entrySet()) {
+            Map<String, Usage> attributeMap = target.get(entry.getKey());
+            if (attributeMap == null) {
+                attributeMap = new HashMap<String, Usage>(70);
+                target.put(entry.getKey(), attributeMap);
+            }
 
-    private void analyzeDocument(Document document) {
-        analyzeElement(document.getDocumentElement());
+            for (Usage usage : entry.getValue().values()) {
+                Usage merged = attributeMap.get(usage.attribute);
+                if (merged == null) {
+                    merged = new Usage(usage.attribute);
+                    merged.count = usage.count;
+                    attributeMap.put(usage.attribute, merged);
+                } else {
+                    merged.count += usage.count;
+                }
+            }
+        }
     }
 
-    private void analyzeElement(Element element) {
-        if (element.getTagName().equals("item")) {
-            // Resource files shouldn't be in the layout/ folder but I came across
-            // some cases
-            System.out.println("Warning: found <item> tag in a layout file in "
-                    + mCurrentFile.getPath());
-            return;
+    private static void count(Map<String, Map<String, Usage>> frequencies, String tag,
+            String name) {
+        Map<String, Usage> attributeMap = frequencies.get(tag);
+        if (attributeMap == null) {
+            attributeMap = new HashMap<String, Usage>(70);
+            frequencies.put(tag, attributeMap);
         }
 
-        countAttributes(element);
-        countLayoutAttributes(element);
-
-        // Recurse over children
-        NodeList childNodes = element.getChildNodes();
-        for (int i = 0, n = childNodes.getLength(); i < n; i++) {
-            Node child = childNodes.item(i);
-            if (child.getNodeType() == Node.ELEMENT_NODE) {
-                analyzeElement((Element) child);
+        if (name != null) {
+            Usage usage = attributeMap.get(name);
+            if (usage == null) {
+                usage = new Usage(name);
+                attributeMap.put(name, usage);
+            } else {
+                usage.incrementCount();
             }
         }
     }
 
-    private void countAttributes(Element element) {
-        String tag = element.getTagName();
-        Map<String, Usage> attributeMap = mFrequencies.get(tag);
-        if (attributeMap == null) {
-            attributeMap = new HashMap<String, Usage>(70);
-            mFrequencies.put(tag, attributeMap);
-        }
+    /**
+     * Streams layout files through a SAX parser and counts their attributes. Each scanner
+     * is only used by a single thread, and the parser is reused for all its files.
+     * <p>
+     * The counts of a file are only added to the frequency tables once the whole file has
+     * been parsed, such that files which can't be parsed are ignored, as they were when the
+     * layouts were read into a DOM.
+     */
+    private static class LayoutScanner extends DefaultHandler {
+        private SAXParser mParser;
 
-        NamedNodeMap attributes = element.getAttributes();
-        for (int i = 0, n = attributes.getLength(); i < n; i++) {
-            Node attribute = attributes.item(i);
-            String name = attribute.getNodeName();
+        /** Map from view id to map from attribute to frequency count */
+        private final Map<String, Map<String, Usage>> mFrequencies =
+                new HashMap<String, Map<String, Usage>>(100);
 
-            if (name.startsWith("android:layout_")) {
-                // Skip layout attributes; they are a function of the parent layout that this
-                // view is embedded within, not the view itself.
-                // TODO: Consider whether we should incorporate this info or make statistics
-                // about that as well?
-                continue;
+        private final Map<String, Map<String, Usage>> mLayoutAttributeFrequencies =
+                new HashMap<String, Map<String, Usage>>(100);
+
+        /** Pairs of view tag and attribute name counted in the current file */
+        private final List<String> mAttributes = new ArrayList<String>();
+
+        /** Pairs of parent tag and layout attribute name counted in the current file */
+        private final List<String> mLayoutAttributes = new ArrayList<String>();
+
+        /** Tags of the currently open elements, starting with the document */
+        private final List<String> mTags = new ArrayList<String>();
+
+        /** Number of <item> tags found in the current file */
+        private int mItemCount;
+
+        /** Nesting depth within an <item> tag, whose contents are skipped */
+        private int mItemDepth;
+
+        private void scan(File file) {
+            mAttributes.clear();
+            mLayoutAttributes.clear();
+            mTags.clear();
+            mTags.add("#document");
+            mItemCount = 0;
+            mItemDepth = 0;
+
+            Reader reader = null;
+            try {
+                if (mParser == null) {
+                    SAXParserFactory factory = SAXParserFactory.newInstance();
+                    factory.setNamespaceAware(true);
+                    factory.setValidating(false);
+                    // Also report the xmlns attributes, like the DOM did
+                    factory.setFeature("http://xml.org/sax/features/namespace-prefixes", true);
+                    mParser = factory.newSAXParser();
+                } else {
+                    mParser.reset();
+                }
+
+                reader = new BufferedReader(new FileReader(file));
+                mParser.parse(new InputSource(reader), this);
+            } catch (FileNotFoundException e) {
+                e.printStackTrace();
+                return;
+            } catch (ParserConfigurationException e) {
+                // pass -- ignore files we can't parse
+                return;
+            } catch (SAXException e) {
+                // pass -- ignore files we can't parse
+                return;
+            } catch (IOException e) {
+                // pass -- ignore files we can't parse
+                return;
+            } finally {
+                try {
+                    if (reader != null) {
+                        reader.close();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
             }
 
-            if (name.equals("android:id")) {
-                // Skip ids: they are (mostly) unrelated to the view type and the tool
-                // already offers id editing prominently
-                continue;
+            for (int i = 0; i < mItemCount; i++) {
+                // Resource files shouldn't be in the layout/ folder but I came across
+                // some cases
+                System.out.println("Warning: found <item> tag in a layout file in "
+                        + file.getPath());
             }
 
-            if (name.startsWith("xmlns:")) {
-                // Unrelated to frequency counts
-                continue;
+            for (int i = 0, n = mAttributes.size(); i < n; i += 2) {
+                count(mFrequencies, mAttributes.get(i), mAttributes.get(i + 1));
+            }
+            for (int i = 0, n = mLayoutAttributes.size(); i < n; i += 2) {
+                count(mLayoutAttributeFrequencies, mLayoutAttributes.get(i),
+                        mLayoutAttributes.get(i + 1));
             }
+        }
 
-            Usage usage = attributeMap.get(name);
-            if (usage == null) {
-                usage = new Usage(name);
-            } else {
-                usage.incrementCount();
+        @Override
+        public void startElement(String uri, String localName, String qName,
+                Attributes attributes) {
+            if (mItemDepth > 0) {
+                mItemDepth++;
+                return;
+            }
+
+            if (qName.equals("item")) {
+                mItemCount++;
+                mItemDepth = 1;
+                return;
             }
-            attributeMap.put(name, usage);
+
+            countAttributes(qName, attributes);
+            countLayoutAttributes(mTags.get(mTags.size() - 1), attributes);
+            mTags.add(qName);
         }
-    }
 
-    private void countLayoutAttributes(Element element) {
-        String parentTag = element.getParentNode().getNodeName();
-        Map<String, Usage> attributeMap = mLayoutAttributeFrequencies.get(parentTag);
-        if (attributeMap == null) {
-            attributeMap = new HashMap<String, Usage>(70);
-            mLayoutAttributeFrequencies.put(parentTag, attributeMap);
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            if (mItemDepth > 0) {
+                mItemDepth--;
+                return;
+            }
+
+            mTags.remove(mTags.size() - 1);
         }
 
-        NamedNodeMap attributes = element.getAttributes();
-        for (int i = 0, n = attributes.getLength(); i < n; i++) {
-            Node attribute = attributes.item(i);
-            String name = attribute.getNodeName();
+        private void countAttributes(String tag, Attributes attributes) {
+            // Record the tag even if it has no attributes, like the layout attributes below
+            mAttributes.add(tag);
+            mAttributes.add(null);
 
-            if (!name.startsWith("android:layout_")) {
-                continue;
-            }
+            for (int i = 0, n = attributes.getLength(); i < n; i++) {
+                String name = attributes.getQName(i);
 
-            // Skip layout_width and layout_height; they are mandatory in all but GridLayout so not
-            // very interesting
-            if (name.equals("android:layout_width") || name.equals("android:layout_height")) {
-                continue;
+                if (name.startsWith("android:layout_")) {
+                    // Skip layout attributes; they are a function of the parent layout that
+                    // this view is embedded within, not the view itself.
+                    // TODO: Consider whether we should incorporate this info or make
+                    // statistics about that as well?
+                    continue;
+                }
+
+                if (name.equals("android:id")) {
+                    // Skip ids: they are (mostly) unrelated to the view type and the tool
+                    // already offers id editing prominently
+                    continue;
+                }
+
+                if (name.startsWith("xmlns:")) {
+                    // Unrelated to frequency counts
+                    continue;
+                }
+
+                mAttributes.add(tag);
+                mAttributes.add(name);
             }
+        }
 
-            Usage usage = attributeMap.get(name);
-            if (usage == null) {
-                usage = new Usage(name);
-            } else {
-                usage.incrementCount();
+        private void countLayoutAttributes(String parentTag, Attributes attributes) {
+            mLayoutAttributes.add(parentTag);
+            mLayoutAttributes.add(null);
+
+            for (int i = 0, n = attributes.getLength(); i < n; i++) {
+                String name = attributes.getQName(i);
+
+                if (!name.startsWith("android:layout_")) {
+                    continue;
+                }
+
+                // Skip layout_width and layout_height; they are mandatory in all but
+                // GridLayout so not very interesting
+                if (name.equals("android:layout_width")
+                        || name.equals("android:layout_height")) {
+                    continue;
+                }
+
+                mLayoutAttributes.add(parentTag);
+                mLayoutAttributes.add(name);
             }
-            attributeMap.put(name, usage);
         }
     }
 
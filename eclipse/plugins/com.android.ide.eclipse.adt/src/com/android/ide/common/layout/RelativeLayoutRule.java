@@ -141,7 +141,8 @@ public class RelativeLayoutRule extends BaseLayoutRule {
             return;
         }
 
-        ConstraintPainter.paintSelectionFeedback(graphics, parentNode, childNodes, showDependents);
+        ConstraintPainter.paintSelectionFeedback(graphics, parentNode, view, childNodes,
+                showDependents);
     }
 
     // ==== Drag'n'drop support ====
@@ -149,7 +150,7 @@ public class RelativeLayoutRule extends BaseLayoutRule {
     @Override
     public DropFeedback onDropEnter(@NonNull INode targetNode, @Nullable Object targetView,
             @Nullable IDragElement[] elements) {
-        return new DropFeedback(new MoveHandler(targetNode, elements, mRulesEngine),
+        return new DropFeedback(new MoveHandler(targetNode, targetView, elements, mRulesEngine),
                 new GuidelinePainter());
     }
 
@@ -267,7 +268,7 @@ public class RelativeLayoutRule extends BaseLayoutRule {
     public DropFeedback onResizeBegin(@NonNull INode child, @NonNull INode parent,
             @Nullable SegmentType horizontalEdgeType, @Nullable SegmentType verticalEdgeType,
             @Nullable Object childView, @Nullable Object parentView) {
-        ResizeHandler state = new ResizeHandler(parent, child, mRulesEngine,
+        ResizeHandler state = new ResizeHandler(parent, parentView, child, mRulesEngine,
                 horizontalEdgeType, verticalEdgeType);
         return new DropFeedback(state, new GuidelinePainter());
     }
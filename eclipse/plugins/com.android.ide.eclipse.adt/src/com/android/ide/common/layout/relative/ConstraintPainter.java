@@ -105,13 +105,14 @@ public class ConstraintPainter {
      *
      * @param graphics the graphics context
      * @param parentNode the parent relative layout
+     * @param view the rendered parent RelativeLayout instance, or null
      * @param childNodes the nodes whose constraints should be painted
      * @param showDependents whether incoming constraints should be shown as well
      */
     public static void paintSelectionFeedback(IGraphics graphics, INode parentNode,
-            List<? extends INode> childNodes, boolean showDependents) {
+            Object view, List<? extends INode> childNodes, boolean showDependents) {
 
-        DependencyGraph dependencyGraph = new DependencyGraph(parentNode);
+        DependencyGraph dependencyGraph = DependencyGraph.get(parentNode, view);
         Set<INode> horizontalDeps = dependencyGraph.dependsOn(childNodes, false /* vertical */);
         Set<INode> verticalDeps = dependencyGraph.dependsOn(childNodes, true /* vertical */);
         Set<INode> deps = new HashSet<INode>(horizontalDeps.size() + verticalDeps.size());
@@ -28,8 +28,11 @@ import com.android.ide.common.api.INode;
 import com.android.ide.common.api.INode.IAttribute;
 import com.android.ide.common.layout.BaseLayoutRule;
 
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -55,11 +58,46 @@ class DependencyGraph {
     /** Format to chain constraint dependencies: button 1 above button2 etc */
     private static final String DEPENDENCY_FORMAT = "%1$s %2$s %3$s"; //$NON-NLS-1$
 
+    // Factory cache for the most recently computed graph. Move, resize and selection
+    // painting all ask for a graph for the same layout over and over; the layout is
+    // rendered again after each edit of the model, so as long as the rendered view
+    // object is the same the constraints are too. The graph is held softly since it
+    // references the layout nodes.
+    private static WeakReference<Object> sCachedViewObject = new WeakReference<Object>(null);
+    private static SoftReference<DependencyGraph> sCachedGraph;
+
     private final Map<String, ViewData> mIdToView = new HashMap<String, ViewData>();
     private final Map<INode, ViewData> mNodeToView = new HashMap<INode, ViewData>();
+    private final Map<List<Object>, Set<INode>> mDependsOn =
+            new HashMap<List<Object>, Set<INode>>();
+    private final INode mLayout;
+
+    /**
+     * Returns a {@link DependencyGraph} for the given relative layout. If the layout has
+     * not been rendered again since the previously requested graph was computed, that
+     * graph is returned instead of building a new one.
+     *
+     * @param layout the relative layout to compute the graph for
+     * @param viewObject the rendered RelativeLayout instance, or null
+     * @return a dependency graph for the layout, never null
+     */
+    static DependencyGraph get(INode layout, Object viewObject) {
+        if (viewObject != null && viewObject == sCachedViewObject.get()) {
+            DependencyGraph graph = sCachedGraph.get();
+            if (graph != null && graph.mLayout == layout) {
+                return graph;
+            }
+        }
+
+        DependencyGraph graph = new DependencyGraph(layout);
+        sCachedGraph = new SoftReference<DependencyGraph>(graph);
+        sCachedViewObject = new WeakReference<Object>(viewObject);
+        return graph;
+    }
 
     /** Constructs a new {@link DependencyGraph} for the given relative layout */
     DependencyGraph(INode layout) {
+        mLayout = layout;
         INode[] nodes = layout.getChildren();
 
         // Parent view:
@@ -158,6 +196,19 @@ class DependencyGraph {
      *         the given direction
      */
     public Set<INode> dependsOn(Collection<? extends INode> nodes, boolean vertical) {
+        List<Object> key = new ArrayList<Object>(nodes.size() + 1);
+        key.add(vertical);
+        key.addAll(nodes);
+        Set<INode> dependents = mDependsOn.get(key);
+        if (dependents == null) {
+            dependents = Collections.unmodifiableSet(computeDependsOn(nodes, vertical));
+            mDependsOn.put(key, dependents);
+        }
+
+        return dependents;
+    }
+
+    private Set<INode> computeDependsOn(Collection<? extends INode> nodes, boolean vertical) {
         List<ViewData> reachable = new ArrayList<ViewData>();
 
         // Traverse the graph of constraints and determine all nodes affected by
@@ -70,7 +70,9 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -223,12 +225,17 @@ public class GuidelineHandler {
      */
     protected IClientRulesEngine mRulesEngine;
 
+    /** Sorted position indices for the above edge lists, created on demand */
+    private final Map<List<Segment>, SegmentIndex> mEdgeIndices =
+            new IdentityHashMap<List<Segment>, SegmentIndex>();
+
     /**
      * Construct a new {@link GuidelineHandler} for the given relative layout.
      *
      * @param layout the RelativeLayout to handle
+     * @param layoutView the rendered RelativeLayout instance, or null
      */
-    GuidelineHandler(INode layout, IClientRulesEngine rulesEngine) {
+    GuidelineHandler(INode layout, Object layoutView, IClientRulesEngine rulesEngine) {
         this.layout = layout;
         mRulesEngine = rulesEngine;
 
@@ -236,7 +243,7 @@ public class GuidelineHandler {
         mVerticalEdges = new ArrayList<Segment>();
         mCenterVertEdges = new ArrayList<Segment>();
         mCenterHorizEdges = new ArrayList<Segment>();
-        mDependencyGraph = new DependencyGraph(layout);
+        mDependencyGraph = DependencyGraph.get(layout, layoutView);
     }
 
     /**
@@ -449,50 +456,99 @@ public class GuidelineHandler {
         int at = draggedEdge.at;
         int closestDelta = closest.size() > 0 ? closest.get(0).delta : Integer.MAX_VALUE;
         int closestDistance = abs(closestDelta);
-        for (Segment edge : edges) {
-            assert draggedEdge.edgeType.isHorizontal() == edge.edgeType.isHorizontal();
 
-            int delta = edge.at - at;
-            int distance = abs(delta);
+        // Walk outwards from the dragged edge position in order of increasing distance,
+        // and stop as soon as the remaining edges are further away than the best match
+        SegmentIndex index = getIndex(edges);
+        int size = index.size();
+        int right = index.lowerBound(at);
+        int left = right - 1;
+        while (left >= 0 || right < size) {
+            int leftDistance = left >= 0 ? at - index.getPosition(left) : Integer.MAX_VALUE;
+            int rightDistance = right < size ? index.getPosition(right) - at
+                    : Integer.MAX_VALUE;
+            int distance = Math.min(leftDistance, rightDistance);
             if (distance > closestDistance) {
-                continue;
+                break;
             }
 
-            if (!isEdgeTypeCompatible(edge.edgeType, draggedEdge.edgeType, delta)) {
-                continue;
+            // Collect the runs of edges at exactly this distance on either side
+            int leftEnd = left;
+            while (leftEnd >= 0 && at - index.getPosition(leftEnd) == distance) {
+                leftEnd--;
             }
-
-            boolean withParent = edge.node == layout;
-            ConstraintType type = ConstraintType.forMatch(withParent,
-                    draggedEdge.edgeType, edge.edgeType);
-            if (type == null) {
-                continue;
+            int rightEnd = right;
+            while (rightEnd < size && index.getPosition(rightEnd) - at == distance) {
+                rightEnd++;
             }
 
-            // Ensure that the edge match is compatible; for example, a "below"
-            // constraint can only apply to the margin bounds and a "bottom"
-            // constraint can only apply to the non-margin bounds.
-            if (type.relativeToMargin && edge.marginType == WITHOUT_MARGIN) {
-                continue;
-            } else if (!type.relativeToMargin && edge.marginType == WITH_MARGIN) {
-                continue;
-            }
+            // ...and visit them in list order, such that equidistant matches on
+            // opposite sides are resolved the same way as by a linear scan
+            int i = leftEnd + 1;
+            int j = right;
+            while (i <= left || j < rightEnd) {
+                Segment edge;
+                if (j >= rightEnd || i <= left && index.getOrder(i) < index.getOrder(j)) {
+                    edge = index.getSegment(i++);
+                } else {
+                    edge = index.getSegment(j++);
+                }
+                assert draggedEdge.edgeType.isHorizontal() == edge.edgeType.isHorizontal();
+
+                int delta = edge.at - at;
+                if (!isEdgeTypeCompatible(edge.edgeType, draggedEdge.edgeType, delta)) {
+                    continue;
+                }
+
+                boolean withParent = edge.node == layout;
+                ConstraintType type = ConstraintType.forMatch(withParent,
+                        draggedEdge.edgeType, edge.edgeType);
+                if (type == null) {
+                    continue;
+                }
+
+                // Ensure that the edge match is compatible; for example, a "below"
+                // constraint can only apply to the margin bounds and a "bottom"
+                // constraint can only apply to the non-margin bounds.
+                if (type.relativeToMargin && edge.marginType == WITHOUT_MARGIN) {
+                    continue;
+                } else if (!type.relativeToMargin && edge.marginType == WITH_MARGIN) {
+                    continue;
+                }
 
-            Match match = new Match(this, edge, draggedEdge, type, delta);
+                Match match = new Match(this, edge, draggedEdge, type, delta);
 
-            if (distance < closestDistance) {
-                closest.clear();
-                closestDistance = distance;
-                closestDelta = delta;
-            } else if (delta * closestDelta < 0) {
-                // They have different signs, e.g. the matches are equal but
-                // on opposite sides; can't accept them both
-                continue;
+                if (distance < closestDistance) {
+                    closest.clear();
+                    closestDistance = distance;
+                    closestDelta = delta;
+                } else if (delta * closestDelta < 0) {
+                    // They have different signs, e.g. the matches are equal but
+                    // on opposite sides; can't accept them both
+                    continue;
+                }
+                closest.add(match);
             }
-            closest.add(match);
+
+            left = leftEnd;
+            right = rightEnd;
         }
     }
 
+    /**
+     * Returns a {@link SegmentIndex} for the given list of edges. The edge lists are
+     * only ever appended to, so an index is rebuilt only when its list has grown.
+     */
+    private SegmentIndex getIndex(List<Segment> edges) {
+        SegmentIndex index = mEdgeIndices.get(edges);
+        if (index == null || index.size() != edges.size()) {
+            index = new SegmentIndex(edges);
+            mEdgeIndices.put(edges, index);
+        }
+
+        return index;
+    }
+
     protected void clearSuggestions() {
         mHorizontalSuggestions = mVerticalSuggestions = null;
         mCurrentLeftMatch = mCurrentRightMatch = null;
@@ -56,11 +56,13 @@ public class MoveHandler extends GuidelineHandler {
      * Creates a new {@link MoveHandler}.
      *
      * @param layout the layout element the handler is operating on
+     * @param layoutView the rendered layout instance, or null
      * @param elements the elements being dragged in the move operation
      * @param rulesEngine the corresponding {@link IClientRulesEngine}
      */
-    public MoveHandler(INode layout, IDragElement[] elements, IClientRulesEngine rulesEngine) {
-        super(layout, rulesEngine);
+    public MoveHandler(INode layout, Object layoutView, IDragElement[] elements,
+            IClientRulesEngine rulesEngine) {
+        super(layout, layoutView, rulesEngine);
 
         // Compute list of nodes being dragged within the layout, if any
         List<INode> nodes = new ArrayList<INode>();
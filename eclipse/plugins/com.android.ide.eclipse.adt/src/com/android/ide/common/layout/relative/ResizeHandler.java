@@ -52,15 +52,16 @@ public class ResizeHandler extends GuidelineHandler {
      * Creates a new {@link ResizeHandler}
      *
      * @param layout the layout containing the resized node
+     * @param layoutView the rendered layout instance, or null
      * @param resized the node being resized
      * @param rulesEngine the applicable {@link IClientRulesEngine}
      * @param horizontalEdgeType the type of horizontal edge being resized, or null
      * @param verticalEdgeType the type of vertical edge being resized, or null
      */
-    public ResizeHandler(INode layout, INode resized,
+    public ResizeHandler(INode layout, Object layoutView, INode resized,
             IClientRulesEngine rulesEngine,
             SegmentType horizontalEdgeType, SegmentType verticalEdgeType) {
-        super(layout, rulesEngine);
+        super(layout, layoutView, rulesEngine);
 
         assert horizontalEdgeType != null || verticalEdgeType != null;
         assert horizontalEdgeType != BASELINE && verticalEdgeType != BASELINE;
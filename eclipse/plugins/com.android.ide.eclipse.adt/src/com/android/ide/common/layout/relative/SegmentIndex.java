@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ide.common.layout.relative;
+
+import com.android.ide.common.api.Segment;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A {@link SegmentIndex} is a snapshot of a list of edge {@link Segment}s, sorted by
+ * their position, which lets the {@link GuidelineHandler} walk outwards from a dragged
+ * edge position in order of increasing distance instead of scanning every edge in the
+ * layout on each mouse move.
+ * <p>
+ * Segments with the same position are kept in the order they were added to the list,
+ * and {@link #getOrder(int)} exposes that original order, such that callers can
+ * visit equidistant edges in exactly the same order as a linear scan would.
+ */
+final class SegmentIndex {
+    private final Segment[] mSegments;
+    private final int[] mPositions;
+    private final int[] mOrder;
+
+    /**
+     * Creates a new index for the given segments
+     *
+     * @param segments the segments to index
+     */
+    SegmentIndex(List<Segment> segments) {
+        int size = segments.size();
+
+        // Sort on the position in the high word and the original index in the low
+        // word, which gives a stable sort without boxing
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = ((long) segments.get(i).at << 32) | i;
+        }
+        Arrays.sort(keys);
+
+        mSegments = new Segment[size];
+        mPositions = new int[size];
+        mOrder = new int[size];
+        for (int i = 0; i < size; i++) {
+            int index = (int) keys[i];
+            Segment segment = segments.get(index);
+            mSegments[i] = segment;
+            mPositions[i] = segment.at;
+            mOrder[i] = index;
+        }
+    }
+
+    /**
+     * Returns the number of segments in the index
+     *
+     * @return the number of segments
+     */
+    int size() {
+        return mSegments.length;
+    }
+
+    /**
+     * Returns the segment at the given sorted position
+     *
+     * @param i the index in the sorted order
+     * @return the corresponding segment
+     */
+    Segment getSegment(int i) {
+        return mSegments[i];
+    }
+
+    /**
+     * Returns the position ({@link Segment#at}) of the segment at the given sorted
+     * position
+     *
+     * @param i the index in the sorted order
+     * @return the corresponding segment position
+     */
+    int getPosition(int i) {
+        return mPositions[i];
+    }
+
+    /**
+     * Returns the index the segment at the given sorted position had in the list the
+     * index was created from
+     *
+     * @param i the index in the sorted order
+     * @return the original list index of the corresponding segment
+     */
+    int getOrder(int i) {
+        return mOrder[i];
+    }
+
+    /**
+     * Returns the sorted index of the first segment whose position is greater than or
+     * equal to the given position, or {@link #size()} if there is no such segment
+     *
+     * @param at the position to search for
+     * @return the index of the first segment at or after the given position
+     */
+    int lowerBound(int at) {
+        int low = 0;
+        int high = mPositions.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mPositions[mid] < at) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+}
@@ -33,6 +33,7 @@ import com.android.ide.eclipse.adt.internal.editors.AndroidXmlEditor;
 import com.android.ide.eclipse.adt.internal.editors.IconFactory;
 import com.android.ide.eclipse.adt.internal.editors.common.CommonXmlEditor;
 import com.android.ide.eclipse.adt.internal.editors.layout.gle2.IncludeFinder;
+import com.android.ide.eclipse.adt.internal.editors.layout.gre.RuleLoader;
 import com.android.ide.eclipse.adt.internal.lint.LintDeltaProcessor;
 import com.android.ide.eclipse.adt.internal.preferences.AdtPrefs;
 import com.android.ide.eclipse.adt.internal.preferences.AdtPrefs.BuildVerbosity;
@@ -1682,6 +1683,7 @@ public class AdtPlugin extends AbstractUIPlugin implements ILogger {
 
             @Override
             public void projectOpenedWithWorkspace(IProject project) {
+                RuleLoader.warmUp(project);
             }
 
             @Override
@@ -1690,6 +1692,7 @@ public class AdtPlugin extends AbstractUIPlugin implements ILogger {
 
             @Override
             public void projectOpened(IProject project) {
+                RuleLoader.warmUp(project);
             }
 
             @Override
@@ -37,6 +37,7 @@ import com.android.ide.eclipse.adt.internal.editors.layout.gle2.ImageControl;
 import com.android.ide.eclipse.adt.internal.editors.layout.gle2.ImageUtils;
 import com.android.ide.eclipse.adt.internal.editors.layout.gle2.SwtUtils;
 import com.android.ide.eclipse.adt.internal.editors.manifest.ManifestInfo;
+import com.android.resources.Density;
 import com.android.utils.Pair;
 
 import org.eclipse.core.resources.IFile;
@@ -46,13 +47,18 @@ import org.eclipse.core.resources.IWorkspaceRoot;
 import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.core.runtime.Path;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.dialogs.IMessageProvider;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jface.wizard.WizardPage;
 import org.eclipse.swt.SWT;
+import org.eclipse.swt.SWTException;
 import org.eclipse.swt.custom.ScrolledComposite;
 import org.eclipse.swt.custom.StackLayout;
 import org.eclipse.swt.events.ModifyEvent;
@@ -65,6 +71,7 @@ import org.eclipse.swt.graphics.Color;
 import org.eclipse.swt.graphics.Font;
 import org.eclipse.swt.graphics.FontData;
 import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.graphics.ImageData;
 import org.eclipse.swt.graphics.RGB;
 import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.layout.GridLayout;
@@ -88,11 +95,16 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import javax.imageio.ImageIO;
 
@@ -133,6 +145,16 @@ public class ConfigureAssetSetPage extends WizardPage implements SelectionListen
     private Text mImagePathText;
 
     private boolean mTimerPending;
+
+    /** Incremented for each preview request; results from older requests are dropped */
+    private int mPreviewGeneration;
+    /** The job generating the most recently requested previews, if still running */
+    private PreviewJob mPreviewJob;
+    /** The request whose previews are shown in the preview area */
+    private int mShownGeneration;
+    /** The controls in the preview area, indexed by preview slot */
+    private List<Control> mPreviewSlots;
+    private static ExecutorService sPreviewExecutor;
     private RGB mBgColor;
     private RGB mFgColor;
     private Text mText;
@@ -466,10 +488,7 @@ public class ConfigureAssetSetPage extends WizardPage implements SelectionListen
             // Clear out old previews - important if the user goes back to page one, changes
             // asset type and steps into page 2 - at that point we arrive here and we might
             // display the old previews for a brief period until the preview delay timer expires.
-            for (Control c : mPreviewArea.getChildren()) {
-                c.dispose();
-            }
-            mPreviewArea.layout(true);
+            clearPreviews();
 
             // Update asset type configuration: will show/hide parameter controls depending
             // on which asset type is chosen
@@ -960,43 +979,269 @@ public class ConfigureAssetSetPage extends WizardPage implements SelectionListen
     }
 
     private void updatePreview() {
-        Display display = mPreviewArea.getDisplay();
+        // Any pending results are for an older state of the wizard; drop them
+        int generation = ++mPreviewGeneration;
+        if (mPreviewJob != null) {
+            mPreviewJob.cancel();
+            mPreviewJob = null;
+        }
+
+        if (!validatePage()) {
+            clearPreviews();
+            return;
+        }
+
+        // Generate from a snapshot of the wizard state, since the user can keep
+        // editing the state while the previews are generated. The snapshot shares the
+        // decoded and trimmed source image caches with the wizard state.
+        mPreviewJob = new PreviewJob(mValues.copy(), generation);
+        mPreviewJob.schedule();
+    }
 
+    private void clearPreviews() {
+        // Drop any results still arriving for the previews being cleared
+        mPreviewGeneration++;
         for (Control c : mPreviewArea.getChildren()) {
             c.dispose();
         }
+        mPreviewSlots = null;
+        mPreviewArea.layout(true);
+    }
 
-        if (!validatePage()) {
+    /**
+     * Shows a category label or a generated preview image in the given slot. The first
+     * preview of a new request replaces the previews of the previous one. Called on the
+     * UI thread.
+     *
+     * @param generation the preview request the preview belongs to
+     * @param slot the position of the preview in the preview area
+     * @param category the category name to show, or null to show the image instead
+     * @param data the image to show, if no category is given
+     */
+    private void showPreview(int generation, int slot, @Nullable String category,
+            @Nullable ImageData data) {
+        if (generation != mPreviewGeneration || mPreviewArea.isDisposed()) {
             return;
         }
 
-        Map<String, Map<String, BufferedImage>> map = generateImages(mValues,
-                true /*previewOnly*/, this);
-        for (Entry<String, Map<String, BufferedImage>> categoryEntry : map.entrySet()) {
-            String category = categoryEntry.getKey();
-            if (category.length() > 0) {
-                Label nameLabel = new Label(mPreviewArea, SWT.NONE);
-                nameLabel.setText(String.format("%1$s:", category));
-                RowData rowData = new RowData();
-                nameLabel.setLayoutData(rowData);
-                // Ensure these get their own rows
-                rowData.width = PREVIEW_AREA_WIDTH;
+        if (generation != mShownGeneration) {
+            // Keep the old previews up until the new ones start arriving, to avoid
+            // flashing
+            for (Control c : mPreviewArea.getChildren()) {
+                c.dispose();
             }
+            mPreviewSlots = new ArrayList<Control>();
+            mShownGeneration = generation;
+        }
 
-            Map<String, BufferedImage> images = categoryEntry.getValue();
-            for (Entry<String, BufferedImage> entry :  images.entrySet()) {
-                BufferedImage image = entry.getValue();
-                Image swtImage = SwtUtils.convertToSwt(display, image, true, -1);
-                if (swtImage != null) {
-                    @SuppressWarnings("unused") // Has side effect
-                    ImageControl imageControl = new ImageControl(mPreviewArea, SWT.NONE, swtImage);
-                }
+        Control control;
+        if (category != null) {
+            Label nameLabel = new Label(mPreviewArea, SWT.NONE);
+            nameLabel.setText(String.format("%1$s:", category));
+            RowData rowData = new RowData();
+            nameLabel.setLayoutData(rowData);
+            // Ensure these get their own rows
+            rowData.width = PREVIEW_AREA_WIDTH;
+            control = nameLabel;
+        } else {
+            Image swtImage = new Image(mPreviewArea.getDisplay(), data);
+            control = new ImageControl(mPreviewArea, SWT.NONE, swtImage);
+        }
+
+        while (mPreviewSlots.size() <= slot) {
+            mPreviewSlots.add(null);
+        }
+        mPreviewSlots.set(slot, control);
+
+        // Images are converted in parallel and can arrive in any order; keep them in
+        // the order of their slots
+        for (int i = slot + 1, n = mPreviewSlots.size(); i < n; i++) {
+            if (mPreviewSlots.get(i) != null) {
+                control.moveAbove(mPreviewSlots.get(i));
+                break;
             }
         }
 
         mPreviewArea.layout(true);
     }
 
+    /**
+     * Called on the UI thread when all the previews of a request have been shown.
+     *
+     * @param generation the preview request which finished
+     * @param error an error message to show, or null
+     */
+    private void finishPreviews(int generation, @Nullable String error) {
+        if (generation != mPreviewGeneration || mPreviewArea.isDisposed()) {
+            return;
+        }
+
+        if (error != null) {
+            setErrorMessage(error);
+        }
+
+        if (generation != mShownGeneration) {
+            // Nothing could be generated
+            for (Control c : mPreviewArea.getChildren()) {
+                c.dispose();
+            }
+            mPreviewSlots = new ArrayList<Control>();
+            mShownGeneration = generation;
+            mPreviewArea.layout(true);
+        }
+    }
+
+    private static synchronized ExecutorService getPreviewExecutor() {
+        if (sPreviewExecutor == null) {
+            sPreviewExecutor = Executors.newFixedThreadPool(
+                    Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Asset Preview Converter"); //$NON-NLS-1$
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return sPreviewExecutor;
+    }
+
+    @Override
+    public void dispose() {
+        mPreviewGeneration++;
+        if (mPreviewJob != null) {
+            mPreviewJob.cancel();
+            mPreviewJob = null;
+        }
+
+        super.dispose();
+    }
+
+    /**
+     * Job which generates the preview images for a snapshot of the wizard state off
+     * the UI thread. Each density is generated and converted into SWT image data as a
+     * separate task on the preview executor, and each task posts its image into the
+     * preview area as soon as it is done.
+     */
+    private class PreviewJob extends Job {
+        private final CreateAssetSetWizardState mState;
+        private final int mGeneration;
+        private IProgressMonitor mMonitor;
+
+        PreviewJob(CreateAssetSetWizardState state, int generation) {
+            super("Generating icon previews");
+            mState = state;
+            mGeneration = generation;
+            setSystem(true);
+        }
+
+        @Override
+        protected IStatus run(IProgressMonitor monitor) {
+            mMonitor = monitor;
+            List<Future<?>> tasks = new ArrayList<Future<?>>();
+            try {
+                Pair<BufferedImage, String> source = createSourceImage(mState);
+                String error = source.getSecond();
+                if (error == null && createGenerator(mState.type) == null) {
+                    error = String.format("Unsupported asset type: %1$s", mState.type);
+                }
+                if (error == null) {
+                    Density[] densities = getPreviewDensities(mState.type);
+                    for (int i = 0; i < densities.length; i++) {
+                        // Each density gets a label slot followed by an image slot
+                        tasks.add(getPreviewExecutor().submit(
+                                new DensityTask(source.getFirst(), densities[i], 2 * i)));
+                    }
+
+                    // Wait for the tasks, such that the request only finishes once
+                    // all its previews have been posted
+                    for (Future<?> task : tasks) {
+                        task.get();
+                    }
+                }
+
+                final String message = error;
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        finishPreviews(mGeneration, message);
+                    }
+                });
+            } catch (OperationCanceledException e) {
+                return Status.CANCEL_STATUS;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return Status.CANCEL_STATUS;
+            } catch (ExecutionException e) {
+                AdtPlugin.log(e.getCause(), null);
+            } finally {
+                for (Future<?> task : tasks) {
+                    task.cancel(true);
+                }
+            }
+
+            return monitor.isCanceled() ? Status.CANCEL_STATUS : Status.OK_STATUS;
+        }
+
+        private void post(Runnable runnable) {
+            if (mPreviewArea.isDisposed()) {
+                throw new OperationCanceledException();
+            }
+            try {
+                mPreviewArea.getDisplay().asyncExec(runnable);
+            } catch (SWTException e) {
+                // Display disposed
+                throw new OperationCanceledException();
+            }
+        }
+
+        /** Generates, converts and shows the preview image of a single density */
+        private class DensityTask implements Runnable {
+            private final BufferedImage mSourceImage;
+            private final Density mDensity;
+            private final int mSlot;
+
+            DensityTask(BufferedImage sourceImage, Density density, int slot) {
+                mSourceImage = sourceImage;
+                mDensity = density;
+                mSlot = slot;
+            }
+
+            @Override
+            public void run() {
+                if (mMonitor.isCanceled()) {
+                    return;
+                }
+
+                // The generators update their options as they go, so each task
+                // works on options of its own
+                GraphicGenerator generator = createGenerator(mState.type);
+                GraphicGenerator.Options options = createOptions(mState,
+                        true /*previewOnly*/, mSourceImage);
+                options.density = mDensity;
+                BufferedImage image = generator.generate(mState, options);
+                if (image == null || mMonitor.isCanceled()) {
+                    return;
+                }
+
+                final ImageData data = SwtUtils.convertToSwtData(image, true, -1);
+                final String label = mDensity.getResourceValue();
+                try {
+                    post(new Runnable() {
+                        @Override
+                        public void run() {
+                            showPreview(mGeneration, mSlot, label, null);
+                            showPreview(mGeneration, mSlot + 1, null, data);
+                        }
+                    });
+                } catch (OperationCanceledException e) {
+                    // The wizard was closed
+                }
+            }
+        }
+    }
+
     /**
      * Generate images using the given wizard state
      *
@@ -1013,6 +1258,70 @@ public class ConfigureAssetSetPage extends WizardPage implements SelectionListen
         Map<String, Map<String, BufferedImage>> categoryMap =
                 new LinkedHashMap<String, Map<String, BufferedImage>>();
 
+        String error = generateImages(mValues, previewOnly, categoryMap);
+        if (page != null) {
+            page.setErrorMessage(error);
+        }
+
+        return categoryMap;
+    }
+
+    /**
+     * Generate images using the given wizard state into the given map
+     *
+     * @param mValues the state to use
+     * @param previewOnly whether we are only generating previews
+     * @param categoryMap the map to add the images to, by category and path
+     * @return an error message describing why the images could not be generated, or null
+     */
+    @Nullable
+    private static String generateImages(
+            @NonNull CreateAssetSetWizardState mValues,
+            boolean previewOnly,
+            @NonNull Map<String, Map<String, BufferedImage>> categoryMap) {
+        Pair<BufferedImage, String> source = createSourceImage(mValues);
+        if (source.getSecond() != null) {
+            return source.getSecond();
+        }
+
+        GraphicGenerator generator = createGenerator(mValues.type);
+        if (generator == null) {
+            return String.format("Unsupported asset type: %1$s", mValues.type);
+        }
+
+        GraphicGenerator.Options options = createOptions(mValues, previewOnly,
+                source.getFirst());
+        String baseName = mValues.outputName;
+        generator.generate(null, categoryMap, mValues, options, baseName);
+
+        return null;
+    }
+
+    /**
+     * Returns the densities to show previews for. These are the densities the
+     * generators provide stencils for.
+     */
+    @NonNull
+    private static Density[] getPreviewDensities(@NonNull AssetType type) {
+        if (type == AssetType.LAUNCHER) {
+            return new Density[] {
+                    Density.MEDIUM, Density.HIGH, Density.XHIGH, Density.XXHIGH
+            };
+        }
+
+        return new Density[] { Density.MEDIUM, Density.HIGH, Density.XHIGH };
+    }
+
+    /**
+     * Creates the source image described by the given wizard state
+     *
+     * @param mValues the state to use
+     * @return a pair of the source image and null, or of null and an error message
+     *         describing why the source image could not be created
+     */
+    @NonNull
+    private static Pair<BufferedImage, String> createSourceImage(
+            @NonNull CreateAssetSetWizardState mValues) {
         AssetType type = mValues.type;
         boolean trim = mValues.trim;
 
@@ -1023,48 +1332,42 @@ public class ConfigureAssetSetPage extends WizardPage implements SelectionListen
                 // TODO: Only do this when the source image type is image
                 String path = mValues.imagePath != null ? mValues.imagePath.getPath() : "";
                 if (path.length() == 0) {
-                    if (page != null) {
-                        page.setErrorMessage("Enter a filename");
-                    }
-                    return Collections.emptyMap();
+                    return Pair.<BufferedImage, String>of(null, "Enter a filename");
                 }
                 if (!path.equals(DEFAULT_LAUNCHER_ICON)) {
                     File file = new File(path);
                     if (!file.isFile()) {
-                        if (page != null) {
-                            page.setErrorMessage(String.format("%1$s does not exist", file.getPath()));
-                        }
-                        return Collections.emptyMap();
+                        return Pair.<BufferedImage, String>of(null,
+                                String.format("%1$s does not exist", file.getPath()));
                     }
                 }
 
-                if (page != null) {
-                    page.setErrorMessage(null);
-                }
                 try {
                     sourceImage = mValues.getCachedImage(path, false);
-                    if (sourceImage != null) {
-                        if (trim) {
-                            sourceImage = ImageUtils.cropBlank(sourceImage, null, TYPE_INT_ARGB);
-                        }
-                        if (mValues.padding != 0) {
-                            sourceImage = Util.paddedImage(sourceImage, mValues.padding);
-                        }
-                    }
                 } catch (IOException ioe) {
-                    if (page != null) {
-                        page.setErrorMessage(ioe.getLocalizedMessage());
-                    }
+                    return Pair.<BufferedImage, String>of(null, ioe.getLocalizedMessage());
+                }
+                if (sourceImage == null) {
+                    return Pair.<BufferedImage, String>of(null,
+                            String.format("%1$s is not a supported image", path));
+                }
+                if (trim) {
+                    sourceImage = mValues.getTrimmedImage(path, sourceImage);
+                }
+                if (mValues.padding != 0) {
+                    sourceImage = Util.paddedImage(sourceImage, mValues.padding);
                 }
                 break;
             }
             case CLIPART: {
                 try {
-                    sourceImage = GraphicGenerator.getClipartImage(mValues.clipartName);
+                    sourceImage = mValues.getCachedClipartImage(mValues.clipartName);
 
                     boolean isActionBar = mValues.type == AssetType.ACTIONBAR;
                     if (trim && !isActionBar) {
-                        sourceImage = ImageUtils.cropBlank(sourceImage, null, TYPE_INT_ARGB);
+                        sourceImage = mValues.getTrimmedImage(
+                                CreateAssetSetWizardState.CLIPART_KEY_PREFIX
+                                        + mValues.clipartName, sourceImage);
                     }
 
                     if (type.needsColors()) {
@@ -1080,7 +1383,7 @@ public class ConfigureAssetSetPage extends WizardPage implements SelectionListen
                     }
                 } catch (IOException e) {
                     AdtPlugin.log(e, null);
-                    return categoryMap;
+                    return Pair.<BufferedImage, String>of(null, e.getLocalizedMessage());
                 }
                 break;
             }
@@ -1110,11 +1413,50 @@ public class ConfigureAssetSetPage extends WizardPage implements SelectionListen
             }
         }
 
-        GraphicGenerator generator = null;
-        GraphicGenerator.Options options = null;
+        return Pair.<BufferedImage, String>of(sourceImage, null);
+    }
+
+    /**
+     * Creates the generator for the given asset type
+     *
+     * @param type the type of asset to generate
+     * @return the generator, or null if the asset type is not supported
+     */
+    @Nullable
+    private static GraphicGenerator createGenerator(@NonNull AssetType type) {
         switch (type) {
+            case LAUNCHER:
+                return new LauncherIconGenerator();
+            case MENU:
+                return new MenuIconGenerator();
+            case ACTIONBAR:
+                return new ActionBarIconGenerator();
+            case NOTIFICATION:
+                return new NotificationIconGenerator();
+            case TAB:
+                return new TabIconGenerator();
+            default:
+                AdtPlugin.log(IStatus.ERROR, "Unsupported asset type: %1$s", type);
+                return null;
+        }
+    }
+
+    /**
+     * Creates the generator options described by the given wizard state
+     *
+     * @param mValues the state to use
+     * @param previewOnly whether we are only generating previews
+     * @param sourceImage the source image to generate the icons from
+     * @return the generator options
+     */
+    @NonNull
+    private static GraphicGenerator.Options createOptions(
+            @NonNull CreateAssetSetWizardState mValues,
+            boolean previewOnly,
+            @Nullable BufferedImage sourceImage) {
+        GraphicGenerator.Options options;
+        switch (mValues.type) {
             case LAUNCHER: {
-                generator = new LauncherIconGenerator();
                 LauncherIconGenerator.LauncherOptions launcherOptions =
                         new LauncherIconGenerator.LauncherOptions();
                 launcherOptions.shape = mValues.shape;
@@ -1130,12 +1472,7 @@ public class ConfigureAssetSetPage extends WizardPage implements SelectionListen
 
                 break;
             }
-            case MENU:
-                generator = new MenuIconGenerator();
-                options = new GraphicGenerator.Options();
-                break;
             case ACTIONBAR: {
-                generator = new ActionBarIconGenerator();
                 ActionBarIconGenerator.ActionBarOptions actionBarOptions =
                         new ActionBarIconGenerator.ActionBarOptions();
                 actionBarOptions.theme = mValues.holoDark
@@ -1146,18 +1483,16 @@ public class ConfigureAssetSetPage extends WizardPage implements SelectionListen
                 options = actionBarOptions;
                 break;
             }
-            case NOTIFICATION: {
-                generator = new NotificationIconGenerator();
+            case NOTIFICATION:
                 options = new NotificationIconGenerator.NotificationOptions();
                 break;
-            }
             case TAB:
-                generator = new TabIconGenerator();
                 options = new TabIconGenerator.TabOptions();
                 break;
+            case MENU:
             default:
-                AdtPlugin.log(IStatus.ERROR, "Unsupported asset type: %1$s", type);
-                return categoryMap;
+                options = new GraphicGenerator.Options();
+                break;
         }
 
         options.sourceImage = sourceImage;
@@ -1170,12 +1505,8 @@ public class ConfigureAssetSetPage extends WizardPage implements SelectionListen
             options.minSdk = v.getFirst();
         }
 
-        String baseName = mValues.outputName;
-        generator.generate(null, categoryMap, mValues, options, baseName);
-
-        return categoryMap;
+        return options;
     }
-
     /**
      * Generate custom icons into the project based on the asset studio wizard
      * state
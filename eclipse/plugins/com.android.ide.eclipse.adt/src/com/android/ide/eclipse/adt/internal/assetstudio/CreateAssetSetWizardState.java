@@ -16,12 +16,15 @@
 package com.android.ide.eclipse.adt.internal.assetstudio;
 
 import static com.android.ide.eclipse.adt.internal.wizards.templates.NewProjectWizard.DEFAULT_LAUNCHER_ICON;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
 
 import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
 import com.android.assetstudiolib.GraphicGenerator;
 import com.android.assetstudiolib.GraphicGenerator.Shape;
 import com.android.assetstudiolib.GraphicGeneratorContext;
 import com.android.ide.eclipse.adt.AdtPlugin;
+import com.android.ide.eclipse.adt.internal.editors.layout.gle2.ImageUtils;
 import com.android.ide.eclipse.adt.internal.wizards.templates.TemplateManager;
 
 import org.eclipse.core.resources.IProject;
@@ -99,7 +102,18 @@ public class CreateAssetSetWizardState implements GraphicGeneratorContext {
     /** If {@link #sourceType} is a {@link SourceType#TEXT}, the font of the text to render */
     private Font mTextFont;
 
-    private Map<String, BufferedImage> mImageCache = null;
+    /** Prefix for clipart names in the image caches, distinguishing them from paths */
+    static final String CLIPART_KEY_PREFIX = "clipart:"; //$NON-NLS-1$
+
+    /** Decoded images, keyed by path. Shared with {@link #copy()}s; synchronize on it. */
+    private Map<String, BufferedImage> mImageCache = new HashMap<String, BufferedImage>();
+
+    /**
+     * Trimmed versions of source images, keyed by the source name. Each entry holds
+     * the source image the trimmed version was computed from, followed by the trimmed
+     * image (which may be null if the source was entirely blank).
+     */
+    private Map<String, BufferedImage[]> mTrimCache = new HashMap<String, BufferedImage[]>();
 
     /**
      * Gets the text font to be used for text rendering if the
@@ -169,18 +183,87 @@ public class CreateAssetSetWizardState implements GraphicGeneratorContext {
         }
     }
 
+    /**
+     * Creates a copy of this state. The copy shares the image caches with this state,
+     * so it can be handed to a background thread to generate previews while the
+     * wizard continues to edit this state.
+     *
+     * @return a copy of this state
+     */
+    @NonNull
+    CreateAssetSetWizardState copy() {
+        CreateAssetSetWizardState copy = new CreateAssetSetWizardState();
+        copy.type = type;
+        copy.outputName = outputName;
+        copy.minSdk = minSdk;
+        copy.project = project;
+        copy.trim = trim;
+        copy.sourceType = sourceType;
+        copy.clipartName = clipartName;
+        copy.imagePath = imagePath;
+        copy.text = text;
+        copy.padding = padding;
+        copy.shape = shape;
+        copy.crop = crop;
+        copy.holoDark = holoDark;
+        copy.background = background;
+        copy.foreground = foreground;
+        copy.mTextFont = getTextFont();
+        copy.mImageCache = mImageCache;
+        copy.mTrimCache = mTrimCache;
+        return copy;
+    }
+
+    /**
+     * Returns the given source image with blank edges cropped, reusing the result of
+     * a previous call with the same key and source image if possible
+     *
+     * @param key the name of the source image, such as its path
+     * @param image the source image
+     * @return the trimmed image, or null if the whole image is blank
+     */
+    @Nullable
+    BufferedImage getTrimmedImage(@NonNull String key, @NonNull BufferedImage image) {
+        synchronized (mTrimCache) {
+            BufferedImage[] entry = mTrimCache.get(key);
+            if (entry != null && entry[0] == image) {
+                return entry[1];
+            }
+        }
+
+        // Crop outside of the lock; in the rare case of concurrent requests for the
+        // same image both compute the same result
+        BufferedImage trimmed = ImageUtils.cropBlank(image, null, TYPE_INT_ARGB);
+        synchronized (mTrimCache) {
+            mTrimCache.put(key, new BufferedImage[] { image, trimmed });
+        }
+        return trimmed;
+    }
+
     BufferedImage getCachedImage(String path, boolean isPluginRelative)
             throws IOException {
-        BufferedImage image = mImageCache != null ? mImageCache.get(path) : null;
-        if (image == null) {
-            image = getImage(path, isPluginRelative);
-            if (mImageCache == null) {
-                mImageCache = new HashMap<String, BufferedImage>();
+        synchronized (mImageCache) {
+            BufferedImage image = mImageCache.get(path);
+            if (image == null) {
+                image = getImage(path, isPluginRelative);
+                mImageCache.put(path, image);
             }
-            mImageCache.put(path, image);
+
+            return image;
         }
+    }
 
-        return image;
+    BufferedImage getCachedClipartImage(String name) throws IOException {
+        String key = CLIPART_KEY_PREFIX + name;
+        synchronized (mImageCache) {
+            BufferedImage image = mImageCache.get(key);
+            if (image == null) {
+                image = GraphicGenerator.getClipartImage(name);
+                mImageCache.put(key, image);
+            }
+
+            return image;
+        }
     }
 
     @NonNull
@@ -76,21 +76,35 @@ public class GraphicsUtilities {
         if (image == null) {
             return null;
         }
-        ImageData result = new ImageData(image.width, image.height, image.depth,
-                image.palette);
+        return copy(image, 0, 0, image.width, image.height);
+    }
 
-        final int[] colors = new int[image.width];
-        final byte[] alpha = new byte[image.width];
+    /**
+     * Duplicate a region of the image data.
+     * @return If image is null, return null.
+     */
+    public static ImageData copy(ImageData image, int x, int y, int width, int height) {
+        if (image == null) {
+            return null;
+        }
+        if (x < 0 || y < 0 || width <= 0 || height <= 0
+                || x + width > image.width || y + height > image.height) {
+            throw new IllegalArgumentException("region must be within the image");
+        }
+        ImageData result = new ImageData(width, height, image.depth, image.palette);
 
-        for (int y = 0; y < image.height; y++) {
+        final int[] colors = new int[width];
+        final byte[] alpha = new byte[width];
+
+        for (int row = 0; row < height; row++) {
 
             // Copy pixels
-            image.getPixels(0, y, image.width, colors, 0);
-            result.setPixels(0, y, image.width, colors, 0);
+            image.getPixels(x, y + row, width, colors, 0);
+            result.setPixels(0, row, width, colors, 0);
 
             // Copy alpha
-            image.getAlphas(0, y, image.width, alpha, 0);
-            result.setAlphas(0, y, image.width, alpha, 0);
+            image.getAlphas(x, y + row, width, alpha, 0);
+            result.setAlphas(0, row, width, alpha, 0);
         }
 
         return result;
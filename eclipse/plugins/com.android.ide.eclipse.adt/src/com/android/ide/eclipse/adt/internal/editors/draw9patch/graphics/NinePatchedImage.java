@@ -26,11 +26,16 @@ import org.eclipse.swt.graphics.Rectangle;
 
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * The model of 9-patched image.
+ * <p>
+ * The ticks along the edges are kept as bitsets which are updated per edited pixel, and
+ * the patches, chunks and corruption checks are only recomputed for edges and regions
+ * which changed since they were last computed.
  */
 public class NinePatchedImage {
     private static final boolean DEBUG = false;
@@ -60,11 +65,14 @@ public class NinePatchedImage {
 
     private boolean mDirtyFlag = false;
 
-    private int[] mHorizontalPatchPixels = null;
-    private int[] mVerticalPatchPixels = null;
+    private TickRow mHorizontalPatchPixels = null;
+    private TickRow mVerticalPatchPixels = null;
 
-    private int[] mHorizontalContentPixels = null;
-    private int[] mVerticalContentPixels = null;
+    private TickRow mHorizontalContentPixels = null;
+    private TickRow mVerticalContentPixels = null;
+
+    /** Incremented whenever the patches, and therefore the chunk layout, change */
+    private int mLayoutVersion = 0;
 
     // for Prevent unexpected stretch in StretchsView
     private boolean mRedTickOnlyInHorizontalFlag = false;
@@ -87,6 +95,21 @@ public class NinePatchedImage {
     private final List<Projection> mProjectionBin = new ArrayList<Projection>(PROJECTION_BIN_SIZE);
 
     private Chunk[][] mPatchChunks = null;
+    private int mPatchChunksVersion = -1;
+
+    /** The pixel values of the image, row by row, read on first use */
+    private int[] mPixels = null;
+
+    /**
+     * Results of {@link #isHorizontalCorrupted} and {@link #isVerticalCorrupted} per
+     * region. The pixels within the image don't change while editing the ticks, so
+     * only regions whose bounds changed need to be checked again.
+     */
+    private final Map<Rectangle, Boolean> mHorizontalCorruption =
+            new HashMap<Rectangle, Boolean>();
+    private final Map<Rectangle, Boolean> mVerticalCorruption =
+            new HashMap<Rectangle, Boolean>();
+    private static final int MAX_CACHED_REGIONS = 10000;
 
     public ImageData getImageData() {
         return mBaseImageData;
@@ -142,7 +165,7 @@ public class NinePatchedImage {
 
     private Chunk getChunk() {
         if (mChunkBin.size() > 0) {
-            Chunk chunk = mChunkBin.remove(0);
+            Chunk chunk = mChunkBin.remove(mChunkBin.size() - 1);
             chunk.init();
             return chunk;
         }
@@ -165,7 +188,7 @@ public class NinePatchedImage {
 
     private Projection getProjection() {
         if (mProjectionBin.size() > 0) {
-            Projection projection = mProjectionBin.remove(0);
+            Projection projection = mProjectionBin.remove(mProjectionBin.size() - 1);
             return projection;
         }
         return new Projection();
@@ -188,14 +211,6 @@ public class NinePatchedImage {
         }
     }
 
-    private static final int[] initArray(int[] array) {
-        int len = array.length;
-        for (int i = 0; i < len; i++) {
-            array[i] = TRANSPARENT_TICK;
-        }
-        return array;
-    }
-
     /**
      * Get one pixel with alpha from the image.
      * @return packed integer value as ARGB8888
@@ -215,17 +230,25 @@ public class NinePatchedImage {
     private void initNinePatchedImage(ImageData imageData, boolean hasNinePatchExtension) {
         mBaseImageData = imageData;
         mHasNinePatchExtension = hasNinePatchExtension;
+        resetPixels();
+    }
+
+    /** Discards the state derived from the pixels of {@link #mBaseImageData} */
+    private void resetPixels() {
+        mPixels = null;
+        mHorizontalCorruption.clear();
+        mVerticalCorruption.clear();
     }
 
-    private boolean ensurePixel(int x, int y, int[] pixels, int index) {
+    private boolean ensurePixel(int x, int y, TickRow pixels, int index) {
         boolean isValid = true;
         int pixel = getPixel(mBaseImageData, x, y);
         if (!isTransparentPixel(mBaseImageData, x, y)) {
-            if (index == 0 || index == pixels.length - 1) {
+            if (index == 0 || index == pixels.length() - 1) {
                 isValid = false;
             }
             if (isValidTickColor(pixel)) {
-                pixels[index] = pixel;
+                pixels.set(index, pixel);
             } else {
                 isValid = false;
             }
@@ -235,18 +258,18 @@ public class NinePatchedImage {
         return isValid;
     }
 
-    private boolean ensureHorizontalPixel(int x, int y, int[] pixels) {
+    private boolean ensureHorizontalPixel(int x, int y, TickRow pixels) {
         return ensurePixel(x, y, pixels, x);
     }
 
-    private boolean ensureVerticalPixel(int x, int y, int[] pixels) {
+    private boolean ensureVerticalPixel(int x, int y, TickRow pixels) {
         return ensurePixel(x, y, pixels, y);
     }
 
     /**
      * Ensure that image data is 9-patch.
      */
-    public boolean ensure9Patch() {
+    public synchronized boolean ensure9Patch() {
         boolean isValid = true;
 
         int width = mBaseImageData.width;
@@ -284,13 +307,13 @@ public class NinePatchedImage {
     }
 
     private void createPatchArray() {
-        mHorizontalPatchPixels = initArray(new int[mBaseImageData.width]);
-        mVerticalPatchPixels = initArray(new int[mBaseImageData.height]);
+        mHorizontalPatchPixels = new TickRow(mBaseImageData.width);
+        mVerticalPatchPixels = new TickRow(mBaseImageData.height);
     }
 
     private void createContentArray() {
-        mHorizontalContentPixels = initArray(new int[mBaseImageData.width]);
-        mVerticalContentPixels = initArray(new int[mBaseImageData.height]);
+        mHorizontalContentPixels = new TickRow(mBaseImageData.width);
+        mVerticalContentPixels = new TickRow(mBaseImageData.height);
     }
 
     /**
@@ -300,9 +323,10 @@ public class NinePatchedImage {
      * not.
      * </p>
      */
-    public void convertToNinePatch() {
+    public synchronized void convertToNinePatch() {
         mBaseImageData = GraphicsUtilities.convertToNinePatch(mBaseImageData);
         mHasNinePatchExtension = true;
+        resetPixels();
 
         createPatchArray();
         createContentArray();
@@ -318,43 +342,36 @@ public class NinePatchedImage {
 
     /**
      * Set patch or content.
+     * @return If the pixel changed, return true
      */
-    public void setPatch(int x, int y, int color) {
+    public synchronized boolean setPatch(int x, int y, int color) {
         if (isValid(x, y)) {
+            boolean changed = false;
             if (x == 0) {
-                mVerticalPatchPixels[y] = color;
+                changed = mVerticalPatchPixels.set(y, color);
             } else if (y == 0) {
-                mHorizontalPatchPixels[x] = color;
+                changed = mHorizontalPatchPixels.set(x, color);
             } else if (x == mBaseImageData.width - 1) {
-                mVerticalContentPixels[y] = color;
+                changed = mVerticalContentPixels.set(y, color);
             } else if (y == mBaseImageData.height - 1) {
-                mHorizontalContentPixels[x] = color;
+                changed = mHorizontalContentPixels.set(x, color);
             }
 
-            // Mark as dirty
-            mDirtyFlag = true;
+            if (changed) {
+                // Mark as dirty
+                mDirtyFlag = true;
+            }
+            return changed;
         }
+        return false;
     }
 
     /**
      * Erase the pixel.
+     * @return If the pixel changed, return true
      */
-    public void erase(int x, int y) {
-        if (isValid(x, y)) {
-            int color = TRANSPARENT_TICK;
-            if (x == 0) {
-                mVerticalPatchPixels[y] = color;
-            } else if (y == 0) {
-                mHorizontalPatchPixels[x] = color;
-            } else if (x == mBaseImageData.width - 1) {
-                mVerticalContentPixels[y] = color;
-            } else if (y == mBaseImageData.height - 1) {
-                mHorizontalContentPixels[x] = color;
-            }
-
-            // Mark as dirty
-            mDirtyFlag = true;
-        }
+    public boolean erase(int x, int y) {
+        return setPatch(x, y, TRANSPARENT_TICK);
     }
 
     public List<Tick> getHorizontalPatches() {
@@ -371,51 +388,46 @@ public class NinePatchedImage {
      * @param out Add the found ticks.
      * @return If BlackTick is not found but only RedTick is found, returns true
      */
-    private static boolean findPatches(int[] pixels, List<Tick> out) {
+    private static boolean findPatches(TickRow pixels, List<Tick> out) {
         boolean redTickOnly = true;
-        Tick patch = null;
-        int len = 0;
 
-        // find patches
+        // find patches, one run of equal pixels at a time
         out.clear();
-        len = pixels.length - 1;
-        for (int i = 1; i < len; i++) {
-            int pixel = pixels[i];
+        int len = pixels.length() - 1;
+        for (int i = 1; i < len; ) {
+            int pixel = pixels.get(i);
 
-            if (redTickOnly && pixel != TRANSPARENT_TICK && pixel != RED_TICK) {
+            if (pixel == BLACK_TICK) {
                 redTickOnly = false;
             }
 
-            if (patch != null) {
-                if (patch.color != pixel) {
-                    patch.end = i;
-                    out.add(patch);
-                    patch = null;
-                }
-            }
-            if (patch == null) {
-                patch = new Tick(pixel);
-                patch.start = i;
-            }
-        }
-
-        if (patch != null) {
-            patch.end = len;
+            Tick patch = new Tick(pixel);
+            patch.start = i;
+            patch.end = pixels.nextChange(i, len);
             out.add(patch);
+            i = patch.end;
         }
+
         return redTickOnly;
     }
 
-    public void findPatches() {
+    public synchronized void findPatches() {
+        if (!mHorizontalPatchPixels.mDirty && !mVerticalPatchPixels.mDirty) {
+            return;
+        }
 
         // find horizontal patches
         mRedTickOnlyInHorizontalFlag = findPatches(mHorizontalPatchPixels, mHorizontalPatches);
+        mHorizontalPatchPixels.mDirty = false;
 
         // find vertical patches
         mRedTickOnlyInVerticalFlag = findPatches(mVerticalPatchPixels, mVerticalPatches);
+        mVerticalPatchPixels.mDirty = false;
+
+        mLayoutVersion++;
     }
 
-    public Rectangle getContentArea() {
+    public synchronized Rectangle getContentArea() {
         Tick horizontal = getContentArea(mHorizontalContents);
         Tick vertical = getContentArea(mVerticalContents);
 
@@ -489,40 +501,23 @@ public class NinePatchedImage {
         return mVerticalContents;
     }
 
-    private static void findContentArea(int[] pixels, List<Tick> out) {
-        Tick contents = null;
-        int len = 0;
-
-        // find horizontal contents area
-        out.clear();
-        len = pixels.length - 1;
-        for (int x = 1; x < len; x++) {
-            if (contents != null) {
-                if (contents.color != pixels[x]) {
-                    contents.end = x;
-                    out.add(contents);
-                    contents = null;
-                }
-            }
-            if (contents == null) {
-                contents = new Tick(pixels[x]);
-                contents.start = x;
-            }
-        }
-
-        if (contents != null) {
-            contents.end = len;
-            out.add(contents);
-        }
+    private static void findContentArea(TickRow pixels, List<Tick> out) {
+        // the content area ticks are found the same way as the patches
+        findPatches(pixels, out);
     }
 
-    public void findContentsArea() {
-
+    public synchronized void findContentsArea() {
         // find horizontal contents area
-        findContentArea(mHorizontalContentPixels, mHorizontalContents);
+        if (mHorizontalContentPixels.mDirty) {
+            findContentArea(mHorizontalContentPixels, mHorizontalContents);
+            mHorizontalContentPixels.mDirty = false;
+        }
 
         // find vertical contents area
-        findContentArea(mVerticalContentPixels, mVerticalContents);
+        if (mVerticalContentPixels.mDirty) {
+            findContentArea(mVerticalContentPixels, mVerticalContents);
+            mVerticalContentPixels.mDirty = false;
+        }
     }
 
     /**
@@ -531,43 +526,43 @@ public class NinePatchedImage {
      * The raw image data is applicable for save.
      * </p>
      */
-    public ImageData getRawImageData() {
+    public synchronized ImageData getRawImageData() {
         ImageData image = GraphicsUtilities.copy(mBaseImageData);
 
         final int width = image.width;
         final int height = image.height;
         int len = 0;
 
-        len = mHorizontalPatchPixels.length;
+        len = mHorizontalPatchPixels.length();
         for (int x = 0; x < len; x++) {
-            int pixel = mHorizontalPatchPixels[x];
+            int pixel = mHorizontalPatchPixels.get(x);
             if (pixel != TRANSPARENT_TICK) {
                 image.setAlpha(x, 0, 0xFF);
                 image.setPixel(x, 0, pixel);
             }
         }
 
-        len = mVerticalPatchPixels.length;
+        len = mVerticalPatchPixels.length();
         for (int y = 0; y < len; y++) {
-            int pixel = mVerticalPatchPixels[y];
+            int pixel = mVerticalPatchPixels.get(y);
             if (pixel != TRANSPARENT_TICK) {
                 image.setAlpha(0, y, 0xFF);
                 image.setPixel(0, y, pixel);
             }
         }
 
-        len = mHorizontalContentPixels.length;
+        len = mHorizontalContentPixels.length();
         for (int x = 0; x < len; x++) {
-            int pixel = mHorizontalContentPixels[x];
+            int pixel = mHorizontalContentPixels.get(x);
             if (pixel != TRANSPARENT_TICK) {
                 image.setAlpha(x, height - 1, 0xFF);
                 image.setPixel(x, height - 1, pixel);
             }
         }
 
-        len = mVerticalContentPixels.length;
+        len = mVerticalContentPixels.length();
         for (int y = 0; y < len; y++) {
-            int pixel = mVerticalContentPixels[y];
+            int pixel = mVerticalContentPixels.get(y);
             if (pixel != TRANSPARENT_TICK) {
                 image.setAlpha(width - 1, y, 0xFF);
                 image.setPixel(width - 1, y, pixel);
@@ -577,7 +572,7 @@ public class NinePatchedImage {
         return image;
     }
 
-    public Chunk[][] getChunks(Chunk[][] chunks) {
+    public synchronized Chunk[][] getChunks(Chunk[][] chunks) {
         int lenY = mVerticalPatches.size();
         int lenX = mHorizontalPatches.size();
 
@@ -658,7 +653,7 @@ public class NinePatchedImage {
         return chunks;
     }
 
-    public Chunk[][] getCorruptedChunks(Chunk[][] chunks) {
+    public synchronized Chunk[][] getCorruptedChunks(Chunk[][] chunks) {
         chunks = getChunks(chunks);
 
         if (chunks != null) {
@@ -670,11 +665,11 @@ public class NinePatchedImage {
                     Chunk c = chunks[yPos][xPos];
                     Rectangle r = c.rect;
                     if ((c.type & Chunk.TYPE_HORIZONTAL) != 0
-                            && isHorizontalCorrupted(mBaseImageData, r)) {
+                            && isCorrupted(r, mHorizontalCorruption, true)) {
                         c.type |= Chunk.TYPE_CORRUPT;
                     }
                     if ((c.type & Chunk.TYPE_VERTICAL) != 0
-                            && isVerticalCorrupted(mBaseImageData, r)) {
+                            && isCorrupted(r, mVerticalCorruption, false)) {
                         c.type |= Chunk.TYPE_CORRUPT;
                     }
                 }
@@ -683,39 +678,75 @@ public class NinePatchedImage {
         return chunks;
     }
 
-    private static boolean isVerticalCorrupted(ImageData data, Rectangle r) {
-        int[] column = new int[r.width];
-        int[] sample = new int[r.width];
+    /**
+     * Returns the cached result of {@link #isHorizontalCorrupted} or
+     * {@link #isVerticalCorrupted} for the region, computing it if needed.
+     */
+    private boolean isCorrupted(Rectangle r, Map<Rectangle, Boolean> cache,
+            boolean horizontal) {
+        Boolean corrupted = cache.get(r);
+        if (corrupted == null) {
+            if (mPixels == null) {
+                mPixels = getPixels(mBaseImageData);
+            }
+            int width = mBaseImageData.width;
+            corrupted = horizontal
+                    ? isHorizontalCorrupted(mPixels, width, r)
+                    : isVerticalCorrupted(mPixels, width, r);
+            if (cache.size() >= MAX_CACHED_REGIONS) {
+                cache.clear();
+            }
+            cache.put(new Rectangle(r.x, r.y, r.width, r.height), corrupted);
+        }
+        return corrupted.booleanValue();
+    }
 
-        GraphicsUtilities.getHorizontalPixels(data, r.x, r.y, r.width, column);
+    /** Reads all the pixel values of the image, row by row */
+    private static int[] getPixels(ImageData data) {
+        int[] pixels = new int[data.width * data.height];
+        for (int y = 0; y < data.height; y++) {
+            data.getPixels(0, y, data.width, pixels, y * data.width);
+        }
+        return pixels;
+    }
 
+    /** Returns true if any row of the region differs from its first row */
+    private static boolean isVerticalCorrupted(int[] pixels, int width, Rectangle r) {
+        int first = r.y * width + r.x;
         int lenY = r.y + r.height;
-        for (int y = r.y; y < lenY; y++) {
-            GraphicsUtilities.getHorizontalPixels(data, r.x, y, r.width, sample);
-            if (!Arrays.equals(column, sample)) {
-                return true;
+        for (int y = r.y + 1; y < lenY; y++) {
+            int row = y * width + r.x;
+            for (int x = 0; x < r.width; x++) {
+                if (pixels[row + x] != pixels[first + x]) {
+                    return true;
+                }
             }
         }
         return false;
     }
 
-    private static boolean isHorizontalCorrupted(ImageData data, Rectangle r) {
-        int[] column = new int[r.height];
-        int[] sample = new int[r.height];
-        GraphicsUtilities.getVerticalPixels(data, r.x, r.y, r.height, column);
-
-        int lenX = r.x + r.width;
-        for (int x = r.x; x < lenX; x++) {
-            GraphicsUtilities.getVerticalPixels(data, x, r.y, r.height, sample);
-            if (!Arrays.equals(column, sample)) {
-                return true;
+    /** Returns true if any column of the region differs from its first column */
+    private static boolean isHorizontalCorrupted(int[] pixels, int width, Rectangle r) {
+        int lenY = r.y + r.height;
+        for (int y = r.y; y < lenY; y++) {
+            int row = y * width + r.x;
+            int first = pixels[row];
+            for (int x = 1; x < r.width; x++) {
+                if (pixels[row + x] != first) {
+                    return true;
+                }
             }
         }
         return false;
     }
 
-    public Projection[][] getProjections(int width, int height, Projection[][] projections) {
-        mPatchChunks = getChunks(mPatchChunks);
+    public synchronized Projection[][] getProjections(int width, int height,
+            Projection[][] projections) {
+        // The chunks only change along with the patches
+        if (mPatchChunks == null || mPatchChunksVersion != mLayoutVersion) {
+            mPatchChunks = getChunks(mPatchChunks);
+            mPatchChunksVersion = mLayoutVersion;
+        }
         if (mPatchChunks == null) {
             return null;
         }
@@ -797,6 +828,78 @@ public class NinePatchedImage {
         return projections;
     }
 
+    /**
+     * The ticks along one edge of the image. Each pixel is either transparent, a black
+     * tick or a red tick, so the edge is stored as two bitsets.
+     */
+    private static final class TickRow {
+        private final int mLength;
+        private final long[] mBlack;
+        private final long[] mRed;
+
+        /** Whether the ticks changed since the patches were last found from them */
+        private boolean mDirty = true;
+
+        TickRow(int length) {
+            mLength = length;
+            mBlack = new long[(length + 63) >>> 6];
+            mRed = new long[(length + 63) >>> 6];
+        }
+
+        int length() {
+            return mLength;
+        }
+
+        int get(int index) {
+            long bit = 1L << index;
+            if ((mBlack[index >>> 6] & bit) != 0) {
+                return BLACK_TICK;
+            } else if ((mRed[index >>> 6] & bit) != 0) {
+                return RED_TICK;
+            }
+            return TRANSPARENT_TICK;
+        }
+
+        /**
+         * Set the tick color of a pixel. Colors other than {@link #BLACK_TICK} and
+         * {@link #RED_TICK} are stored as {@link #TRANSPARENT_TICK}.
+         * @return If the pixel changed, return true
+         */
+        boolean set(int index, int color) {
+            int word = index >>> 6;
+            long bit = 1L << index;
+            long black = color == BLACK_TICK ? mBlack[word] | bit : mBlack[word] & ~bit;
+            long red = color == RED_TICK ? mRed[word] | bit : mRed[word] & ~bit;
+            if (black == mBlack[word] && red == mRed[word]) {
+                return false;
+            }
+            mBlack[word] = black;
+            mRed[word] = red;
+            mDirty = true;
+            return true;
+        }
+
+        /**
+         * Find the end of the run of pixels with the same color starting at the given
+         * index, a word of pixels at a time.
+         * @return The index of the first pixel after start with a different color, or end
+         */
+        int nextChange(int start, int end) {
+            long black = get(start) == BLACK_TICK ? -1L : 0L;
+            long red = get(start) == RED_TICK ? -1L : 0L;
+            int i = start + 1;
+            while (i < end) {
+                int word = i >>> 6;
+                long changes = ((mBlack[word] ^ black) | (mRed[word] ^ red)) & (-1L << i);
+                if (changes != 0) {
+                    return Math.min((word << 6) + Long.numberOfTrailingZeros(changes), end);
+                }
+                i = (word + 1) << 6;
+            }
+            return end;
+        }
+    }
+
     /**
      * Projection class for make relation between chunked image and resized image.
      */
@@ -272,18 +272,20 @@ public class ImageViewer extends Canvas implements PaintListener, KeyListener, M
         } else {
             int color = (drawMode == MODE_RED_TICK) ? NinePatchedImage.RED_TICK
                     : NinePatchedImage.BLACK_TICK;
-            mNinePatchedImage.setPatch(x, y, color);
-            redraw();
+            if (mNinePatchedImage.setPatch(x, y, color)) {
+                redraw();
 
-            scheduleUpdate();
+                scheduleUpdate();
+            }
         }
     }
 
     private void erase(int x, int y) {
-        mNinePatchedImage.erase(x, y);
-        redraw();
+        if (mNinePatchedImage.erase(x, y)) {
+            redraw();
 
-        scheduleUpdate();
+            scheduleUpdate();
+        }
     }
 
     private void scheduleUpdate() {
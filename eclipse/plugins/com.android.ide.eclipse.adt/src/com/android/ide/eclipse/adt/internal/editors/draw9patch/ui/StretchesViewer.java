@@ -24,10 +24,10 @@ import com.android.ide.eclipse.adt.internal.editors.draw9patch.graphics.NinePatc
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.PaintEvent;
 import org.eclipse.swt.events.PaintListener;
+import org.eclipse.swt.graphics.Color;
 import org.eclipse.swt.graphics.GC;
 import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.graphics.ImageData;
-import org.eclipse.swt.graphics.PaletteData;
 import org.eclipse.swt.graphics.Point;
 import org.eclipse.swt.graphics.RGB;
 import org.eclipse.swt.graphics.Rectangle;
@@ -35,19 +35,22 @@ import org.eclipse.swt.layout.FillLayout;
 import org.eclipse.swt.widgets.Canvas;
 import org.eclipse.swt.widgets.Composite;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Preview 9-patched image pane.
+ * <p>
+ * Each view caches the stretched image of every patch region as a tile, so editing the
+ * ticks only rebuilds the tiles whose source region or stretched size changed.
  */
 public class StretchesViewer extends Composite {
     private static final boolean DEBUG = false;
 
-    private static final int PADDING_COLOR = 0x0000CC;
+    private static final RGB PADDING_COLOR = new RGB(0x00, 0x00, 0xCC);
 
     private static final int PADDING_COLOR_ALPHA = 100;
 
-    private static final PaletteData PADDING_PALLET
-            = new PaletteData(new RGB[] {new RGB(0x00, 0x00, 0xCC)});
-
     private static final String CHECKER_PNG_PATH = "/icons/checker.png";
 
     private Image mBackgroundLayer = null;
@@ -59,11 +62,12 @@ public class StretchesViewer extends Composite {
 
     private NinePatchedImage mNinePatchedImage = null;
 
-    private ImageData mContentAreaImageData = null;
+    /** The image data the tiles of the views were created from */
+    private ImageData mTileSource = null;
 
     private boolean mIsContentAreaShown = false;
 
-    private Image mContentAreaImage = null;
+    private final Color mPaddingColor;
 
     private int mScale = 2;
 
@@ -71,6 +75,7 @@ public class StretchesViewer extends Composite {
         super(parent, style);
 
         mBackgroundLayer = AdtPlugin.getImageDescriptor(CHECKER_PNG_PATH).createImage();
+        mPaddingColor = new Color(parent.getDisplay(), PADDING_COLOR);
 
         setLayout(new FillLayout(SWT.VERTICAL));
 
@@ -88,55 +93,24 @@ public class StretchesViewer extends Composite {
         redraw();
     }
 
-    private static final boolean equalSize(ImageData image1, ImageData image2) {
-        return (image1.width == image2.width && image1.height == image2.height);
-    }
-
     /**
      * Update preview image.
      */
     public void updatePreview(NinePatchedImage image) {
         mNinePatchedImage = image;
-        ImageData base = mNinePatchedImage.getImageData();
 
-        if (mContentAreaImageData == null
-                || (mContentAreaImageData != null && !equalSize(base, mContentAreaImageData))) {
-            mContentAreaImageData = new ImageData(
-                    base.width,
-                    base.height,
-                    1,
-                    PADDING_PALLET);
-        } else {
-            GraphicsUtilities.clearImageData(mContentAreaImageData);
+        // The pixels only change when another image is loaded or converted
+        ImageData base = mNinePatchedImage.getImageData();
+        if (base != mTileSource) {
+            mTileSource = base;
+            mHorizontal.disposeTiles();
+            mVertical.disposeTiles();
+            mBoth.disposeTiles();
         }
 
-        mHorizontal.setImage(mNinePatchedImage);
-        mVertical.setImage(mNinePatchedImage);
-        mBoth.setImage(mNinePatchedImage);
-
-        mContentAreaImage = buildContentAreaPreview();
-
         setScale(mScale);
     }
 
-    private Image buildContentAreaPreview() {
-        if (mContentAreaImage != null) {
-            mContentAreaImage.dispose();
-        }
-
-        Rectangle rect = mNinePatchedImage.getContentArea();
-
-        int yLen = rect.y + rect.height;
-        for (int y = rect.y; y < yLen; y++) {
-            int xLen = rect.x + rect.width;
-            for (int x = rect.x; x < xLen; x++) {
-                mContentAreaImageData.setPixel(x, y, PADDING_COLOR);
-                mContentAreaImageData.setAlpha(x, y, PADDING_COLOR_ALPHA);
-            }
-        }
-        return new Image(AdtPlugin.getDisplay(), mContentAreaImageData);
-    }
-
     public void setScale(int scale) {
         if (DEBUG) {
             System.out.println("scale = " + scale);
@@ -156,22 +130,80 @@ public class StretchesViewer extends Composite {
     @Override
     public void dispose() {
         mBackgroundLayer.dispose();
+        mPaddingColor.dispose();
+        mHorizontal.disposeTiles();
+        mVertical.disposeTiles();
+        mBoth.disposeTiles();
         super.dispose();
     }
 
+    /** Key of a tile: the source region of a patch, and the size it is stretched to */
+    private static final class TileKey {
+        private final int mX;
+        private final int mY;
+        private final int mWidth;
+        private final int mHeight;
+        private final int mDestWidth;
+        private final int mDestHeight;
+
+        TileKey(Rectangle src, int destWidth, int destHeight) {
+            mX = src.x;
+            mY = src.y;
+            mWidth = src.width;
+            mHeight = src.height;
+            mDestWidth = destWidth;
+            mDestHeight = destHeight;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof TileKey)) {
+                return false;
+            }
+            TileKey other = (TileKey) obj;
+            return mX == other.mX && mY == other.mY && mWidth == other.mWidth
+                    && mHeight == other.mHeight && mDestWidth == other.mDestWidth
+                    && mDestHeight == other.mDestHeight;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = mX;
+            hash = 31 * hash + mY;
+            hash = 31 * hash + mWidth;
+            hash = 31 * hash + mHeight;
+            hash = 31 * hash + mDestWidth;
+            hash = 31 * hash + mDestHeight;
+            return hash;
+        }
+    }
+
     private class StretchView extends Canvas implements PaintListener {
 
         private final Point mSize = new Point(0, 0);
         private final Rectangle mPadding = new Rectangle(0, 0, 0, 0);
         private Projection[][] mProjection = null;
 
+        /** The tiles drawn in the last paint */
+        private Map<TileKey, Image> mTiles = new HashMap<TileKey, Image>();
+
         public StretchView(Composite parent, int style) {
             super(parent, style);
             addPaintListener(this);
         }
 
-        private void setImage(NinePatchedImage image) {
-            setSize(image.getWidth(), image.getHeight());
+        private void disposeTiles() {
+            for (Image tile : mTiles.values()) {
+                tile.dispose();
+            }
+            mTiles.clear();
+        }
+
+        /** Stretch the source region of the image to the given size */
+        private Image createTile(Rectangle src, int width, int height) {
+            ImageData region = GraphicsUtilities.copy(mNinePatchedImage.getImageData(),
+                    src.x, src.y, src.width, src.height);
+            return new Image(getDisplay(), region.scaledTo(width, height));
         }
 
         @Override
@@ -237,6 +269,13 @@ public class StretchesViewer extends Composite {
             gc.drawRectangle(0, 0, size.x, size.y);
             gc.setAlpha(0xFF);
 
+            Rectangle contentArea = mIsContentAreaShown
+                    ? mNinePatchedImage.getContentArea() : null;
+
+            // Reuse the tiles whose region and size didn't change since the last paint,
+            // and dispose the ones which are no longer used afterwards
+            Map<TileKey, Image> tiles = new HashMap<TileKey, Image>(2 * mTiles.size());
+
             int yLen = mProjection.length;
             int xLen = mProjection[0].length;
             for (int yPos = 0; yPos < yLen; yPos++) {
@@ -249,19 +288,50 @@ public class StretchesViewer extends Composite {
                     dest.width = (int) Math.ceil(p.dest.width * ratio);
                     dest.height = (int) Math.ceil(p.dest.height * ratio);
 
-                    gc.drawImage(mNinePatchedImage.getImage(), p.src.x, p.src.y,
-                            p.src.width, p.src.height,
-                            (mPadding.x + dest.x), (mPadding.y + dest.y),
-                            dest.width, dest.height);
+                    if (dest.width <= 0 || dest.height <= 0
+                            || p.src.width <= 0 || p.src.height <= 0) {
+                        continue;
+                    }
+
+                    TileKey key = new TileKey(p.src, dest.width, dest.height);
+                    Image tile = mTiles.remove(key);
+                    if (tile == null) {
+                        tile = tiles.get(key);
+                    }
+                    if (tile == null) {
+                        tile = createTile(p.src, dest.width, dest.height);
+                    }
+                    tiles.put(key, tile);
+
+                    gc.drawImage(tile, (mPadding.x + dest.x), (mPadding.y + dest.y));
 
-                    if (mIsContentAreaShown) {
-                        gc.drawImage(mContentAreaImage, p.src.x, p.src.y,
-                                p.src.width, p.src.height,
-                                (mPadding.x + dest.x), (mPadding.y + dest.y),
-                                dest.width, dest.height);
+                    if (contentArea != null) {
+                        drawContentArea(gc, contentArea, p.src, dest);
                     }
                 }
             }
+
+            disposeTiles();
+            mTiles = tiles;
+        }
+
+        /** Draw the part of the content area within the source region, stretched */
+        private void drawContentArea(GC gc, Rectangle contentArea, Rectangle src,
+                Rectangle dest) {
+            Rectangle area = src.intersection(contentArea);
+            if (area.isEmpty()) {
+                return;
+            }
+
+            int x1 = dest.x + (area.x - src.x) * dest.width / src.width;
+            int x2 = dest.x + (area.x + area.width - src.x) * dest.width / src.width;
+            int y1 = dest.y + (area.y - src.y) * dest.height / src.height;
+            int y2 = dest.y + (area.y + area.height - src.y) * dest.height / src.height;
+
+            gc.setBackground(mPaddingColor);
+            gc.setAlpha(PADDING_COLOR_ALPHA);
+            gc.fillRectangle(mPadding.x + x1, mPadding.y + y1, x2 - x1, y2 - y1);
+            gc.setAlpha(0xFF);
         }
     }
 }
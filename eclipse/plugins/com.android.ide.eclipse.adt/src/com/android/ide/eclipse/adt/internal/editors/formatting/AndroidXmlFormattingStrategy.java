@@ -44,8 +44,13 @@ import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IWorkspace;
 import org.eclipse.core.resources.IWorkspaceRoot;
 import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension4;
 import org.eclipse.jface.text.IRegion;
 import org.eclipse.jface.text.TextUtilities;
 import org.eclipse.jface.text.TypedPosition;
@@ -53,7 +58,9 @@ import org.eclipse.jface.text.formatter.ContextBasedFormattingStrategy;
 import org.eclipse.jface.text.formatter.IFormattingContext;
 import org.eclipse.text.edits.MultiTextEdit;
 import org.eclipse.text.edits.ReplaceEdit;
+import org.eclipse.swt.widgets.Display;
 import org.eclipse.text.edits.TextEdit;
+import org.eclipse.ui.PlatformUI;
 import org.eclipse.ui.texteditor.ITextEditor;
 import org.eclipse.wst.sse.core.StructuredModelManager;
 import org.eclipse.wst.sse.core.internal.provisional.IModelManager;
@@ -81,8 +88,8 @@ import java.util.Queue;
  * Formatter which formats XML content according to the established Android coding
  * conventions. It performs the format by computing the smallest set of DOM nodes
  * overlapping the formatted region, then it pretty-prints that XML region
- * using the {@link EclipseXmlPrettyPrinter}, and then it replaces the affected region
- * by the pretty-printed region.
+ * using the {@link EclipseXmlPrettyPrinter}, and then it replaces the lines in the
+ * affected region which differ from the pretty-printed region.
  * <p>
  * This strategy is also used for delegation. If the user has chosen to use the
  * standard Eclipse XML formatter, this strategy simply delegates to the
@@ -90,6 +97,12 @@ import java.util.Queue;
  */
 @SuppressWarnings("restriction")
 public class AndroidXmlFormattingStrategy extends ContextBasedFormattingStrategy {
+    /**
+     * Length of the documents above which a format of the whole document is computed by
+     * a background job
+     */
+    private static final int BACKGROUND_FORMAT_SIZE = 100000;
+
     private IRegion mRegion;
     private final Queue<IDocument> mDocuments = new LinkedList<IDocument>();
     private final LinkedList<TypedPosition> mPartitions = new LinkedList<TypedPosition>();
@@ -138,6 +151,10 @@ public class AndroidXmlFormattingStrategy extends ContextBasedFormattingStrategy
                     IStructuredModel model = modelManager.getModelForEdit(structuredDocument);
                     if (model != null) {
                         try {
+                            if (scheduleFormat(model, mRegion.getOffset(),
+                                    mRegion.getLength())) {
+                                return;
+                            }
                             TextEdit edit = format(model, mRegion.getOffset(),
                                     mRegion.getLength());
                             if (edit != null) {
@@ -357,7 +374,7 @@ public class AndroidXmlFormattingStrategy extends ContextBasedFormattingStrategy
         ReplaceEdit replaceEdit = createReplaceEdit(document, replaceStart, replaceEnd, formatted,
                 prefs);
         if (replaceEdit != null) {
-            edit.addChild(replaceEdit);
+            addLineEdits(document, replaceEdit, edit);
         }
 
         // Attempt to fix the selection range since otherwise, with the document shifting
@@ -374,6 +391,150 @@ public class AndroidXmlFormattingStrategy extends ContextBasedFormattingStrategy
         return edit;
     }
 
+    /**
+     * Adds edits equivalent to the given replace edit to the given parent edit, split up
+     * such that only the lines whose indentation or attribute layout actually changes are
+     * touched. This keeps the document changes (and the resulting reparsing, undo
+     * records and annotation updates) small when reformatting large files which are
+     * mostly formatted already.
+     *
+     * @param document the document to be edited
+     * @param replaceEdit the edit replacing the region with its formatted text
+     * @param parent the edit to add the line edits to
+     */
+    @VisibleForTesting
+    static void addLineEdits(IDocument document, ReplaceEdit replaceEdit,
+            TextEdit parent) {
+        int offset = replaceEdit.getOffset();
+        String before;
+        try {
+            before = document.get(offset, replaceEdit.getLength());
+        } catch (BadLocationException e) {
+            AdtPlugin.log(e, null);
+            parent.addChild(replaceEdit);
+            return;
+        }
+
+        for (ReplaceEdit edit : LineDiff.computeEdits(before, replaceEdit.getText(), offset)) {
+            parent.addChild(edit);
+        }
+    }
+
+    /**
+     * Schedules a background job formatting the whole document of the given model, if
+     * the given range covers a large document. The job pretty prints a snapshot of the
+     * document, and the resulting edits are only applied if the document has not been
+     * modified in the meantime.
+     *
+     * @param model the model to be formatted
+     * @param start the starting offset
+     * @param length the length of the text range to be formatted
+     * @return true if the format was scheduled, false if it should be performed directly
+     */
+    private static boolean scheduleFormat(IStructuredModel model, int start, int length) {
+        IStructuredDocument document = model.getStructuredDocument();
+        if (start > 0 || length < document.getLength()
+                || document.getLength() <= BACKGROUND_FORMAT_SIZE
+                || !(model instanceof IDOMModel)
+                || !(document instanceof IDocumentExtension4)
+                || Display.getCurrent() == null) {
+            return false;
+        }
+
+        String text = document.get();
+        long stamp = ((IDocumentExtension4) document).getModificationStamp();
+        XmlFormatStyle style = guessStyle(model, ((IDOMModel) model).getDocument());
+        XmlFormatPreferences prefs = EclipseXmlFormatPreferences.create();
+        String delimiter = TextUtilities.getDefaultLineDelimiter(document);
+        new FormatJob(document, text, stamp, style, prefs, delimiter).schedule();
+        return true;
+    }
+
+    /**
+     * Job which formats a snapshot of a whole document, and applies the changes in a
+     * single batch on the UI thread if the document is still the same
+     */
+    private static class FormatJob extends Job {
+        private final IStructuredDocument mDocument;
+        private final String mText;
+        private final long mStamp;
+        private final XmlFormatStyle mStyle;
+        private final XmlFormatPreferences mPrefs;
+        private final String mDelimiter;
+
+        FormatJob(IStructuredDocument document, String text, long stamp,
+                XmlFormatStyle style, XmlFormatPreferences prefs, String delimiter) {
+            super("Formatting XML");
+            mDocument = document;
+            mText = text;
+            mStamp = stamp;
+            mStyle = style;
+            mPrefs = prefs;
+            mDelimiter = delimiter;
+        }
+
+        @Override
+        protected IStatus run(IProgressMonitor monitor) {
+            Document domDocument = DomUtilities.parseStructuredDocument(mText);
+            if (domDocument == null || monitor.isCanceled()) {
+                return Status.CANCEL_STATUS;
+            }
+
+            XmlPrettyPrinter printer = new EclipseXmlPrettyPrinter(mPrefs, mStyle, mDelimiter);
+            printer.setEndWithNewline(mText.endsWith("\n")); //$NON-NLS-1$
+            StringBuilder sb = new StringBuilder(mText.length());
+            printer.prettyPrint(-1, domDocument, domDocument, domDocument, sb, false);
+            if (monitor.isCanceled()) {
+                return Status.CANCEL_STATUS;
+            }
+
+            IDocument snapshot = new org.eclipse.jface.text.Document(mText);
+            ReplaceEdit replaceEdit = createReplaceEdit(snapshot, 0, mText.length(),
+                    sb.toString(), mPrefs);
+            if (replaceEdit == null) {
+                // Already formatted
+                return Status.OK_STATUS;
+            }
+            final MultiTextEdit edit = new MultiTextEdit();
+            addLineEdits(snapshot, replaceEdit, edit);
+
+            Display display = PlatformUI.getWorkbench().getDisplay();
+            display.asyncExec(new Runnable() {
+                @Override
+                public void run() {
+                    apply(edit);
+                }
+            });
+
+            return Status.OK_STATUS;
+        }
+
+        private void apply(TextEdit edit) {
+            if (((IDocumentExtension4) mDocument).getModificationStamp() != mStamp) {
+                // Edited since the snapshot was taken: the edits no longer apply
+                return;
+            }
+
+            IModelManager modelManager = StructuredModelManager.getModelManager();
+            IStructuredModel model = modelManager.getModelForEdit(mDocument);
+            if (model == null) {
+                return;
+            }
+            try {
+                model.aboutToChangeModel();
+                try {
+                    edit.apply(mDocument);
+                } finally {
+                    model.changedModel();
+                }
+            } catch (BadLocationException e) {
+                AdtPlugin.log(e, "Formatting error");
+            } finally {
+                model.releaseFromEdit();
+            }
+        }
+    }
+
     /**
      * Create a {@link ReplaceEdit} which replaces the text in the given document with the
      * given new formatted content. The replaceStart and replaceEnd parameters point to
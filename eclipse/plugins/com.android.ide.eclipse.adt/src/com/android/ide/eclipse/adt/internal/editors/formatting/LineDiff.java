@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ide.eclipse.adt.internal.editors.formatting;
+
+import com.android.annotations.NonNull;
+
+import org.eclipse.text.edits.ReplaceEdit;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Computes a small set of {@link ReplaceEdit}s which turn one version of a text
+ * into another, where the two versions are expected to differ mostly in whitespace,
+ * such as the original and the pretty printed version of an XML document.
+ * <p/>
+ * Lines are matched up by their content with leading and trailing whitespace
+ * removed. Matching lines which differ only in indentation get an edit for just
+ * the whitespace, and runs of lines which were split or joined (for example when
+ * attributes are moved onto separate lines) get a single edit narrowed down to the
+ * characters which actually differ. This keeps the number of changed characters in
+ * the document proportional to the formatting changes rather than to the size of
+ * the formatted region.
+ */
+class LineDiff {
+    /**
+     * The maximum number of lines to look ahead on either side to find matching
+     * lines again after a difference
+     */
+    private static final int MAX_LOOKAHEAD = 100;
+
+    private final CharSequence mBefore;
+    private final CharSequence mAfter;
+    private final int[] mBeforeLines;
+    private final int[] mAfterLines;
+    private final int[] mBeforeHashes;
+    private final int[] mAfterHashes;
+    private final int mOffset;
+    private final List<ReplaceEdit> mEdits = new ArrayList<ReplaceEdit>();
+
+    private LineDiff(@NonNull CharSequence before, @NonNull CharSequence after, int offset) {
+        mBefore = before;
+        mAfter = after;
+        mOffset = offset;
+        mBeforeLines = findLineStarts(before);
+        mAfterLines = findLineStarts(after);
+        mBeforeHashes = computeHashes(before, mBeforeLines);
+        mAfterHashes = computeHashes(after, mAfterLines);
+    }
+
+    /**
+     * Computes the edits which turn the before text into the after text
+     *
+     * @param before the original text
+     * @param after the new text
+     * @param offset the offset of the original text in the document the edits
+     *            will be applied to
+     * @return a list of non-overlapping edits, in document order
+     */
+    @NonNull
+    static List<ReplaceEdit> computeEdits(@NonNull CharSequence before,
+            @NonNull CharSequence after, int offset) {
+        LineDiff diff = new LineDiff(before, after, offset);
+        diff.compute();
+        return diff.mEdits;
+    }
+
+    private void compute() {
+        int beforeCount = mBeforeLines.length - 1;
+        int afterCount = mAfterLines.length - 1;
+        int i = 0;
+        int j = 0;
+        while (i < beforeCount && j < afterCount) {
+            if (sameContent(i, j)) {
+                addEdit(i, i + 1, j, j + 1);
+                i++;
+                j++;
+                continue;
+            }
+
+            // Look for the nearest pair of lines where the two texts are back in sync,
+            // trying the smallest total number of skipped lines first
+            boolean found = false;
+            search:
+            for (int distance = 1; distance <= 2 * MAX_LOOKAHEAD; distance++) {
+                for (int skipBefore = Math.max(0, distance - MAX_LOOKAHEAD);
+                        skipBefore <= Math.min(distance, MAX_LOOKAHEAD); skipBefore++) {
+                    int skipAfter = distance - skipBefore;
+                    if (isSynchronized(i + skipBefore, j + skipAfter)) {
+                        addEdit(i, i + skipBefore, j, j + skipAfter);
+                        i += skipBefore;
+                        j += skipAfter;
+                        found = true;
+                        break search;
+                    }
+                }
+            }
+            if (!found) {
+                break;
+            }
+        }
+
+        // Replace whatever remains as a single edit
+        addEdit(i, beforeCount, j, afterCount);
+    }
+
+    private boolean isSynchronized(int i, int j) {
+        int beforeCount = mBeforeLines.length - 1;
+        int afterCount = mAfterLines.length - 1;
+        if (i > beforeCount || j > afterCount) {
+            return false;
+        }
+        if (i == beforeCount || j == afterCount) {
+            return i == beforeCount && j == afterCount;
+        }
+
+        // Require two consecutive matching lines (unless at the end), since lines
+        // like blank lines and closing tags match in lots of places
+        return sameContent(i, j)
+                && (i + 1 == beforeCount || j + 1 == afterCount || sameContent(i + 1, j + 1));
+    }
+
+    /**
+     * Adds an edit replacing the lines [beforeStart, beforeEnd) of the before text with
+     * the lines [afterStart, afterEnd) of the after text, narrowed down to the range
+     * which actually differs, if any
+     */
+    private void addEdit(int beforeStart, int beforeEnd, int afterStart, int afterEnd) {
+        int bs = mBeforeLines[beforeStart];
+        int be = mBeforeLines[beforeEnd];
+        int as = mAfterLines[afterStart];
+        int ae = mAfterLines[afterEnd];
+
+        while (bs < be && as < ae && mBefore.charAt(bs) == mAfter.charAt(as)) {
+            bs++;
+            as++;
+        }
+        while (be > bs && ae > as && mBefore.charAt(be - 1) == mAfter.charAt(ae - 1)) {
+            be--;
+            ae--;
+        }
+        if (bs == be && as == ae) {
+            return;
+        }
+
+        mEdits.add(new ReplaceEdit(mOffset + bs, be - bs,
+                mAfter.subSequence(as, ae).toString()));
+    }
+
+    private boolean sameContent(int i, int j) {
+        if (mBeforeHashes[i] != mAfterHashes[j]) {
+            return false;
+        }
+
+        int bs = mBeforeLines[i];
+        int be = mBeforeLines[i + 1];
+        int as = mAfterLines[j];
+        int ae = mAfterLines[j + 1];
+        while (bs < be && Character.isWhitespace(mBefore.charAt(bs))) {
+            bs++;
+        }
+        while (be > bs && Character.isWhitespace(mBefore.charAt(be - 1))) {
+            be--;
+        }
+        while (as < ae && Character.isWhitespace(mAfter.charAt(as))) {
+            as++;
+        }
+        while (ae > as && Character.isWhitespace(mAfter.charAt(ae - 1))) {
+            ae--;
+        }
+        if (be - bs != ae - as) {
+            return false;
+        }
+        for (; bs < be; bs++, as++) {
+            if (mBefore.charAt(bs) != mAfter.charAt(as)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the offsets of the beginnings of the lines in the given text, followed
+     * by the length of the text. Each line includes its line terminator.
+     */
+    private static int[] findLineStarts(CharSequence s) {
+        int length = s.length();
+        int count = 1;
+        for (int i = 0; i < length; i++) {
+            if (s.charAt(i) == '\n' && i < length - 1) {
+                count++;
+            }
+        }
+
+        int[] starts = new int[length > 0 ? count + 1 : 1];
+        int line = 1;
+        for (int i = 0; i < length - 1; i++) {
+            if (s.charAt(i) == '\n') {
+                starts[line++] = i + 1;
+            }
+        }
+        starts[starts.length - 1] = length;
+
+        return starts;
+    }
+
+    /** Computes hash codes of the lines with leading and trailing whitespace removed */
+    private static int[] computeHashes(CharSequence s, int[] lineStarts) {
+        int[] hashes = new int[lineStarts.length - 1];
+        for (int line = 0; line < hashes.length; line++) {
+            int start = lineStarts[line];
+            int end = lineStarts[line + 1];
+            while (start < end && Character.isWhitespace(s.charAt(start))) {
+                start++;
+            }
+            while (end > start && Character.isWhitespace(s.charAt(end - 1))) {
+                end--;
+            }
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + s.charAt(i);
+            }
+            hashes[line] = hash;
+        }
+
+        return hashes;
+    }
+}
@@ -17,15 +17,24 @@ package com.android.ide.eclipse.adt.internal.editors.layout.gle2;
 
 import static com.android.SdkConstants.CLASS_VIEW;
 import static com.android.SdkConstants.CLASS_VIEWGROUP;
+import static com.android.SdkConstants.DOT_JAVA;
 import static com.android.SdkConstants.FN_FRAMEWORK_LIBRARY;
 
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.annotations.VisibleForTesting;
 import com.android.ide.eclipse.adt.AdtPlugin;
 import com.android.ide.eclipse.adt.internal.project.BaseProjectHelper;
 import com.android.ide.eclipse.adt.internal.sdk.ProjectState;
 import com.android.ide.eclipse.adt.internal.sdk.Sdk;
 import com.android.utils.Pair;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
 
 import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspaceRoot;
+import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
@@ -34,35 +43,51 @@ import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.runtime.QualifiedName;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jdt.core.ElementChangedEvent;
 import org.eclipse.jdt.core.Flags;
+import org.eclipse.jdt.core.IClasspathEntry;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IElementChangedListener;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IJavaElementDelta;
 import org.eclipse.jdt.core.IJavaProject;
 import org.eclipse.jdt.core.IMethod;
 import org.eclipse.jdt.core.IPackageFragment;
+import org.eclipse.jdt.core.IPackageFragmentRoot;
 import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.ITypeHierarchy;
+import org.eclipse.jdt.core.JavaCore;
 import org.eclipse.jdt.core.JavaModelException;
-import org.eclipse.jdt.core.search.IJavaSearchConstants;
-import org.eclipse.jdt.core.search.IJavaSearchScope;
-import org.eclipse.jdt.core.search.SearchEngine;
-import org.eclipse.jdt.core.search.SearchMatch;
-import org.eclipse.jdt.core.search.SearchParticipant;
-import org.eclipse.jdt.core.search.SearchPattern;
-import org.eclipse.jdt.core.search.SearchRequestor;
-import org.eclipse.jdt.internal.core.ResolvedBinaryType;
-import org.eclipse.jdt.internal.core.ResolvedSourceType;
 import org.eclipse.swt.widgets.Display;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
 
 /**
  * The {@link CustomViewFinder} can look up the custom views and third party views
  * available for a given project.
+ * <p>
+ * The views are kept in an index of the {@code View} subclasses of the project and its
+ * library projects. The index is built once from a type hierarchy of {@code View}, and
+ * is then kept up to date from Java element changes: saving a source file only rescans
+ * the types of that file, while classpath changes rebuild the index in the background.
+ * The index is stored in the working location of the project along with the timestamp
+ * and size of each source file, such that the views are available right away in the
+ * next session. Source files changed since are rescanned when the index is read, and
+ * classpath changes discard it. The index is only read and built by a background job.
  */
-@SuppressWarnings("restriction") // JDT model access for custom-view class lookup
 public class CustomViewFinder {
     /**
      * Qualified name for the per-project non-persistent property storing the
@@ -71,6 +96,22 @@ public class CustomViewFinder {
     private final static QualifiedName CUSTOM_VIEW_FINDER = new QualifiedName(AdtPlugin.PLUGIN_ID,
             "viewfinder"); //$NON-NLS-1$
 
+    /** Name of the file in the working location of the project storing the index */
+    private static final String INDEX_FILE = "customviews.txt"; //$NON-NLS-1$
+
+    /** Version of the format of {@link #INDEX_FILE}, stored on its first line */
+    private static final String INDEX_VERSION = "3"; //$NON-NLS-1$
+
+    /** Delay in ms before updating the index after a Java change, to batch up changes */
+    private static final long UPDATE_DELAY = 500;
+
+    /** Finders whose index is kept up to date from Java element changes */
+    private static final Set<CustomViewFinder> sIndexed =
+            Collections.newSetFromMap(new WeakHashMap<CustomViewFinder, Boolean>());
+
+    /** Listener forwarding Java element changes to the finders in {@link #sIndexed} */
+    private static IElementChangedListener sListener;
+
     /** Project that this view finder locates views for */
     private final IProject mProject;
 
@@ -80,6 +121,51 @@ public class CustomViewFinder {
     private List<String> mThirdPartyViews;
     private boolean mRefreshing;
 
+    /** Job building and updating the index */
+    private final FindViewsJob mJob = new FindViewsJob();
+
+    // The index, guarded by this finder. The index is null until built or read.
+
+    /**
+     * Map from the path of each compilation unit of the project and its library projects
+     * to the custom views declared in it
+     */
+    private Map<String, List<String>> mSourceViews;
+
+    /** The third party views of the jars on the classpath */
+    private List<String> mBinaryViews;
+
+    /** The custom views and third party views which are view groups */
+    private Set<String> mLayouts;
+
+    /**
+     * Map from the path of each Java file in the source folders of the project and its
+     * library projects to its timestamp and size when it was last scanned, or null if
+     * these could not be determined
+     */
+    private Map<String, String> mStamps;
+
+    /** Signature of the classpaths the index is for, or null if not known */
+    private String mClasspathSignature;
+
+    /**
+     * The project and its library projects. Set when the index is first loaded, at
+     * which point Java element changes start being recorded.
+     */
+    private Set<IProject> mProjects;
+
+    /** Whether the index should be built from scratch by the next run of {@link #mJob} */
+    private boolean mRebuild;
+
+    /** Compilation units to be rescanned by {@link #mJob} */
+    private final Set<ICompilationUnit> mPendingUnits = new LinkedHashSet<ICompilationUnit>();
+
+    /**
+     * Paths of the compilation units, and of the packages, which were removed since the
+     * last run of {@link #mJob}
+     */
+    private final Set<String> mPendingRemovals = new HashSet<String>();
+
     /**
      * Constructs an {@link CustomViewFinder} for the given project. Don't use this method;
      * use the {@link #get} factory method instead.
@@ -116,10 +202,22 @@ public class CustomViewFinder {
         return finder;
     }
 
+    /**
+     * Rebuilds the index of views from scratch, and waits for it to finish. If the index
+     * has not been loaded yet, the index stored in the previous session is used if it
+     * is still up to date.
+     */
     public void refresh() {
         refresh(null /*listener*/, true /* sync */);
     }
 
+    /**
+     * Rebuilds the index of views from scratch in the background. If the index has not
+     * been loaded yet, the index stored in the previous session is used if it is still
+     * up to date.
+     *
+     * @param listener the listener to notify when done
+     */
     public void refresh(final Listener listener) {
         refresh(listener, false /* sync */);
     }
@@ -128,56 +226,75 @@ public class CustomViewFinder {
         // Add this listener to the list of listeners which should be notified when the
         // search is done. (There could be more than one since multiple requests could
         // arrive for a slow search since the search is run in a different thread).
-        if (listener != null) {
-            synchronized (this) {
-                mListeners.add(listener);
-            }
-        }
         synchronized (this) {
             if (listener != null) {
                 mListeners.add(listener);
             }
             if (mRefreshing) {
-                return;
+                if (!sync) {
+                    return;
+                }
+            } else {
+                mRefreshing = true;
+                mRebuild = mSourceViews != null;
+                mJob.schedule();
             }
-            mRefreshing = true;
         }
 
-        FindViewsJob job = new FindViewsJob();
-        job.schedule();
         if (sync) {
             try {
-                job.join();
+                mJob.join();
             } catch (InterruptedException e) {
                 AdtPlugin.log(e, null);
             }
         }
     }
 
+    /**
+     * Starts loading the index in the background, unless it is already loaded or being
+     * loaded. Must be called while holding the lock.
+     */
+    private void load() {
+        if (mCustomViews == null && !mRefreshing) {
+            mRefreshing = true;
+            mJob.schedule();
+        }
+    }
+
     public Collection<String> getCustomViews() {
-        return mCustomViews == null ? null : Collections.unmodifiableCollection(mCustomViews);
+        synchronized (this) {
+            load();
+            return mCustomViews == null ? null : Collections.unmodifiableCollection(mCustomViews);
+        }
     }
 
     public Collection<String> getThirdPartyViews() {
-        return mThirdPartyViews == null
-            ? null : Collections.unmodifiableCollection(mThirdPartyViews);
+        synchronized (this) {
+            load();
+            return mThirdPartyViews == null
+                ? null : Collections.unmodifiableCollection(mThirdPartyViews);
+        }
     }
 
     public Collection<String> getAllViews() {
-        // Not yet initialized: return null
-        if (mCustomViews == null) {
-            return null;
+        synchronized (this) {
+            // Not yet initialized: start loading, and return null
+            load();
+            if (mCustomViews == null) {
+                return null;
+            }
+            List<String> all = new ArrayList<String>(
+                    mCustomViews.size() + mThirdPartyViews.size());
+            all.addAll(mCustomViews);
+            all.addAll(mThirdPartyViews);
+            return all;
         }
-        List<String> all = new ArrayList<String>(mCustomViews.size() + mThirdPartyViews.size());
-        all.addAll(mCustomViews);
-        all.addAll(mThirdPartyViews);
-        return all;
     }
 
     /**
      * Returns a pair of view lists - the custom views and the 3rd-party views.
-     * This method performs no caching; it is the same as asking the custom view finder
-     * to refresh itself and then waiting for the answer and returning it.
+     * The views are looked up in the index, which is built first if this is the first
+     * time views are requested for the project.
      *
      * @param project the Android project
      * @param layoutsOnly if true, only search for layouts
@@ -192,91 +309,751 @@ public class CustomViewFinder {
     }
 
     private Pair<List<String>,List<String>> findViews(final boolean layoutsOnly) {
-        final Set<String> customViews = new HashSet<String>();
-        final Set<String> thirdPartyViews = new HashSet<String>();
-
-        ProjectState state = Sdk.getProjectState(mProject);
-        final List<IProject> libraries = state != null
-            ? state.getFullLibraryProjects() : Collections.<IProject>emptyList();
-
-        SearchRequestor requestor = new SearchRequestor() {
-            @Override
-            public void acceptSearchMatch(SearchMatch match) throws CoreException {
-                // Ignore matches in comments
-                if (match.isInsideDocComment()) {
-                    return;
-                }
+        boolean initialized;
+        synchronized (this) {
+            initialized = mSourceViews != null;
+        }
+        if (!initialized) {
+            refresh();
+        }
 
-                Object element = match.getElement();
-                if (element instanceof ResolvedBinaryType) {
-                    // Third party view
-                    ResolvedBinaryType type = (ResolvedBinaryType) element;
-                    IPackageFragment fragment = type.getPackageFragment();
-                    IPath path = fragment.getPath();
-                    String last = path.lastSegment();
-                    // Filter out android.jar stuff
-                    if (last.equals(FN_FRAMEWORK_LIBRARY)) {
-                        return;
+        synchronized (this) {
+            List<String> custom = new ArrayList<String>();
+            List<String> thirdParty = new ArrayList<String>();
+            if (mSourceViews != null) {
+                for (List<String> views : mSourceViews.values()) {
+                    for (String fqn : views) {
+                        if (!layoutsOnly || mLayouts.contains(fqn)) {
+                            custom.add(fqn);
+                        }
                     }
-                    if (!isValidView(type, layoutsOnly)) {
-                        return;
+                }
+                for (String fqn : mBinaryViews) {
+                    if (!layoutsOnly || mLayouts.contains(fqn)) {
+                        thirdParty.add(fqn);
                     }
+                }
+            }
 
-                    IProject matchProject = match.getResource().getProject();
-                    if (mProject == matchProject || libraries.contains(matchProject)) {
-                        String fqn = type.getFullyQualifiedName();
-                        thirdPartyViews.add(fqn);
-                    }
-                } else if (element instanceof ResolvedSourceType) {
-                    // User custom view
-                    IProject matchProject = match.getResource().getProject();
-                    if (mProject == matchProject || libraries.contains(matchProject)) {
-                        ResolvedSourceType type = (ResolvedSourceType) element;
-                        if (!isValidView(type, layoutsOnly)) {
-                            return;
+            return Pair.of(custom, thirdParty);
+        }
+    }
+
+    /** Updates the view lists from the index. Must be called while holding the lock. */
+    private void updateViewLists() {
+        Set<String> custom = new HashSet<String>();
+        for (List<String> views : mSourceViews.values()) {
+            custom.addAll(views);
+        }
+        mCustomViews = new ArrayList<String>(custom);
+        mThirdPartyViews = new ArrayList<String>(mBinaryViews);
+    }
+
+    /** Returns the project along with its library projects */
+    @NonNull
+    private Set<IProject> getProjects() {
+        Set<IProject> projects = new HashSet<IProject>();
+        projects.add(mProject);
+        ProjectState state = Sdk.getProjectState(mProject);
+        if (state != null) {
+            projects.addAll(state.getFullLibraryProjects());
+        }
+        return projects;
+    }
+
+    /** Starts updating the index from Java element changes */
+    private void startListening() {
+        synchronized (sIndexed) {
+            if (sListener == null) {
+                sListener = new IElementChangedListener() {
+                    @Override
+                    public void elementChanged(ElementChangedEvent event) {
+                        List<CustomViewFinder> finders;
+                        synchronized (sIndexed) {
+                            if (sIndexed.isEmpty()) {
+                                return;
+                            }
+                            finders = new ArrayList<CustomViewFinder>(sIndexed);
+                        }
+                        for (CustomViewFinder finder : finders) {
+                            finder.elementChanged(event.getDelta());
                         }
-                        String fqn = type.getFullyQualifiedName();
-                        fqn = fqn.replace('$', '.');
-                        customViews.add(fqn);
                     }
+                };
+                JavaCore.addElementChangedListener(sListener, ElementChangedEvent.POST_CHANGE);
+            }
+            sIndexed.add(this);
+        }
+    }
+
+    /**
+     * Records the changes of the given delta which affect the index. Changes are
+     * recorded from the time the index starts loading, such that changes made while the
+     * index is read or built are applied once it is done.
+     */
+    private void elementChanged(IJavaElementDelta delta) {
+        synchronized (this) {
+            if (mProjects == null) {
+                return;
+            }
+            if (mRebuild || collectChanges(delta)) {
+                mRebuild = true;
+                mPendingUnits.clear();
+                mPendingRemovals.clear();
+            } else if (mPendingUnits.isEmpty() && mPendingRemovals.isEmpty()) {
+                return;
+            }
+        }
+
+        // If the job is running, it is run again when done
+        mJob.schedule(UPDATE_DELAY);
+    }
+
+    /**
+     * Adds the compilation units changed by the given delta to the pending changes.
+     * Must be called while holding the lock.
+     *
+     * @return true if the delta changes the classpath, in which case the index must be
+     *         rebuilt
+     */
+    private boolean collectChanges(IJavaElementDelta delta) {
+        IJavaElement element = delta.getElement();
+        int kind = delta.getKind();
+        int flags = delta.getFlags();
+        switch (element.getElementType()) {
+            case IJavaElement.JAVA_MODEL:
+                break;
+            case IJavaElement.JAVA_PROJECT:
+                if (!mProjects.contains(((IJavaProject) element).getProject())) {
+                    return false;
                 }
+                if (kind != IJavaElementDelta.CHANGED
+                        || (flags & (IJavaElementDelta.F_CLASSPATH_CHANGED
+                                | IJavaElementDelta.F_RESOLVED_CLASSPATH_CHANGED
+                                | IJavaElementDelta.F_OPENED
+                                | IJavaElementDelta.F_CLOSED)) != 0) {
+                    return true;
+                }
+                break;
+            case IJavaElement.PACKAGE_FRAGMENT_ROOT:
+                if (kind != IJavaElementDelta.CHANGED
+                        || (flags & (IJavaElementDelta.F_ADDED_TO_CLASSPATH
+                                | IJavaElementDelta.F_REMOVED_FROM_CLASSPATH
+                                | IJavaElementDelta.F_ARCHIVE_CONTENT_CHANGED)) != 0) {
+                    return true;
+                }
+                if (((IPackageFragmentRoot) element).isArchive()) {
+                    return false;
+                }
+                break;
+            case IJavaElement.PACKAGE_FRAGMENT:
+                if (kind == IJavaElementDelta.REMOVED) {
+                    mPendingRemovals.add(element.getPath().toPortableString());
+                    return false;
+                } else if (kind == IJavaElementDelta.ADDED) {
+                    // The compilation units of new packages are not necessarily listed
+                    try {
+                        mPendingUnits.addAll(Arrays.asList(
+                                ((IPackageFragment) element).getCompilationUnits()));
+                    } catch (JavaModelException e) {
+                        // pass -- the package is already gone
+                    }
+                    return false;
+                }
+                break;
+            case IJavaElement.COMPILATION_UNIT:
+                ICompilationUnit unit = (ICompilationUnit) element;
+                if (kind == IJavaElementDelta.REMOVED) {
+                    mPendingRemovals.add(unit.getPath().toPortableString());
+                } else if (kind == IJavaElementDelta.ADDED
+                        || (flags & IJavaElementDelta.F_PRIMARY_RESOURCE) != 0
+                        || (flags & IJavaElementDelta.F_CONTENT) != 0
+                                && !unit.isWorkingCopy()) {
+                    // Changes to working copies while editing are picked up when saved
+                    mPendingUnits.add(unit.getPrimary());
+                }
+                return false;
+            case IJavaElement.CLASS_FILE:
+                // Class folders on the classpath
+                return true;
+            default:
+                return false;
+        }
+
+        for (IJavaElementDelta child : delta.getAffectedChildren()) {
+            if (collectChanges(child)) {
+                return true;
             }
-        };
+        }
+
+        return false;
+    }
+
+    /**
+     * Builds the index from scratch from the type hierarchy of {@code View}, which
+     * covers the source types and the class files of the project
+     */
+    private void buildIndex(Set<IProject> projects) {
+        // Take the stamps before scanning, such that files edited during the scan are
+        // rescanned the next time the index is read
+        String classpathSignature = getClasspathSignature(projects);
+        Map<String, String> stamps = getSourceStamps(projects);
+        Map<String, List<String>> sourceViews = new HashMap<String, List<String>>();
+        Set<String> binaryViews = new HashSet<String>();
+        Set<String> layouts = new HashSet<String>();
+
         try {
             IJavaProject javaProject = BaseProjectHelper.getJavaProject(mProject);
             if (javaProject != null) {
-                String className = layoutsOnly ? CLASS_VIEWGROUP : CLASS_VIEW;
-                IType viewType = javaProject.findType(className);
+                IType viewType = javaProject.findType(CLASS_VIEW);
                 if (viewType != null) {
-                    IJavaSearchScope scope = SearchEngine.createHierarchyScope(viewType);
-                    SearchParticipant[] participants = new SearchParticipant[] {
-                        SearchEngine.getDefaultSearchParticipant()
-                    };
-                    int matchRule = SearchPattern.R_PATTERN_MATCH | SearchPattern.R_CASE_SENSITIVE;
-
-                    SearchPattern pattern = SearchPattern.createPattern("*",
-                            IJavaSearchConstants.CLASS, IJavaSearchConstants.IMPLEMENTORS,
-                            matchRule);
-                    SearchEngine engine = new SearchEngine();
-                    engine.search(pattern, participants, scope, requestor,
+                    ITypeHierarchy hierarchy = viewType.newTypeHierarchy(javaProject,
                             new NullProgressMonitor());
+                    Set<IType> viewGroups = Collections.emptySet();
+                    IType viewGroupType = javaProject.findType(CLASS_VIEWGROUP);
+                    if (viewGroupType != null) {
+                        viewGroups = new HashSet<IType>(
+                                Arrays.asList(hierarchy.getAllSubclasses(viewGroupType)));
+                    }
+
+                    for (IType type : hierarchy.getAllSubclasses(viewType)) {
+                        IProject typeProject = type.getJavaProject().getProject();
+                        if (!projects.contains(typeProject) || !isValidView(type)) {
+                            continue;
+                        }
+
+                        String fqn;
+                        if (type.isBinary()) {
+                            // Third party view; filter out android.jar stuff
+                            IPath path = type.getPackageFragment().getPath();
+                            if (FN_FRAMEWORK_LIBRARY.equals(path.lastSegment())) {
+                                continue;
+                            }
+                            fqn = type.getFullyQualifiedName();
+                            binaryViews.add(fqn);
+                        } else {
+                            // User custom view
+                            fqn = type.getFullyQualifiedName().replace('$', '.');
+                            String key = type.getCompilationUnit().getPath().toPortableString();
+                            List<String> views = sourceViews.get(key);
+                            if (views == null) {
+                                views = new ArrayList<String>(1);
+                                sourceViews.put(key, views);
+                            }
+                            views.add(fqn);
+                        }
+                        if (viewGroups.contains(type)) {
+                            layouts.add(fqn);
+                        }
+                    }
                 }
             }
         } catch (CoreException e) {
             AdtPlugin.log(e, null);
         }
 
+        synchronized (this) {
+            mSourceViews = sourceViews;
+            mBinaryViews = new ArrayList<String>(binaryViews);
+            mLayouts = layouts;
+            mStamps = stamps;
+            mClasspathSignature = classpathSignature;
+            updateViewLists();
+        }
+        writeIndex();
+    }
+
+    /**
+     * Rescans the given compilation units, and the other compilation units whose views
+     * may be affected by their changes
+     */
+    private void updateIndex(Collection<ICompilationUnit> units, Collection<String> removals) {
+        Map<String, List<String>> previous;
+        synchronized (this) {
+            previous = new HashMap<String, List<String>>(mSourceViews);
+        }
 
-        List<String> custom = new ArrayList<String>(customViews);
-        List<String> thirdParty = new ArrayList<String>(thirdPartyViews);
+        Map<String, List<String>> updated = new HashMap<String, List<String>>();
+        Set<String> layouts = new HashSet<String>();
+        IJavaProject javaProject = BaseProjectHelper.getJavaProject(mProject);
+        for (String removed : removals) {
+            // Compilation units, or the compilation units directly within packages
+            for (String key : previous.keySet()) {
+                if (isRemoved(key, removed)) {
+                    updated.put(key, Collections.<String>emptyList());
+                }
+            }
+        }
 
-        if (!layoutsOnly) {
-            // Update our cached answers (unless we were filtered on only layouts)
-            mCustomViews = custom;
-            mThirdPartyViews = thirdParty;
+        // Views which are new in the changed files may have subclasses which are now
+        // views too, and the subclasses of views which are gone are no longer views
+        Set<ICompilationUnit> subclassUnits = new LinkedHashSet<ICompilationUnit>();
+        boolean lostViews = false;
+        for (ICompilationUnit unit : units) {
+            String key = unit.getPath().toPortableString();
+            List<String> views = new ArrayList<String>(1);
+            List<IType> newViewTypes = new ArrayList<IType>();
+            List<String> old = previous.get(key);
+            if (old == null) {
+                old = Collections.emptyList();
+            }
+            scanUnit(unit, views, layouts, old, newViewTypes);
+            updated.put(key, views);
+            for (IType type : newViewTypes) {
+                // Look for subclasses in the project of the type as well as in the
+                // project the views are found for, which sees the subclasses of library
+                // views in all the projects
+                Set<IJavaProject> contexts = new HashSet<IJavaProject>(2);
+                contexts.add(type.getJavaProject());
+                if (javaProject != null) {
+                    contexts.add(javaProject);
+                }
+                for (IJavaProject context : contexts) {
+                    try {
+                        ITypeHierarchy hierarchy = type.newTypeHierarchy(context,
+                                new NullProgressMonitor());
+                        for (IType subclass : hierarchy.getAllSubclasses(type)) {
+                            ICompilationUnit subclassUnit = subclass.getCompilationUnit();
+                            if (subclassUnit != null) {
+                                subclassUnits.add(subclassUnit);
+                            }
+                        }
+                    } catch (JavaModelException e) {
+                        // pass -- the type is gone
+                    }
+                }
+            }
+        }
+        for (Map.Entry<String, List<String>> entry : updated.entrySet()) {
+            List<String> old = previous.get(entry.getKey());
+            if (old != null && !entry.getValue().containsAll(old)) {
+                lostViews = true;
+            }
+        }
+        if (lostViews) {
+            IWorkspaceRoot root = ResourcesPlugin.getWorkspace().getRoot();
+            for (String key : previous.keySet()) {
+                IResource resource = root.findMember(key);
+                IJavaElement element = resource != null ? JavaCore.create(resource) : null;
+                if (element instanceof ICompilationUnit) {
+                    subclassUnits.add((ICompilationUnit) element);
+                }
+            }
+        }
+        for (ICompilationUnit unit : subclassUnits) {
+            String key = unit.getPath().toPortableString();
+            if (!updated.containsKey(key)) {
+                List<String> views = new ArrayList<String>(1);
+                scanUnit(unit, views, layouts, null, null);
+                updated.put(key, views);
+            }
         }
 
-        return Pair.of(custom, thirdParty);
+        synchronized (this) {
+            for (Map.Entry<String, List<String>> entry : updated.entrySet()) {
+                List<String> old = mSourceViews.remove(entry.getKey());
+                if (old != null) {
+                    mLayouts.removeAll(old);
+                }
+                List<String> views = entry.getValue();
+                if (!views.isEmpty()) {
+                    mSourceViews.put(entry.getKey(), views);
+                }
+            }
+            mLayouts.addAll(layouts);
+            updateViewLists();
+        }
+    }
+
+    /**
+     * Returns true if the compilation unit with the given path is removed by the
+     * removal of the given compilation unit or package path. Removing a package only
+     * removes the compilation units directly within it, not those of its subpackages,
+     * which have their own deltas.
+     *
+     * @param key the path of an indexed compilation unit
+     * @param removed the path of a removed compilation unit or package
+     * @return true if the compilation unit is removed
+     */
+    @VisibleForTesting
+    static boolean isRemoved(@NonNull String key, @NonNull String removed) {
+        return key.equals(removed) || key.startsWith(removed)
+                && key.charAt(removed.length()) == '/'
+                && key.indexOf('/', removed.length() + 1) == -1;
+    }
+
+    /**
+     * Finds the custom views declared in the given compilation unit
+     *
+     * @param unit the compilation unit to scan
+     * @param views the list to add the views to
+     * @param layouts the set to add the views which are view groups to
+     * @param old the views previously found in the compilation unit, or null
+     * @param newViewTypes if not null, the list to add the {@code View} subclasses
+     *            which are not among the previous views to
+     */
+    private void scanUnit(ICompilationUnit unit, List<String> views, Set<String> layouts,
+            @Nullable List<String> old, @Nullable List<IType> newViewTypes) {
+        try {
+            if (!unit.exists() || !mProjects.contains(unit.getJavaProject().getProject())) {
+                return;
+            }
+            for (IType type : unit.getAllTypes()) {
+                if (!type.isClass() || type.getSuperclassName() == null) {
+                    // Can't be a view
+                    continue;
+                }
+
+                boolean isView = false;
+                boolean isLayout = false;
+                ITypeHierarchy hierarchy = type.newSupertypeHierarchy(new NullProgressMonitor());
+                for (IType superClass : hierarchy.getAllSuperclasses(type)) {
+                    String name = superClass.getFullyQualifiedName();
+                    if (name.equals(CLASS_VIEW)) {
+                        isView = true;
+                    } else if (name.equals(CLASS_VIEWGROUP)) {
+                        isLayout = true;
+                    }
+                }
+                if (!isView) {
+                    continue;
+                }
+
+                String fqn = type.getFullyQualifiedName().replace('$', '.');
+                if (newViewTypes != null && !old.contains(fqn)
+                        && !Flags.isFinal(type.getFlags())) {
+                    newViewTypes.add(type);
+                }
+                if (isValidView(type)) {
+                    views.add(fqn);
+                    if (isLayout) {
+                        layouts.add(fqn);
+                    }
+                }
+            }
+        } catch (JavaModelException e) {
+            // pass -- the compilation unit is gone or can't be parsed
+        }
+    }
+
+    /**
+     * Returns a signature of the classpaths of the given projects, which changes when
+     * the entries change or when any of the libraries is modified
+     */
+    @Nullable
+    private static String getClasspathSignature(Collection<IProject> projects) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            for (IProject project : projects) {
+                IJavaProject javaProject = BaseProjectHelper.getJavaProject(project);
+                if (javaProject == null) {
+                    continue;
+                }
+                sb.append(project.getName());
+                sb.append(':');
+                for (IClasspathEntry entry : javaProject.getResolvedClasspath(true)) {
+                    IPath path = entry.getPath();
+                    sb.append(path.toPortableString());
+                    if (entry.getEntryKind() == IClasspathEntry.CPE_LIBRARY) {
+                        IResource resource =
+                                ResourcesPlugin.getWorkspace().getRoot().findMember(path);
+                        File file = resource != null && resource.getLocation() != null
+                                ? resource.getLocation().toFile() : path.toFile();
+                        sb.append('@');
+                        sb.append(file.lastModified());
+                        sb.append('+');
+                        sb.append(file.length());
+                    }
+                    sb.append(';');
+                }
+            }
+        } catch (CoreException e) {
+            return null;
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Returns the timestamp and size of each Java file in the source folders of the
+     * given projects, by workspace path, or null if they can't be determined. This sees
+     * the files changed while Eclipse was not running as well.
+     */
+    @Nullable
+    private static Map<String, String> getSourceStamps(Collection<IProject> projects) {
+        Map<String, String> stamps = new HashMap<String, String>();
+        IWorkspaceRoot root = ResourcesPlugin.getWorkspace().getRoot();
+        try {
+            for (IProject project : projects) {
+                IJavaProject javaProject = BaseProjectHelper.getJavaProject(project);
+                if (javaProject == null) {
+                    continue;
+                }
+                for (IClasspathEntry entry : javaProject.getRawClasspath()) {
+                    if (entry.getEntryKind() != IClasspathEntry.CPE_SOURCE) {
+                        continue;
+                    }
+                    IResource folder = root.findMember(entry.getPath());
+                    if (folder != null && folder.getLocation() != null) {
+                        addStamps(stamps, folder.getLocation().toFile(),
+                                entry.getPath().toPortableString());
+                    }
+                }
+            }
+        } catch (JavaModelException e) {
+            return null;
+        }
+
+        return stamps;
+    }
+
+    private static void addStamps(Map<String, String> stamps, File dir, String path) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isDirectory()) {
+                addStamps(stamps, file, path + '/' + name);
+            } else if (name.endsWith(DOT_JAVA)) {
+                stamps.put(path + '/' + name, getStamp(file));
+            }
+        }
+    }
+
+    @NonNull
+    private static String getStamp(@NonNull File file) {
+        return Long.toString(file.lastModified()) + '+' + Long.toString(file.length());
+    }
+
+    /**
+     * Records the timestamps and sizes of the given changed compilation units, before
+     * they are rescanned, and drops those of the removed compilation units and packages
+     */
+    private void updateStamps(Collection<ICompilationUnit> units, Collection<String> removals) {
+        Map<String, String> updated = new HashMap<String, String>();
+        for (ICompilationUnit unit : units) {
+            IResource resource = unit.getResource();
+            File file = resource != null && resource.getLocation() != null
+                    ? resource.getLocation().toFile() : null;
+            updated.put(unit.getPath().toPortableString(),
+                    file != null && file.exists() ? getStamp(file) : null);
+        }
+
+        synchronized (this) {
+            if (mStamps == null) {
+                return;
+            }
+            for (String removed : removals) {
+                Iterator<String> iterator = mStamps.keySet().iterator();
+                while (iterator.hasNext()) {
+                    if (isRemoved(iterator.next(), removed)) {
+                        iterator.remove();
+                    }
+                }
+            }
+            for (Map.Entry<String, String> entry : updated.entrySet()) {
+                if (entry.getValue() != null) {
+                    mStamps.put(entry.getKey(), entry.getValue());
+                } else {
+                    mStamps.remove(entry.getKey());
+                }
+            }
+        }
+    }
+
+    @Nullable
+    private File getIndexFile() {
+        IPath location = mProject.getWorkingLocation(AdtPlugin.PLUGIN_ID);
+        return location != null ? location.append(INDEX_FILE).toFile() : null;
+    }
+
+    /** Writes the index to the working location of the project */
+    private void writeIndex() {
+        File file = getIndexFile();
+        if (file == null) {
+            return;
+        }
+
+        String contents;
+        synchronized (this) {
+            if (mClasspathSignature == null || mStamps == null) {
+                contents = null;
+            } else {
+                contents = formatIndex(mClasspathSignature, mStamps, mSourceViews,
+                        mBinaryViews, mLayouts);
+            }
+        }
+        if (contents == null) {
+            file.delete();
+            return;
+        }
+
+        try {
+            Files.write(contents, file, Charsets.UTF_8);
+        } catch (IOException e) {
+            AdtPlugin.log(e, "Can't store custom view index");
+        }
+    }
+
+    /**
+     * Formats the given index. The contents are the version and the classpath signature,
+     * followed by a line per source file and per view. Source file lines are an f, the
+     * path of the file and its timestamp and size. View lines are the kind of view (s
+     * for source, b for binary, followed by L for layouts), the path of the compilation
+     * unit (empty for binary views) and the view class name. The fields are separated
+     * by tabs.
+     *
+     * @param classpathSignature the signature of the classpath the index is for
+     * @param stamps map from source file path to its timestamp and size
+     * @param sourceViews map from compilation unit path to the custom views in it
+     * @param binaryViews the third party views
+     * @param layouts the views which are view groups
+     * @return the formatted index
+     */
+    @VisibleForTesting
+    @NonNull
+    static String formatIndex(@NonNull String classpathSignature,
+            @NonNull Map<String, String> stamps,
+            @NonNull Map<String, List<String>> sourceViews, @NonNull List<String> binaryViews,
+            @NonNull Set<String> layouts) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(INDEX_VERSION).append('\n');
+        sb.append(classpathSignature).append('\n');
+        for (Map.Entry<String, String> entry : stamps.entrySet()) {
+            sb.append("f\t").append(entry.getKey()).append('\t'); //$NON-NLS-1$
+            sb.append(entry.getValue()).append('\n');
+        }
+        for (Map.Entry<String, List<String>> entry : sourceViews.entrySet()) {
+            for (String fqn : entry.getValue()) {
+                sb.append(layouts.contains(fqn) ? "sL\t" : "s\t"); //$NON-NLS-1$ //$NON-NLS-2$
+                sb.append(entry.getKey()).append('\t').append(fqn).append('\n');
+            }
+        }
+        for (String fqn : binaryViews) {
+            sb.append(layouts.contains(fqn) ? "bL\t\t" : "b\t\t"); //$NON-NLS-1$ //$NON-NLS-2$
+            sb.append(fqn).append('\n');
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Parses an index written by {@link #formatIndex} into the given (empty) collections
+     *
+     * @param lines the lines of the index
+     * @param classpathSignature the current signature of the classpath
+     * @param stamps map to add the source file timestamps and sizes to, by path
+     * @param sourceViews map to add the custom views to, by compilation unit path
+     * @param binaryViews list to add the third party views to
+     * @param layouts set to add the views which are view groups to
+     * @return false if the index is invalid or was written for a different classpath
+     */
+    @VisibleForTesting
+    static boolean parseIndex(@NonNull List<String> lines,
+            @Nullable String classpathSignature, @NonNull Map<String, String> stamps,
+            @NonNull Map<String, List<String>> sourceViews, @NonNull List<String> binaryViews,
+            @NonNull Set<String> layouts) {
+        if (lines.size() < 2 || !lines.get(0).equals(INDEX_VERSION)
+                || !lines.get(1).equals(classpathSignature)) {
+            return false;
+        }
+        for (String line : lines.subList(2, lines.size())) {
+            String[] fields = line.split("\t"); //$NON-NLS-1$
+            if (fields.length != 3) {
+                return false;
+            }
+            String kind = fields[0];
+            if (kind.equals("f")) { //$NON-NLS-1$
+                stamps.put(fields[1], fields[2]);
+                continue;
+            }
+            String fqn = fields[2];
+            if (kind.startsWith("s")) { //$NON-NLS-1$
+                List<String> views = sourceViews.get(fields[1]);
+                if (views == null) {
+                    views = new ArrayList<String>(1);
+                    sourceViews.put(fields[1], views);
+                }
+                views.add(fqn);
+            } else {
+                binaryViews.add(fqn);
+            }
+            if (kind.endsWith("L")) { //$NON-NLS-1$
+                layouts.add(fqn);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Reads the index written in a previous session, unless the classpath has changed
+     * since it was written, and rescans the source files which have changed since
+     *
+     * @param projects the project and its library projects
+     * @return true if the index was read
+     */
+    private boolean readIndex(Set<IProject> projects) {
+        File file = getIndexFile();
+        if (file == null || !file.exists()) {
+            return false;
+        }
+
+        String classpathSignature = getClasspathSignature(projects);
+        Map<String, String> stamps = new HashMap<String, String>();
+        Map<String, List<String>> sourceViews = new HashMap<String, List<String>>();
+        List<String> binaryViews = new ArrayList<String>();
+        Set<String> layouts = new HashSet<String>();
+        try {
+            List<String> lines = Files.readLines(file, Charsets.UTF_8);
+            if (!parseIndex(lines, classpathSignature, stamps, sourceViews, binaryViews,
+                    layouts)) {
+                return false;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+
+        // Find the source files which were added, edited or removed since
+        Map<String, String> current = getSourceStamps(projects);
+        if (current == null) {
+            return false;
+        }
+        List<ICompilationUnit> changed = new ArrayList<ICompilationUnit>();
+        List<String> removed = new ArrayList<String>();
+        IWorkspaceRoot root = ResourcesPlugin.getWorkspace().getRoot();
+        for (Map.Entry<String, String> entry : current.entrySet()) {
+            if (!entry.getValue().equals(stamps.get(entry.getKey()))) {
+                IResource resource = root.findMember(entry.getKey());
+                IJavaElement element = resource != null ? JavaCore.create(resource) : null;
+                if (!(element instanceof ICompilationUnit)) {
+                    // Not yet known to the workspace
+                    return false;
+                }
+                changed.add((ICompilationUnit) element);
+            }
+        }
+        for (String path : stamps.keySet()) {
+            if (!current.containsKey(path)) {
+                removed.add(path);
+            }
+        }
+
+        synchronized (this) {
+            mSourceViews = sourceViews;
+            mBinaryViews = binaryViews;
+            mLayouts = layouts;
+            mStamps = current;
+            mClasspathSignature = classpathSignature;
+            updateViewLists();
+        }
+        if (!changed.isEmpty() || !removed.isEmpty()) {
+            updateIndex(changed, removed);
+            writeIndex();
+        }
+        return true;
     }
 
     /**
@@ -284,8 +1061,7 @@ public class CustomViewFinder {
      * list of custom views or third party views. It checks that the view is public and
      * not abstract for example.
      */
-    private static boolean isValidView(IType type, boolean layoutsOnly)
-            throws JavaModelException {
+    private static boolean isValidView(IType type) throws JavaModelException {
         // Skip anonymous classes
         if (type.isAnonymous()) {
             return false;
@@ -295,8 +1071,8 @@ public class CustomViewFinder {
             return false;
         }
 
-        // TODO: if (layoutsOnly) perhaps try to filter out AdapterViews and other ViewGroups
-        // not willing to accept children via XML
+        // TODO: perhaps filter out AdapterViews and other ViewGroups not willing to
+        // accept children via XML from the layouts
 
         // See if the class has one of the acceptable constructors
         // needed for XML instantiation:
@@ -358,8 +1134,8 @@ public class CustomViewFinder {
     }
 
     /**
-     * Job for performing class search off the UI thread. This is marked as a system job
-     * so that it won't show up in the progress monitor etc.
+     * Job for building and updating the index off the UI thread. This is marked as a
+     * system job so that it won't show up in the progress monitor etc.
      */
     private class FindViewsJob extends Job {
         FindViewsJob() {
@@ -368,25 +1144,64 @@ public class CustomViewFinder {
         }
         @Override
         protected IStatus run(IProgressMonitor monitor) {
-            Pair<List<String>, List<String>> views = findViews(false);
-            mCustomViews = views.getFirst();
-            mThirdPartyViews = views.getSecond();
+            boolean load;
+            boolean rebuild;
+            List<ICompilationUnit> units = null;
+            List<String> removals = null;
+            synchronized (CustomViewFinder.this) {
+                load = mSourceViews == null;
+                rebuild = mRebuild;
+                mRebuild = false;
+                if (!load && !rebuild) {
+                    units = new ArrayList<ICompilationUnit>(mPendingUnits);
+                    removals = new ArrayList<String>(mPendingRemovals);
+                    mPendingUnits.clear();
+                    mPendingRemovals.clear();
+                }
+            }
+
+            if (!load && !rebuild) {
+                if (!units.isEmpty() || !removals.isEmpty()) {
+                    updateStamps(units, removals);
+                    updateIndex(units, removals);
+                    writeIndex();
+                }
+                return Status.OK_STATUS;
+            }
+
+            // Start recording changes before looking at the sources, such that changes
+            // made while the index is read or built are applied by the next run
+            Set<IProject> projects = getProjects();
+            synchronized (CustomViewFinder.this) {
+                mProjects = projects;
+                if (rebuild) {
+                    mPendingUnits.clear();
+                    mPendingRemovals.clear();
+                }
+            }
+            startListening();
+
+            if (rebuild || !readIndex(projects)) {
+                buildIndex(projects);
+            }
 
             // Notify listeners on SWT's UI thread
             Display.getDefault().asyncExec(new Runnable() {
                 @Override
                 public void run() {
-                    Collection<String> customViews =
-                        Collections.unmodifiableCollection(mCustomViews);
-                    Collection<String> thirdPartyViews =
-                        Collections.unmodifiableCollection(mThirdPartyViews);
-                    synchronized (this) {
-                        for (Listener l : mListeners) {
-                            l.viewsUpdated(customViews, thirdPartyViews);
-                        }
+                    List<Listener> listeners;
+                    Collection<String> customViews;
+                    Collection<String> thirdPartyViews;
+                    synchronized (CustomViewFinder.this) {
+                        customViews = Collections.unmodifiableCollection(mCustomViews);
+                        thirdPartyViews = Collections.unmodifiableCollection(mThirdPartyViews);
+                        listeners = new ArrayList<Listener>(mListeners);
                         mListeners.clear();
                         mRefreshing = false;
                     }
+                    for (Listener l : listeners) {
+                        l.viewsUpdated(customViews, thirdPartyViews);
+                    }
                 }
             });
             return Status.OK_STATUS;
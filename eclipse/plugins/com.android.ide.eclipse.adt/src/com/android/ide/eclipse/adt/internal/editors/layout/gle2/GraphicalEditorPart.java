@@ -1536,6 +1536,11 @@ public class GraphicalEditorPart extends EditorPart
             renderingMode = RenderingMode.V_SCROLL;
         }
 
+        // Note that layoutlib cannot re-inflate an edited XML model into an existing
+        // session (its view manipulation APIs only apply to live views), so each edit
+        // needs a new session; the view hierarchy and image updates are incremental
+        // instead (see ViewHierarchy#getChangedViews and ImageOverlay#setImage).
+        long start = LayoutCanvas.DEBUG_TIMINGS ? System.nanoTime() : 0;
         RenderSession session = RenderService.create(this)
             .setModel(model)
             .setLog(logger)
@@ -1543,6 +1548,10 @@ public class GraphicalEditorPart extends EditorPart
             .setIncludedWithin(mIncludedWithin)
             .setNodesToExpand(explodeNodes)
             .createRenderSession();
+        if (LayoutCanvas.DEBUG_TIMINGS) {
+            AdtPlugin.log(IStatus.INFO, "Render timings: %1$s session %2$d ms", //$NON-NLS-1$
+                    mEditedFile.getName(), (System.nanoTime() - start) / 1000000);
+        }
 
         boolean layoutlib5 = layoutLib.supports(Capability.EMBEDDED_LAYOUT);
         canvas.setSession(session, explodeNodes, layoutlib5);
@@ -19,6 +19,8 @@ package com.android.ide.eclipse.adt.internal.editors.layout.gle2;
 import static com.android.ide.eclipse.adt.internal.editors.layout.gle2.SwtDrawingStyle.HOVER;
 import static com.android.ide.eclipse.adt.internal.editors.layout.gle2.SwtDrawingStyle.HOVER_SELECTION;
 
+import com.android.annotations.Nullable;
+
 import org.eclipse.swt.graphics.Color;
 import org.eclipse.swt.graphics.Device;
 import org.eclipse.swt.graphics.GC;
@@ -133,6 +135,16 @@ public class HoverOverlay extends Overlay {
         mHoverRect = new Rectangle(x, y, w, h);
     }
 
+    /**
+     * Returns the bounds of the current hover, in layout coordinates, or null
+     *
+     * @return the hover bounds, or null
+     */
+    @Nullable
+    Rectangle getHoverRect() {
+        return mHoverRect;
+    }
+
     /**
      * Removes the hover for the next paint.
      */
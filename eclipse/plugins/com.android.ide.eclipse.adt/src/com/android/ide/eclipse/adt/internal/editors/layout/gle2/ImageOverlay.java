@@ -19,6 +19,7 @@ package com.android.ide.eclipse.adt.internal.editors.layout.gle2;
 import static com.android.ide.eclipse.adt.internal.editors.layout.gle2.ImageUtils.SHADOW_SIZE;
 
 import com.android.SdkConstants;
+import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
 import com.android.ide.common.api.Rect;
 import com.android.ide.common.rendering.api.IImageFactory;
@@ -29,12 +30,21 @@ import org.eclipse.swt.graphics.Device;
 import org.eclipse.swt.graphics.GC;
 import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.graphics.ImageData;
-import org.eclipse.swt.graphics.PaletteData;
+import org.eclipse.swt.graphics.Rectangle;
 
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferInt;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
 import java.awt.image.WritableRaster;
 import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * The {@link ImageOverlay} class renders an image as an overlay.
@@ -54,8 +64,39 @@ public class ImageOverlay extends Overlay implements IImageFactory {
     /** Current background image. Null when there's no image. */
     private Image mImage;
 
-    /** A pre-scaled version of the image */
-    private Image mPreScaledImage;
+    /** Maximum number of zoomed versions of the image kept in {@link #mPreScaledImages} */
+    private static final int MAX_PRESCALED_IMAGES = 3;
+
+    /**
+     * Pre-scaled versions of the image, keyed by the scaled image width, in least
+     * recently used order. These are only valid for {@link #mPreScaledSource} at
+     * {@link #mPreScaledVersion}. Keeping a few of these around makes switching back and
+     * forth between zoom levels cheap.
+     */
+    @SuppressWarnings("serial")
+    private final Map<Integer, Image> mPreScaledImages =
+            new LinkedHashMap<Integer, Image>(MAX_PRESCALED_IMAGES + 1, 1f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Image> eldest) {
+            if (size() > MAX_PRESCALED_IMAGES) {
+                eldest.getValue().dispose();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * The version of the pixels of {@link #mImage}, incremented whenever the pixels of
+     * the image are updated in place
+     */
+    private int mImageVersion;
+
+    /** The image the images in {@link #mPreScaledImages} were scaled from */
+    private Image mPreScaledSource;
+
+    /** The version of the pixels of {@link #mPreScaledSource} when it was scaled */
+    private int mPreScaledVersion;
 
     /** Whether the rendered image should have a drop shadow */
     private boolean mShowDropShadow;
@@ -107,10 +148,14 @@ public class ImageOverlay extends Overlay implements IImageFactory {
             mImage.dispose();
             mImage = null;
         }
-        if (mPreScaledImage != null) {
-            mPreScaledImage.dispose();
-            mPreScaledImage = null;
+        disposePreScaledImages();
+    }
+
+    private void disposePreScaledImages() {
+        for (Image image : mPreScaledImages.values()) {
+            image.dispose();
         }
+        mPreScaledImages.clear();
     }
 
     /**
@@ -138,6 +183,8 @@ public class ImageOverlay extends Overlay implements IImageFactory {
 
             if (awtImage == null) {
                 mImage = null;
+            } else if (awtImage instanceof SwtReadyBufferedImage) {
+                mImage = ((SwtReadyBufferedImage) awtImage).getSwtImage(isAlphaChannelImage);
             } else {
                 mImage = SwtUtils.convertToSwt(mCanvas.getDisplay(), awtImage,
                         isAlphaChannelImage, -1);
@@ -150,21 +197,26 @@ public class ImageOverlay extends Overlay implements IImageFactory {
                     mImage.dispose();
                 }
 
-                mImage = SwtUtils.convertToSwt(mCanvas.getDisplay(), awtImage, true, -1);
+                mImage = ((SwtReadyBufferedImage) awtImage).getSwtImage(true);
             } else {
+                SwtReadyBufferedImage swtReadyImage = (SwtReadyBufferedImage) awtImage;
                 Image prev = mImage;
-                mImage = ((SwtReadyBufferedImage)awtImage).getSwtImage();
-                if (prev != mImage && prev != null) {
-                    prev.dispose();
+                // Try to transfer only the dirty region into the existing image first
+                Rectangle dirty = prev != null && !prev.isDisposed()
+                        ? swtReadyImage.updateSwtImage(prev) : null;
+                if (dirty == null) {
+                    mImage = swtReadyImage.getSwtImage(false);
+                    if (prev != mImage && prev != null) {
+                        prev.dispose();
+                    }
+                } else if (!dirty.isEmpty()) {
+                    mImageVersion++;
                 }
             }
         }
 
-        if (mPreScaledImage != null) {
-            // Force refresh on next paint
-            mPreScaledImage.dispose();
-            mPreScaledImage = null;
-        }
+        // The pre-scaled images are refreshed on the next paint if the image or its
+        // pixels changed; a render which produced the same pixels keeps them
 
         return mImage;
     }
@@ -193,6 +245,24 @@ public class ImageOverlay extends Overlay implements IImageFactory {
         return awtImage;
     }
 
+    /**
+     * Returns the bounds of the region of the image which was transferred to SWT by
+     * the last call to {@link #setImage}, or null if the whole image was converted.
+     * The bounds are empty when the last render did not change any pixels.
+     *
+     * @return the last dirty region, or null
+     */
+    @Nullable
+    Rectangle getLastDirtyBounds() {
+        BufferedImage awtImage = mAwtImage.get();
+        if (awtImage instanceof SwtReadyBufferedImage
+                && mImage == ((SwtReadyBufferedImage) awtImage).mLastSwtImage) {
+            return ((SwtReadyBufferedImage) awtImage).mLastDirtyBounds;
+        }
+
+        return null;
+    }
+
     /**
      * Returns whether this image overlay should be painted with a drop shadow.
      * This is usually the case, but not for transparent themes like the dialog
@@ -223,10 +293,14 @@ public class ImageOverlay extends Overlay implements IImageFactory {
             // independently from when the image changes.
             BufferedImage awtImage = mAwtImage.get();
             if (PRESCALE && awtImage != null) {
-                int imageWidth = (mPreScaledImage == null) ? 0
-                        : mPreScaledImage.getImageData().width
-                            - (mShowDropShadow ? SHADOW_SIZE : 0);
-                if (mPreScaledImage == null || imageWidth != hi.getScaledImgSize()) {
+                if (mPreScaledSource != mImage || mPreScaledVersion != mImageVersion) {
+                    disposePreScaledImages();
+                    mPreScaledSource = mImage;
+                    mPreScaledVersion = mImageVersion;
+                }
+                Integer key = Integer.valueOf(hi.getScaledImgSize());
+                Image preScaledImage = mPreScaledImages.get(key);
+                if (preScaledImage == null || preScaledImage.isDisposed()) {
                     double xScale = hi.getScaledImgSize() / (double) awtImage.getWidth();
                     double yScale = vi.getScaledImgSize() / (double) awtImage.getHeight();
                     BufferedImage scaledAwtImage;
@@ -246,28 +320,25 @@ public class ImageOverlay extends Overlay implements IImageFactory {
                         }
                     } else {
                         if (mShowDropShadow) {
-                            scaledAwtImage = ImageUtils.scale(awtImage, xScale, yScale,
+                            scaledAwtImage = ImageUtils.boxScale(awtImage, xScale, yScale,
                                     SHADOW_SIZE, SHADOW_SIZE);
                             ImageUtils.drawRectangleShadow(scaledAwtImage, 0, 0,
                                     scaledAwtImage.getWidth() - SHADOW_SIZE,
                                     scaledAwtImage.getHeight() - SHADOW_SIZE);
                         } else {
-                            scaledAwtImage = ImageUtils.scale(awtImage, xScale, yScale);
+                            scaledAwtImage = ImageUtils.boxScale(awtImage, xScale, yScale,
+                                    0, 0);
                         }
                     }
 
-                    if (mPreScaledImage != null && !mPreScaledImage.isDisposed()) {
-                        mPreScaledImage.dispose();
-                    }
-                    mPreScaledImage = SwtUtils.convertToSwt(mCanvas.getDisplay(), scaledAwtImage,
+                    preScaledImage = SwtUtils.convertToSwt(mCanvas.getDisplay(), scaledAwtImage,
                             true /*transferAlpha*/, -1);
+                    mPreScaledImages.put(key, preScaledImage);
                     // We can't just clear the mAwtImageStrongRef here, because if the
                     // zooming factor changes, we may need to use it again
                 }
 
-                if (mPreScaledImage != null) {
-                    gc.drawImage(mPreScaledImage, hi.translate(0), vi.translate(0));
-                }
+                gc.drawImage(preScaledImage, hi.translate(0), vi.translate(0));
                 return;
             }
 
@@ -351,40 +422,205 @@ public class ImageOverlay extends Overlay implements IImageFactory {
      * Custom {@link BufferedImage} class able to convert itself into an SWT {@link Image}
      * efficiently.
      *
-     * The BufferedImage also contains an instance of {@link ImageData} that's kept around
-     * and used to create new SWT {@link Image} objects in {@link #getSwtImage()}.
-     *
+     * The BufferedImage shares its pixel storage with an instance of {@link ImageData}
+     * that's kept around and used to create new SWT {@link Image} objects in
+     * {@link #getSwtImage(boolean)}: layoutlib renders directly into the byte array of
+     * the {@link ImageData}, so no pixels need to be copied or converted on the Java side.
+     * SWT's {@link ImageData} is byte based, so the storage uses the
+     * {@link BufferedImage#TYPE_4BYTE_ABGR} layout, which Java2D renders into natively.
      */
     private static final class SwtReadyBufferedImage extends BufferedImage {
 
         private final ImageData mImageData;
         private final Device mDevice;
 
+        /** The width and height of the tiles hashed in {@link #mTileHashes} */
+        private static final int TILE_SIZE = 32;
+
+        private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+        private static final long FNV_PRIME = 0x100000001b3L;
+
+        /**
+         * Hash of the pixels of each {@link #TILE_SIZE} square tile, row by row, as of
+         * the last transfer into an SWT image, or null if no SWT image has been created
+         * from this image yet. Layoutlib renders into the same buffer over and over, so
+         * this is what the next render is compared against to find the region which
+         * actually changed, without keeping a second copy of the pixels around.
+         */
+        private long[] mTileHashes;
+
+        /** The SWT image created by the last call to {@link #getSwtImage(boolean)} */
+        private Image mLastSwtImage;
+
+        /** The bounds of the region transferred by the last {@link #updateSwtImage} */
+        private Rectangle mLastDirtyBounds;
+
         /**
          * Creates the image with a given model, raster and SWT {@link ImageData}
          * @param model the color model
-         * @param raster the image raster
+         * @param raster the image raster, sharing its storage with the image data
          * @param imageData the SWT image data.
          * @param device the {@link Device} in which the SWT image will be painted.
          */
-        private SwtReadyBufferedImage(int width, int height, ImageData imageData, Device device) {
-            super(width, height, BufferedImage.TYPE_INT_ARGB);
+        private SwtReadyBufferedImage(ColorModel model, WritableRaster raster,
+                ImageData imageData, Device device) {
+            super(model, raster, false /*isRasterPremultiplied*/, null /*properties*/);
             mImageData = imageData;
             mDevice = device;
         }
 
         /**
          * Returns a new {@link Image} object initialized with the content of the BufferedImage.
+         * @param transferAlpha whether the alpha channel of the image should be used
          * @return the image object.
          */
-        private Image getSwtImage() {
-            // transfer the content of the bufferedImage into the image data.
-            WritableRaster raster = getRaster();
-            int[] imageDataBuffer = ((DataBufferInt) raster.getDataBuffer()).getData();
+        private Image getSwtImage(boolean transferAlpha) {
+            // The pixels are already in the image data; only the alpha channel, which
+            // SWT keeps separately, needs to be extracted
+            byte[] data = mImageData.data;
+            if (transferAlpha) {
+                byte[] alphaData = mImageData.alphaData;
+                if (alphaData == null) {
+                    alphaData = new byte[mImageData.width * mImageData.height];
+                }
+                for (int i = 0, j = 0; i < alphaData.length; i++, j += 4) {
+                    alphaData[i] = data[j];
+                }
+                mImageData.alphaData = alphaData;
+            } else {
+                mImageData.alphaData = null;
+            }
+
+            if (mTileHashes == null) {
+                mTileHashes = new long[getTileColumns() * getTileRows()];
+            }
+            updateTileHashes(mTileHashes);
+            mLastDirtyBounds = new Rectangle(0, 0, getWidth(), getHeight());
+            mLastSwtImage = new Image(mDevice, mImageData);
+
+            return mLastSwtImage;
+        }
+
+        /**
+         * Transfers the region of this image which changed since the last transfer
+         * into the given SWT image, which must have been created by a previous call to
+         * {@link #getSwtImage(boolean)} without alpha.
+         *
+         * @param image the SWT image to update
+         * @return the bounds of the transferred region (empty if nothing changed), or
+         *         null if the image cannot be updated incrementally and a new one must
+         *         be created with {@link #getSwtImage(boolean)} instead
+         */
+        @Nullable
+        private Rectangle updateSwtImage(@NonNull Image image) {
+            Rectangle bounds = image.getBounds();
+            int width = getWidth();
+            int height = getHeight();
+            if (image != mLastSwtImage || mTileHashes == null || mImageData.alphaData != null
+                    || bounds.width != width || bounds.height != height) {
+                return null;
+            }
 
-            mImageData.setPixels(0, 0, imageDataBuffer.length, imageDataBuffer, 0);
+            // Find the bounding box of the tiles that changed
+            int columns = getTileColumns();
+            int minColumn = columns;
+            int maxColumn = -1;
+            int minRow = -1;
+            int maxRow = -1;
+            boolean[] changed = updateTileHashes(mTileHashes);
+            for (int i = 0; i < changed.length; i++) {
+                if (changed[i]) {
+                    int row = i / columns;
+                    int column = i % columns;
+                    minColumn = Math.min(minColumn, column);
+                    maxColumn = Math.max(maxColumn, column);
+                    if (minRow == -1) {
+                        minRow = row;
+                    }
+                    maxRow = row;
+                }
+            }
+
+            if (maxRow == -1) {
+                mLastDirtyBounds = new Rectangle(0, 0, 0, 0);
+                return mLastDirtyBounds;
+            }
+
+            byte[] pixels = mImageData.data;
+            int bytesPerLine = mImageData.bytesPerLine;
+            int minX = minColumn * TILE_SIZE;
+            int minY = minRow * TILE_SIZE;
+            int dirtyWidth = Math.min(width, (maxColumn + 1) * TILE_SIZE) - minX;
+            int dirtyHeight = Math.min(height, (maxRow + 1) * TILE_SIZE) - minY;
+            ImageData patchData = new ImageData(dirtyWidth, dirtyHeight, 32, mImageData.palette);
+            for (int y = minY; y < minY + dirtyHeight; y++) {
+                System.arraycopy(pixels, y * bytesPerLine + 4 * minX, patchData.data,
+                        (y - minY) * patchData.bytesPerLine, 4 * dirtyWidth);
+            }
+
+            Image patch = new Image(mDevice, patchData);
+            GC gc = new GC(image);
+            try {
+                gc.drawImage(patch, minX, minY);
+            } finally {
+                gc.dispose();
+                patch.dispose();
+            }
+
+            mLastDirtyBounds = new Rectangle(minX, minY, dirtyWidth, dirtyHeight);
+            return mLastDirtyBounds;
+        }
+
+        private int getTileColumns() {
+            return (getWidth() + TILE_SIZE - 1) / TILE_SIZE;
+        }
+
+        private int getTileRows() {
+            return (getHeight() + TILE_SIZE - 1) / TILE_SIZE;
+        }
+
+        /**
+         * Hashes the pixels of each tile and stores the hashes in the given array
+         *
+         * @param hashes the hashes of the tiles, updated in place
+         * @return for each tile, whether its hash changed
+         */
+        private boolean[] updateTileHashes(long[] hashes) {
+            byte[] pixels = mImageData.data;
+            int bytesPerLine = mImageData.bytesPerLine;
+            int width = getWidth();
+            int height = getHeight();
+            int columns = getTileColumns();
+            boolean[] changed = new boolean[hashes.length];
+            long[] rowHashes = new long[columns];
+
+            for (int tileY = 0, row = 0; tileY < height; tileY += TILE_SIZE, row++) {
+                Arrays.fill(rowHashes, FNV_OFFSET);
+                int tileHeight = Math.min(TILE_SIZE, height - tileY);
+                for (int y = tileY; y < tileY + tileHeight; y++) {
+                    int offset = y * bytesPerLine;
+                    for (int x = 0; x < width; x++, offset += 4) {
+                        int pixel = (pixels[offset] & 0xFF) << 24
+                                | (pixels[offset + 1] & 0xFF) << 16
+                                | (pixels[offset + 2] & 0xFF) << 8
+                                | (pixels[offset + 3] & 0xFF);
+                        // Each step is a bijection of the running hash, so a tile
+                        // where a single pixel changed always gets a different hash
+                        int column = x / TILE_SIZE;
+                        rowHashes[column] = (rowHashes[column] ^ pixel) * FNV_PRIME;
+                    }
+                }
+
+                for (int column = 0; column < columns; column++) {
+                    int index = row * columns + column;
+                    if (hashes[index] != rowHashes[column]) {
+                        hashes[index] = rowHashes[column];
+                        changed[index] = true;
+                    }
+                }
+            }
 
-            return new Image(mDevice, mImageData);
+            return changed;
         }
 
         /**
@@ -402,13 +638,20 @@ public class ImageOverlay extends Overlay implements IImageFactory {
             // the drop shadow to get zoomed/scaled along with the scene, making a tiny
             // drop shadow for tablet layouts, a huge drop shadow for tiny QVGA screens, etc.
 
+            // Each pixel is stored as the bytes A, B, G, R: read as a 32 bit big endian
+            // integer by SWT, that is 0xAABBGGRR
             ImageData imageData = new ImageData(w, h, 32,
-                    new PaletteData(0x00FF0000, 0x0000FF00, 0x000000FF));
+                    SwtUtils.getAwtPaletteData(BufferedImage.TYPE_4BYTE_ABGR));
 
-            SwtReadyBufferedImage swtReadyImage = new SwtReadyBufferedImage(w, h,
-                    imageData, device);
+            DataBufferByte buffer = new DataBufferByte(imageData.data, imageData.data.length);
+            WritableRaster raster = Raster.createInterleavedRaster(buffer, w, h,
+                    imageData.bytesPerLine, 4, new int[] { 3, 2, 1, 0 }, null);
+            ColorModel model = new ComponentColorModel(
+                    ColorSpace.getInstance(ColorSpace.CS_sRGB), true /*hasAlpha*/,
+                    false /*isAlphaPremultiplied*/, Transparency.TRANSLUCENT,
+                    DataBuffer.TYPE_BYTE);
 
-            return swtReadyImage;
+            return new SwtReadyBufferedImage(model, raster, imageData, device);
         }
     }
 
@@ -41,11 +41,22 @@ import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
 import java.awt.image.DataBufferInt;
+import java.awt.image.WritableRaster;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import javax.imageio.ImageIO;
 
@@ -944,6 +955,202 @@ public class ImageUtils {
         }
     }
 
+    /**
+     * Minimum number of destination pixels handled by each task when
+     * {@link #boxScale} splits its work across processors
+     */
+    private static final int BOX_SCALE_MIN_PIXELS_PER_TASK = 64 * 1024;
+
+    /** Lazily created executor used to scale large images in parallel */
+    private static ExecutorService sScaleExecutor;
+
+    /**
+     * Resize the given image down using a box filter: each destination pixel is the
+     * (alpha weighted) average of the block of source pixels it covers. This gives
+     * the same quality as the repeated halving done by {@link #scale} in a single
+     * pass, and for large images the work is split across the available processors.
+     * <p/>
+     * Scaling up is not handled by this method; it delegates to {@link #scale} when
+     * either scale factor is larger than 1.
+     *
+     * @param source the image to be scaled
+     * @param xScale x scale
+     * @param yScale y scale
+     * @param rightMargin extra margin to add on the right
+     * @param bottomMargin extra margin to add on the bottom
+     * @return the scaled image, of type {@link BufferedImage#TYPE_INT_ARGB}
+     */
+    @NonNull
+    public static BufferedImage boxScale(@NonNull final BufferedImage source,
+            double xScale, double yScale, int rightMargin, int bottomMargin) {
+        if (xScale > 1.0 || yScale > 1.0) {
+            return scale(source, xScale, yScale, rightMargin, bottomMargin);
+        }
+
+        final int sourceWidth = source.getWidth();
+        final int sourceHeight = source.getHeight();
+        final int destWidth = Math.max(1, (int) (xScale * sourceWidth));
+        final int destHeight = Math.max(1, (int) (yScale * sourceHeight));
+        final int scanSize = destWidth + rightMargin;
+        final BufferedImage scaled = new BufferedImage(scanSize, destHeight + bottomMargin,
+                BufferedImage.TYPE_INT_ARGB);
+        final int[] dest = ((DataBufferInt) scaled.getRaster().getDataBuffer()).getData();
+
+        // Source column range [xStart[i], xStart[i + 1]) for each destination column.
+        // Every destination pixel covers at least one source pixel.
+        final int[] xStart = new int[destWidth + 1];
+        for (int x = 0; x <= destWidth; x++) {
+            xStart[x] = Math.min(sourceWidth, (int) ((long) x * sourceWidth / destWidth));
+        }
+        final int[] yStart = new int[destHeight + 1];
+        for (int y = 0; y <= destHeight; y++) {
+            yStart[y] = Math.min(sourceHeight, (int) ((long) y * sourceHeight / destHeight));
+        }
+
+        int taskCount = Math.min(Runtime.getRuntime().availableProcessors(),
+                Math.max(1, destWidth * destHeight / BOX_SCALE_MIN_PIXELS_PER_TASK));
+        taskCount = Math.min(taskCount, destHeight);
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(taskCount);
+        for (int i = 0; i < taskCount; i++) {
+            final int fromRow = destHeight * i / taskCount;
+            final int toRow = destHeight * (i + 1) / taskCount;
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    boxScaleRows(source, sourceWidth, xStart, yStart, fromRow, toRow,
+                            dest, scanSize);
+                    return null;
+                }
+            });
+        }
+
+        if (taskCount == 1) {
+            boxScaleRows(source, sourceWidth, xStart, yStart, 0, destHeight, dest, scanSize);
+        } else {
+            boolean done = false;
+            try {
+                for (Future<Void> future : getScaleExecutor().invokeAll(tasks)) {
+                    future.get();
+                }
+                done = true;
+            } catch (InterruptedException e) {
+                // Preserve the interrupt, but don't return a partially scaled image
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                AdtPlugin.log(e.getCause(), "Failed to scale image in parallel");
+            }
+
+            if (!done) {
+                boxScaleRows(source, sourceWidth, xStart, yStart, 0, destHeight, dest,
+                        scanSize);
+            }
+        }
+
+        return scaled;
+    }
+
+    /**
+     * Computes the destination rows {@code [fromRow, toRow)} of a {@link #boxScale}
+     * operation.
+     */
+    private static void boxScaleRows(BufferedImage source, int sourceWidth,
+            int[] xStart, int[] yStart, int fromRow, int toRow, int[] dest, int scanSize) {
+        int destWidth = xStart.length - 1;
+        int[] row = new int[sourceWidth];
+        long[] alpha = new long[destWidth];
+        long[] red = new long[destWidth];
+        long[] green = new long[destWidth];
+        long[] blue = new long[destWidth];
+        for (int y = fromRow; y < toRow; y++) {
+            Arrays.fill(alpha, 0);
+            Arrays.fill(red, 0);
+            Arrays.fill(green, 0);
+            Arrays.fill(blue, 0);
+            int y0 = yStart[y];
+            int y1 = Math.max(y0 + 1, yStart[y + 1]);
+            for (int sy = y0; sy < y1; sy++) {
+                getRow(source, sy, row);
+                for (int x = 0; x < destWidth; x++) {
+                    int x0 = xStart[x];
+                    int x1 = Math.max(x0 + 1, xStart[x + 1]);
+                    long a = 0;
+                    long r = 0;
+                    long g = 0;
+                    long b = 0;
+                    for (int sx = x0; sx < x1; sx++) {
+                        int argb = row[sx];
+                        int pixelAlpha = argb >>> 24;
+                        a += pixelAlpha;
+                        r += ((argb >> 16) & 0xFF) * pixelAlpha;
+                        g += ((argb >> 8) & 0xFF) * pixelAlpha;
+                        b += (argb & 0xFF) * pixelAlpha;
+                    }
+                    alpha[x] += a;
+                    red[x] += r;
+                    green[x] += g;
+                    blue[x] += b;
+                }
+            }
+
+            int offset = y * scanSize;
+            for (int x = 0; x < destWidth; x++) {
+                long a = alpha[x];
+                if (a == 0) {
+                    dest[offset + x] = 0;
+                    continue;
+                }
+                int area = (y1 - y0) * (Math.max(xStart[x] + 1, xStart[x + 1]) - xStart[x]);
+                int averageAlpha = (int) ((a + area / 2) / area);
+                int r = (int) ((red[x] + a / 2) / a);
+                int g = (int) ((green[x] + a / 2) / a);
+                int b = (int) ((blue[x] + a / 2) / a);
+                dest[offset + x] = averageAlpha << 24 | r << 16 | g << 8 | b;
+            }
+        }
+    }
+
+    /**
+     * Reads a row of ARGB pixels from the given image, directly from its backing store
+     * for the image types rendered by layoutlib and used in the layout editor
+     */
+    private static void getRow(BufferedImage source, int y, int[] row) {
+        int width = row.length;
+        WritableRaster raster = source.getRaster();
+        DataBuffer buffer = raster.getDataBuffer();
+        boolean unshared = raster.getParent() == null && buffer.getNumBanks() == 1;
+        int type = source.getType();
+        if (unshared && type == BufferedImage.TYPE_INT_ARGB
+                && buffer.getSize() == width * source.getHeight()) {
+            int[] data = ((DataBufferInt) buffer).getData();
+            System.arraycopy(data, y * width, row, 0, width);
+        } else if (unshared && type == BufferedImage.TYPE_4BYTE_ABGR
+                && buffer.getSize() == 4 * width * source.getHeight()) {
+            byte[] data = ((DataBufferByte) buffer).getData();
+            for (int x = 0, i = 4 * y * width; x < width; x++, i += 4) {
+                row[x] = (data[i] & 0xFF) << 24 | (data[i + 3] & 0xFF) << 16
+                        | (data[i + 2] & 0xFF) << 8 | (data[i + 1] & 0xFF);
+            }
+        } else {
+            source.getRGB(0, y, width, 1, row, 0, width);
+        }
+    }
+
+    private static synchronized ExecutorService getScaleExecutor() {
+        if (sScaleExecutor == null) {
+            sScaleExecutor = Executors.newFixedThreadPool(
+                    Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Image Scaler"); //$NON-NLS-1$
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return sScaleExecutor;
+    }
+
     /**
      * Returns true if the given file path points to an image file recognized by
      * Android. See http://developer.android.com/guide/appendix/media-formats.html
@@ -44,7 +44,9 @@ import com.android.ide.eclipse.adt.internal.resources.manager.ResourceManager;
 import com.android.ide.eclipse.adt.internal.resources.manager.ResourceManager.IResourceListener;
 import com.android.ide.eclipse.adt.io.IFileWrapper;
 import com.android.io.IAbstractFile;
+import com.android.io.StreamException;
 import com.android.resources.ResourceType;
+import com.google.common.io.Closeables;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IMarker;
@@ -58,11 +60,19 @@ import org.eclipse.wst.sse.core.StructuredModelManager;
 import org.eclipse.wst.sse.core.internal.provisional.IModelManager;
 import org.eclipse.wst.sse.core.internal.provisional.IStructuredModel;
 import org.eclipse.wst.xml.core.internal.provisional.document.IDOMModel;
+import org.kxml2.io.KXmlParser;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
-
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -76,10 +86,18 @@ import java.util.Set;
 /**
  * The include finder finds other XML files that are including a given XML file, and does
  * so efficiently (caching results across IDE sessions etc).
+ * <p>
+ * The includes are kept in an {@link IncludeGraph}, which is updated one file at a time
+ * as layouts are saved, and which tracks include cycles as it is updated. The includes
+ * of each layout are persisted in a property of the layout file itself, so saving a
+ * layout only stores the includes of that layout.
  */
 @SuppressWarnings("restriction") // XML model
 public class IncludeFinder {
-    /** Qualified name for the per-project persistent property include-map */
+    /**
+     * Qualified name for the per-file persistent property storing the includes of a
+     * layout. (This used to be a per-project property storing the whole include-map.)
+     */
     private final static QualifiedName CONFIG_INCLUDES = new QualifiedName(AdtPlugin.PLUGIN_ID,
             "includes");//$NON-NLS-1$
 
@@ -93,14 +111,8 @@ public class IncludeFinder {
     /** Project that the include finder locates includes for */
     private final IProject mProject;
 
-    /** Map from a layout resource name to a set of layouts included by the given resource */
-    private Map<String, List<String>> mIncludes = null;
-
-    /**
-     * Reverse map of {@link #mIncludes}; points to other layouts that are including a
-     * given layouts
-     */
-    private Map<String, List<String>> mIncludedBy = null;
+    /** The layouts included by each layout resource, and the layouts including them */
+    private IncludeGraph mGraph = null;
 
     /** Flag set during a refresh; ignore updates when this is true */
     private static boolean sRefreshing;
@@ -154,7 +166,7 @@ public class IncludeFinder {
     private List<String> getIncludesFrom(String includer) {
         ensureInitialized();
 
-        return mIncludes.get(includer);
+        return mGraph.getIncludes(includer);
     }
 
     /**
@@ -167,11 +179,11 @@ public class IncludeFinder {
     public List<Reference> getIncludedBy(IResource included) {
         ensureInitialized();
         String mapKey = getMapKey(included);
-        List<String> result = mIncludedBy.get(mapKey);
+        List<String> result = mGraph.getIncludedBy(mapKey);
         if (result == null) {
             String name = getResourceName(included);
             if (!name.equals(mapKey)) {
-                result = mIncludedBy.get(name);
+                result = mGraph.getIncludedBy(name);
             }
         }
 
@@ -196,11 +208,11 @@ public class IncludeFinder {
     public boolean isIncluded(IResource included) {
         ensureInitialized();
         String mapKey = getMapKey(included);
-        List<String> result = mIncludedBy.get(mapKey);
+        List<String> result = mGraph.getIncludedBy(mapKey);
         if (result == null) {
             String name = getResourceName(included);
             if (!name.equals(mapKey)) {
-                result = mIncludedBy.get(name);
+                result = mGraph.getIncludedBy(name);
             }
         }
 
@@ -210,25 +222,14 @@ public class IncludeFinder {
     @VisibleForTesting
     /* package */ List<String> getIncludedBy(String included) {
         ensureInitialized();
-        return mIncludedBy.get(included);
+        return mGraph.getIncludedBy(included);
     }
 
     /** Initialize the inclusion data structures, if not already done */
     private void ensureInitialized() {
-        if (mIncludes == null) {
-            // Initialize
-            if (!readSettings()) {
-                // Couldn't read settings: probably the first time this code is running
-                // so there is no known data about includes.
-
-                // Yes, these should be multimaps! If we start using Guava replace
-                // these with multimaps.
-                mIncludes = new HashMap<String, List<String>>();
-                mIncludedBy = new HashMap<String, List<String>>();
-
-                scanProject();
-                saveSettings();
-            }
+        if (mGraph == null) {
+            mGraph = new IncludeGraph();
+            scanProject();
         }
     }
 
@@ -352,27 +353,27 @@ public class IncludeFinder {
     }
 
     /**
-     * Stores the settings in the persistent project storage.
+     * Stores the includes of a layout in the persistent storage of the layout file. The
+     * includes are stored in the format of {@link #encodeMap}, keyed by the modification
+     * stamp of the file such that they are ignored if the file is modified while the
+     * IDE is not running.
+     *
+     * @param file the layout file
+     * @param includes the layouts included by the file
      */
-    private void saveSettings() {
-        // Serialize the mIncludes map into a compact String. The mIncludedBy map can be
-        // inferred from it.
-        String encoded = encodeMap(mIncludes);
+    private static void saveSettings(IFile file, List<String> includes) {
+        String encoded = encodeMap(Collections.singletonMap(
+                Long.toString(file.getModificationStamp()), includes));
 
         try {
             if (encoded.length() >= 2048) {
-                // The maximum length of a setting key is 2KB, according to the javadoc
-                // for the project class. It's unlikely that we'll
-                // hit this -- even with an average layout root name of 20 characters
-                // we can still store over a hundred names. But JUST IN CASE we run
-                // into this, we'll clear out the key in this name which means that the
-                // information will need to be recomputed in the next IDE session.
-                mProject.setPersistentProperty(CONFIG_INCLUDES, null);
-            } else {
-                String existing = mProject.getPersistentProperty(CONFIG_INCLUDES);
-                if (!encoded.equals(existing)) {
-                    mProject.setPersistentProperty(CONFIG_INCLUDES, encoded);
-                }
+                // The maximum length of a setting value is 2KB, according to the javadoc
+                // for the resource class. In the unlikely case a single layout has that
+                // many includes, the file will just be scanned again in the next session.
+                encoded = null;
+            }
+            if (file.exists()) {
+                file.setPersistentProperty(CONFIG_INCLUDES, encoded);
             }
         } catch (CoreException e) {
             AdtPlugin.log(e, "Can't store include settings");
@@ -380,49 +381,56 @@ public class IncludeFinder {
     }
 
     /**
-     * Reads previously stored settings from the persistent project storage
+     * Reads the includes of a layout previously stored by {@link #saveSettings}
      *
-     * @return true iff settings were restored from the project
+     * @param file the layout file
+     * @return the includes of the file, or null if they are not known or out of date
      */
-    private boolean readSettings() {
+    @Nullable
+    private static List<String> readSettings(IFile file) {
         try {
-            String encoded = mProject.getPersistentProperty(CONFIG_INCLUDES);
+            String encoded = file.getPersistentProperty(CONFIG_INCLUDES);
             if (encoded != null) {
-                mIncludes = decodeMap(encoded);
-
-                // Set up a reverse map, pointing from included files to the files that
-                // included them
-                mIncludedBy = new HashMap<String, List<String>>(2 * mIncludes.size());
-                for (Map.Entry<String, List<String>> entry : mIncludes.entrySet()) {
-                    // File containing the <include>
-                    String includer = entry.getKey();
-                    // Files being <include>'ed by the above file
-                    List<String> included = entry.getValue();
-                    setIncludedBy(includer, included);
-                }
-
-                return true;
+                return decodeMap(encoded).get(Long.toString(file.getModificationStamp()));
             }
         } catch (CoreException e) {
             AdtPlugin.log(e, "Can't read include settings");
         }
 
-        return false;
+        return null;
     }
 
     // ----- File scanning -----
 
     /**
-     * Scan the whole project for XML layout resources that are performing includes.
+     * Scan the whole project for XML layout resources that are performing includes. Only
+     * the files whose includes were not stored in a previous session are parsed.
      */
     private void scanProject() {
+        try {
+            // Clear out the include-map stored in the project by older versions
+            if (mProject.getPersistentProperty(CONFIG_INCLUDES) != null) {
+                mProject.setPersistentProperty(CONFIG_INCLUDES, null);
+            }
+        } catch (CoreException e) {
+            AdtPlugin.log(e, "Can't store include settings");
+        }
+
         ProjectResources resources = ResourceManager.getInstance().getProjectResources(mProject);
         if (resources != null) {
             Collection<ResourceItem> layouts = resources.getResourceItemsOfType(LAYOUT);
             for (ResourceItem layout : layouts) {
                 List<ResourceFile> sources = layout.getSourceFileList();
                 for (ResourceFile source : sources) {
-                    updateFileIncludes(source, false);
+                    List<String> includes = null;
+                    if (source.getFile() instanceof IFileWrapper) {
+                        includes = readSettings(((IFileWrapper) source.getFile()).getIFile());
+                    }
+                    if (includes != null) {
+                        mGraph.setIncludes(getMapKey(source), includes);
+                    } else {
+                        updateFileIncludes(source, false);
+                    }
                 }
             }
 
@@ -440,6 +448,7 @@ public class IncludeFinder {
      *            (e.g. during initial project scanning)
      * @return true if we updated the includes for the resource file
      */
+    @SuppressWarnings("resource") // Eclipse doesn't understand Closeables.closeQuietly yet
     private boolean updateFileIncludes(ResourceFile resourceFile, boolean singleUpdate) {
         Collection<ResourceType> resourceTypes = resourceFile.getResourceTypes();
         for (ResourceType type : resourceTypes) {
@@ -447,8 +456,9 @@ public class IncludeFinder {
                 ensureInitialized();
 
                 List<String> includes = Collections.emptyList();
+                IFile file = null;
                 if (resourceFile.getFile() instanceof IFileWrapper) {
-                    IFile file = ((IFileWrapper) resourceFile.getFile()).getIFile();
+                    file = ((IFileWrapper) resourceFile.getFile()).getIFile();
 
                     // See if we have an existing XML model for this file; if so, we can
                     // just look directly at the parse tree
@@ -469,35 +479,50 @@ public class IncludeFinder {
                         }
                     }
 
-                    // If no XML model we have to read the XML contents and (possibly) parse it.
+                    // If no XML model we have to scan the XML contents.
                     // The actual file may not exist anymore (e.g. when deleting a layout file
                     // or when the workspace is out of sync.)
                     if (!hadXmlModel) {
-                        String xml = AdtPlugin.readFile(file);
-                        if (xml != null) {
-                            includes = findIncludes(xml);
+                        InputStream contents = null;
+                        try {
+                            contents = file.getContents();
+                            includes = findIncludes(
+                                    new InputStreamReader(contents, file.getCharset()));
+                        } catch (CoreException e) {
+                            // pass -- ignore files we can't read
+                        } catch (IOException e) {
+                            // pass -- ignore files we can't read (see AdtPlugin#readFile)
+                        } finally {
+                            Closeables.closeQuietly(contents);
                         }
                     }
                 } else {
-                    String xml = AdtPlugin.readFile(resourceFile);
-                    if (xml != null) {
-                        includes = findIncludes(xml);
+                    InputStream contents = null;
+                    try {
+                        contents = resourceFile.getFile().getContents();
+                        includes = findIncludes(new InputStreamReader(contents));
+                    } catch (StreamException e) {
+                        // pass -- ignore files we can't read
+                    } finally {
+                        Closeables.closeQuietly(contents);
                     }
                 }
 
+                // Store the includes along with the current modification stamp, even when
+                // they are unchanged
+                if (file != null) {
+                    saveSettings(file, includes);
+                }
+
                 String key = getMapKey(resourceFile);
                 if (includes.equals(getIncludesFrom(key))) {
-                    // Common case -- so avoid doing settings flush etc
+                    // Common case -- so avoid updating the graph
                     return false;
                 }
 
                 boolean detectCycles = singleUpdate;
                 setIncluded(key, includes, detectCycles);
 
-                if (singleUpdate) {
-                    saveSettings();
-                }
-
                 return true;
             }
         }
@@ -515,27 +540,75 @@ public class IncludeFinder {
     static List<String> findIncludes(@NonNull String xml) {
         int index = xml.indexOf(ATTR_LAYOUT);
         if (index != -1) {
-            return findIncludesInXml(xml);
+            return findIncludes(new StringReader(xml));
         }
 
         return Collections.emptyList();
     }
 
     /**
-     * Parses the given XML content and extracts all the included URLs and returns them
+     * Scans the given XML content with a pull parser, without building a document, and
+     * extracts all the included URLs. Like a layout that can't be parsed into a document,
+     * content which isn't well-formed has no includes.
      *
-     * @param xml layout XML content to be parsed for includes
-     * @return a list of included urls, or null
+     * @param reader layout XML content to be scanned for includes
+     * @return a list of included urls, never null
      */
-    @VisibleForTesting
     @NonNull
-    static List<String> findIncludesInXml(@NonNull String xml) {
-        Document document = DomUtilities.parseDocument(xml, false /*logParserErrors*/);
-        if (document != null) {
-            return findIncludesInDocument(document);
+    private static List<String> findIncludes(@NonNull Reader reader) {
+        List<String> urls = null;
+        try {
+            KXmlParser parser = new KXmlParser();
+            parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+            parser.setInput(reader);
+
+            int event;
+            while ((event = parser.next()) != XmlPullParser.END_DOCUMENT) {
+                if (event != XmlPullParser.START_TAG || parser.getPrefix() != null) {
+                    continue;
+                }
+
+                String tag = parser.getName();
+                boolean isInclude = tag.equals(VIEW_INCLUDE);
+                boolean isFragment = tag.equals(VIEW_FRAGMENT);
+                if (isInclude || isFragment) {
+                    String url = null;
+                    for (int i = 0, n = parser.getAttributeCount(); i < n; i++) {
+                        if (!ATTR_LAYOUT.equals(parser.getAttributeName(i))) {
+                            continue;
+                        }
+                        String namespace = parser.getAttributeNamespace(i);
+                        if (isInclude ? namespace == null || namespace.length() == 0
+                                : TOOLS_URI.equals(namespace)) {
+                            url = parser.getAttributeValue(i);
+                            break;
+                        }
+                    }
+                    if (url != null && url.length() > 0) {
+                        String resourceName = urlToLocalResource(url);
+                        if (resourceName != null) {
+                            if (urls == null) {
+                                urls = new ArrayList<String>();
+                            }
+                            urls.add(resourceName);
+                        }
+                    }
+                }
+            }
+        } catch (XmlPullParserException e) {
+            // pass -- ignore files we can't parse
+            return Collections.emptyList();
+        } catch (IOException e) {
+            // pass -- ignore files we can't read
+            return Collections.emptyList();
+        } finally {
+            Closeables.closeQuietly(reader);
         }
 
-        return Collections.emptyList();
+        if (urls == null) {
+            return Collections.emptyList();
+        }
+        return urls;
     }
 
     /** Searches the given DOM document and returns the list of includes, if any */
@@ -623,36 +696,14 @@ public class IncludeFinder {
      */
     @VisibleForTesting
     /* package */ void setIncluded(String includer, List<String> included, boolean detectCycles) {
-        // Remove previously linked inverse mappings
-        List<String> oldIncludes = mIncludes.get(includer);
-        if (oldIncludes != null && oldIncludes.size() > 0) {
-            for (String includee : oldIncludes) {
-                List<String> includers = mIncludedBy.get(includee);
-                if (includers != null) {
-                    includers.remove(includer);
-                }
-            }
-        }
-
-        mIncludes.put(includer, included);
-        // Reverse mapping: for included items, point back to including file
-        setIncludedBy(includer, included);
+        Collection<String> affected = mGraph.setIncludes(includer, included);
 
         if (detectCycles) {
             detectCycles(includer);
-        }
-    }
-
-    /** Record the list of included layouts from the given layout */
-    private void setIncludedBy(String includer, List<String> included) {
-        for (String target : included) {
-            List<String> list = mIncludedBy.get(target);
-            if (list == null) {
-                list = new ArrayList<String>(2); // We don't expect many includes
-                mIncludedBy.put(target, list);
-            }
-            if (!list.contains(includer)) {
-                list.add(includer);
+            for (String layout : affected) {
+                if (!layout.equals(includer)) {
+                    detectCycles(layout);
+                }
             }
         }
     }
@@ -732,9 +783,7 @@ public class IncludeFinder {
 
             IncludeFinder finder = get(project);
             if (finder != null) {
-                if (finder.updateFileIncludes(file, true)) {
-                    finder.saveSettings();
-                }
+                finder.updateFileIncludes(file, true);
             }
         }
 
@@ -747,42 +796,15 @@ public class IncludeFinder {
     // ----- Cycle detection -----
 
     private void detectCycles(String from) {
-        // Perform DFS on the include graph and look for a cycle; if we find one, produce
-        // a chain of includes on the way back to show to the user
-        if (mIncludes.size() > 0) {
-            Set<String> visiting = new HashSet<String>(mIncludes.size());
-            String chain = dfs(from, visiting);
-            if (chain != null) {
-                addError(from, chain);
-            } else {
-                // Is there an existing error for us to clean up?
-                removeErrors(from);
-            }
-        }
-    }
-
-    /** Format to chain include cycles in: a=>b=>c=>d etc */
-    private final String CHAIN_FORMAT = "%1$s=>%2$s"; //$NON-NLS-1$
-
-    private String dfs(String from, Set<String> visiting) {
-        visiting.add(from);
-
-        List<String> includes = mIncludes.get(from);
-        if (includes != null && includes.size() > 0) {
-            for (String include : includes) {
-                if (visiting.contains(include)) {
-                    return String.format(CHAIN_FORMAT, from, include);
-                }
-                String chain = dfs(include, visiting);
-                if (chain != null) {
-                    return String.format(CHAIN_FORMAT, from, chain);
-                }
-            }
+        // The graph knows whether the layout is part of a cycle; if it is, produce
+        // a chain of includes back to the layout to show to the user
+        String chain = mGraph.findCycle(from);
+        if (chain != null) {
+            addError(from, chain);
+        } else {
+            // Is there an existing error for us to clean up?
+            removeErrors(from);
         }
-
-        visiting.remove(from);
-
-        return null;
     }
 
     private void removeErrors(String from) {
@@ -913,8 +935,7 @@ public class IncludeFinder {
     @VisibleForTesting
     /* package */ static IncludeFinder create() {
         IncludeFinder finder = new IncludeFinder(null);
-        finder.mIncludes = new HashMap<String, List<String>>();
-        finder.mIncludedBy = new HashMap<String, List<String>>();
+        finder.mGraph = new IncludeGraph();
         return finder;
     }
 
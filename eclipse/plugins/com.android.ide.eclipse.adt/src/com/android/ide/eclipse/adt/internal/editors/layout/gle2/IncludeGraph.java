@@ -0,0 +1,461 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.editors.layout.gle2;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The include relation between the layouts of a project, as a graph of layouts with both
+ * the included and the including layouts of each layout, which maintains its strongly
+ * connected components as includes are updated such that include cycles are known without
+ * searching the whole graph.
+ * <p>
+ * The components are kept in a topological order, where each layout comes before the
+ * layouts it includes, with the algorithm by Pearce and Kelly ("A Dynamic Topological
+ * Sort Algorithm for Directed Acyclic Graphs", 2006): adding an include which agrees with
+ * the order costs nothing, and otherwise only the components between the two layouts in
+ * the order are visited. If the included layout can reach the includer, the components on
+ * the paths between them form a cycle and are merged. Removing an include within a
+ * component, which only happens when a cycle is broken, recomputes the components of that
+ * cycle and renumbers the order.
+ */
+class IncludeGraph {
+    /** Map from a layout name to its node */
+    private final Map<String, Node> mNodes = new HashMap<String, Node>();
+
+    /** The smallest and largest component order in use */
+    private int mMinOrder = 0;
+    private int mMaxOrder = -1;
+
+    /** A layout in the graph */
+    private static class Node {
+        private final String mName;
+
+        /** The includes of this layout as they were last set, or null if never set */
+        private List<String> mIncludeNames;
+
+        /** The distinct layouts included by this layout */
+        private List<Node> mIncludes = Collections.emptyList();
+
+        /** The layouts including this layout, or null if it was never included */
+        private List<Node> mIncludedBy;
+
+        private Component mComponent;
+
+        private Node(String name) {
+            mName = name;
+        }
+    }
+
+    /** A strongly connected component of the graph */
+    private static class Component {
+        private final List<Node> mMembers;
+
+        /** The position of this component in the topological order */
+        private int mOrder;
+
+        private Component(List<Node> members, int order) {
+            mMembers = members;
+            mOrder = order;
+            for (Node member : members) {
+                member.mComponent = this;
+            }
+        }
+
+        /** Returns true if the members of this component include each other */
+        private boolean isCyclic() {
+            if (mMembers.size() > 1) {
+                return true;
+            }
+            Node node = mMembers.get(0);
+            return node.mIncludes.contains(node);
+        }
+    }
+
+    private static final Comparator<Component> ORDER_COMPARATOR = new Comparator<Component>() {
+        @Override
+        public int compare(Component c1, Component c2) {
+            return c1.mOrder - c2.mOrder;
+        }
+    };
+
+    /**
+     * Returns the includes of the given layout, as they were last set
+     *
+     * @param includer the layout to look up the includes for
+     * @return the included layouts, or null if they were never set
+     */
+    @Nullable
+    List<String> getIncludes(@NonNull String includer) {
+        Node node = mNodes.get(includer);
+        return node != null ? node.mIncludeNames : null;
+    }
+
+    /**
+     * Returns the layouts including the given layout
+     *
+     * @param included the included layout
+     * @return the including layouts, or null if the layout was never included
+     */
+    @Nullable
+    List<String> getIncludedBy(@NonNull String included) {
+        Node node = mNodes.get(included);
+        if (node == null || node.mIncludedBy == null) {
+            return null;
+        }
+
+        List<String> names = new ArrayList<String>(node.mIncludedBy.size());
+        for (Node includer : node.mIncludedBy) {
+            names.add(includer.mName);
+        }
+        return names;
+    }
+
+    /**
+     * Sets the layouts included by the given layout
+     *
+     * @param includer the layout including other layouts
+     * @param included the layouts that are included by the including layout
+     * @return the layouts which may have entered or left an include cycle
+     */
+    @NonNull
+    Collection<String> setIncludes(@NonNull String includer, @NonNull List<String> included) {
+        // A layout which is updated is typically including the layouts which are already
+        // known, so it starts at the front of the order, and the layouts it includes
+        // start at the back
+        Node node = getNode(includer, true);
+        node.mIncludeNames = included;
+
+        Set<Node> targets = new LinkedHashSet<Node>();
+        for (String name : included) {
+            targets.add(getNode(name, false));
+        }
+
+        Set<Node> affected = new LinkedHashSet<Node>();
+
+        // Remove the includes which are gone
+        Set<Node> previous = new HashSet<Node>(node.mIncludes);
+        List<Node> kept = new ArrayList<Node>(targets.size());
+        boolean split = false;
+        for (Node target : node.mIncludes) {
+            if (targets.contains(target)) {
+                kept.add(target);
+            } else {
+                target.mIncludedBy.remove(node);
+                split |= target.mComponent == node.mComponent;
+            }
+        }
+        node.mIncludes = kept;
+        if (split) {
+            splitComponent(node.mComponent, affected);
+        }
+
+        // Add the new includes one at a time, such that the order holds for all the
+        // other edges when each one is added
+        for (Node target : targets) {
+            if (!previous.contains(target)) {
+                node.mIncludes.add(target);
+                if (target.mIncludedBy == null) {
+                    target.mIncludedBy = new ArrayList<Node>(2); // We don't expect many
+                }
+                target.mIncludedBy.add(node);
+                addEdge(node, target, affected);
+            }
+        }
+
+        // Keep the includes in document order
+        node.mIncludes = new ArrayList<Node>(targets);
+
+        List<String> names = new ArrayList<String>(affected.size());
+        for (Node n : affected) {
+            names.add(n.mName);
+        }
+        return names;
+    }
+
+    /**
+     * Returns a chain of includes from the given layout back to itself, if it is part of
+     * an include cycle
+     *
+     * @param name the layout to look for a cycle from
+     * @return the chain, such as "a=>b=>c=>a", or null if the layout is not in a cycle
+     */
+    @Nullable
+    String findCycle(@NonNull String name) {
+        Node node = mNodes.get(name);
+        if (node == null || !node.mComponent.isCyclic()) {
+            return null;
+        }
+
+        // Breadth first search within the component for the shortest way back
+        Component component = node.mComponent;
+        Map<Node, Node> parents = new HashMap<Node, Node>();
+        LinkedList<Node> queue = new LinkedList<Node>();
+        queue.add(node);
+        while (!queue.isEmpty()) {
+            Node current = queue.removeFirst();
+            for (Node target : current.mIncludes) {
+                if (target == node) {
+                    LinkedList<String> chain = new LinkedList<String>();
+                    chain.add(node.mName);
+                    for (Node n = current; n != null; n = parents.get(n)) {
+                        chain.addFirst(n.mName);
+                    }
+                    StringBuilder sb = new StringBuilder();
+                    for (String s : chain) {
+                        if (sb.length() > 0) {
+                            sb.append('=').append('>');
+                        }
+                        sb.append(s);
+                    }
+                    return sb.toString();
+                }
+                if (target.mComponent == component && !parents.containsKey(target)) {
+                    parents.put(target, current);
+                    queue.addLast(target);
+                }
+            }
+        }
+
+        assert false : name;
+        return null;
+    }
+
+    private Node getNode(String name, boolean front) {
+        Node node = mNodes.get(name);
+        if (node == null) {
+            node = new Node(name);
+            new Component(new ArrayList<Node>(Collections.singletonList(node)),
+                    front ? --mMinOrder : ++mMaxOrder);
+            mNodes.put(name, node);
+        }
+        return node;
+    }
+
+    /** Updates the components for an include which was just added */
+    private void addEdge(Node from, Node to, Set<Node> affected) {
+        Component source = from.mComponent;
+        Component target = to.mComponent;
+        if (source == target) {
+            if (from == to) {
+                // Including itself
+                affected.add(from);
+            }
+            return;
+        }
+        if (source.mOrder < target.mOrder) {
+            // Common case: the order already holds
+            return;
+        }
+
+        // Find the components reachable from the target which are not after the source,
+        // and the components which can reach the source which are not before the target.
+        // Only these need to be reordered, and the components in both sets are on a
+        // cycle through the new edge.
+        Set<Component> forward = new HashSet<Component>();
+        Set<Component> backward = new HashSet<Component>();
+        search(target, source.mOrder, true, forward);
+        search(source, target.mOrder, false, backward);
+
+        List<Component> before = new ArrayList<Component>();
+        List<Component> after = new ArrayList<Component>();
+        List<Node> cycle = new ArrayList<Node>();
+        int[] orders = new int[forward.size() + backward.size()];
+        int count = 0;
+        for (Component component : backward) {
+            orders[count++] = component.mOrder;
+            if (forward.contains(component)) {
+                cycle.addAll(component.mMembers);
+            } else {
+                before.add(component);
+            }
+        }
+        for (Component component : forward) {
+            if (!backward.contains(component)) {
+                orders[count++] = component.mOrder;
+                after.add(component);
+            }
+        }
+        Arrays.sort(orders, 0, count);
+        Collections.sort(before, ORDER_COMPARATOR);
+        Collections.sort(after, ORDER_COMPARATOR);
+
+        // Reuse the positions of the visited components: the components which reach the
+        // source take the first ones, and the components reachable from the target the
+        // last ones. A new cycle takes a single position in between.
+        for (int i = 0; i < before.size(); i++) {
+            before.get(i).mOrder = orders[i];
+        }
+        for (int i = 0; i < after.size(); i++) {
+            after.get(i).mOrder = orders[count - after.size() + i];
+        }
+        if (!cycle.isEmpty()) {
+            new Component(cycle, orders[before.size()]);
+            affected.addAll(cycle);
+        }
+    }
+
+    /**
+     * Collects the components reachable from (or, if not forward, which can reach) the
+     * given component, without going past the given order
+     */
+    private static void search(Component start, int bound, boolean forward,
+            Set<Component> visited) {
+        List<Component> stack = new ArrayList<Component>();
+        stack.add(start);
+        visited.add(start);
+        while (!stack.isEmpty()) {
+            Component component = stack.remove(stack.size() - 1);
+            for (Node member : component.mMembers) {
+                List<Node> neighbors = forward ? member.mIncludes : member.mIncludedBy;
+                if (neighbors == null) {
+                    continue;
+                }
+                for (Node neighbor : neighbors) {
+                    Component next = neighbor.mComponent;
+                    if ((forward ? next.mOrder <= bound : next.mOrder >= bound)
+                            && visited.add(next)) {
+                        stack.add(next);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Recomputes the components within a component which lost an include */
+    private void splitComponent(Component component, Set<Node> affected) {
+        affected.addAll(component.mMembers);
+        if (component.mMembers.size() == 1) {
+            // No longer including itself
+            return;
+        }
+
+        List<List<Node>> parts = new ArrayList<List<Node>>();
+        Map<Node, int[]> indices = new HashMap<Node, int[]>();
+        List<Node> stack = new ArrayList<Node>();
+        for (Node member : component.mMembers) {
+            if (!indices.containsKey(member)) {
+                tarjan(member, component, indices, stack, parts);
+            }
+        }
+        if (parts.size() == 1) {
+            return;
+        }
+
+        for (List<Node> part : parts) {
+            new Component(part, 0);
+        }
+        renumber();
+    }
+
+    /**
+     * Tarjan's algorithm, restricted to the members of the given component. Each index
+     * array holds the index and low link of a node, with an index of -1 once the node has
+     * been assigned to a part.
+     */
+    private static void tarjan(Node node, Component component, Map<Node, int[]> indices,
+            List<Node> stack, List<List<Node>> parts) {
+        int[] index = new int[] { indices.size(), indices.size() };
+        indices.put(node, index);
+        stack.add(node);
+
+        for (Node target : node.mIncludes) {
+            if (target.mComponent != component) {
+                continue;
+            }
+            int[] targetIndex = indices.get(target);
+            if (targetIndex == null) {
+                tarjan(target, component, indices, stack, parts);
+                index[1] = Math.min(index[1], indices.get(target)[1]);
+            } else if (targetIndex[0] != -1) {
+                // Still on the stack
+                index[1] = Math.min(index[1], targetIndex[0]);
+            }
+        }
+
+        if (index[1] == index[0]) {
+            List<Node> part = new ArrayList<Node>();
+            Node member;
+            do {
+                member = stack.remove(stack.size() - 1);
+                indices.get(member)[0] = -1;
+                part.add(member);
+            } while (member != node);
+            parts.add(part);
+        }
+    }
+
+    /** Assigns a new topological order to all the components */
+    private void renumber() {
+        // Kahn's algorithm, counting the includes between components
+        Map<Component, int[]> incoming = new HashMap<Component, int[]>();
+        for (Node node : mNodes.values()) {
+            if (!incoming.containsKey(node.mComponent)) {
+                incoming.put(node.mComponent, new int[1]);
+            }
+            for (Node target : node.mIncludes) {
+                if (target.mComponent != node.mComponent) {
+                    int[] count = incoming.get(target.mComponent);
+                    if (count == null) {
+                        count = new int[1];
+                        incoming.put(target.mComponent, count);
+                    }
+                    count[0]++;
+                }
+            }
+        }
+
+        List<Component> queue = new ArrayList<Component>();
+        for (Map.Entry<Component, int[]> entry : incoming.entrySet()) {
+            if (entry.getValue()[0] == 0) {
+                queue.add(entry.getKey());
+            }
+        }
+
+        int order = 0;
+        while (!queue.isEmpty()) {
+            Component component = queue.remove(queue.size() - 1);
+            component.mOrder = order++;
+            for (Node member : component.mMembers) {
+                for (Node target : member.mIncludes) {
+                    if (target.mComponent != component
+                            && --incoming.get(target.mComponent)[0] == 0) {
+                        queue.add(target.mComponent);
+                    }
+                }
+            }
+        }
+        assert order == incoming.size();
+
+        mMinOrder = 0;
+        mMaxOrder = order - 1;
+    }
+}
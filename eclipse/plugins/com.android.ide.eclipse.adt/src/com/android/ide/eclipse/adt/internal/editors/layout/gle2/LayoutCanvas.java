@@ -48,6 +48,7 @@ import org.eclipse.core.resources.IWorkspaceRoot;
 import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.QualifiedName;
 import org.eclipse.jdt.internal.ui.javaeditor.EditorUtility;
 import org.eclipse.jface.action.Action;
@@ -123,6 +124,9 @@ public class LayoutCanvas extends Canvas {
 
     private static final boolean DEBUG = false;
 
+    /** Whether the time spent in each stage of a render should be logged */
+    static final boolean DEBUG_TIMINGS = Boolean.getBoolean("adt.render.timings"); //$NON-NLS-1$
+
     static final String PREFIX_CANVAS_ACTION = "canvas_action_"; //$NON-NLS-1$
 
     /** The layout editor that uses this layout canvas. */
@@ -752,17 +756,47 @@ public class LayoutCanvas extends Canvas {
      */
     void setSession(RenderSession session, Set<UiElementNode> explodedNodes,
             boolean layoutlib5) {
+        // The hover and selection are painted on top of the image; remember where, such
+        // that they are repainted even if the image itself does not change
+        Rectangle oldOverlayBounds = getViewOverlayBounds();
+
         // disable any hover
         clearHover();
 
+        long start = DEBUG_TIMINGS ? System.nanoTime() : 0;
         mViewHierarchy.setSession(session, explodedNodes, layoutlib5);
+        long hierarchyTime = DEBUG_TIMINGS ? System.nanoTime() - start : 0;
+        Rectangle dirty = null;
         if (mViewHierarchy.isValid() && session != null) {
+            start = DEBUG_TIMINGS ? System.nanoTime() : 0;
+            Rectangle oldImageBounds = mImageOverlay.getImage() != null
+                    ? mImageOverlay.getImage().getBounds() : null;
             Image image = mImageOverlay.setImage(session.getImage(),
                     session.isAlphaChannelImage());
+            long imageTime = DEBUG_TIMINGS ? System.nanoTime() - start : 0;
 
             mOutlinePage.setModel(mViewHierarchy.getRoot());
             getGraphicalEditor().setModel(mViewHierarchy.getRoot());
 
+            // If the layout geometry did not change, the selection and other overlays
+            // are unaffected, and only the area of the image which changed needs
+            // to be repainted
+            List<CanvasViewInfo> changedViews = mViewHierarchy.getChangedViews();
+            if (image != null && changedViews != null && changedViews.isEmpty()
+                    && image.getBounds().equals(oldImageBounds)) {
+                dirty = mImageOverlay.getLastDirtyBounds();
+            }
+
+            if (DEBUG_TIMINGS) {
+                AdtPlugin.log(IStatus.INFO,
+                        "Render timings: view hierarchy %1$d ms, %2$s changed views, " //$NON-NLS-1$
+                        + "image transfer %3$d ms, dirty region %4$s",              //$NON-NLS-1$
+                        hierarchyTime / 1000000,
+                        changedViews != null ? changedViews.size() : "all",         //$NON-NLS-1$
+                        imageTime / 1000000,
+                        mImageOverlay.getLastDirtyBounds());
+            }
+
             if (image != null) {
                 updateScrollBars();
                 if (mZoomFitNextImage) {
@@ -783,7 +817,60 @@ public class LayoutCanvas extends Canvas {
             }
         }
 
-        redraw();
+        if (dirty != null) {
+            if (!dirty.isEmpty()) {
+                // Pad by a pixel on each side to account for rounding in the zoom
+                redrawLayoutRect(dirty, 1);
+            }
+
+            // The views did not move, but the hover was cleared and the selection was
+            // synced with the new views, so repaint the overlays in both their old and
+            // new locations, including the selection handles
+            Rectangle overlayBounds = getViewOverlayBounds();
+            if (oldOverlayBounds != null) {
+                overlayBounds = overlayBounds != null
+                        ? overlayBounds.union(oldOverlayBounds) : oldOverlayBounds;
+            }
+            if (overlayBounds != null) {
+                redrawLayoutRect(overlayBounds, SelectionHandle.PIXEL_RADIUS + 1);
+            }
+        } else {
+            redraw();
+        }
+    }
+
+    /**
+     * Returns the bounds, in layout coordinates, of the overlays painted for the
+     * rendered views: the hover and the selection, including the selection feedback
+     * painted by the layout rules within the parents of the selected views.
+     *
+     * @return the bounds of the view overlays, or null if there are none
+     */
+    @Nullable
+    private Rectangle getViewOverlayBounds() {
+        Rectangle bounds = mHoverOverlay.getHoverRect();
+        for (SelectionItem item : mSelectionManager.getSelections()) {
+            CanvasViewInfo view = item.getViewInfo();
+            CanvasViewInfo parent = view.getParent();
+            Rectangle rect = (parent != null ? parent : view).getSelectionRect();
+            bounds = bounds != null ? bounds.union(rect) : rect;
+        }
+
+        return bounds;
+    }
+
+    /**
+     * Redraws the given rectangle, in layout coordinates
+     *
+     * @param rect the rectangle to redraw
+     * @param padding the number of control pixels to redraw around the rectangle
+     */
+    private void redrawLayoutRect(@NonNull Rectangle rect, int padding) {
+        int x1 = mHScale.translate(rect.x) - padding;
+        int y1 = mVScale.translate(rect.y) - padding;
+        int x2 = mHScale.translate(rect.x + rect.width) + padding;
+        int y2 = mVScale.translate(rect.y + rect.height) + padding;
+        redraw(x1, y1, x2 - x1, y2 - y1, false);
     }
 
     void ensureZoomed() {
@@ -679,7 +679,7 @@ public class RenderPreview implements IJobChangeListener {
         }
         if (scale < 1.0) {
             if (LARGE_SHADOWS) {
-                image = ImageUtils.scale(image, scale, scale,
+                image = ImageUtils.boxScale(image, scale, scale,
                         shadowSize, shadowSize);
                 if (drawShadows) {
                     ImageUtils.drawRectangleShadow(image, 0, 0,
@@ -687,7 +687,7 @@ public class RenderPreview implements IJobChangeListener {
                             image.getHeight() - shadowSize);
                 }
             } else {
-                image = ImageUtils.scale(image, scale, scale,
+                image = ImageUtils.boxScale(image, scale, scale,
                         shadowSize, shadowSize);
                 if (drawShadows) {
                     ImageUtils.drawSmallRectangleShadow(image, 0, 0,
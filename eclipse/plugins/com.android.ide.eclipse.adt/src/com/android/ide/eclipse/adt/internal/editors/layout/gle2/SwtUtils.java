@@ -129,6 +129,24 @@ public class SwtUtils {
      */
     public static Image convertToSwt(Device display, BufferedImage awtImage,
             boolean transferAlpha, int globalAlpha) {
+        return new Image(display, convertToSwtData(awtImage, transferAlpha, globalAlpha));
+    }
+
+    /**
+     * Converts an AWT image to SWT image data, as described in
+     * {@link #convertToSwt(Device, BufferedImage, boolean, int)}. Unlike creating the
+     * SWT image itself, this does not involve the display, so it can be done from any
+     * thread.
+     *
+     * @param awtImage The AWT {@link BufferedImage}
+     * @param transferAlpha If true, copy alpha data out of the source image
+     * @param globalAlpha If -1, do nothing, otherwise adjust the alpha of the final image
+     *            by the given amount in the range [0,255]
+     * @return A new SWT {@link ImageData} with the same contents as the source
+     *         {@link BufferedImage}
+     */
+    public static ImageData convertToSwtData(BufferedImage awtImage,
+            boolean transferAlpha, int globalAlpha) {
         if (!isSupportedPaletteType(awtImage.getType())) {
             awtImage = convertToCompatibleFormat(awtImage);
         }
@@ -150,7 +168,7 @@ public class SwtUtils {
                 imageData.setPixels(0, 0, imageDataBuffer.length, imageDataBuffer, 0);
             } catch (SWTException se) {
                 // Unsupported depth
-                return convertToSwt(display, convertToCompatibleFormat(awtImage),
+                return convertToSwtData(convertToCompatibleFormat(awtImage),
                         transferAlpha, globalAlpha);
             }
         }
@@ -178,7 +196,7 @@ public class SwtUtils {
             imageData.alpha = globalAlpha;
         }
 
-        return new Image(display, imageData);
+        return imageData;
     }
 
     /**
@@ -43,7 +43,6 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.RandomAccess;
 import java.util.Set;
 
 /**
@@ -123,6 +122,19 @@ public class ViewHierarchy {
     /** Map from DOM nodes to canvas view infos */
     private Map<Node, CanvasViewInfo> mDomNodeToView = Collections.emptyMap();
 
+    /**
+     * The views which differ between the view hierarchy created by the last call to
+     * {@link #setSession} and the one before it, or null if the two could not be
+     * compared (for example because one of them was invalid).
+     */
+    private List<CanvasViewInfo> mChangedViews;
+
+    /**
+     * Spatial index over {@link #mLastValidViewInfoRoot}, used for hit testing. This is
+     * created lazily on the first query after the view hierarchy changes.
+     */
+    private ViewHierarchyIndex mIndex;
+
     /**
      * Disposes the view hierarchy content.
      */
@@ -156,8 +168,12 @@ public class ViewHierarchy {
             mSession.dispose();
         }
 
+        CanvasViewInfo previousRoot = mIsResultValid ? mLastValidViewInfoRoot : null;
+        mChangedViews = null;
+
         mSession = session;
         mIsResultValid = (session != null && session.getResult().isSuccess());
+        mIndex = null;
         mExplodedParents = false;
         mNodeToView = new HashMap<UiViewElementNode, CanvasViewInfo>(50);
         if (mIsResultValid && session != null) {
@@ -216,6 +232,11 @@ public class ViewHierarchy {
                 mIncludedBounds = null;
             }
 
+            if (previousRoot != null && mLastValidViewInfoRoot != null) {
+                mChangedViews = new ArrayList<CanvasViewInfo>();
+                addChangedViews(previousRoot, mLastValidViewInfoRoot, mChangedViews);
+            }
+
             updateNodeProxies(mLastValidViewInfoRoot);
 
             // Update the data structures related to tracking invisible and exploded nodes.
@@ -240,6 +261,57 @@ public class ViewHierarchy {
         }
     }
 
+    /**
+     * Compares a previous view hierarchy with a new one and adds the roots of the
+     * subtrees which differ to the given list. A subtree differs when its node, its
+     * view class, its bounds or its number of children changed; in that case only the
+     * new and old subtree roots are added, not their descendants.
+     *
+     * @param oldView the root of a subtree in the previous view hierarchy
+     * @param newView the corresponding root in the new view hierarchy
+     * @param changed the list to add the changed views to
+     */
+    private static void addChangedViews(
+            @NonNull CanvasViewInfo oldView,
+            @NonNull CanvasViewInfo newView,
+            @NonNull List<CanvasViewInfo> changed) {
+        String oldName = oldView.getName();
+        if (oldView.getUiViewNode() != newView.getUiViewNode()
+                || (oldName == null ? newView.getName() != null
+                        : !oldName.equals(newView.getName()))
+                || !oldView.getAbsRect().equals(newView.getAbsRect())) {
+            changed.add(oldView);
+            changed.add(newView);
+            return;
+        }
+
+        List<CanvasViewInfo> oldChildren = oldView.getChildren();
+        List<CanvasViewInfo> newChildren = newView.getChildren();
+        if (oldChildren.size() != newChildren.size()) {
+            changed.add(oldView);
+            changed.add(newView);
+            return;
+        }
+
+        for (int i = 0, n = newChildren.size(); i < n; i++) {
+            addChangedViews(oldChildren.get(i), newChildren.get(i), changed);
+        }
+    }
+
+    /**
+     * Returns the roots of the subtrees which were added, removed or changed bounds
+     * in the last call to {@link #setSession}, compared to the view hierarchy before
+     * it. Both the old and the new version of each changed subtree root is included.
+     * An empty list means that the layout geometry is unchanged (although the
+     * rendering of individual views, such as their colors, may have changed).
+     *
+     * @return the changed views, or null if the hierarchies could not be compared
+     */
+    @Nullable
+    List<CanvasViewInfo> getChangedViews() {
+        return mChangedViews;
+    }
+
     private ViewInfo createMergeInfo(RenderSession session) {
         BufferedImage image = session.getImage();
         ControlPoint imageSize = ControlPoint.create(mCanvas,
@@ -393,38 +465,26 @@ public class ViewHierarchy {
             LayoutPoint bottomRight) {
         Rectangle selectionRectangle = new Rectangle(topLeft.x, topLeft.y, bottomRight.x
                 - topLeft.x, bottomRight.y - topLeft.y);
-        List<CanvasViewInfo> infos = new ArrayList<CanvasViewInfo>();
-        addWithin(mLastValidViewInfoRoot, selectionRectangle, infos);
-        return infos;
+        ViewHierarchyIndex index = getIndex();
+        if (index == null) {
+            return new ArrayList<CanvasViewInfo>();
+        }
+        return index.findWithin(selectionRectangle);
     }
 
     /**
-     * Recursive internal version of {@link #findViewInfoAt(int, int)}. Please don't use directly.
-     * <p/>
-     * Tries to find the inner most child matching the given x,y coordinates in the view
-     * info sub-tree. This uses the potentially-expanded selection bounds.
+     * Returns the spatial index for the current view hierarchy, creating it if
+     * necessary
      *
-     * Returns null if not found.
+     * @return the index, or null if there is no view hierarchy
      */
-    private void addWithin(
-            CanvasViewInfo canvasViewInfo,
-            Rectangle canvasRectangle,
-            List<CanvasViewInfo> infos) {
-        if (canvasViewInfo == null) {
-            return;
+    @Nullable
+    private ViewHierarchyIndex getIndex() {
+        if (mIndex == null && mLastValidViewInfoRoot != null) {
+            mIndex = new ViewHierarchyIndex(mLastValidViewInfoRoot);
         }
-        Rectangle r = canvasViewInfo.getSelectionRect();
-        if (canvasRectangle.intersects(r)) {
 
-            // try to find a matching child first
-            for (CanvasViewInfo child : canvasViewInfo.getChildren()) {
-                addWithin(child, canvasRectangle, infos);
-            }
-
-            if (canvasViewInfo != mLastValidViewInfoRoot) {
-                infos.add(canvasViewInfo);
-            }
-        }
+        return mIndex;
     }
 
     /**
@@ -468,49 +528,12 @@ public class ViewHierarchy {
      *         if nothing was found.
      */
     public CanvasViewInfo findViewInfoAt(LayoutPoint p) {
-        if (mLastValidViewInfoRoot == null) {
-            return null;
-        }
-
-        return findViewInfoAt_Recursive(p, mLastValidViewInfoRoot);
-    }
-
-    /**
-     * Recursive internal version of {@link #findViewInfoAt(int, int)}. Please don't use directly.
-     * <p/>
-     * Tries to find the inner most child matching the given x,y coordinates in the view
-     * info sub-tree. This uses the potentially-expanded selection bounds.
-     *
-     * Returns null if not found.
-     */
-    private CanvasViewInfo findViewInfoAt_Recursive(LayoutPoint p, CanvasViewInfo canvasViewInfo) {
-        if (canvasViewInfo == null) {
+        ViewHierarchyIndex index = getIndex();
+        if (index == null) {
             return null;
         }
-        Rectangle r = canvasViewInfo.getSelectionRect();
-        if (r.contains(p.x, p.y)) {
-
-            // try to find a matching child first
-            // Iterate in REVERSE z order such that siblings on top
-            // are checked before earlier siblings (this matters in layouts like
-            // FrameLayout and in <merge> contexts where the views are sitting on top
-            // of each other and we want to select the same view as the one drawn
-            // on top of the others
-            List<CanvasViewInfo> children = canvasViewInfo.getChildren();
-            assert children instanceof RandomAccess;
-            for (int i = children.size() - 1; i >= 0; i--) {
-                CanvasViewInfo child = children.get(i);
-                CanvasViewInfo v = findViewInfoAt_Recursive(p, child);
-                if (v != null) {
-                    return v;
-                }
-            }
-
-            // if no children matched, this is the view that we're looking for
-            return canvasViewInfo;
-        }
 
-        return null;
+        return index.findViewAt(p.x, p.y);
     }
 
     /**
@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.editors.layout.gle2;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+
+import org.eclipse.swt.graphics.Rectangle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A uniform grid spatial index over the selection bounds of a {@link CanvasViewInfo}
+ * hierarchy, used by {@link ViewHierarchy} to answer hit-testing queries (which happen
+ * on every mouse move during hovers and drags) without walking the whole tree.
+ * <p>
+ * The layout area is divided into a grid of cells, and each view is registered in all
+ * the cells its selection bounds overlap. Views are numbered in depth-first pre-order,
+ * and each cell lists its views in that order, which lets the queries reproduce the
+ * exact results of the recursive tree walks: a view is only a match if all its
+ * ancestors are matches too, and since any ancestor which matches a point also
+ * overlaps the cell containing the point, a single ordered pass over a cell is enough
+ * to evaluate this.
+ * <p>
+ * The index is immutable; it must be rebuilt when the view hierarchy changes. It is
+ * not thread safe (queries share scratch state), and like the rest of the view
+ * hierarchy should only be used from the UI thread.
+ */
+class ViewHierarchyIndex {
+    /** Smallest allowed cell size, in layout pixels */
+    private static final int MIN_CELL_SIZE = 8;
+
+    /** Largest number of cells along either axis */
+    private static final int MAX_CELLS_PER_AXIS = 64;
+
+    /** Views in depth-first pre-order */
+    private final CanvasViewInfo[] mViews;
+
+    /** Pre-order index of the parent of each view, or -1 for the root */
+    private final int[] mParents;
+
+    /** Post-order index of each view, used to order rectangle query results */
+    private final int[] mPostOrder;
+
+    /** Selection bounds of each view, copied out for fast access */
+    private final int[] mX1;
+    private final int[] mY1;
+    private final int[] mX2;
+    private final int[] mY2;
+
+    /** For each grid cell, the pre-order indices of the views overlapping it, ascending */
+    private final int[][] mCells;
+
+    private final int mMinX;
+    private final int mMinY;
+    private final int mMaxX;
+    private final int mMaxY;
+    private final int mCellWidth;
+    private final int mCellHeight;
+    private final int mColumns;
+    private final int mRows;
+
+    /** Scratch space for queries: the query number that last visited/accepted a view */
+    private final int[] mStamp;
+    private final int[] mAccepted;
+    private int mQuery;
+
+    /**
+     * Creates a new index over the given view hierarchy
+     *
+     * @param root the root of the view hierarchy
+     */
+    ViewHierarchyIndex(@NonNull CanvasViewInfo root) {
+        List<CanvasViewInfo> views = new ArrayList<CanvasViewInfo>();
+        List<Integer> parents = new ArrayList<Integer>();
+        addPreOrder(root, -1, views, parents);
+        int count = views.size();
+        mViews = views.toArray(new CanvasViewInfo[count]);
+        mParents = new int[count];
+        mPostOrder = new int[count];
+        mX1 = new int[count];
+        mY1 = new int[count];
+        mX2 = new int[count];
+        mY2 = new int[count];
+        mStamp = new int[count];
+        mAccepted = new int[count];
+
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            mParents[i] = parents.get(i).intValue();
+            Rectangle r = mViews[i].getSelectionRect();
+            mX1[i] = r.x;
+            mY1[i] = r.y;
+            mX2[i] = r.x + r.width;
+            mY2[i] = r.y + r.height;
+            minX = Math.min(minX, r.x);
+            minY = Math.min(minY, r.y);
+            maxX = Math.max(maxX, mX2[i]);
+            maxY = Math.max(maxY, mY2[i]);
+        }
+
+        // The post-order index of a view is the number of views finishing before it:
+        // all the views before it in pre-order except its ancestors, plus its descendants
+        int[] depth = new int[count];
+        int[] subtreeSize = new int[count];
+        for (int i = 1; i < count; i++) {
+            depth[i] = depth[mParents[i]] + 1;
+        }
+        for (int i = count - 1; i >= 0; i--) {
+            subtreeSize[i]++;
+            if (i > 0) {
+                subtreeSize[mParents[i]] += subtreeSize[i];
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            mPostOrder[i] = i - depth[i] + subtreeSize[i] - 1;
+        }
+
+        mMinX = minX;
+        mMinY = minY;
+        mMaxX = Math.max(minX + 1, maxX);
+        mMaxY = Math.max(minY + 1, maxY);
+
+        // Aim for a few views per cell on average
+        int cellsPerAxis = Math.max(1, Math.min(MAX_CELLS_PER_AXIS,
+                (int) Math.sqrt(count / 2.0)));
+        mCellWidth = Math.max(MIN_CELL_SIZE, (mMaxX - mMinX + cellsPerAxis - 1) / cellsPerAxis);
+        mCellHeight = Math.max(MIN_CELL_SIZE, (mMaxY - mMinY + cellsPerAxis - 1) / cellsPerAxis);
+        mColumns = (mMaxX - mMinX + mCellWidth - 1) / mCellWidth;
+        mRows = (mMaxY - mMinY + mCellHeight - 1) / mCellHeight;
+
+        // Count first such that each cell gets an exactly sized array
+        int[] sizes = new int[mColumns * mRows];
+        for (int i = 0; i < count; i++) {
+            int lastRow = row(Math.max(mY1[i], mY2[i] - 1));
+            int lastCol = column(Math.max(mX1[i], mX2[i] - 1));
+            for (int row = row(mY1[i]); row <= lastRow; row++) {
+                for (int col = column(mX1[i]); col <= lastCol; col++) {
+                    sizes[row * mColumns + col]++;
+                }
+            }
+        }
+        mCells = new int[sizes.length][];
+        for (int cell = 0; cell < sizes.length; cell++) {
+            mCells[cell] = new int[sizes[cell]];
+            sizes[cell] = 0;
+        }
+        for (int i = 0; i < count; i++) {
+            int lastRow = row(Math.max(mY1[i], mY2[i] - 1));
+            int lastCol = column(Math.max(mX1[i], mX2[i] - 1));
+            for (int row = row(mY1[i]); row <= lastRow; row++) {
+                for (int col = column(mX1[i]); col <= lastCol; col++) {
+                    int cell = row * mColumns + col;
+                    mCells[cell][sizes[cell]++] = i;
+                }
+            }
+        }
+    }
+
+    private static void addPreOrder(CanvasViewInfo view, int parent,
+            List<CanvasViewInfo> views, List<Integer> parents) {
+        int index = views.size();
+        views.add(view);
+        parents.add(Integer.valueOf(parent));
+        for (CanvasViewInfo child : view.getChildren()) {
+            addPreOrder(child, index, views, parents);
+        }
+    }
+
+    private int column(int x) {
+        return Math.max(0, Math.min(mColumns - 1, (x - mMinX) / mCellWidth));
+    }
+
+    private int row(int y) {
+        return Math.max(0, Math.min(mRows - 1, (y - mMinY) / mCellHeight));
+    }
+
+    private boolean contains(int view, int x, int y) {
+        return x >= mX1[view] && y >= mY1[view] && x < mX2[view] && y < mY2[view];
+    }
+
+    private boolean intersects(int view, int x1, int y1, int x2, int y2) {
+        return x1 < mX2[view] && y1 < mY2[view] && x2 > mX1[view] && y2 > mY1[view];
+    }
+
+    /** Starts a new query, invalidating the stamps of all previous queries */
+    private int nextQuery() {
+        if (++mQuery == Integer.MAX_VALUE) {
+            Arrays.fill(mStamp, 0);
+            Arrays.fill(mAccepted, 0);
+            mQuery = 1;
+        }
+        return mQuery;
+    }
+
+    /**
+     * Returns the number of views in the index
+     *
+     * @return the number of views
+     */
+    int size() {
+        return mViews.length;
+    }
+
+    /**
+     * Finds the inner most view containing the given point, where views later in the
+     * z order take precedence over earlier siblings, and where a view is only
+     * considered if all its ancestors contain the point too. This is the same result
+     * as {@link ViewHierarchy#findViewInfoAt(LayoutPoint)} computes with a tree walk.
+     *
+     * @param x the x coordinate of the point
+     * @param y the y coordinate of the point
+     * @return the matching view, or null
+     */
+    @Nullable
+    CanvasViewInfo findViewAt(int x, int y) {
+        if (x < mMinX || y < mMinY || x >= mMaxX || y >= mMaxY) {
+            return null;
+        }
+
+        int query = nextQuery();
+        int best = -1;
+        for (int view : mCells[row(y) * mColumns + column(x)]) {
+            int parent = mParents[view];
+            if ((parent == -1 || mAccepted[parent] == query) && contains(view, x, y)) {
+                mAccepted[view] = query;
+                best = view;
+            }
+        }
+
+        return best != -1 ? mViews[best] : null;
+    }
+
+    /**
+     * Finds all the views (except the root) overlapping the given rectangle whose
+     * ancestors overlap it too, children before their parents. This is the same
+     * result as {@link ViewHierarchy#findWithin} computes with a tree walk.
+     *
+     * @param rectangle the rectangle to look for views in
+     * @return the matching views
+     */
+    @NonNull
+    List<CanvasViewInfo> findWithin(@NonNull Rectangle rectangle) {
+        List<CanvasViewInfo> result = new ArrayList<CanvasViewInfo>();
+        int x1 = rectangle.x;
+        int y1 = rectangle.y;
+        int x2 = rectangle.x + rectangle.width;
+        int y2 = rectangle.y + rectangle.height;
+        if (Math.max(x1, x2) < mMinX || Math.max(y1, y2) < mMinY
+                || Math.min(x1, x2) >= mMaxX || Math.min(y1, y2) >= mMaxY) {
+            return result;
+        }
+
+        // Gather the candidates from all the overlapped cells
+        int query = nextQuery();
+        int[] candidates = new int[16];
+        int candidateCount = 0;
+        for (int row = row(Math.min(y1, y2)), lastRow = row(Math.max(y1, y2));
+                row <= lastRow; row++) {
+            for (int col = column(Math.min(x1, x2)), lastCol = column(Math.max(x1, x2));
+                    col <= lastCol; col++) {
+                for (int view : mCells[row * mColumns + col]) {
+                    if (mStamp[view] != query) {
+                        mStamp[view] = query;
+                        if (candidateCount == candidates.length) {
+                            candidates = Arrays.copyOf(candidates, 2 * candidateCount);
+                        }
+                        candidates[candidateCount++] = view;
+                    }
+                }
+            }
+        }
+
+        // Every ancestor of a match is itself a candidate, so processing the candidates
+        // in pre-order visits every parent before its children
+        Arrays.sort(candidates, 0, candidateCount);
+        int[] matches = new int[candidateCount];
+        int matchCount = 0;
+        for (int i = 0; i < candidateCount; i++) {
+            int view = candidates[i];
+            int parent = mParents[view];
+            if ((parent == -1 || mAccepted[parent] == query)
+                    && intersects(view, x1, y1, x2, y2)) {
+                mAccepted[view] = query;
+                if (parent != -1) {
+                    matches[matchCount++] = view;
+                }
+            }
+        }
+
+        Integer[] ordered = new Integer[matchCount];
+        for (int i = 0; i < matchCount; i++) {
+            ordered[i] = Integer.valueOf(matches[i]);
+        }
+        Arrays.sort(ordered, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer view1, Integer view2) {
+                return mPostOrder[view1.intValue()] - mPostOrder[view2.intValue()];
+            }
+        });
+        for (Integer view : ordered) {
+            result.add(mViews[view.intValue()]);
+        }
+
+        return result;
+    }
+}
@@ -16,24 +16,42 @@
 
 package com.android.ide.eclipse.adt.internal.editors.layout.gre;
 
+import static com.android.SdkConstants.VIEW_MERGE;
+import static com.android.SdkConstants.VIEW_TAG;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
 import com.android.ide.common.api.IViewRule;
+import com.android.ide.common.layout.ViewRule;
 import com.android.ide.eclipse.adt.AdtPlugin;
+import com.android.ide.eclipse.adt.internal.editors.layout.descriptors.LayoutDescriptors;
+import com.android.ide.eclipse.adt.internal.editors.layout.descriptors.ViewElementDescriptor;
+import com.android.ide.eclipse.adt.internal.sdk.AndroidTargetData;
 import com.android.ide.eclipse.adt.internal.sdk.ProjectState;
 import com.android.ide.eclipse.adt.internal.sdk.Sdk;
+import com.android.ide.eclipse.adt.internal.sdk.Sdk.ITargetChangeListener;
+import com.android.sdklib.IAndroidTarget;
 import com.android.sdklib.internal.project.ProjectProperties;
 import com.android.utils.Pair;
 
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.QualifiedName;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 
 import java.io.File;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The {@link RuleLoader} is responsible for loading (and unloading)
@@ -48,8 +66,31 @@ public class RuleLoader {
     private final static QualifiedName RULE_LOADER = new QualifiedName(AdtPlugin.PLUGIN_ID,
             "ruleloader"); //$NON-NLS-1$
 
+    /** Marker stored in the rule class caches for classes which have no rule */
+    private static final Object NO_RULE = new Object();
+
+    /**
+     * Rule classes for the builtin views, keyed by view FQCN. These are loaded from
+     * the ADT plugin itself, so they are shared by all projects and editors.
+     */
+    private static final Map<String, Object> sBuiltinRuleClasses =
+            new ConcurrentHashMap<String, Object>();
+
+    /** Projects whose rule classes should be loaded once their target is loaded */
+    private static final Set<IProject> sPendingWarmUps = new HashSet<IProject>();
+
+    /** Listener running the pending warm-ups when targets are loaded */
+    private static ITargetChangeListener sTargetListener;
+
     private final IProject mProject;
     private ClassLoader mUserClassLoader;
+
+    /**
+     * Rule classes for custom views, keyed by view FQCN. This map is replaced
+     * whenever the {@link #mUserClassLoader} is recomputed, so each generation of
+     * the project's rule class path gets its own cache. Guarded by this loader.
+     */
+    private Map<String, Object> mUserRuleClasses = new ConcurrentHashMap<String, Object>();
     private List<Pair<File, Long>> mUserJarTimeStamps;
     private long mLastCheckTimeStamp;
 
@@ -66,7 +107,7 @@ public class RuleLoader {
      * @return an {@RuleLoader} for the given project,
      *         never null
      */
-    public static RuleLoader get(IProject project) {
+    public static synchronized RuleLoader get(IProject project) {
         RuleLoader loader = null;
         try {
             loader = (RuleLoader) project.getSessionProperty(RULE_LOADER);
@@ -157,7 +198,7 @@ public class RuleLoader {
      *
      * @return a class loader to use for custom view rules, or null
      */
-    public ClassLoader getClassLoader() {
+    public synchronized ClassLoader getClassLoader() {
         if (mUserClassLoader == null) {
             // Only attempt to load rule paths once.
             // TODO: Check the timestamp on the project.properties file so we can dynamically
@@ -165,6 +206,7 @@ public class RuleLoader {
             if (!mUserClassLoaderInited) {
                 mUserClassLoaderInited = true;
                 mUserClassLoader = computeUserClassLoader(mProject);
+                mUserRuleClasses = new ConcurrentHashMap<String, Object>();
             }
         } else {
             // Check the timestamp on the jar files in the custom view path to see if we
@@ -181,6 +223,8 @@ public class RuleLoader {
                             mUserClassLoaderInited = true;
                             mUserJarTimeStamps = null;
                             mUserClassLoader = computeUserClassLoader(mProject);
+                            mUserRuleClasses = new ConcurrentHashMap<String, Object>();
+                            break;
                         }
                     }
                 }
@@ -189,4 +233,229 @@ public class RuleLoader {
 
         return mUserClassLoader;
     }
+
+    /**
+     * Returns true if the rule for the given view class is bundled with ADT rather
+     * than loaded from the project's rule class path
+     *
+     * @param fqcn the fully qualified name of the view class
+     * @return true if the rule for the view is a builtin rule
+     */
+    public static boolean isBuiltinRule(@NonNull String fqcn) {
+        return fqcn.startsWith("android.") || //$NON-NLS-1$
+                fqcn.equals(VIEW_MERGE) ||
+                fqcn.endsWith(".GridLayout") || //$NON-NLS-1$ // Temporary special case
+                // FIXME: Remove this special case as soon as we pull
+                // the MapViewRule out of this code base and bundle it
+                // with the add ons
+                fqcn.startsWith("com.google.android.maps."); //$NON-NLS-1$
+    }
+
+    /**
+     * Returns the rule class for the given view class, if any. This looks for an exact
+     * match only and does not look at the view's super classes.
+     * <p/>
+     * Both found and missing rule classes are cached: builtin rules across all
+     * projects, and custom view rules per project until its rule class path changes.
+     *
+     * @param fqcn the fully qualified name of the view class
+     * @return the corresponding {@link IViewRule} class, or null if there is none
+     */
+    @Nullable
+    public Class<?> findRuleClass(@NonNull String fqcn) {
+        if (isBuiltinRule(fqcn)) {
+            return findRuleClass(sBuiltinRuleClasses, getBuiltinRuleClassName(fqcn),
+                    RulesEngine.class.getClassLoader(), fqcn);
+        }
+
+        // Get the class loader and the cache of the same generation of the rule class
+        // path; the warm-up job and the editors can both cause it to be recomputed
+        ClassLoader classLoader;
+        Map<String, Object> cache;
+        synchronized (this) {
+            classLoader = getClassLoader();
+            cache = mUserRuleClasses;
+        }
+        if (classLoader == null) {
+            // The typical scenario, when the user is only using builtin layout rules.
+            return null;
+        }
+
+        // For other (3rd party) widgets, look in the same package (though most
+        // likely not in the same jar!)
+        return findRuleClass(cache, fqcn + "Rule", classLoader, fqcn); //$NON-NLS-1$
+    }
+
+    @Nullable
+    private static Class<?> findRuleClass(Map<String, Object> cache, String ruleClassName,
+            ClassLoader classLoader, String fqcn) {
+        Object cached = cache.get(fqcn);
+        if (cached == null) {
+            try {
+                cached = Class.forName(ruleClassName, true, classLoader);
+            } catch (ClassNotFoundException ex) {
+                // Not an unexpected error - this means that there isn't a helper for this
+                // class.
+                cached = NO_RULE;
+            }
+            cache.put(fqcn, cached);
+        }
+
+        return cached != NO_RULE ? (Class<?>) cached : null;
+    }
+
+    /**
+     * Returns the name of the builtin rule class for the given view. For now, we
+     * package view rules for the builtin Android views and widgets with the tool in a
+     * special package, so look there rather than in the same package as the widgets.
+     */
+    private static String getBuiltinRuleClassName(String fqcn) {
+        // This doesn't handle a case where there are name conflicts
+        // (e.g. where there are multiple different views with the same
+        // class name and only differing in package names, but that's a
+        // really bad practice in the first place, and if that situation
+        // should come up in the API we can enhance this algorithm.
+        String packageName = ViewRule.class.getName();
+        packageName = packageName.substring(0, packageName.lastIndexOf('.'));
+        int dotIndex = fqcn.lastIndexOf('.');
+        String baseName = fqcn.substring(dotIndex+1);
+        // Capitalize rule class name to match naming conventions, if necessary (<merge>)
+        if (Character.isLowerCase(baseName.charAt(0))) {
+            if (baseName.equals(VIEW_TAG)) {
+                // Hack: ViewRule is generic for the "View" class, so we can't use it
+                // for the special XML "view" tag (lowercase); instead, the rule is
+                // named "ViewTagRule" instead.
+                baseName = "ViewTag"; //$NON-NLS-1$
+            }
+            baseName = Character.toUpperCase(baseName.charAt(0)) + baseName.substring(1);
+        }
+        return packageName + "." + //$NON-NLS-1$
+            baseName + "Rule"; //$NON-NLS-1$
+    }
+
+    /**
+     * Loads the rule classes for the given project in the background, such that the
+     * first layout editor opened for the project does not have to wait for the project
+     * rule class path to be set up and for the rule classes to be loaded.
+     * <p/>
+     * When projects are opened with the workspace the SDK and the target data of the
+     * project are usually not loaded yet; in that case the rule classes are loaded once
+     * the target of the project has been loaded.
+     *
+     * @param project the project which was opened
+     */
+    public static void warmUp(@NonNull IProject project) {
+        synchronized (sPendingWarmUps) {
+            sPendingWarmUps.add(project);
+            if (sTargetListener == null) {
+                sTargetListener = new ITargetChangeListener() {
+                    @Override
+                    public void onProjectTargetChange(IProject changedProject) {
+                        warmUp(changedProject);
+                    }
+
+                    @Override
+                    public void onTargetLoaded(IAndroidTarget target) {
+                        scheduleWarmUps();
+                    }
+
+                    @Override
+                    public void onSdkLoaded() {
+                        scheduleWarmUps();
+                    }
+                };
+                AdtPlugin.getDefault().addTargetListener(sTargetListener);
+            }
+        }
+
+        scheduleWarmUp(project);
+    }
+
+    /** Schedules the warm-up of each project whose rule classes are not loaded yet */
+    private static void scheduleWarmUps() {
+        List<IProject> projects;
+        synchronized (sPendingWarmUps) {
+            projects = new ArrayList<IProject>(sPendingWarmUps);
+        }
+        for (IProject project : projects) {
+            scheduleWarmUp(project);
+        }
+    }
+
+    private static void scheduleWarmUp(@NonNull final IProject project) {
+        Job job = new Job("Load layout rules") {
+            @Override
+            protected IStatus run(IProgressMonitor monitor) {
+                if (!project.isOpen()) {
+                    removePendingWarmUp(project);
+                    return Status.OK_STATUS;
+                }
+
+                Sdk sdk = Sdk.getCurrent();
+                if (sdk == null) {
+                    // Runs again when the SDK is loaded
+                    return Status.OK_STATUS;
+                }
+                if (Sdk.getProjectState(project) == null) {
+                    // Not an Android project
+                    removePendingWarmUp(project);
+                    return Status.OK_STATUS;
+                }
+                AndroidTargetData data = sdk.getTargetData(project);
+                if (data == null) {
+                    // Runs again when the target of the project is loaded
+                    return Status.OK_STATUS;
+                }
+
+                // Only one of the jobs scheduled for the project does the work
+                if (!removePendingWarmUp(project)) {
+                    return Status.OK_STATUS;
+                }
+
+                RuleLoader loader = get(project);
+                loader.getClassLoader();
+                LayoutDescriptors descriptors = data.getLayoutDescriptors();
+                loader.warmUp(descriptors.getLayoutDescriptors(), monitor);
+                loader.warmUp(descriptors.getViewDescriptors(), monitor);
+
+                return Status.OK_STATUS;
+            }
+        };
+        job.setSystem(true);
+        job.setPriority(Job.DECORATE);
+        job.schedule();
+    }
+
+    private static boolean removePendingWarmUp(@NonNull IProject project) {
+        synchronized (sPendingWarmUps) {
+            return sPendingWarmUps.remove(project);
+        }
+    }
+
+    private void warmUp(List<ViewElementDescriptor> descriptors, IProgressMonitor monitor) {
+        for (ViewElementDescriptor descriptor : descriptors) {
+            if (monitor.isCanceled()) {
+                return;
+            }
+
+            // Same lookup order as RulesEngine#loadRule: stop at the first rule found
+            // in the super class chain
+            for (ViewElementDescriptor desc = descriptor;
+                    desc != null;
+                    desc = desc.getSuperClassDesc()) {
+                String fqcn = desc.getFullClassName();
+                if (fqcn == null || fqcn.indexOf('.') == -1) {
+                    break;
+                }
+                try {
+                    if (findRuleClass(fqcn) != null) {
+                        break;
+                    }
+                } catch (LinkageError e) {
+                    AdtPlugin.log(e, "load rule error (%s): %s", fqcn, e.toString());
+                    break;
+                }
+            }
+        }
+    }
 }
@@ -17,8 +17,6 @@
 package com.android.ide.eclipse.adt.internal.editors.layout.gre;
 
 import static com.android.SdkConstants.ANDROID_WIDGET_PREFIX;
-import static com.android.SdkConstants.VIEW_MERGE;
-import static com.android.SdkConstants.VIEW_TAG;
 
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
@@ -32,7 +30,6 @@ import com.android.ide.common.api.Point;
 import com.android.ide.common.api.Rect;
 import com.android.ide.common.api.RuleAction;
 import com.android.ide.common.api.SegmentType;
-import com.android.ide.common.layout.ViewRule;
 import com.android.ide.eclipse.adt.AdtPlugin;
 import com.android.ide.eclipse.adt.internal.editors.AndroidXmlEditor;
 import com.android.ide.eclipse.adt.internal.editors.descriptors.ElementDescriptor;
@@ -769,43 +766,9 @@ public class RulesEngine {
 
         // Look for class via reflection
         try {
-            // For now, we package view rules for the builtin Android views and
-            // widgets with the tool in a special package, so look there rather
-            // than in the same package as the widgets.
-            String ruleClassName;
-            ClassLoader classLoader;
-            if (realFqcn.startsWith("android.") || //$NON-NLS-1$
-                    realFqcn.equals(VIEW_MERGE) ||
-                    realFqcn.endsWith(".GridLayout") || //$NON-NLS-1$ // Temporary special case
-                    // FIXME: Remove this special case as soon as we pull
-                    // the MapViewRule out of this code base and bundle it
-                    // with the add ons
-                    realFqcn.startsWith("com.google.android.maps.")) { //$NON-NLS-1$
-                // This doesn't handle a case where there are name conflicts
-                // (e.g. where there are multiple different views with the same
-                // class name and only differing in package names, but that's a
-                // really bad practice in the first place, and if that situation
-                // should come up in the API we can enhance this algorithm.
-                String packageName = ViewRule.class.getName();
-                packageName = packageName.substring(0, packageName.lastIndexOf('.'));
-                classLoader = RulesEngine.class.getClassLoader();
-                int dotIndex = realFqcn.lastIndexOf('.');
-                String baseName = realFqcn.substring(dotIndex+1);
-                // Capitalize rule class name to match naming conventions, if necessary (<merge>)
-                if (Character.isLowerCase(baseName.charAt(0))) {
-                    if (baseName.equals(VIEW_TAG)) {
-                        // Hack: ViewRule is generic for the "View" class, so we can't use it
-                        // for the special XML "view" tag (lowercase); instead, the rule is
-                        // named "ViewTagRule" instead.
-                        baseName = "ViewTag"; //$NON-NLS-1$
-                    }
-                    baseName = Character.toUpperCase(baseName.charAt(0)) + baseName.substring(1);
-                }
-                ruleClassName = packageName + "." + //$NON-NLS-1$
-                    baseName + "Rule"; //$NON-NLS-1$
-            } else {
+            if (!RuleLoader.isBuiltinRule(realFqcn)) {
                 // Initialize the user-classpath for 3rd party IViewRules, if necessary
-                classLoader = updateClassLoader();
+                ClassLoader classLoader = updateClassLoader();
                 if (classLoader == null) {
                     // The mUserClassLoader can be null; this is the typical scenario,
                     // when the user is only using builtin layout rules.
@@ -814,18 +777,15 @@ public class RulesEngine {
                     mRulesCache.put(realFqcn, null);
                     return null;
                 }
-
-                // For other (3rd party) widgets, look in the same package (though most
-                // likely not in the same jar!)
-                ruleClassName = realFqcn + "Rule"; //$NON-NLS-1$
             }
 
-            Class<?> clz = Class.forName(ruleClassName, true, classLoader);
-            rule = (IViewRule) clz.newInstance();
-            return initializeRule(rule, targetFqcn);
-        } catch (ClassNotFoundException ex) {
-            // Not an unexpected error - this means that there isn't a helper for this
-            // class.
+            // The rule classes (and the lack of them) are cached by the shared
+            // RuleLoader; only the rule instances are local to this editor
+            Class<?> clz = mRuleLoader.findRuleClass(realFqcn);
+            if (clz != null) {
+                rule = (IViewRule) clz.newInstance();
+                return initializeRule(rule, targetFqcn);
+            }
         } catch (InstantiationException e) {
             // This is NOT an expected error: fail.
             AdtPlugin.log(e, "load rule error (%s): %s", realFqcn, e.toString());
@@ -37,7 +37,6 @@ import com.android.tools.lint.client.api.IDomParser;
 import com.android.tools.lint.client.api.IJavaParser;
 import com.android.tools.lint.client.api.IssueRegistry;
 import com.android.tools.lint.client.api.LintClient;
-import com.android.tools.lint.detector.api.ClassContext;
 import com.android.tools.lint.detector.api.Context;
 import com.android.tools.lint.detector.api.DefaultPosition;
 import com.android.tools.lint.detector.api.Detector;
@@ -60,11 +59,8 @@ import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IStatus;
-import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.jdt.core.IClasspathEntry;
 import org.eclipse.jdt.core.IJavaProject;
-import org.eclipse.jdt.core.IType;
-import org.eclipse.jdt.core.ITypeHierarchy;
 import org.eclipse.jdt.core.JavaCore;
 import org.eclipse.jdt.core.JavaModelException;
 import org.eclipse.jdt.internal.compiler.CompilationResult;
@@ -161,6 +157,16 @@ public class EclipseLintClient extends LintClient implements IDomParser {
         mCollectNodes = collectNodes;
     }
 
+    /**
+     * Returns whether the lint client stores associated XML nodes for each
+     * reported issue. See {@link #setCollectNodes(boolean)} for details.
+     *
+     * @return true if XML nodes are collected
+     */
+    boolean isCollectingNodes() {
+        return mCollectNodes;
+    }
+
     /**
      * Returns one of the issues for the given node (there could be more than one)
      *
@@ -950,22 +956,10 @@ public class EclipseLintClient extends LintClient implements IDomParser {
                 return null;
             }
 
-            String typeFqcn = ClassContext.getFqcn(name);
-            IType type = javaProject.findType(typeFqcn);
-            if (type != null) {
-                ITypeHierarchy hierarchy = type.newSupertypeHierarchy(new NullProgressMonitor());
-                IType superType = hierarchy.getSuperclass(type);
-                if (superType != null) {
-                    String key = superType.getKey();
-                    if (!key.isEmpty()
-                            && key.charAt(0) == 'L'
-                            && key.charAt(key.length() - 1) == ';') {
-                        return key.substring(1, key.length() - 1);
-                    } else {
-                        String fqcn = superType.getFullyQualifiedName();
-                        return ClassContext.getInternalName(fqcn);
-                    }
-                }
+            String[] superClasses = LintTypeHierarchyCache.get().getSuperClasses(
+                    javaProject, name);
+            if (superClasses != null && superClasses.length > 0) {
+                return superClasses[0];
             }
         } catch (JavaModelException e) {
             log(Severity.INFORMATIONAL, e, null);
@@ -999,20 +993,15 @@ public class EclipseLintClient extends LintClient implements IDomParser {
                 return null;
             }
 
-            String typeFqcn = ClassContext.getFqcn(name);
-            IType type = javaProject.findType(typeFqcn);
-            if (type != null) {
-                ITypeHierarchy hierarchy = type.newSupertypeHierarchy(new NullProgressMonitor());
-                IType[] allSupertypes = hierarchy.getAllSuperclasses(type);
-                if (allSupertypes != null) {
-                    String target = 'L' + superClassName + ';';
-                    for (IType superType : allSupertypes) {
-                        if (target.equals(superType.getKey())) {
-                            return Boolean.TRUE;
-                        }
+            String[] superClasses = LintTypeHierarchyCache.get().getSuperClasses(
+                    javaProject, name);
+            if (superClasses != null) {
+                for (String superClass : superClasses) {
+                    if (superClassName.equals(superClass)) {
+                        return Boolean.TRUE;
                     }
-                    return Boolean.FALSE;
                 }
+                return Boolean.FALSE;
             }
         } catch (JavaModelException e) {
             log(Severity.INFORMATIONAL, e, null);
@@ -38,7 +38,7 @@ import java.util.Map;
 class GlobalLintConfiguration extends Configuration {
     private static final GlobalLintConfiguration sInstance = new GlobalLintConfiguration();
 
-    private Map<Issue, Severity> mSeverities;
+    private volatile Map<Issue, Severity> mSeverities;
     private boolean mBulkEditing;
 
     private GlobalLintConfiguration() {
@@ -56,9 +56,12 @@ class GlobalLintConfiguration extends Configuration {
 
     @Override
     public Severity getSeverity(@NonNull Issue issue) {
-        if (mSeverities == null) {
+        Map<Issue, Severity> severities = mSeverities;
+        if (severities == null) {
+            // Populate a local map before publishing it, since lint may query the
+            // configuration from several threads at once
             IssueRegistry registry = EclipseLintClient.getRegistry();
-            mSeverities = new HashMap<Issue, Severity>();
+            severities = new HashMap<Issue, Severity>();
             IPreferenceStore store = getStore();
             String assignments = store.getString(AdtPrefs.PREFS_LINT_SEVERITIES);
             if (assignments != null && assignments.length() > 0) {
@@ -69,15 +72,16 @@ class GlobalLintConfiguration extends Configuration {
                         if (d != null) {
                             Severity severity = Severity.valueOf(s[1]);
                             if (severity != null) {
-                                mSeverities.put(d, severity);
+                                severities.put(d, severity);
                             }
                         }
                     }
                 }
             }
+            mSeverities = severities;
         }
 
-        Severity severity = mSeverities.get(issue);
+        Severity severity = severities.get(issue);
         if (severity != null) {
             return severity;
         }
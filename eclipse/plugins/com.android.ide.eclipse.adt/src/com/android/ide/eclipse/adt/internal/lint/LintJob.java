@@ -22,11 +22,17 @@ import static com.android.SdkConstants.DOT_XML;
 import com.android.SdkConstants;
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
+import com.android.annotations.VisibleForTesting;
 import com.android.ide.eclipse.adt.AdtPlugin;
 import com.android.ide.eclipse.adt.AdtUtils;
+import com.android.ide.eclipse.adt.internal.preferences.AdtPrefs.BuildVerbosity;
+import com.android.ide.eclipse.adt.internal.sdk.ProjectState;
+import com.android.ide.eclipse.adt.internal.sdk.Sdk;
 import com.android.tools.lint.client.api.IssueRegistry;
 import com.android.tools.lint.client.api.LintDriver;
+import com.android.tools.lint.client.api.LintListener;
 import com.android.tools.lint.client.api.LintRequest;
+import com.android.tools.lint.detector.api.Context;
 import com.android.tools.lint.detector.api.Issue;
 import com.android.tools.lint.detector.api.Scope;
 import com.android.utils.SdkUtils;
@@ -43,8 +49,21 @@ import org.eclipse.core.runtime.jobs.Job;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /** Job to check lint on a set of resources */
 public final class LintJob extends Job {
@@ -55,7 +74,9 @@ public final class LintJob extends Job {
     private final IResource mSource;
     private final IssueRegistry mRegistry;
     private LintDriver mLint;
-    private boolean mFatal;
+    /** Drivers used when checking independent projects in parallel */
+    private final List<LintDriver> mDrivers = new ArrayList<LintDriver>();
+    private volatile boolean mFatal;
 
     public LintJob(
             @NonNull EclipseLintClient client,
@@ -87,6 +108,11 @@ public final class LintJob extends Job {
         if (mLint != null) {
             mLint.cancel();
         }
+        synchronized (mDrivers) {
+            for (LintDriver driver : mDrivers) {
+                driver.cancel();
+            }
+        }
     }
 
     @Override
@@ -95,6 +121,7 @@ public final class LintJob extends Job {
         try {
             monitor.beginTask("Looking for errors", IProgressMonitor.UNKNOWN);
             EnumSet<Scope> scope = null;
+            byte[] cacheKey = null;
             List<File> files = new ArrayList<File>(mResources.size());
             for (IResource resource : mResources) {
                 File file = AdtUtils.getAbsolutePath(resource).toFile();
@@ -155,13 +182,36 @@ public final class LintJob extends Job {
                     }
                 }
                 mClient.setSearchForSuperClasses(true);
+
+                // Reuse the results from the last check of the file if neither the
+                // file nor the lint configuration has changed since
+                if (!mClient.isCollectingNodes()) {
+                    cacheKey = LintResultCache.computeKey(mClient, mRegistry, mResources,
+                            mSource, scope);
+                    if (cacheKey != null) {
+                        Boolean fatal = LintResultCache.get().restore(mSource, cacheKey);
+                        if (fatal != null) {
+                            mFatal = fatal.booleanValue();
+                            return Status.OK_STATUS;
+                        }
+                    }
+                }
             } else {
                 EclipseLintClient.clearMarkers(mResources);
+
+                List<List<IProject>> groups = getIndependentProjects(mResources);
+                if (groups != null && groups.size() > 1) {
+                    analyzeInParallel(groups, scope, monitor);
+                    return Status.OK_STATUS;
+                }
             }
 
             mLint = new LintDriver(mRegistry, mClient);
             mLint.analyze(new LintRequest(mClient, files).setScope(scope));
             mFatal = mClient.hasFatalErrors();
+            if (cacheKey != null && !monitor.isCanceled()) {
+                LintResultCache.get().store(mSource, cacheKey, mRegistry, scope, mFatal);
+            }
             return Status.OK_STATUS;
         } catch (Exception e) {
             return new Status(Status.ERROR, AdtPlugin.PLUGIN_ID, Status.ERROR,
@@ -173,6 +223,216 @@ public final class LintJob extends Job {
         }
     }
 
+    /**
+     * Splits the given resources into groups of projects that can be checked
+     * independently of each other: a project is checked together with the library
+     * projects it uses, and projects sharing a library are checked together, such
+     * that each group sees exactly the projects a single run would see.
+     *
+     * @param resources the resources to be checked
+     * @return a list of project groups, or null if the resources are not all projects
+     */
+    @Nullable
+    private static List<List<IProject>> getIndependentProjects(
+            @NonNull List<? extends IResource> resources) {
+        if (resources.size() < 2) {
+            return null;
+        }
+
+        Map<IProject, List<IProject>> libraries =
+                new LinkedHashMap<IProject, List<IProject>>();
+        for (IResource resource : resources) {
+            if (!(resource instanceof IProject)) {
+                return null;
+            }
+            IProject project = (IProject) resource;
+            ProjectState state = Sdk.getProjectState(project);
+            List<IProject> projectLibraries = state != null
+                    ? state.getFullLibraryProjects() : Collections.<IProject>emptyList();
+            libraries.put(project, projectLibraries);
+        }
+
+        return groupIndependent(libraries);
+    }
+
+    /**
+     * Groups the given items such that each item is in the same group as all the
+     * items it depends on (directly or indirectly, through other items in the map)
+     * and all items sharing a dependency are in the same group. Dependencies which
+     * are not keys in the map are ignored.
+     *
+     * @param dependencies map from each item to its dependencies
+     * @return the groups, in the iteration order of the map
+     */
+    @VisibleForTesting
+    @NonNull
+    static <T> List<List<T>> groupIndependent(
+            @NonNull Map<T, ? extends Collection<T>> dependencies) {
+        // Union-find over the items, joining each item with its dependencies
+        Map<T, T> parents = new LinkedHashMap<T, T>();
+        for (T item : dependencies.keySet()) {
+            parents.put(item, item);
+        }
+        for (Map.Entry<T, ? extends Collection<T>> entry : dependencies.entrySet()) {
+            T item = entry.getKey();
+            for (T dependency : entry.getValue()) {
+                if (parents.containsKey(dependency)) {
+                    T root = findRoot(parents, item);
+                    T dependencyRoot = findRoot(parents, dependency);
+                    if (!root.equals(dependencyRoot)) {
+                        parents.put(dependencyRoot, root);
+                    }
+                }
+            }
+        }
+
+        Map<T, List<T>> groups = new LinkedHashMap<T, List<T>>();
+        for (T item : parents.keySet()) {
+            T root = findRoot(parents, item);
+            List<T> group = groups.get(root);
+            if (group == null) {
+                group = new ArrayList<T>();
+                groups.put(root, group);
+            }
+            group.add(item);
+        }
+
+        return new ArrayList<List<T>>(groups.values());
+    }
+
+    private static <T> T findRoot(Map<T, T> parents, T item) {
+        T parent = parents.get(item);
+        while (!parent.equals(item)) {
+            item = parent;
+            parent = parents.get(item);
+        }
+        return item;
+    }
+
+    /**
+     * Checks the given groups of projects in parallel, each with its own lint
+     * client and driver, and prints the time spent on each group to the console
+     */
+    private void analyzeInParallel(
+            @NonNull List<List<IProject>> groups,
+            @NonNull final EnumSet<Scope> scope,
+            @NonNull IProgressMonitor monitor) throws InterruptedException {
+        int threads = Math.min(groups.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "Lint Worker"); //$NON-NLS-1$
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        try {
+            CompletionService<Void> completion =
+                    new ExecutorCompletionService<Void>(executor);
+            final boolean fatalOnly = mClient.isFatalOnly();
+            for (final List<IProject> group : groups) {
+                completion.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        analyzeGroup(group, scope, fatalOnly);
+                        return null;
+                    }
+                });
+            }
+
+            int remaining = groups.size();
+            boolean canceled = false;
+            while (remaining > 0) {
+                if (!canceled && monitor.isCanceled()) {
+                    canceling();
+                    canceled = true;
+                }
+                Future<Void> future = completion.poll(100, TimeUnit.MILLISECONDS);
+                if (future != null) {
+                    remaining--;
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        AdtPlugin.log(e.getCause(), null);
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void analyzeGroup(
+            @NonNull List<IProject> group,
+            @NonNull EnumSet<Scope> scope,
+            boolean fatalOnly) {
+        List<File> files = new ArrayList<File>(group.size());
+        for (IProject project : group) {
+            files.add(AdtUtils.getAbsolutePath(project).toFile());
+        }
+
+        EclipseLintClient client = new EclipseLintClient(mRegistry, group, null, fatalOnly);
+        LintDriver driver = new LintDriver(mRegistry, client);
+        synchronized (mDrivers) {
+            mDrivers.add(driver);
+        }
+        TimingListener timing = new TimingListener();
+        driver.addLintListener(timing);
+        driver.analyze(new LintRequest(client, files).setScope(scope));
+        if (client.hasFatalErrors()) {
+            mFatal = true;
+        }
+
+        AdtPlugin.printBuildToConsole(BuildVerbosity.VERBOSE, group.get(0),
+                timing.describe());
+    }
+
+    /**
+     * Lint listener which records how much time a lint run spends in each kind
+     * of file. The lint driver does not report when individual detectors run, so
+     * the times are grouped by the type of the file being scanned.
+     */
+    private static class TimingListener implements LintListener {
+        private final Map<String, Long> mTimes = new LinkedHashMap<String, Long>();
+        private long mStart;
+        private long mLast;
+        private String mCurrent = "setup"; //$NON-NLS-1$
+
+        @Override
+        public void update(@NonNull LintDriver driver, @NonNull EventType type,
+                @Nullable Context context) {
+            long now = System.currentTimeMillis();
+            if (mLast == 0) {
+                mStart = now;
+            } else {
+                Long time = mTimes.get(mCurrent);
+                mTimes.put(mCurrent, (time != null ? time.longValue() : 0L) + now - mLast);
+            }
+            mLast = now;
+
+            if (type == EventType.SCANNING_FILE && context != null) {
+                String name = context.file.getName();
+                int index = name.lastIndexOf('.');
+                mCurrent = (index != -1 ? name.substring(index + 1) : name) + " files";
+            } else if (type == EventType.SCANNING_PROJECT
+                    || type == EventType.SCANNING_LIBRARY_PROJECT
+                    || type == EventType.NEW_PHASE) {
+                mCurrent = "project checks";
+            }
+        }
+
+        String describe() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("Lint finished in %1$d ms:", mLast - mStart));
+            for (Map.Entry<String, Long> entry : mTimes.entrySet()) {
+                sb.append(String.format(" %1$s %2$d ms,", entry.getKey(), entry.getValue()));
+            }
+            sb.setLength(sb.length() - 1);
+            return sb.toString();
+        }
+    }
+
     /**
      * Returns true if a fatal error was encountered
      *
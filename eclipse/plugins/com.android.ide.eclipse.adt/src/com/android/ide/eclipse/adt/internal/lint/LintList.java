@@ -15,6 +15,8 @@
  */
 package com.android.ide.eclipse.adt.internal.lint;
 
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
 import com.android.ide.eclipse.adt.AdtConstants;
 import com.android.ide.eclipse.adt.AdtPlugin;
 import com.android.ide.eclipse.adt.AdtUtils;
@@ -26,8 +28,6 @@ import com.android.tools.lint.client.api.IssueRegistry;
 import com.android.tools.lint.client.api.LintClient;
 import com.android.tools.lint.detector.api.Issue;
 import com.android.tools.lint.detector.api.Severity;
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.Multimap;
 
 import org.eclipse.core.resources.IMarker;
 import org.eclipse.core.resources.IMarkerDelta;
@@ -36,18 +36,20 @@ import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IResourceChangeEvent;
 import org.eclipse.core.resources.IResourceChangeListener;
 import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.operation.IRunnableWithProgress;
 import org.eclipse.jface.viewers.ColumnPixelData;
 import org.eclipse.jface.viewers.ColumnWeightData;
+import org.eclipse.jface.viewers.ILazyTreeContentProvider;
 import org.eclipse.jface.viewers.StructuredSelection;
 import org.eclipse.jface.viewers.StyledCellLabelProvider;
 import org.eclipse.jface.viewers.StyledString;
 import org.eclipse.jface.viewers.TableLayout;
-import org.eclipse.jface.viewers.TreeNodeContentProvider;
 import org.eclipse.jface.viewers.TreeViewer;
 import org.eclipse.jface.viewers.TreeViewerColumn;
 import org.eclipse.jface.viewers.Viewer;
@@ -83,8 +85,10 @@ import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -95,6 +99,8 @@ import java.util.Set;
  */
 class LintList extends Composite implements IResourceChangeListener, ControlListener {
     private static final Object UPDATE_MARKERS_FAMILY = new Object();
+    /** Minimum time in milliseconds between marker updates of the list */
+    private static final long MIN_UPDATE_INTERVAL = 1000;
 
     // For persistence:
     private static final String KEY_WIDTHS = "lintColWidth"; //$NON-NLS-1$
@@ -114,6 +120,13 @@ class LintList extends Composite implements IResourceChangeListener, ControlList
     private int mErrorCount;
     private int mWarningCount;
     private final UpdateMarkersJob mUpdateMarkersJob = new UpdateMarkersJob();
+    /** Changed markers not yet applied to the content provider; guarded by itself */
+    private final Set<IMarker> mPendingMarkers = new LinkedHashSet<IMarker>();
+    /** Time the update job is currently scheduled to run; guarded by mPendingMarkers */
+    private long mScheduledUpdate;
+    /** Time of the last marker update */
+    private volatile long mLastUpdate;
+    private TableComparator mComparator;
     private final IssueRegistry mRegistry;
     private final IMemento mMemento;
     private final LintColumn mMessageColumn = new LintColumn.MessageColumn(this);
@@ -141,12 +154,16 @@ class LintList extends Composite implements IResourceChangeListener, ControlList
         gridLayout.marginHeight = 0;
         setLayout(gridLayout);
 
-        mTreeViewer = new TreeViewer(this, SWT.BORDER | SWT.FULL_SELECTION | SWT.MULTI);
+        // The tree is virtual: items are only created for the rows which are shown, and
+        // the content provider does its own sorting (lazy viewers don't support sorters)
+        mTreeViewer = new TreeViewer(this,
+                SWT.BORDER | SWT.FULL_SELECTION | SWT.MULTI | SWT.VIRTUAL);
         mTree = mTreeViewer.getTree();
         mTree.setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, true, 1, 1));
+        mTreeViewer.setUseHashlookup(true);
 
         createColumns();
-        mTreeViewer.setComparator(new TableComparator());
+        mComparator = new TableComparator();
         setSortIndicators();
 
         mContentProvider = new ContentProvider();
@@ -244,8 +261,11 @@ class LintList extends Composite implements IResourceChangeListener, ControlList
             mConfiguration = GlobalLintConfiguration.get();
         }
 
-        List<IMarker> markerList = getMarkers();
-        mTreeViewer.setInput(markerList);
+        synchronized (mPendingMarkers) {
+            mPendingMarkers.clear();
+        }
+        mContentProvider.setMarkers(getMarkers());
+        mTreeViewer.setInput(mResources);
         if (mSingleFile) {
             expandAll();
         }
@@ -269,19 +289,12 @@ class LintList extends Composite implements IResourceChangeListener, ControlList
     }
 
     private List<IMarker> getMarkers() {
-        mErrorCount = mWarningCount = 0;
         List<IMarker> markerList = new ArrayList<IMarker>();
         if (mResources != null) {
             for (IResource resource : mResources) {
                 IMarker[] markers = EclipseLintClient.getMarkers(resource);
                 for (IMarker marker : markers) {
                     markerList.add(marker);
-                    int severity = marker.getAttribute(IMarker.SEVERITY, 0);
-                    if (severity == IMarker.SEVERITY_ERROR) {
-                        mErrorCount++;
-                    } else if (severity == IMarker.SEVERITY_WARNING) {
-                        mWarningCount++;
-                    }
                 }
             }
 
@@ -290,6 +303,15 @@ class LintList extends Composite implements IResourceChangeListener, ControlList
         return markerList;
     }
 
+    /** Updates the error and warning counts for a marker added (+1) or removed (-1) */
+    private void count(int severity, int delta) {
+        if (severity == IMarker.SEVERITY_ERROR) {
+            mErrorCount += delta;
+        } else if (severity == IMarker.SEVERITY_WARNING) {
+            mWarningCount += delta;
+        }
+    }
+
     public int getErrorCount() {
         return mErrorCount;
     }
@@ -315,15 +337,38 @@ class LintList extends Composite implements IResourceChangeListener, ControlList
         TreeItem[] selection = mTree.getSelection();
         List<IMarker> markers = new ArrayList<IMarker>(selection.length);
         for (TreeItem item : selection) {
-            Object data = item.getData();
-            if (data instanceof IMarker) {
-                markers.add((IMarker) data);
+            IMarker marker = getMarker(item);
+            if (marker != null) {
+                markers.add(marker);
             }
         }
 
         return markers;
     }
 
+    /**
+     * Returns the marker shown in the given item. Items in the virtual tree which have
+     * never been shown (for example rows selected with Select All) have no data yet, so
+     * those are looked up in the content provider by their position in the tree.
+     */
+    @Nullable
+    private IMarker getMarker(@NonNull TreeItem item) {
+        Object data = item.getData();
+        if (data instanceof IMarker) {
+            return (IMarker) data;
+        }
+
+        TreeItem parentItem = item.getParentItem();
+        if (parentItem == null) {
+            return mContentProvider.getElement(null, mTree.indexOf(item));
+        }
+        IMarker parent = getMarker(parentItem);
+        if (parent == null) {
+            return null;
+        }
+        return mContentProvider.getElement(parent, parentItem.indexOf(item));
+    }
+
     @Override
     public void dispose() {
         cancelJobs();
@@ -331,93 +376,267 @@ class LintList extends Composite implements IResourceChangeListener, ControlList
         super.dispose();
     }
 
-    private class ContentProvider extends TreeNodeContentProvider {
-        private Map<Object, Object[]> mChildren;
-        private Map<IMarker, Integer> mTypeCount;
-        private IMarker[] mTopLevels;
+    /**
+     * Lazy content provider for the tree. At the top level there is one marker of
+     * each type, and below it all the other markers of that type. The markers are
+     * kept in buckets by issue id, which are updated incrementally as markers are
+     * added and removed, and a bucket is only sorted when its children are shown.
+     */
+    private class ContentProvider implements ILazyTreeContentProvider {
+        private final Map<String, Bucket> mBuckets = new HashMap<String, Bucket>();
+        private final Map<IMarker, Bucket> mMarkerBuckets = new HashMap<IMarker, Bucket>();
+        private IMarker[] mTopLevels = new IMarker[0];
+        private boolean mTopLevelsDirty;
+
+        /** Sorts markers by the table comparator, and then by marker id for stability */
+        private final Comparator<IMarker> mMarkerComparator = new Comparator<IMarker>() {
+            @Override
+            public int compare(IMarker marker1, IMarker marker2) {
+                int result = getTableSorter().compare(mTreeViewer, marker1, marker2);
+                if (result == 0) {
+                    long delta = marker1.getId() - marker2.getId();
+                    result = delta < 0 ? -1 : delta > 0 ? 1 : 0;
+                }
+                return result;
+            }
+        };
 
-        @Override
-        public Object[] getElements(Object inputElement) {
-            if (inputElement == null) {
-                mTypeCount = null;
-                return new IMarker[0];
+        /** Replaces all the markers in the tree */
+        void setMarkers(@NonNull List<IMarker> markers) {
+            mBuckets.clear();
+            mMarkerBuckets.clear();
+            mErrorCount = mWarningCount = 0;
+            for (IMarker marker : markers) {
+                add(marker);
+            }
+            mTopLevelsDirty = true;
+        }
+
+        /**
+         * Updates the tree for the given markers, which have been added, removed or
+         * changed
+         *
+         * @param markers the markers to update
+         * @return true if anything changed
+         */
+        boolean update(@NonNull Collection<IMarker> markers) {
+            boolean changed = false;
+            for (IMarker marker : markers) {
+                // Re-add changed markers since their id or severity may have changed
+                changed |= remove(marker);
+                if (marker.exists()) {
+                    changed |= add(marker);
+                }
             }
 
-            @SuppressWarnings("unchecked")
-            List<IMarker> list = (List<IMarker>) inputElement;
+            return changed;
+        }
 
-            // Partition the children such that at the top level we have one
-            // marker of each type, and below we have all the duplicates of
-            // each one of those errors. And for errors with multiple locations,
-            // there is a third level.
-            Multimap<String, IMarker> types = ArrayListMultimap.<String, IMarker>create(100, 20);
-            for (IMarker marker : list) {
-                String id = EclipseLintClient.getId(marker);
-                types.put(id, marker);
+        /** Re-sorts the tree after the sort order has changed */
+        void resort() {
+            for (Bucket bucket : mBuckets.values()) {
+                bucket.invalidate();
             }
+            mTopLevelsDirty = true;
+        }
 
-            Set<String> ids = types.keySet();
+        private boolean add(IMarker marker) {
+            if (mMarkerBuckets.containsKey(marker)) {
+                return false;
+            }
+            String id = EclipseLintClient.getId(marker);
+            Bucket bucket = mBuckets.get(id);
+            if (bucket == null) {
+                bucket = new Bucket(id);
+                mBuckets.put(id, bucket);
+            }
+            int severity = marker.getAttribute(IMarker.SEVERITY, 0);
+            bucket.markers.put(marker, severity);
+            bucket.invalidate();
+            mMarkerBuckets.put(marker, bucket);
+            count(severity, 1);
+            mTopLevelsDirty = true;
+
+            return true;
+        }
 
-            mChildren = new HashMap<Object, Object[]>(ids.size());
-            mTypeCount = new HashMap<IMarker, Integer>(ids.size());
+        private boolean remove(IMarker marker) {
+            Bucket bucket = mMarkerBuckets.remove(marker);
+            if (bucket == null) {
+                return false;
+            }
+            Integer severity = bucket.markers.remove(marker);
+            if (severity != null) {
+                count(severity.intValue(), -1);
+            }
+            if (bucket.markers.isEmpty()) {
+                mBuckets.remove(bucket.id);
+            }
+            bucket.invalidate();
+            mTopLevelsDirty = true;
 
-            List<IMarker> topLevel = new ArrayList<IMarker>(ids.size());
-            for (String id : ids) {
-                Collection<IMarker> markers = types.get(id);
-                int childCount = markers.size();
+            return true;
+        }
 
-                // Must sort the list items in order to have a stable first item
-                // (otherwise preserving expanded paths etc won't work)
-                TableComparator sorter = getTableSorter();
-                IMarker[] array = markers.toArray(new IMarker[markers.size()]);
-                sorter.sort(mTreeViewer, array);
+        private IMarker getTop(Bucket bucket) {
+            if (bucket.top == null) {
+                IMarker top = null;
+                for (IMarker marker : bucket.markers.keySet()) {
+                    if (top == null || mMarkerComparator.compare(marker, top) < 0) {
+                        top = marker;
+                    }
+                }
+                bucket.top = top;
+            }
 
-                IMarker topMarker = array[0];
-                mTypeCount.put(topMarker, childCount);
-                topLevel.add(topMarker);
+            return bucket.top;
+        }
 
-                IMarker[] children = Arrays.copyOfRange(array, 1, array.length);
-                mChildren.put(topMarker, children);
+        private IMarker[] getChildren(Bucket bucket) {
+            if (bucket.children == null) {
+                IMarker top = getTop(bucket);
+                IMarker[] children = new IMarker[bucket.markers.size() - 1];
+                int index = 0;
+                for (IMarker marker : bucket.markers.keySet()) {
+                    if (marker != top) {
+                        children[index++] = marker;
+                    }
+                }
+                Arrays.sort(children, mMarkerComparator);
+                bucket.children = children;
+            }
+
+            return bucket.children;
+        }
+
+        private IMarker[] getTopLevels() {
+            if (mTopLevelsDirty) {
+                IMarker[] topLevels = new IMarker[mBuckets.size()];
+                int index = 0;
+                for (Bucket bucket : mBuckets.values()) {
+                    topLevels[index++] = getTop(bucket);
+                }
+                Arrays.sort(topLevels, mMarkerComparator);
+                mTopLevels = topLevels;
+                mTopLevelsDirty = false;
             }
 
-            mTopLevels = topLevel.toArray(new IMarker[topLevel.size()]);
             return mTopLevels;
         }
 
-        @Override
-        public boolean hasChildren(Object element) {
-            Object[] children = mChildren != null ? mChildren.get(element) : null;
-            return children != null && children.length > 0;
+        private int getChildCount(Object element) {
+            if (element instanceof IMarker) {
+                Bucket bucket = mMarkerBuckets.get(element);
+                if (bucket != null && getTop(bucket) == element) {
+                    return bucket.markers.size() - 1;
+                }
+                return 0;
+            }
+
+            return getTopLevels().length;
+        }
+
+        /**
+         * Returns the marker at the given index below the given parent marker (or at
+         * the top level if parent is not a marker), or null if there is no such marker
+         */
+        @Nullable
+        IMarker getElement(@Nullable Object parent, int index) {
+            IMarker[] elements;
+            if (parent instanceof IMarker) {
+                Bucket bucket = mMarkerBuckets.get(parent);
+                if (bucket == null) {
+                    return null;
+                }
+                elements = getChildren(bucket);
+            } else {
+                elements = getTopLevels();
+            }
+            if (index >= 0 && index < elements.length) {
+                return elements[index];
+            }
+
+            return null;
         }
 
+        // ---- Implements ILazyTreeContentProvider ----
+
         @Override
-        public Object[] getChildren(Object parentElement) {
-            Object[] children = mChildren.get(parentElement);
-            if (children != null) {
-                return children;
+        public void updateElement(Object parent, int index) {
+            IMarker element = getElement(parent, index);
+            if (element != null) {
+                mTreeViewer.replace(parent, index, element);
+                mTreeViewer.setChildCount(element, getChildCount(element));
             }
+        }
 
-            return new Object[0];
+        @Override
+        public void updateChildCount(Object element, int currentChildCount) {
+            int count = getChildCount(element);
+            if (count != currentChildCount) {
+                mTreeViewer.setChildCount(element, count);
+            }
         }
 
         @Override
         public Object getParent(Object element) {
+            if (element instanceof IMarker) {
+                Bucket bucket = mMarkerBuckets.get(element);
+                if (bucket != null) {
+                    IMarker top = getTop(bucket);
+                    if (top != element) {
+                        return top;
+                    }
+                }
+                return mTreeViewer.getInput();
+            }
+
             return null;
         }
 
+        @Override
+        public void inputChanged(Viewer viewer, Object oldInput, Object newInput) {
+        }
+
+        @Override
+        public void dispose() {
+        }
+
         public int getCount(IMarker marker) {
-            if (mTypeCount != null) {
-                Integer count = mTypeCount.get(marker);
-                if (count != null) {
-                    return count.intValue();
-                }
+            Bucket bucket = mMarkerBuckets.get(marker);
+            if (bucket != null && getTop(bucket) == marker) {
+                return bucket.markers.size();
             }
 
             return -1;
         }
 
+        int getMarkerCount() {
+            return mMarkerBuckets.size();
+        }
+
         IMarker[] getTopMarkers() {
-            return mTopLevels;
+            return getTopLevels();
+        }
+    }
+
+    /** The markers for a single issue */
+    private static class Bucket {
+        final String id;
+        /** Map from marker to its severity when it was added */
+        final Map<IMarker, Integer> markers = new HashMap<IMarker, Integer>();
+        /** The first marker in sort order, or null if not yet computed */
+        IMarker top;
+        /** The remaining markers in sort order, or null if not yet computed */
+        IMarker[] children;
+
+        Bucket(String id) {
+            this.id = id;
+        }
+
+        void invalidate() {
+            top = null;
+            children = null;
         }
     }
 
@@ -456,25 +675,72 @@ class LintList extends Composite implements IResourceChangeListener, ControlList
 
     @Override
     public void resourceChanged(IResourceChangeEvent event) {
-        if (mResources == null) {
+        List<? extends IResource> resources = mResources;
+        if (resources == null) {
             return;
         }
         IMarkerDelta[] deltas = event.findMarkerDeltas(AdtConstants.MARKER_LINT, true);
         if (deltas.length > 0) {
-            // Update immediately for POST_BUILD events, otherwise do an unconditional
+            boolean relevant = false;
+            synchronized (mPendingMarkers) {
+                for (IMarkerDelta delta : deltas) {
+                    if (isShown(resources, delta.getResource())) {
+                        mPendingMarkers.add(delta.getMarker());
+                        relevant = true;
+                    }
+                }
+            }
+            if (!relevant) {
+                return;
+            }
+
+            // Update soon for POST_BUILD events, otherwise do an unconditional
             // update after 30 seconds. This matches the logic in Eclipse's ProblemView
             // (see the MarkerView class).
             if (event.getType() == IResourceChangeEvent.POST_BUILD) {
-                cancelJobs();
-                getProgressService().schedule(mUpdateMarkersJob, 100);
+                scheduleUpdate(100);
             } else {
-                IWorkbenchSiteProgressService progressService = getProgressService();
-                if (progressService == null) {
-                    mUpdateMarkersJob.schedule(30000);
-                } else {
-                    getProgressService().schedule(mUpdateMarkersJob, 30000);
+                scheduleUpdate(30000);
+            }
+        }
+    }
+
+    private static boolean isShown(List<? extends IResource> resources, IResource resource) {
+        IPath path = resource.getFullPath();
+        for (IResource r : resources) {
+            if (r.getFullPath().isPrefixOf(path)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Schedules the marker update job, at most once per {@link #MIN_UPDATE_INTERVAL}.
+     * A pending update is only ever moved earlier, never postponed, such that a steady
+     * stream of marker changes cannot starve the view.
+     */
+    private void scheduleUpdate(long delay) {
+        long now = System.currentTimeMillis();
+        delay = Math.max(delay, mLastUpdate + MIN_UPDATE_INTERVAL - now);
+        long time = now + delay;
+        synchronized (mPendingMarkers) {
+            int state = mUpdateMarkersJob.getState();
+            if (state == Job.SLEEPING || state == Job.WAITING) {
+                if (time >= mScheduledUpdate) {
+                    return;
                 }
+                mUpdateMarkersJob.cancel();
             }
+            mScheduledUpdate = time;
+        }
+
+        IWorkbenchSiteProgressService progressService = getProgressService();
+        if (progressService == null) {
+            mUpdateMarkersJob.schedule(delay);
+        } else {
+            progressService.schedule(mUpdateMarkersJob, delay);
         }
     }
 
@@ -517,9 +783,18 @@ class LintList extends Composite implements IResourceChangeListener, ControlList
                 return Status.CANCEL_STATUS;
             }
 
-            mTreeViewer.setInput(null);
-            List<IMarker> markerList = getMarkers();
-            if (markerList.size() == 0) {
+            List<IMarker> markers;
+            synchronized (mPendingMarkers) {
+                markers = new ArrayList<IMarker>(mPendingMarkers);
+                mPendingMarkers.clear();
+                mScheduledUpdate = 0;
+            }
+            mLastUpdate = System.currentTimeMillis();
+            if (!mContentProvider.update(markers)) {
+                return Status.OK_STATUS;
+            }
+
+            if (mContentProvider.getMarkerCount() == 0) {
                 LayoutEditorDelegate delegate =
                     LayoutEditorDelegate.fromEditor(AdtUtils.getActiveEditor());
                 if (delegate != null) {
@@ -536,7 +811,6 @@ class LintList extends Composite implements IResourceChangeListener, ControlList
             Event updateEvent = new Event();
             updateEvent.widget = mTree;
             mTree.notifyListeners(SWT.Selection, updateEvent);
-            mTreeViewer.setInput(markerList);
             mTreeViewer.refresh();
 
             if (mExpandedIds != null) {
@@ -785,7 +1059,8 @@ class LintList extends Composite implements IResourceChangeListener, ControlList
                 column.dispose();
             }
             createColumns();
-            mTreeViewer.setComparator(new TableComparator());
+            mComparator = new TableComparator();
+            mContentProvider.resort();
             setSortIndicators();
             mTreeViewer.refresh();
         }
@@ -839,6 +1114,7 @@ class LintList extends Composite implements IResourceChangeListener, ControlList
                 PlatformUI.getWorkbench().getDisplay().asyncExec(new Runnable() {
                     @Override
                     public void run() {
+                        mContentProvider.resort();
                         mTreeViewer.refresh();
                         updateDirectionIndicator(treeColumn);
                     }
@@ -871,7 +1147,7 @@ class LintList extends Composite implements IResourceChangeListener, ControlList
     }
 
     private TableComparator getTableSorter() {
-        return (TableComparator) mTreeViewer.getComparator();
+        return mComparator;
     }
 
     /** Comparator used to sort the {@link LintList} tree.
@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ide.eclipse.adt.internal.lint;
+
+import static com.android.SdkConstants.DOT_CLASS;
+import static com.android.SdkConstants.FN_PROJECT_PROPERTIES;
+import static com.android.ide.eclipse.adt.AdtConstants.MARKER_LINT;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.annotations.VisibleForTesting;
+import com.android.ide.eclipse.adt.AdtPlugin;
+import com.android.ide.eclipse.adt.AdtUtils;
+import com.android.ide.eclipse.adt.internal.project.ProjectHelper;
+import com.android.ide.eclipse.adt.internal.sdk.ProjectState;
+import com.android.ide.eclipse.adt.internal.sdk.Sdk;
+import com.android.tools.lint.client.api.Configuration;
+import com.android.tools.lint.client.api.IssueRegistry;
+import com.android.tools.lint.detector.api.Issue;
+import com.android.tools.lint.detector.api.Scope;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of single file lint results, used to skip running the detectors on a file
+ * whose contents (and lint configuration) have not changed since it was last
+ * checked, such as when a file is saved without modifications or when incremental
+ * lint is triggered for a file which was only touched by a build.
+ * <p/>
+ * Results are keyed by a digest of the contents of the analyzed files, the scope,
+ * the manifest modification stamp and the project properties (which affect checks
+ * like the API check), the contents of the project's lint.xml file (which can ignore
+ * issues for specific paths) and the severity of every issue that applies to the
+ * scope (which captures the set of enabled detectors as well as preference changes).
+ * The cached results are the attributes of the lint markers created by the run.
+ * <p/>
+ * Java source and class file runs are not cached: their detectors resolve the super
+ * classes and referenced types of the file, so their results can change when another
+ * file changes even though nothing in the key did.
+ */
+class LintResultCache {
+    /** Maximum number of files to keep results for */
+    private static final int MAX_ENTRIES = 200;
+
+    /** Name of the per project lint configuration file */
+    private static final String LINT_XML = "lint.xml"; //$NON-NLS-1$
+
+    private static final LintResultCache sCache = new LintResultCache();
+
+    private final Map<IPath, Entry> mEntries =
+            new LinkedHashMap<IPath, Entry>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<IPath, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /**
+     * Returns the shared result cache
+     *
+     * @return the result cache
+     */
+    @NonNull
+    static LintResultCache get() {
+        return sCache;
+    }
+
+    @VisibleForTesting
+    LintResultCache() {
+    }
+
+    /**
+     * Computes the cache key for a single file lint run
+     *
+     * @param client the lint client which will perform the run
+     * @param registry the issue registry
+     * @param resources the resources to be analyzed
+     * @param source the source file being checked
+     * @param scope the scope of the lint run
+     * @return the key, or null if the run cannot be cached
+     */
+    @Nullable
+    static byte[] computeKey(
+            @NonNull EclipseLintClient client,
+            @NonNull IssueRegistry registry,
+            @NonNull List<? extends IResource> resources,
+            @NonNull IResource source,
+            @NonNull EnumSet<Scope> scope) {
+        if (scope.contains(Scope.JAVA_FILE) || scope.contains(Scope.CLASS_FILE)) {
+            return null;
+        }
+
+        IProject project = source.getProject();
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1"); //$NON-NLS-1$
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+
+        try {
+            update(digest, scope.toString());
+            update(digest, Boolean.toString(client.isFatalOnly()));
+
+            IFile manifest = ProjectHelper.getManifest(project);
+            update(digest, Long.toString(manifest != null ? manifest.getModificationStamp() : 0));
+
+            ProjectState state = Sdk.getProjectState(project);
+            String target = state != null ? state.getTargetHashString() : null;
+            update(digest, target != null ? target : ""); //$NON-NLS-1$
+            File dir = AdtUtils.getAbsolutePath(project).toFile();
+            updateFile(digest, new File(dir, FN_PROJECT_PROPERTIES));
+            updateFile(digest, new File(dir, LINT_XML));
+
+            Configuration configuration = ProjectLintConfiguration.get(client, project,
+                    client.isFatalOnly());
+            for (Issue issue : registry.getIssues()) {
+                if (issue.getImplementation().isAdequate(scope)) {
+                    update(digest, issue.getId());
+                    update(digest, configuration.getSeverity(issue).name());
+                }
+            }
+
+            for (IResource resource : resources) {
+                if (!(resource instanceof IFile) || !resource.exists()) {
+                    return null;
+                }
+                File file = AdtUtils.getAbsolutePath(resource).toFile();
+                update(digest, file.getPath());
+                if (file.getName().endsWith(DOT_CLASS)) {
+                    digest.update(Files.toByteArray(file));
+                } else {
+                    // Use the same contents as lint will see, which for XML files
+                    // includes unsaved edits
+                    update(digest, client.readFile(file));
+                }
+            }
+        } catch (IOException e) {
+            return null;
+        }
+
+        return digest.digest();
+    }
+
+    private static void update(MessageDigest digest, String s) {
+        digest.update(s.getBytes(Charsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    private static void updateFile(MessageDigest digest, File file) throws IOException {
+        if (file.isFile()) {
+            digest.update(Files.toByteArray(file));
+        }
+        digest.update((byte) 0);
+    }
+
+    /**
+     * Recreates the lint markers for the given source file from a previous run with
+     * the same key, if any
+     *
+     * @param source the source file
+     * @param key the key computed by {@link #computeKey}
+     * @return null if there was no cached result, and otherwise whether the cached
+     *         run found fatal errors. If the markers could not all be created, the
+     *         ones created so far are removed again and null is returned, such that the
+     *         caller can run lint without ending up with duplicate markers.
+     */
+    @Nullable
+    Boolean restore(@NonNull IResource source, @NonNull byte[] key) {
+        Entry entry;
+        synchronized (this) {
+            entry = mEntries.get(source.getFullPath());
+        }
+        if (entry == null || !Arrays.equals(entry.key, key)) {
+            return null;
+        }
+
+        List<IMarker> created = new ArrayList<IMarker>(entry.markers.size());
+        try {
+            for (Map<String, Object> attributes : entry.markers) {
+                IMarker marker = source.createMarker(MARKER_LINT);
+                created.add(marker);
+                marker.setAttributes(attributes);
+            }
+        } catch (CoreException e) {
+            AdtPlugin.log(e, null);
+            for (IMarker marker : created) {
+                try {
+                    marker.delete();
+                } catch (CoreException ce) {
+                    AdtPlugin.log(ce, null);
+                }
+            }
+            synchronized (this) {
+                mEntries.remove(source.getFullPath());
+            }
+            return null;
+        }
+
+        return Boolean.valueOf(entry.fatal);
+    }
+
+    /**
+     * Records the lint markers on the given source file which apply to the given
+     * scope as the results of a run with the given key
+     *
+     * @param source the source file
+     * @param key the key computed by {@link #computeKey}
+     * @param registry the issue registry
+     * @param scope the scope of the lint run
+     * @param fatal whether the run found fatal errors
+     */
+    void store(@NonNull IResource source, @NonNull byte[] key,
+            @NonNull IssueRegistry registry, @NonNull EnumSet<Scope> scope, boolean fatal) {
+        List<Map<String, Object>> markers = new ArrayList<Map<String, Object>>();
+        try {
+            for (IMarker marker : EclipseLintClient.getMarkers(source)) {
+                String id = marker.getAttribute(EclipseLintRunner.MARKER_CHECKID_PROPERTY, "");
+                Issue issue = registry.getIssue(id);
+                if (issue != null && issue.getImplementation().isAdequate(scope)) {
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> attributes = marker.getAttributes();
+                    markers.add(attributes);
+                }
+            }
+        } catch (CoreException e) {
+            AdtPlugin.log(e, null);
+            return;
+        }
+
+        synchronized (this) {
+            mEntries.put(source.getFullPath(), new Entry(key, markers, fatal));
+        }
+    }
+
+    private static class Entry {
+        final byte[] key;
+        final List<Map<String, Object>> markers;
+        final boolean fatal;
+
+        Entry(byte[] key, List<Map<String, Object>> markers, boolean fatal) {
+            this.key = key;
+            this.markers = markers;
+            this.fatal = fatal;
+        }
+    }
+}
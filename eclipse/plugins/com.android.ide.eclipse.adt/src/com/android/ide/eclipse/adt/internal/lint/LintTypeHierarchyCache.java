@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ide.eclipse.adt.internal.lint;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.annotations.VisibleForTesting;
+import com.android.tools.lint.detector.api.ClassContext;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.jdt.core.ElementChangedEvent;
+import org.eclipse.jdt.core.IElementChangedListener;
+import org.eclipse.jdt.core.IJavaElementDelta;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.ITypeHierarchy;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.JavaModelException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of the super class chains of the types in each Java project, used by
+ * {@link EclipseLintClient#getSuperClass} and {@link EclipseLintClient#isSubclassOf}
+ * during incremental lint runs.
+ * <p/>
+ * Computing a supertype hierarchy is expensive, and lint asks about the same types
+ * over and over (for every detector and for every file being checked). Each type's
+ * chain is computed once, and the cache is dropped whenever a Java element change
+ * could affect the super classes of any type (but not for edits of method bodies).
+ */
+class LintTypeHierarchyCache implements IElementChangedListener {
+    /** Chain used for types which could not be found */
+    private static final String[] NOT_FOUND = new String[0];
+
+    /** Maximum number of projects to keep type information for */
+    @VisibleForTesting
+    static final int MAX_PROJECTS = 10;
+
+    /** Maximum number of types to keep the super classes for, per project */
+    @VisibleForTesting
+    static final int MAX_TYPES = 2000;
+
+    private static LintTypeHierarchyCache sCache;
+
+    /** Map from project to map from internal type name to its super classes */
+    private final Map<IJavaProject, Map<String, String[]>> mProjects =
+            new LinkedHashMap<IJavaProject, Map<String, String[]>>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(
+                Map.Entry<IJavaProject, Map<String, String[]>> eldest) {
+            return size() > MAX_PROJECTS;
+        }
+    };
+
+    /**
+     * Returns the cache, creating it on first use
+     *
+     * @return the type hierarchy cache
+     */
+    @NonNull
+    static synchronized LintTypeHierarchyCache get() {
+        if (sCache == null) {
+            sCache = new LintTypeHierarchyCache();
+            JavaCore.addElementChangedListener(sCache, ElementChangedEvent.POST_CHANGE);
+        }
+
+        return sCache;
+    }
+
+    @VisibleForTesting
+    LintTypeHierarchyCache() {
+    }
+
+    /**
+     * Returns the internal names of the super classes of the given class, nearest
+     * first, or null if the class could not be found in the project
+     *
+     * @param project the project to look up the class in
+     * @param name the internal name of the class
+     * @return the super classes, or null
+     * @throws JavaModelException if the hierarchy could not be computed
+     */
+    @Nullable
+    String[] getSuperClasses(@NonNull IJavaProject project, @NonNull String name)
+            throws JavaModelException {
+        Map<String, String[]> types;
+        synchronized (this) {
+            types = mProjects.get(project);
+            if (types == null) {
+                types = new LinkedHashMap<String, String[]>(16, 0.75f, true) {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, String[]> eldest) {
+                        return size() > MAX_TYPES;
+                    }
+                };
+                mProjects.put(project, types);
+            }
+            String[] superClasses = types.get(name);
+            if (superClasses != null) {
+                return superClasses != NOT_FOUND ? superClasses : null;
+            }
+        }
+
+        // Compute outside of the lock; concurrent computations of the same type
+        // produce the same result
+        String[] superClasses = computeSuperClasses(project, name);
+
+        synchronized (this) {
+            // Only store if the project was not invalidated in the meantime
+            if (mProjects.get(project) == types) {
+                types.put(name, superClasses != null ? superClasses : NOT_FOUND);
+            }
+        }
+
+        return superClasses;
+    }
+
+    /**
+     * Returns the number of types whose super classes are cached for the given project
+     *
+     * @param project the project
+     * @return the number of cached types
+     */
+    @VisibleForTesting
+    synchronized int getCachedTypeCount(@NonNull IJavaProject project) {
+        Map<String, String[]> types = mProjects.get(project);
+        return types != null ? types.size() : 0;
+    }
+
+    /** Drops all cached type information */
+    @VisibleForTesting
+    synchronized void clear() {
+        mProjects.clear();
+    }
+
+    @Nullable
+    private static String[] computeSuperClasses(@NonNull IJavaProject project,
+            @NonNull String name) throws JavaModelException {
+        String typeFqcn = ClassContext.getFqcn(name);
+        IType type = project.findType(typeFqcn);
+        if (type == null) {
+            return null;
+        }
+
+        ITypeHierarchy hierarchy = type.newSupertypeHierarchy(new NullProgressMonitor());
+        IType[] allSuperclasses = hierarchy.getAllSuperclasses(type);
+        if (allSuperclasses == null) {
+            return null;
+        }
+
+        String[] names = new String[allSuperclasses.length];
+        for (int i = 0; i < allSuperclasses.length; i++) {
+            IType superType = allSuperclasses[i];
+            String key = superType.getKey();
+            if (!key.isEmpty()
+                    && key.charAt(0) == 'L'
+                    && key.charAt(key.length() - 1) == ';') {
+                names[i] = key.substring(1, key.length() - 1);
+            } else {
+                String fqcn = superType.getFullyQualifiedName();
+                names[i] = ClassContext.getInternalName(fqcn);
+            }
+        }
+
+        return names;
+    }
+
+    /**
+     * Returns true if the given delta may change the super class of any type: types
+     * being added or removed, super types changing, and classpath changes. Edits
+     * to method bodies and the like are ignored.
+     */
+    private static boolean affectsHierarchy(@NonNull IJavaElementDelta delta) {
+        int kind = delta.getKind();
+        if (kind == IJavaElementDelta.ADDED || kind == IJavaElementDelta.REMOVED) {
+            return true;
+        }
+
+        int flags = delta.getFlags();
+        if ((flags & (IJavaElementDelta.F_SUPER_TYPES
+                | IJavaElementDelta.F_CLASSPATH_CHANGED
+                | IJavaElementDelta.F_RESOLVED_CLASSPATH_CHANGED
+                | IJavaElementDelta.F_ARCHIVE_CONTENT_CHANGED
+                | IJavaElementDelta.F_ADDED_TO_CLASSPATH
+                | IJavaElementDelta.F_REMOVED_FROM_CLASSPATH)) != 0) {
+            return true;
+        }
+        if ((flags & IJavaElementDelta.F_CONTENT) != 0
+                && (flags & IJavaElementDelta.F_FINE_GRAINED) == 0) {
+            // Don't know what changed
+            return true;
+        }
+
+        for (IJavaElementDelta child : delta.getAffectedChildren()) {
+            if (affectsHierarchy(child)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // ---- Implements IElementChangedListener ----
+
+    @Override
+    public void elementChanged(ElementChangedEvent event) {
+        synchronized (this) {
+            if (mProjects.isEmpty()) {
+                return;
+            }
+        }
+
+        // Projects see each other's types through their classpaths (for example
+        // library projects), so any relevant change invalidates all projects
+        if (affectsHierarchy(event.getDelta())) {
+            clear();
+        }
+    }
+}
@@ -25,8 +25,6 @@ import com.android.ide.eclipse.adt.internal.sdk.Sdk;
 import com.android.sdklib.AndroidVersion;
 import com.android.sdklib.IAndroidTarget;
 import com.android.sdklib.IAndroidTarget.IOptionalLibrary;
-import com.google.common.collect.Maps;
-import com.google.common.io.Closeables;
 
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IWorkspaceRoot;
@@ -49,14 +47,11 @@ import org.osgi.framework.Bundle;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.regex.Pattern;
 
 /**
@@ -79,6 +74,9 @@ public class AndroidClasspathContainerInitializer extends BaseClasspathContainer
 
     private final static String PROPERTY_ANDROID_SOURCE = "androidSource"; //$NON-NLS-1$
 
+    /** Property storing the results of checking the remote javadoc locations */
+    private final static String PROPERTY_ANDROID_API_STATUS = "androidApiStatus"; //$NON-NLS-1$
+
     /** path separator to store multiple paths in a single property. This is guaranteed to not
      * be in a path.
      */
@@ -441,15 +439,18 @@ public class AndroidClasspathContainerInitializer extends BaseClasspathContainer
             }
         }
 
-        // create the java doc link.
+        // create the java doc link. This is called with the SDK lock held, so remote
+        // locations are not checked here: they are checked in the background, and the
+        // containers are created again if that changes their status.
+        JavadocUrlValidator validator = getUrlValidator();
         String androidApiURL = ProjectHelper.loadStringProperty(root, PROPERTY_ANDROID_API);
         String apiURL = null;
-        if (androidApiURL != null && testURL(androidApiURL)) {
+        if (androidApiURL != null && validator.isValid(androidApiURL)) {
             apiURL = androidApiURL;
         } else {
-            if (testURL(paths[CACHE_INDEX_DOCS_URI])) {
+            if (validator.isValid(paths[CACHE_INDEX_DOCS_URI])) {
                 apiURL = paths[CACHE_INDEX_DOCS_URI];
-            } else if (testURL(ANDROID_API_REFERENCE)) {
+            } else if (validator.isValid(ANDROID_API_REFERENCE)) {
                 apiURL = ANDROID_API_REFERENCE;
             }
         }
@@ -530,37 +531,33 @@ public class AndroidClasspathContainerInitializer extends BaseClasspathContainer
         return androidSourceProperty;
     }
 
-    /**
-     * Cache results for testURL: Some are expensive to compute, and this is
-     * called repeatedly (perhaps for each open project)
-     */
-    private static final Map<String, Boolean> sRecentUrlValidCache =
-            Maps.newHashMapWithExpectedSize(4);
-
-    @SuppressWarnings("resource") // Eclipse does not handle Closeables#closeQuietly
-    private static boolean testURL(String androidApiURL) {
-        Boolean cached = sRecentUrlValidCache.get(androidApiURL);
-        if (cached != null) {
-            return cached.booleanValue();
-        }
-        boolean valid = false;
-        InputStream is = null;
-        try {
-            URL testURL = new URL(androidApiURL);
-            URLConnection connection = testURL.openConnection();
-            // Only try for 5 seconds (though some implementations ignore this flag)
-            connection.setConnectTimeout(5000);
-            connection.setReadTimeout(5000);
-            is = connection.getInputStream();
-            valid = true;
-        } catch (Exception ignore) {
-        } finally {
-            Closeables.closeQuietly(is);
-        }
+    /** Validator for the javadoc locations, created on first use */
+    private static JavadocUrlValidator sUrlValidator;
+
+    private static synchronized JavadocUrlValidator getUrlValidator() {
+        if (sUrlValidator == null) {
+            sUrlValidator = new JavadocUrlValidator(new JavadocUrlValidator.Listener() {
+                @Override
+                public void checked(String state, boolean changed) {
+                    IWorkspaceRoot root = ResourcesPlugin.getWorkspace().getRoot();
+                    ProjectHelper.saveStringProperty(root, PROPERTY_ANDROID_API_STATUS, state);
+                    if (changed) {
+                        try {
+                            rebindClasspathEntries(JavaCore.create(root),
+                                    new Path(AdtConstants.CONTAINER_FRAMEWORK));
+                        } catch (JavaModelException e) {
+                            AdtPlugin.log(e, "Failed to update the Android classpath");
+                        }
+                    }
+                }
+            }, JavadocUrlValidator.TIMEOUT);
 
-        sRecentUrlValidCache.put(androidApiURL, valid);
+            IWorkspaceRoot root = ResourcesPlugin.getWorkspace().getRoot();
+            sUrlValidator.decode(
+                    ProjectHelper.loadStringProperty(root, PROPERTY_ANDROID_API_STATUS));
+        }
 
-        return valid;
+        return sUrlValidator;
     }
 
     /**
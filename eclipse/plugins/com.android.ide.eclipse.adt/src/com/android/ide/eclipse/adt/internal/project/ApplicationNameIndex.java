@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ide.eclipse.adt.internal.project;
+
+import com.android.SdkConstants;
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.ide.common.xml.ManifestData;
+import com.android.ide.eclipse.adt.internal.resources.manager.GlobalProjectMonitor;
+import com.android.ide.eclipse.adt.internal.resources.manager.GlobalProjectMonitor.IFileListener;
+import com.android.ide.eclipse.adt.internal.resources.manager.GlobalProjectMonitor.IProjectListener;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IMarkerDelta;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.runtime.IPath;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An index from application names (manifest packages and process names) to the
+ * Android projects in the workspace which declare them, used by
+ * {@link ProjectHelper#findAndroidProjectByAppName(String)}.
+ * <p/>
+ * The index is kept up to date by listening to project open/close events and manifest
+ * changes through the {@link GlobalProjectMonitor}. Updates are serialized, and each
+ * update publishes a new immutable map, so lookups (which typically happen on DDMS
+ * threads when clients appear) never block and never parse manifests.
+ */
+final class ApplicationNameIndex implements IProjectListener, IFileListener {
+    private static ApplicationNameIndex sIndex;
+
+    /**
+     * The names declared by each project. Sorted by project name, such that when
+     * several projects declare the same name, the first one in workspace order wins
+     * (which is what the linear search did).
+     */
+    private final Map<String, ProjectNames> mProjects = new TreeMap<String, ProjectNames>();
+
+    /** Immutable snapshot of the application name to project map */
+    private volatile Map<String, IProject> mNames = Collections.emptyMap();
+
+    /**
+     * Returns the index, creating and populating it on first use
+     *
+     * @return the application name index
+     */
+    @NonNull
+    static synchronized ApplicationNameIndex get() {
+        if (sIndex == null) {
+            ApplicationNameIndex index = new ApplicationNameIndex();
+            GlobalProjectMonitor monitor = GlobalProjectMonitor.getMonitor();
+            // Registering the project listener reports all open Android projects
+            monitor.addProjectListener(index);
+            monitor.addFileListener(index,
+                    IResourceDelta.ADDED | IResourceDelta.CHANGED | IResourceDelta.REMOVED);
+            sIndex = index;
+        }
+
+        return sIndex;
+    }
+
+    private ApplicationNameIndex() {
+    }
+
+    /**
+     * Returns the project declaring the given application name as its package or as
+     * a process name, if any
+     *
+     * @param applicationName the application name to look up
+     * @return the corresponding project, or null
+     */
+    @Nullable
+    IProject find(@NonNull String applicationName) {
+        IProject project = mNames.get(applicationName);
+        if (project != null && project.isOpen()) {
+            return project;
+        }
+
+        return null;
+    }
+
+    private synchronized void update(@NonNull IProject project) {
+        ManifestData data = null;
+        IFile manifestFile = ProjectHelper.getManifest(project);
+        if (manifestFile != null) {
+            data = AndroidManifestHelper.parseForData(manifestFile);
+        }
+
+        if (data != null) {
+            mProjects.put(project.getName(), new ProjectNames(project, data.getPackage(),
+                    data.getProcesses()));
+        } else {
+            mProjects.remove(project.getName());
+        }
+        publish();
+    }
+
+    private synchronized void remove(@NonNull IProject project) {
+        if (mProjects.remove(project.getName()) != null) {
+            publish();
+        }
+    }
+
+    private void publish() {
+        Map<String, IProject> names = new HashMap<String, IProject>();
+        for (ProjectNames entry : mProjects.values()) {
+            if (entry.packageName != null && !names.containsKey(entry.packageName)) {
+                names.put(entry.packageName, entry.project);
+            }
+            for (String process : entry.processes) {
+                if (!names.containsKey(process)) {
+                    names.put(process, entry.project);
+                }
+            }
+        }
+
+        mNames = Collections.unmodifiableMap(names);
+    }
+
+    // ---- Implements IProjectListener ----
+
+    @Override
+    public void projectOpenedWithWorkspace(IProject project) {
+        update(project);
+    }
+
+    @Override
+    public void allProjectsOpenedWithWorkspace() {
+    }
+
+    @Override
+    public void projectOpened(IProject project) {
+        update(project);
+    }
+
+    @Override
+    public void projectClosed(IProject project) {
+        remove(project);
+    }
+
+    @Override
+    public void projectDeleted(IProject project) {
+        remove(project);
+    }
+
+    @Override
+    public void projectRenamed(IProject project, IPath from) {
+        // Handled by the projectDeleted and projectOpened calls made for the rename
+    }
+
+    // ---- Implements IFileListener ----
+
+    @Override
+    public void fileChanged(@NonNull IFile file, @NonNull IMarkerDelta[] markerDeltas,
+            int kind, @Nullable String extension, int flags, boolean isAndroidProject) {
+        if (!isAndroidProject
+                || file.getProjectRelativePath().segmentCount() != 1
+                || !SdkConstants.FN_ANDROID_MANIFEST_XML.equals(file.getName())) {
+            return;
+        }
+        if (kind == IResourceDelta.CHANGED && (flags & IResourceDelta.CONTENT) == 0) {
+            // Only marker changes etc
+            return;
+        }
+
+        IProject project = file.getProject();
+        if (project.isOpen()) {
+            update(project);
+        }
+    }
+
+    /** The application names declared by a single project */
+    private static class ProjectNames {
+        final IProject project;
+        final String packageName;
+        final String[] processes;
+
+        ProjectNames(IProject project, String packageName, String[] processes) {
+            this.project = project;
+            this.packageName = packageName;
+            this.processes = processes;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.project;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.google.common.io.Closeables;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Validates the javadoc locations attached to the Android classpath container, without
+ * blocking the creation of the container on the network.
+ * <p>
+ * Locations on the local machine are checked right away. Remote locations are checked on
+ * a background job: until a location has been checked it is assumed to be valid, and the
+ * results are kept with an expiry, after which the last result is still used while the
+ * location is checked again. The results can be persisted with {@link #encode()}, and the
+ * {@link Listener} is told whether the status of any location changed, in which case the
+ * containers should be created again.
+ */
+class JavadocUrlValidator {
+    /** How long a valid location is trusted before it is checked again */
+    static final long VALID_EXPIRY = 7 * 24 * 60 * 60 * 1000L;
+
+    /** How long an invalid location is trusted before it is checked again */
+    static final long INVALID_EXPIRY = 24 * 60 * 60 * 1000L;
+
+    /** The connect and read timeout for remote locations, in milliseconds */
+    static final int TIMEOUT = 5000;
+
+    /** The number of results kept; the least recently checked ones are dropped first */
+    private static final int MAX_ENTRIES = 16;
+
+    /** The maximum length of the encoded results, which must fit in a persistent property */
+    private static final int MAX_ENCODED_LENGTH = 2000;
+
+    private static final String ENTRY_SEPARATOR = "\n"; //$NON-NLS-1$
+    private static final String FIELD_SEPARATOR = "\t"; //$NON-NLS-1$
+
+    /** Listener notified on the validation job after remote locations were checked */
+    interface Listener {
+        /**
+         * Called after checking the pending remote locations
+         *
+         * @param state the results, as encoded by {@link JavadocUrlValidator#encode()}
+         * @param changed whether the status of any location changed
+         */
+        void checked(@NonNull String state, boolean changed);
+    }
+
+    /** The status of a checked location */
+    private static class Entry {
+        final boolean mValid;
+        final long mExpires;
+
+        Entry(boolean valid, long expires) {
+            mValid = valid;
+            mExpires = expires;
+        }
+    }
+
+    /** The results, in the order they were checked */
+    private final Map<String, Entry> mEntries = new LinkedHashMap<String, Entry>();
+
+    /** The remote locations waiting to be checked */
+    private final Set<String> mPending = new LinkedHashSet<String>();
+
+    private final Listener mListener;
+    private final int mTimeout;
+    private Job mJob;
+
+    /**
+     * Creates a new validator
+     *
+     * @param listener the listener to notify after checking remote locations
+     * @param timeout the connect and read timeout for remote locations, in milliseconds
+     */
+    JavadocUrlValidator(@NonNull Listener listener, int timeout) {
+        mListener = listener;
+        mTimeout = timeout;
+    }
+
+    /**
+     * Returns whether the given javadoc location is valid, without waiting for the
+     * network. Remote locations which were never checked, or whose result expired, are
+     * checked in the background.
+     *
+     * @param url the location
+     * @return true if the location is valid, or assumed to be valid
+     */
+    boolean isValid(@Nullable String url) {
+        return isValid(url, System.currentTimeMillis());
+    }
+
+    boolean isValid(@Nullable String url, long now) {
+        if (url == null) {
+            return false;
+        }
+
+        URL location;
+        try {
+            location = new URL(url);
+        } catch (MalformedURLException e) {
+            return false;
+        }
+
+        if (!isRemote(location)) {
+            return check(location, mTimeout);
+        }
+
+        boolean schedule = false;
+        boolean valid;
+        synchronized (this) {
+            Entry entry = mEntries.get(url);
+            if (entry == null || entry.mExpires <= now) {
+                schedule = mPending.add(url);
+            }
+            valid = entry == null || entry.mValid;
+        }
+
+        if (schedule) {
+            scheduleCheck();
+        }
+
+        return valid;
+    }
+
+    private static boolean isRemote(URL location) {
+        String protocol = location.getProtocol();
+        return "http".equals(protocol)          //$NON-NLS-1$
+                || "https".equals(protocol)     //$NON-NLS-1$
+                || "ftp".equals(protocol);      //$NON-NLS-1$
+    }
+
+    /** Returns whether the location can be read */
+    @SuppressWarnings("resource") // Eclipse does not handle Closeables#closeQuietly
+    static boolean check(@NonNull URL location, int timeout) {
+        InputStream is = null;
+        try {
+            URLConnection connection = location.openConnection();
+            // Some implementations ignore these
+            connection.setConnectTimeout(timeout);
+            connection.setReadTimeout(timeout);
+            is = connection.getInputStream();
+            return true;
+        } catch (Exception ignore) {
+            return false;
+        } finally {
+            Closeables.closeQuietly(is);
+        }
+    }
+
+    /** Schedules the job checking the pending locations */
+    void scheduleCheck() {
+        synchronized (this) {
+            if (mJob == null) {
+                mJob = new Job("Validating javadoc locations") {
+                    @Override
+                    protected IStatus run(IProgressMonitor monitor) {
+                        boolean changed = checkPending();
+                        mListener.checked(encode(), changed);
+                        return Status.OK_STATUS;
+                    }
+                };
+                mJob.setSystem(true);
+            }
+        }
+
+        // If the job is running, it runs again afterwards
+        mJob.schedule();
+    }
+
+    /**
+     * Checks the pending remote locations, without holding the lock of this validator
+     * while waiting for the network.
+     *
+     * @return true if the status of any location changed
+     */
+    boolean checkPending() {
+        boolean changed = false;
+        while (true) {
+            String url;
+            synchronized (this) {
+                Iterator<String> iterator = mPending.iterator();
+                if (!iterator.hasNext()) {
+                    break;
+                }
+                url = iterator.next();
+                iterator.remove();
+            }
+
+            boolean valid;
+            try {
+                valid = check(new URL(url), mTimeout);
+            } catch (MalformedURLException e) {
+                valid = false;
+            }
+
+            if (setStatus(url, valid, System.currentTimeMillis())) {
+                changed = true;
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * Records the status of a location
+     *
+     * @return true if the status differs from the one previously used for the location
+     */
+    synchronized boolean setStatus(@NonNull String url, boolean valid, long now) {
+        Entry previous = mEntries.remove(url);
+        mEntries.put(url, new Entry(valid, now + (valid ? VALID_EXPIRY : INVALID_EXPIRY)));
+
+        // Keep the most recent results
+        Iterator<String> iterator = mEntries.keySet().iterator();
+        while (mEntries.size() > MAX_ENTRIES) {
+            iterator.next();
+            iterator.remove();
+        }
+
+        boolean wasValid = previous == null || previous.mValid;
+        return wasValid != valid;
+    }
+
+    /**
+     * Returns the results, encoded such that they can be restored with {@link #decode}.
+     * The least recently checked results are left out if needed to keep the encoded
+     * results within {@link #MAX_ENCODED_LENGTH}.
+     *
+     * @return the encoded results
+     */
+    @NonNull
+    synchronized String encode() {
+        String[] lines = new String[mEntries.size()];
+        int i = 0;
+        for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+            lines[i++] = entry.getKey() + FIELD_SEPARATOR + entry.getValue().mValid
+                    + FIELD_SEPARATOR + entry.getValue().mExpires;
+        }
+
+        int first = lines.length;
+        int length = 0;
+        while (first > 0 && length + lines[first - 1].length() + 1 <= MAX_ENCODED_LENGTH) {
+            length += lines[--first].length() + 1;
+        }
+
+        StringBuilder sb = new StringBuilder(length);
+        for (i = first; i < lines.length; i++) {
+            if (sb.length() > 0) {
+                sb.append(ENTRY_SEPARATOR);
+            }
+            sb.append(lines[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Restores results encoded by {@link #encode()}. Malformed entries are ignored.
+     *
+     * @param state the encoded results, or null
+     */
+    synchronized void decode(@Nullable String state) {
+        if (state == null) {
+            return;
+        }
+
+        for (String line : state.split(ENTRY_SEPARATOR)) {
+            String[] fields = line.split(FIELD_SEPARATOR);
+            if (fields.length == 3) {
+                try {
+                    long expires = Long.parseLong(fields[2]);
+                    mEntries.put(fields[0], new Entry(Boolean.parseBoolean(fields[1]), expires));
+                } catch (NumberFormatException e) {
+                    // ignore the entry
+                }
+            }
+        }
+    }
+}
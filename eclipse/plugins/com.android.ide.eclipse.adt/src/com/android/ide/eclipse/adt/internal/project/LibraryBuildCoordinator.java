@@ -0,0 +1,386 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ide.eclipse.adt.internal.project;
+
+import com.android.SdkConstants;
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.ide.eclipse.adt.AdtPlugin;
+import com.android.ide.eclipse.adt.internal.preferences.AdtPrefs;
+import com.android.ide.eclipse.adt.internal.preferences.AdtPrefs.BuildVerbosity;
+import com.android.ide.eclipse.adt.internal.sdk.ProjectState;
+import com.android.ide.eclipse.adt.internal.sdk.ProjectState.LibraryState;
+import com.android.ide.eclipse.adt.internal.sdk.Sdk;
+
+import org.eclipse.core.resources.IFolder;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.core.runtime.jobs.IJobChangeEvent;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.JobChangeAdapter;
+import org.eclipse.jdt.core.IJavaProject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds a project along with the library projects it depends on.
+ * <p/>
+ * The dependency graph is computed once up front, and each project in it is built
+ * exactly once, after all of its own dependencies, even when a library is reachable
+ * through several paths (e.g. two libraries sharing a common library).
+ * <p/>
+ * Libraries which do not depend on each other are built from separate jobs, such that
+ * they can proceed in parallel when the scheduling rules of their builders allow it.
+ * (The workspace acquires each builder's rule itself, so builders requiring the whole
+ * workspace are still run one at a time.) When the caller already owns a scheduling
+ * rule, the libraries are built serially on the calling thread instead, since the jobs
+ * could otherwise block on the caller's rule.
+ * <p/>
+ * After each library is built, only its output folders are refreshed rather than
+ * the whole project, and the time spent on each project is reported on the console
+ * in verbose build mode.
+ */
+final class LibraryBuildCoordinator {
+    /** A build action to run on each project of the graph */
+    interface BuildStep {
+        /**
+         * Builds the given project
+         *
+         * @param project the project to build
+         * @param monitor the progress monitor to use
+         * @throws CoreException if the build fails
+         */
+        void build(@NonNull IProject project, @NonNull IProgressMonitor monitor)
+                throws CoreException;
+    }
+
+    /** Computes the direct Android project dependencies of a project */
+    private interface DependencyProvider {
+        @NonNull
+        List<IProject> getDependencies(@NonNull IProject project);
+    }
+
+    private final IProject mRoot;
+
+    /** All the projects, with each project after all of its dependencies (root last) */
+    private final List<IProject> mOrder;
+
+    /** The direct dependencies of each project in the graph */
+    private final Map<IProject, List<IProject>> mDependencies;
+
+    private LibraryBuildCoordinator(@NonNull IProject root,
+            @NonNull DependencyProvider provider) {
+        mRoot = root;
+        mOrder = new ArrayList<IProject>();
+        mDependencies = new HashMap<IProject, List<IProject>>();
+        visit(root, provider, new HashSet<IProject>());
+    }
+
+    /**
+     * Creates a coordinator for the given project and the library projects it
+     * references in its project properties, directly or indirectly
+     *
+     * @param root the project to build
+     * @return a new coordinator
+     */
+    @NonNull
+    static LibraryBuildCoordinator forLibraries(@NonNull IProject root) {
+        return new LibraryBuildCoordinator(root, new DependencyProvider() {
+            @Override
+            @NonNull
+            public List<IProject> getDependencies(@NonNull IProject project) {
+                ProjectState state = Sdk.getProjectState(project);
+                if (state == null) {
+                    return Collections.emptyList();
+                }
+                List<IProject> dependencies = new ArrayList<IProject>();
+                for (LibraryState library : state.getLibraries()) {
+                    ProjectState libraryState = library.getProjectState();
+                    if (libraryState != null) {
+                        dependencies.add(libraryState.getProject());
+                    }
+                }
+                return dependencies;
+            }
+        });
+    }
+
+    /**
+     * Creates a coordinator for the given project and the Android projects it
+     * requires on its Java build path, directly or indirectly
+     *
+     * @param root the project to build
+     * @return a new coordinator
+     */
+    @NonNull
+    static LibraryBuildCoordinator forJavaDependencies(@NonNull IProject root) {
+        return new LibraryBuildCoordinator(root, new DependencyProvider() {
+            @Override
+            @NonNull
+            public List<IProject> getDependencies(@NonNull IProject project) {
+                List<IProject> dependencies = new ArrayList<IProject>();
+                try {
+                    IJavaProject javaProject = BaseProjectHelper.getJavaProject(project);
+                    if (javaProject != null) {
+                        for (IJavaProject dependency :
+                                ProjectHelper.getAndroidProjectDependencies(javaProject)) {
+                            dependencies.add(dependency.getProject());
+                        }
+                    }
+                } catch (CoreException e) {
+                    AdtPlugin.printErrorToConsole(project, e);
+                }
+                return dependencies;
+            }
+        });
+    }
+
+    private void visit(IProject project, DependencyProvider provider, Set<IProject> visiting) {
+        if (mDependencies.containsKey(project) || !visiting.add(project)) {
+            // Already built, or a dependency cycle (which the builders will report)
+            return;
+        }
+
+        List<IProject> dependencies = new ArrayList<IProject>();
+        for (IProject dependency : provider.getDependencies(project)) {
+            visit(dependency, provider, visiting);
+            // Skip the back edges of cycles, which would otherwise never be satisfied
+            if (mDependencies.containsKey(dependency) && !dependencies.contains(dependency)) {
+                dependencies.add(dependency);
+            }
+        }
+
+        visiting.remove(project);
+        mDependencies.put(project, dependencies);
+        mOrder.add(project);
+    }
+
+    /**
+     * Returns all the projects to be built, such that each project comes after all of
+     * its dependencies. The root project is last.
+     *
+     * @return the build order
+     */
+    @NonNull
+    List<IProject> getBuildOrder() {
+        return Collections.unmodifiableList(mOrder);
+    }
+
+    /**
+     * Runs the given build step on all the libraries, and then on the root project
+     *
+     * @param step the build step to run on each project
+     * @param monitor the progress monitor to use, or null
+     * @throws CoreException if any of the builds fail. The projects depending on a
+     *             failed library are not built.
+     */
+    void build(@NonNull BuildStep step, @Nullable IProgressMonitor monitor)
+            throws CoreException {
+        SubMonitor progress = SubMonitor.convert(monitor, mOrder.size());
+        long start = System.currentTimeMillis();
+        Map<IProject, Long> timings = new LinkedHashMap<IProject, Long>();
+
+        List<IProject> libraries = mOrder.subList(0, mOrder.size() - 1);
+        if (libraries.size() > 1 && Job.getJobManager().currentRule() == null) {
+            buildConcurrently(step, libraries, progress, timings);
+        } else {
+            for (IProject library : libraries) {
+                if (progress.isCanceled()) {
+                    throw new OperationCanceledException();
+                }
+                long libraryStart = System.currentTimeMillis();
+                buildLibrary(step, library, progress.newChild(1));
+                timings.put(library, System.currentTimeMillis() - libraryStart);
+            }
+        }
+
+        long rootStart = System.currentTimeMillis();
+        step.build(mRoot, progress.newChild(1));
+        timings.put(mRoot, System.currentTimeMillis() - rootStart);
+
+        if (AdtPrefs.getPrefs().getBuildVerbosity() == BuildVerbosity.VERBOSE) {
+            for (Map.Entry<IProject, Long> entry : timings.entrySet()) {
+                AdtPlugin.printBuildToConsole(BuildVerbosity.VERBOSE, mRoot,
+                        String.format("Built %1$s in %2$d ms", //$NON-NLS-1$
+                                entry.getKey().getName(), entry.getValue()));
+            }
+            AdtPlugin.printBuildToConsole(BuildVerbosity.VERBOSE, mRoot,
+                    String.format("Built %1$d projects in %2$d ms", //$NON-NLS-1$
+                            timings.size(), System.currentTimeMillis() - start));
+        }
+    }
+
+    private void buildConcurrently(BuildStep step, List<IProject> libraries,
+            SubMonitor progress, Map<IProject, Long> timings) throws CoreException {
+        // Number of unbuilt dependencies of each library, and the reverse edges
+        Map<IProject, Integer> pending = new HashMap<IProject, Integer>();
+        Map<IProject, List<IProject>> dependents = new HashMap<IProject, List<IProject>>();
+        for (IProject library : libraries) {
+            List<IProject> dependencies = mDependencies.get(library);
+            pending.put(library, dependencies.size());
+            for (IProject dependency : dependencies) {
+                List<IProject> list = dependents.get(dependency);
+                if (list == null) {
+                    list = new ArrayList<IProject>();
+                    dependents.put(dependency, list);
+                }
+                list.add(library);
+            }
+        }
+
+        BlockingQueue<LibraryJob> finished = new LinkedBlockingQueue<LibraryJob>();
+        List<LibraryJob> running = new ArrayList<LibraryJob>();
+        for (IProject library : libraries) {
+            if (pending.get(library) == 0) {
+                running.add(schedule(step, library, finished));
+            }
+        }
+
+        CoreException failure = null;
+        try {
+            // Progress and cancellation are handled on the calling thread, since
+            // progress monitors are not necessarily thread safe
+            while (!running.isEmpty()) {
+                if (progress.isCanceled()) {
+                    throw new OperationCanceledException();
+                }
+                LibraryJob job = finished.poll(100, TimeUnit.MILLISECONDS);
+                if (job == null) {
+                    continue;
+                }
+                running.remove(job);
+                progress.worked(1);
+
+                if (job.mFailure != null) {
+                    if (failure == null) {
+                        failure = job.mFailure;
+                    }
+                } else if (job.getResult() != null
+                        && job.getResult().getSeverity() == IStatus.CANCEL) {
+                    throw new OperationCanceledException();
+                } else {
+                    timings.put(job.mProject, job.mElapsed);
+                }
+
+                if (failure != null) {
+                    // Let the running builds complete, but don't start new ones
+                    continue;
+                }
+                List<IProject> list = dependents.get(job.mProject);
+                if (list != null) {
+                    for (IProject dependent : list) {
+                        int count = pending.get(dependent) - 1;
+                        pending.put(dependent, count);
+                        if (count == 0) {
+                            running.add(schedule(step, dependent, finished));
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OperationCanceledException();
+        } finally {
+            for (LibraryJob job : running) {
+                job.cancel();
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static LibraryJob schedule(BuildStep step, IProject library,
+            final BlockingQueue<LibraryJob> finished) {
+        LibraryJob job = new LibraryJob(step, library);
+        job.addJobChangeListener(new JobChangeAdapter() {
+            @Override
+            public void done(IJobChangeEvent event) {
+                finished.add((LibraryJob) event.getJob());
+            }
+        });
+        job.schedule();
+        return job;
+    }
+
+    private static void buildLibrary(BuildStep step, IProject library,
+            IProgressMonitor monitor) throws CoreException {
+        SubMonitor progress = SubMonitor.convert(monitor, 10);
+        step.build(library, progress.newChild(8));
+
+        // Make the output of the library visible to the projects depending on it.
+        // Only the output folders are refreshed; a full refresh of a large project
+        // is expensive and the builders have already refreshed the rest.
+        IFolder output = BaseProjectHelper.getAndroidOutputFolder(library);
+        if (output == null) {
+            library.refreshLocal(IResource.DEPTH_INFINITE, progress.newChild(2));
+            return;
+        }
+        output.refreshLocal(IResource.DEPTH_INFINITE, progress.newChild(1));
+        IFolder gen = library.getFolder(SdkConstants.FD_GEN_SOURCES);
+        gen.refreshLocal(IResource.DEPTH_INFINITE, progress.newChild(1));
+    }
+
+    /** Job building a single library project */
+    private static class LibraryJob extends Job {
+        private final BuildStep mStep;
+        private final IProject mProject;
+        private volatile CoreException mFailure;
+        private volatile long mElapsed;
+
+        LibraryJob(BuildStep step, IProject project) {
+            super(String.format("Building %1$s", project.getName()));
+            mStep = step;
+            mProject = project;
+            setSystem(true);
+        }
+
+        @Override
+        protected IStatus run(IProgressMonitor monitor) {
+            long start = System.currentTimeMillis();
+            try {
+                buildLibrary(mStep, mProject, monitor);
+            } catch (CoreException e) {
+                // Rethrown on the calling thread, so not returned as an error status
+                // (which would also get logged)
+                mFailure = e;
+            } catch (OperationCanceledException e) {
+                return Status.CANCEL_STATUS;
+            } finally {
+                mElapsed = System.currentTimeMillis() - start;
+            }
+
+            return Status.OK_STATUS;
+        }
+    }
+}
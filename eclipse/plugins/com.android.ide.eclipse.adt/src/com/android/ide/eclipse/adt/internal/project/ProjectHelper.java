@@ -20,14 +20,11 @@ import static com.android.ide.eclipse.adt.AdtConstants.COMPILER_COMPLIANCE_PREFE
 
 import com.android.SdkConstants;
 import com.android.annotations.NonNull;
-import com.android.ide.common.xml.ManifestData;
 import com.android.ide.eclipse.adt.AdtConstants;
 import com.android.ide.eclipse.adt.AdtPlugin;
 import com.android.ide.eclipse.adt.internal.build.builders.PostCompilerBuilder;
 import com.android.ide.eclipse.adt.internal.build.builders.PreCompilerBuilder;
 import com.android.ide.eclipse.adt.internal.preferences.AdtPrefs;
-import com.android.ide.eclipse.adt.internal.sdk.ProjectState;
-import com.android.ide.eclipse.adt.internal.sdk.Sdk;
 import com.android.utils.Pair;
 
 import org.eclipse.core.resources.ICommand;
@@ -37,7 +34,6 @@ import org.eclipse.core.resources.IMarker;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IProjectDescription;
 import org.eclipse.core.resources.IResource;
-import org.eclipse.core.resources.IWorkspace;
 import org.eclipse.core.resources.IncrementalProjectBuilder;
 import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
@@ -46,6 +42,7 @@ import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.runtime.Path;
 import org.eclipse.core.runtime.QualifiedName;
+import org.eclipse.core.runtime.SubMonitor;
 import org.eclipse.jdt.core.IClasspathEntry;
 import org.eclipse.jdt.core.IJavaModel;
 import org.eclipse.jdt.core.IJavaProject;
@@ -576,57 +573,10 @@ public final class ProjectHelper {
      * @return a project or <code>null</code> if no matching project were found.
      */
     public static IProject findAndroidProjectByAppName(String applicationName) {
-        // Get the list of project for the current workspace
-        IWorkspace workspace = ResourcesPlugin.getWorkspace();
-        IProject[] projects = workspace.getRoot().getProjects();
-
-        // look for a project that matches the packageName of the app
-        // we're trying to debug
-        for (IProject p : projects) {
-            if (p.isOpen()) {
-                try {
-                    if (p.hasNature(AdtConstants.NATURE_DEFAULT) == false) {
-                        // ignore non android projects
-                        continue;
-                    }
-                } catch (CoreException e) {
-                    // failed to get the nature? skip project.
-                    continue;
-                }
-
-                // check that there is indeed a manifest file.
-                IFile manifestFile = getManifest(p);
-                if (manifestFile == null) {
-                    // no file? skip this project.
-                    continue;
-                }
-
-                ManifestData data = AndroidManifestHelper.parseForData(manifestFile);
-                if (data == null) {
-                    // skip this project.
-                    continue;
-                }
-
-                String manifestPackage = data.getPackage();
-
-                if (manifestPackage != null && manifestPackage.equals(applicationName)) {
-                    // this is the project we were looking for!
-                    return p;
-                } else {
-                    // if the package and application name don't match,
-                    // we look for other possible process names declared in the manifest.
-                    String[] processes = data.getProcesses();
-                    for (String process : processes) {
-                        if (process.equals(applicationName)) {
-                            return p;
-                        }
-                    }
-                }
-            }
-        }
-
-        return null;
-
+        // This is called from DDMS threads whenever clients appear, so rather than
+        // parsing all the manifests in the workspace, look it up in an index which
+        // is kept up to date as projects and manifests change
+        return ApplicationNameIndex.get().find(applicationName);
     }
 
     public static void fixProjectNatureOrder(IProject project) throws CoreException {
@@ -982,42 +932,34 @@ public final class ProjectHelper {
      * @throws CoreException
      */
     @SuppressWarnings("unchecked")
-    public static void compileInReleaseMode(IProject project, IProgressMonitor monitor)
+    public static void compileInReleaseMode(final IProject project, IProgressMonitor monitor)
             throws CoreException {
-        compileInReleaseMode(project, true /*includeDependencies*/, monitor);
+        // The libraries are built before the projects depending on them, to prevent
+        // libraries being rebuilt due to refresh of other libraries (they would be
+        // compiled in the wrong mode).
+        LibraryBuildCoordinator.forLibraries(project).build(
+                new LibraryBuildCoordinator.BuildStep() {
+            @Override
+            public void build(@NonNull IProject p, @NonNull IProgressMonitor m)
+                    throws CoreException {
+                compileProjectInReleaseMode(p, p != project, m);
+            }
+        }, monitor);
     }
 
     /**
-     * Does a full release build of the application, including the libraries. Do not build the
+     * Does a full release build of a single project of the application. Do not build the
      * package.
      *
      * @param project The project to be built.
+     * @param isLibrary whether the project is built as a library of the application
      * @param monitor A eclipse runtime progress monitor to be updated by the builders.
      * @throws CoreException
      */
     @SuppressWarnings("unchecked")
-    private static void compileInReleaseMode(IProject project, boolean includeDependencies,
+    private static void compileProjectInReleaseMode(IProject project, boolean isLibrary,
             IProgressMonitor monitor)
             throws CoreException {
-
-        if (includeDependencies) {
-            ProjectState projectState = Sdk.getProjectState(project);
-
-            // this gives us all the library projects, direct and indirect dependencies,
-            // so no need to run this method recursively.
-            List<IProject> libraries = projectState.getFullLibraryProjects();
-
-            // build dependencies in reverse order to prevent libraries being rebuilt
-            // due to refresh of other libraries (they would be compiled in the wrong mode).
-            for (int i = libraries.size() - 1 ; i >= 0 ; i--) {
-                IProject lib = libraries.get(i);
-                compileInReleaseMode(lib, false /*includeDependencies*/, monitor);
-
-                // force refresh of the dependency.
-                lib.refreshLocal(IResource.DEPTH_INFINITE, monitor);
-            }
-        }
-
         // do a full build on all the builders to guarantee that the builders are called.
         // (Eclipse does an optimization where builders are not called if there aren't any
         // deltas).
@@ -1035,7 +977,7 @@ public final class ProjectHelper {
                 project.build(IncrementalProjectBuilder.FULL_BUILD,
                         PreCompilerBuilder.ID, newArgs, monitor);
             } else if (PostCompilerBuilder.ID.equals(name)) {
-                if (includeDependencies == false) {
+                if (isLibrary) {
                     // this is a library, we need to build it!
                     project.build(IncrementalProjectBuilder.FULL_BUILD, name,
                             command.getArguments(), monitor);
@@ -1056,24 +998,18 @@ public final class ProjectHelper {
      * @param monitor
      * @throws CoreException
      */
-    public static void buildWithDeps(IProject project, int kind, IProgressMonitor monitor)
-            throws CoreException {
-        // Get list of projects that we depend on
-        ProjectState projectState = Sdk.getProjectState(project);
-
-        // this gives us all the library projects, direct and indirect dependencies,
-        // so no need to run this method recursively.
-        List<IProject> libraries = projectState.getFullLibraryProjects();
-
-        // build dependencies in reverse order to prevent libraries being rebuilt
-        // due to refresh of other libraries (they would be compiled in the wrong mode).
-        for (int i = libraries.size() - 1 ; i >= 0 ; i--) {
-            IProject lib = libraries.get(i);
-            lib.build(kind, monitor);
-            lib.refreshLocal(IResource.DEPTH_INFINITE, monitor);
-        }
-
-        project.build(kind, monitor);
+    public static void buildWithDeps(IProject project, final int kind,
+            IProgressMonitor monitor) throws CoreException {
+        // Builds each library (direct and indirect dependencies) once, before the
+        // projects depending on it, and the project itself last.
+        LibraryBuildCoordinator.forLibraries(project).build(
+                new LibraryBuildCoordinator.BuildStep() {
+            @Override
+            public void build(@NonNull IProject p, @NonNull IProgressMonitor m)
+                    throws CoreException {
+                p.build(kind, m);
+            }
+        }, monitor);
     }
 
 
@@ -1085,23 +1021,26 @@ public final class ProjectHelper {
      * @param monitor A eclipse runtime progress monitor to be updated by the builders.
      * @throws CoreException
      */
-    public static void doFullIncrementalDebugBuild(IProject project, IProgressMonitor monitor)
-            throws CoreException {
-        // Get list of projects that we depend on
-        List<IJavaProject> androidProjectList = new ArrayList<IJavaProject>();
-        try {
-            androidProjectList = getAndroidProjectDependencies(
-                                    BaseProjectHelper.getJavaProject(project));
-        } catch (JavaModelException e) {
-            AdtPlugin.printErrorToConsole(project, e);
-        }
-        // Recursively build dependencies
-        for (IJavaProject dependency : androidProjectList) {
-            doFullIncrementalDebugBuild(dependency.getProject(), monitor);
-        }
+    public static void doFullIncrementalDebugBuild(final IProject project,
+            IProgressMonitor monitor) throws CoreException {
+        // Build the dependencies first; each one is built only once even when it is
+        // required by several other projects
+        LibraryBuildCoordinator.forJavaDependencies(project).build(
+                new LibraryBuildCoordinator.BuildStep() {
+            @Override
+            public void build(@NonNull IProject p, @NonNull IProgressMonitor m)
+                    throws CoreException {
+                doIncrementalDebugBuild(p, p == project, m);
+            }
+        }, monitor);
+    }
+
+    private static void doIncrementalDebugBuild(IProject project, boolean isRoot,
+            IProgressMonitor monitor) throws CoreException {
+        SubMonitor progress = SubMonitor.convert(monitor, 3);
 
         // Do an incremental build to pick up all the deltas
-        project.build(IncrementalProjectBuilder.INCREMENTAL_BUILD, monitor);
+        project.build(IncrementalProjectBuilder.INCREMENTAL_BUILD, progress.newChild(1));
 
         // If the preferences indicate not to use post compiler optimization
         // then the incremental build will have done everything necessary, otherwise,
@@ -1114,13 +1053,16 @@ public final class ProjectHelper {
             // call the post compiler manually, forcing FULL_BUILD otherwise Eclipse won't
             // call the builder since the delta is empty.
             project.build(IncrementalProjectBuilder.FULL_BUILD,
-                          PostCompilerBuilder.ID, args, monitor);
+                          PostCompilerBuilder.ID, args, progress.newChild(1));
         }
 
         // because the post compiler builder does a delayed refresh due to
         // library not picking the refresh up if it's done during the build,
         // we want to force a refresh here as this call is generally asking for
-        // a build to use the apk right after the call.
-        project.refreshLocal(IResource.DEPTH_INFINITE, monitor);
+        // a build to use the apk right after the call. (Dependencies only get their
+        // output folders refreshed by the build coordinator.)
+        if (isRoot) {
+            project.refreshLocal(IResource.DEPTH_INFINITE, progress.newChild(1));
+        }
     }
 }
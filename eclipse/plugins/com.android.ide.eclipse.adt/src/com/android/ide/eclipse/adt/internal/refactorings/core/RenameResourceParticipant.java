@@ -54,6 +54,7 @@ import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.SubMonitor;
 import org.eclipse.jdt.core.IField;
 import org.eclipse.jdt.core.IJavaElement;
 import org.eclipse.jdt.core.IJavaProject;
@@ -85,7 +86,9 @@ import org.w3c.dom.NodeList;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * A rename participant handling renames of resources (such as R.id.foo and R.layout.bar).
@@ -373,19 +376,22 @@ public class RenameResourceParticipant extends RenameParticipant {
         // Only show the children in the refactoring preview dialog
         result.markAsSynthetic();
 
-        addResourceFileChanges(result, mProject, monitor);
+        SubMonitor progress = SubMonitor.convert(monitor, 10);
+        addResourceFileChanges(result, mProject, progress.newChild(5));
 
         // If renaming resources in a library project, also offer to rename references
         // in including projects
+        SubMonitor libraryProgress = progress.newChild(3);
         if (mUpdateReferences) {
             ProjectState projectState = Sdk.getProjectState(mProject);
             if (projectState != null && projectState.isLibrary()) {
                 List<ProjectState> parentProjects = projectState.getParentProjects();
+                libraryProgress.setWorkRemaining(parentProjects.size());
                 for (ProjectState state : parentProjects) {
                     IProject project = state.getProject();
                     CompositeChange nested = new CompositeChange(
                             String.format("Update references in %1$s", project.getName()));
-                    addResourceFileChanges(nested, project, monitor);
+                    addResourceFileChanges(nested, project, libraryProgress.newChild(1));
                     if (nested.getChildren().length > 0) {
                         result.add(nested);
                     }
@@ -397,7 +403,7 @@ public class RenameResourceParticipant extends RenameParticipant {
             // We have to add in Java field refactoring
             try {
                 sIgnore = true;
-                addJavaChanges(result, monitor);
+                addJavaChanges(result, progress.newChild(2));
             } finally {
                 sIgnore = false;
             }
@@ -425,10 +431,18 @@ public class RenameResourceParticipant extends RenameParticipant {
         }
 
         try {
+            // Collect the XML files to update and the files to rename, in the order
+            // the changes should be applied
+            List<IFile> xmlFiles = new ArrayList<IFile>();
+            List<ResourceFolderType> xmlFolderTypes = new ArrayList<ResourceFolderType>();
+            List<IFile> renamedFiles = new ArrayList<IFile>();
+
             // Update resource references in the manifest
             IFile manifest = project.getFile(SdkConstants.ANDROID_MANIFEST_XML);
             if (manifest != null) {
-                addResourceXmlChanges(manifest, change, null);
+                xmlFiles.add(manifest);
+                xmlFolderTypes.add(null);
+                renamedFiles.add(null);
             }
 
             // Update references in XML resource files
@@ -449,7 +463,9 @@ public class RenameResourceParticipant extends RenameParticipant {
                         String fileName = member.getName();
 
                         if (SdkUtils.endsWith(fileName, DOT_XML)) {
-                            addResourceXmlChanges(file, change, folderType);
+                            xmlFiles.add(file);
+                            xmlFolderTypes.add(folderType);
+                            renamedFiles.add(null);
                         }
 
                         if ((mRenamedFile == null || !mRenamedFile.equals(file))
@@ -458,19 +474,67 @@ public class RenameResourceParticipant extends RenameParticipant {
                                 && fileName.charAt(mOldName.length()) == '.'
                                 && mFolderType != ResourceFolderType.VALUES
                                 && mFolderType == folderType) {
-                            // Rename this file
-                            String newFile = mNewName + fileName.substring(mOldName.length());
-                            IPath path = file.getFullPath();
-                            change.add(new RenameResourceChange(path, newFile));
+                            xmlFiles.add(null);
+                            xmlFolderTypes.add(null);
+                            renamedFiles.add(file);
                         }
                     }
                 }
             }
+
+            // Only load structured models for the files which can possibly refer to
+            // the resource
+            Set<IFile> candidates = findCandidateFiles(xmlFiles, monitor);
+
+            for (int i = 0, n = xmlFiles.size(); i < n; i++) {
+                IFile file = xmlFiles.get(i);
+                if (file != null) {
+                    if (candidates.contains(file)) {
+                        addResourceXmlChanges(file, change, xmlFolderTypes.get(i));
+                    }
+                } else {
+                    // Rename this file
+                    IFile renamed = renamedFiles.get(i);
+                    String fileName = renamed.getName();
+                    String newFile = mNewName + fileName.substring(mOldName.length());
+                    IPath path = renamed.getFullPath();
+                    change.add(new RenameResourceChange(path, newFile));
+                }
+            }
         } catch (CoreException e) {
             RefactoringUtil.log(e);
         }
     }
 
+    /**
+     * Returns the subset of the given XML files which may reference the renamed
+     * resource, based on a quick scan of their contents. Files which are open in an
+     * editor are always included since their contents may not have been saved.
+     */
+    private Set<IFile> findCandidateFiles(List<IFile> xmlFiles, IProgressMonitor monitor)
+            throws OperationCanceledException {
+        IModelManager modelManager = StructuredModelManager.getModelManager();
+        Set<IFile> candidates = new HashSet<IFile>();
+        List<IFile> scan = new ArrayList<IFile>(xmlFiles.size());
+        for (IFile file : xmlFiles) {
+            if (file == null) {
+                continue;
+            }
+            IStructuredModel model = modelManager.getExistingModelForRead(file);
+            if (model != null) {
+                model.releaseFromRead();
+                candidates.add(file);
+            } else {
+                scan.add(file);
+            }
+        }
+
+        SubMonitor progress = SubMonitor.convert(monitor,
+                String.format("Searching %1$d files", scan.size()), scan.size());
+        candidates.addAll(new ResourceReferenceFilter(mOldName).filter(scan, progress));
+        return candidates;
+    }
+
     private void addJavaChanges(CompositeChange result, IProgressMonitor monitor)
             throws CoreException, OperationCanceledException {
         if (monitor.isCanceled()) {
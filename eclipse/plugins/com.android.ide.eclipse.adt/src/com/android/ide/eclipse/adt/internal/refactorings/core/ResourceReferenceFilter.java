@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ide.eclipse.adt.internal.refactorings.core;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.ide.eclipse.adt.AdtPlugin;
+import com.google.common.base.Charsets;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Quickly finds the resource files which might reference a given resource name, by
+ * scanning the raw bytes of the files (in parallel) for the name rather than parsing
+ * them. Only the files which pass this filter need to be loaded as structured models
+ * by the {@link RenameResourceParticipant}.
+ * <p>
+ * The filter is conservative: a file is only rejected if it cannot possibly contain
+ * the name as a token, so it may return files which turn out to have no references.
+ */
+class ResourceReferenceFilter {
+    /** Number of files scanned per task */
+    private static final int FILES_PER_TASK = 32;
+
+    private final byte[] mToken;
+
+    /**
+     * Creates a new filter for the given resource name
+     *
+     * @param name the resource name to look for, such as {@code app_name}
+     */
+    ResourceReferenceFilter(@NonNull String name) {
+        mToken = name.getBytes(Charsets.UTF_8);
+    }
+
+    /**
+     * Returns the files among the given files which might reference the resource name
+     *
+     * @param files the files to filter
+     * @param monitor the progress monitor to report progress to (one unit per file)
+     *            and check for cancellation with
+     * @return the files, in the original order, which may contain the resource name
+     * @throws OperationCanceledException if the monitor is canceled
+     */
+    @NonNull
+    List<IFile> filter(@NonNull List<IFile> files, @NonNull IProgressMonitor monitor)
+            throws OperationCanceledException {
+        // Progress monitors are not necessarily thread safe, so only the calling thread
+        // reports progress and polls for cancellation; it tells the scan tasks to stop
+        // through this flag
+        AtomicBoolean canceled = new AtomicBoolean();
+        int threads = Math.min(Runtime.getRuntime().availableProcessors(),
+                (files.size() + FILES_PER_TASK - 1) / FILES_PER_TASK);
+        if (threads <= 1) {
+            boolean[] matches = new boolean[files.size()];
+            for (int start = 0; start < files.size(); start += FILES_PER_TASK) {
+                if (monitor.isCanceled()) {
+                    throw new OperationCanceledException();
+                }
+                int end = Math.min(files.size(), start + FILES_PER_TASK);
+                monitor.worked(new ScanTask(files, start, end, matches, canceled).call());
+            }
+            return select(files, matches);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Resource Reference Scanner"); //$NON-NLS-1$
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            CompletionService<Integer> completion =
+                    new ExecutorCompletionService<Integer>(executor);
+            boolean[] matches = new boolean[files.size()];
+            int tasks = 0;
+            for (int start = 0; start < files.size(); start += FILES_PER_TASK) {
+                int end = Math.min(files.size(), start + FILES_PER_TASK);
+                completion.submit(new ScanTask(files, start, end, matches, canceled));
+                tasks++;
+            }
+
+            for (int i = 0; i < tasks; i++) {
+                Future<Integer> future;
+                do {
+                    if (monitor.isCanceled()) {
+                        throw new OperationCanceledException();
+                    }
+                    future = completion.poll(100, TimeUnit.MILLISECONDS);
+                } while (future == null);
+                monitor.worked(future.get());
+            }
+
+            return select(files, matches);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OperationCanceledException();
+        } catch (ExecutionException e) {
+            // Shouldn't happen; the scan tasks treat I/O errors as matches. Fall back
+            // to letting the structured models look at all the files.
+            AdtPlugin.log(e.getCause(), null);
+            return files;
+        } finally {
+            canceled.set(true);
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<IFile> select(List<IFile> files, boolean[] matches) {
+        List<IFile> result = new ArrayList<IFile>();
+        for (int i = 0; i < matches.length; i++) {
+            if (matches[i]) {
+                result.add(files.get(i));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns true if the given file contents might contain the resource name. The
+     * name must appear as a whole token: it cannot be preceded or followed by a
+     * character which can be part of a resource name. Files which are not stored in
+     * an ASCII compatible encoding are always considered candidates.
+     *
+     * @param data the file contents
+     * @param length the number of valid bytes in {@code data}
+     * @return true if the file might reference the name
+     */
+    boolean mightContain(@NonNull byte[] data, int length) {
+        if (length >= 2 && (data[0] == 0 || data[1] == 0
+                || (data[0] == (byte) 0xFE && data[1] == (byte) 0xFF)
+                || (data[0] == (byte) 0xFF && data[1] == (byte) 0xFE))) {
+            // UTF-16 (with or without byte order mark)
+            return true;
+        }
+
+        byte[] token = mToken;
+        int tokenLength = token.length;
+        if (tokenLength == 0) {
+            return true;
+        }
+        byte first = token[0];
+        int last = length - tokenLength;
+        for (int i = 0; i <= last; i++) {
+            if (data[i] != first) {
+                continue;
+            }
+            int j = 1;
+            while (j < tokenLength && data[i + j] == token[j]) {
+                j++;
+            }
+            if (j == tokenLength
+                    && (i == 0 || !isNameByte(data[i - 1]))
+                    && (i + tokenLength == length || !isNameByte(data[i + tokenLength]))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean isNameByte(byte b) {
+        return b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z' || b >= '0' && b <= '9'
+                || b == '_';
+    }
+
+    /** Scans a range of the files, and returns the number of files scanned */
+    private class ScanTask implements Callable<Integer> {
+        private final List<IFile> mFiles;
+        private final int mStart;
+        private final int mEnd;
+        private final boolean[] mMatches;
+        private final AtomicBoolean mCanceled;
+        private ByteBuffer mBuffer;
+
+        ScanTask(List<IFile> files, int start, int end, boolean[] matches,
+                AtomicBoolean canceled) {
+            mFiles = files;
+            mStart = start;
+            mEnd = end;
+            mMatches = matches;
+            mCanceled = canceled;
+        }
+
+        @Override
+        public Integer call() {
+            int scanned = 0;
+            for (int i = mStart; i < mEnd; i++) {
+                if (mCanceled.get()) {
+                    break;
+                }
+                mMatches[i] = scan(mFiles.get(i));
+                scanned++;
+            }
+
+            return scanned;
+        }
+
+        private boolean scan(IFile file) {
+            IPath location = file.getLocation();
+            if (location == null) {
+                // Not in the local file system; let the structured model deal with it
+                return true;
+            }
+
+            ByteBuffer buffer = read(location.toFile());
+            if (buffer == null) {
+                return true;
+            }
+
+            return mightContain(buffer.array(), buffer.position());
+        }
+
+        @Nullable
+        private ByteBuffer read(File file) {
+            FileInputStream input = null;
+            try {
+                input = new FileInputStream(file);
+                FileChannel channel = input.getChannel();
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE) {
+                    return null;
+                }
+                if (mBuffer == null || mBuffer.capacity() < size) {
+                    mBuffer = ByteBuffer.allocate(Math.max((int) size, 8192));
+                }
+                ByteBuffer buffer = mBuffer;
+                buffer.clear();
+                buffer.limit((int) size);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) == -1) {
+                        break;
+                    }
+                }
+
+                return buffer;
+            } catch (IOException e) {
+                return null;
+            } finally {
+                if (input != null) {
+                    try {
+                        input.close();
+                    } catch (IOException e) {
+                        // Ignore
+                    }
+                }
+            }
+        }
+    }
+}
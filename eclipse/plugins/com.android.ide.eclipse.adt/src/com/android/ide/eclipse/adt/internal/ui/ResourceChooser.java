@@ -56,6 +56,8 @@ import org.eclipse.jface.window.Window;
 import org.eclipse.ltk.ui.refactoring.RefactoringWizard;
 import org.eclipse.ltk.ui.refactoring.RefactoringWizardOpenOperation;
 import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.KeyAdapter;
+import org.eclipse.swt.events.KeyEvent;
 import org.eclipse.swt.events.ModifyEvent;
 import org.eclipse.swt.events.ModifyListener;
 import org.eclipse.swt.events.SelectionAdapter;
@@ -69,14 +71,14 @@ import org.eclipse.swt.widgets.Event;
 import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.Listener;
 import org.eclipse.swt.widgets.Shell;
+import org.eclipse.swt.widgets.Table;
+import org.eclipse.swt.widgets.TableItem;
 import org.eclipse.swt.widgets.Text;
 import org.eclipse.ui.IWorkbench;
 import org.eclipse.ui.PlatformUI;
-import org.eclipse.ui.dialogs.AbstractElementListSelectionDialog;
 import org.eclipse.ui.dialogs.SelectionStatusDialog;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -87,8 +89,12 @@ import java.util.regex.Pattern;
 
 /**
  * A dialog to let the user select a resource based on a resource type.
+ * <p>
+ * The resources are shown in a virtual table, such that only the visible rows are
+ * created, and they are filtered through a {@link ResourceNameIndex}; the framework
+ * has thousands of resources of some types.
  */
-public class ResourceChooser extends AbstractElementListSelectionDialog implements ModifyListener {
+public class ResourceChooser extends SelectionStatusDialog implements ModifyListener {
     /** The return code from the dialog for the user choosing "Clear" */
     public static final int CLEAR_RETURN_CODE = -5;
     /** The dialog button ID for the user choosing "Clear" */
@@ -106,6 +112,19 @@ public class ResourceChooser extends AbstractElementListSelectionDialog implemen
     private final IProject mProject;
     private IInputValidator mInputValidator;
 
+    /** The width of the resource list, in characters */
+    private int mWidth = 60;
+    /** The height of the resource list, in lines */
+    private int mHeight = 18;
+    /** Text field filtering the resource list */
+    private Text mFilterText;
+    /** Virtual table listing the resources matching the filter */
+    private Table mList;
+    /** Index of the resources of the current repository */
+    private ResourceNameIndex mIndex;
+    /** The indices in {@link #mIndex} of the listed resources, in list order */
+    private int[] mMatches = new int[0];
+
     /** Helper object used to draw previews for drawables and colors. */
     private ResourcePreviewHelper mPreviewHelper;
 
@@ -152,7 +171,7 @@ public class ResourceChooser extends AbstractElementListSelectionDialog implemen
             @NonNull List<ResourceRepository> projectResources,
             @Nullable ResourceRepository frameworkResources,
             @NonNull Shell parent) {
-        super(parent, new ResourceLabelProvider());
+        super(parent);
         mProject = project;
 
         mResourceType = type;
@@ -291,6 +310,17 @@ public class ResourceChooser extends AbstractElementListSelectionDialog implemen
         return this;
     }
 
+    /**
+     * Sets the size of the resource list
+     *
+     * @param width the width of the list, in characters
+     * @param height the height of the list, in lines
+     */
+    public void setSize(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+    }
+
     @Override
     public void create() {
         super.create();
@@ -298,6 +328,9 @@ public class ResourceChooser extends AbstractElementListSelectionDialog implemen
         if (mShowValueText) {
             mEditValueText.selectAll();
             mEditValueText.setFocus();
+        } else {
+            mFilterText.selectAll();
+            mFilterText.setFocus();
         }
     }
 
@@ -370,21 +403,28 @@ public class ResourceChooser extends AbstractElementListSelectionDialog implemen
     }
 
     private void computeResultFromSelection() {
-        if (getSelectionIndex() == -1) {
+        ResourceItem item = getSelectedItem();
+        if (item == null) {
             mCurrentResource = null;
             return;
         }
 
-        Object[] elements = getSelectedElements();
-        if (elements.length == 1 && elements[0] instanceof ResourceItem) {
-            ResourceItem item = (ResourceItem)elements[0];
+        mCurrentResource = item.getXmlString(mResourceType, mSystemButton.getSelection());
 
-            mCurrentResource = item.getXmlString(mResourceType, mSystemButton.getSelection());
+        if (mInputValidator != null && mInputValidator.isValid(mCurrentResource) != null) {
+            mCurrentResource = null;
+        }
+    }
 
-            if (mInputValidator != null && mInputValidator.isValid(mCurrentResource) != null) {
-                mCurrentResource = null;
-            }
+    /** Returns the selected resource, if any */
+    @Nullable
+    private ResourceItem getSelectedItem() {
+        int position = mList.getSelectionIndex();
+        if (position == -1 || position >= mMatches.length) {
+            return null;
         }
+
+        return mIndex.getItems()[mMatches[position]];
     }
 
     @Override
@@ -395,7 +435,7 @@ public class ResourceChooser extends AbstractElementListSelectionDialog implemen
 
         createButtons(top);
         createFilterText(top);
-        createFilteredList(top);
+        createList(top);
 
         // create the "New Resource" button
         createNewResButtons(top);
@@ -409,6 +449,71 @@ public class ResourceChooser extends AbstractElementListSelectionDialog implemen
         return top;
     }
 
+    /**
+     * Creates the text field filtering the resource list.
+     * @param top the parent composite
+     */
+    private void createFilterText(Composite top) {
+        mFilterText = new Text(top, SWT.BORDER);
+        GridData data = new GridData();
+        data.grabExcessVerticalSpace = false;
+        data.grabExcessHorizontalSpace = true;
+        data.horizontalAlignment = GridData.FILL;
+        data.verticalAlignment = GridData.BEGINNING;
+        mFilterText.setLayoutData(data);
+        mFilterText.setFont(top.getFont());
+        mFilterText.addModifyListener(this);
+        mFilterText.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (e.keyCode == SWT.ARROW_DOWN) {
+                    mList.setFocus();
+                }
+            }
+        });
+    }
+
+    /**
+     * Creates the resource list. The table is virtual, so the rows are only filled in
+     * as they become visible.
+     * @param top the parent composite
+     */
+    private void createList(Composite top) {
+        mList = new Table(top, SWT.SINGLE | SWT.VIRTUAL | SWT.BORDER | SWT.V_SCROLL);
+        GridData data = new GridData();
+        data.widthHint = convertWidthInCharsToPixels(mWidth);
+        data.heightHint = convertHeightInCharsToPixels(mHeight);
+        data.grabExcessVerticalSpace = true;
+        data.grabExcessHorizontalSpace = true;
+        data.horizontalAlignment = GridData.FILL;
+        data.verticalAlignment = GridData.FILL;
+        mList.setLayoutData(data);
+        mList.setFont(top.getFont());
+        mList.addListener(SWT.SetData, new Listener() {
+            @Override
+            public void handleEvent(Event event) {
+                TableItem item = (TableItem) event.item;
+                int position = event.index;
+                if (position < mMatches.length) {
+                    item.setText(mIndex.getItems()[mMatches[position]].getName());
+                }
+            }
+        });
+        mList.addSelectionListener(new SelectionAdapter() {
+            @Override
+            public void widgetSelected(SelectionEvent e) {
+                handleSelectionChanged();
+            }
+
+            @Override
+            public void widgetDefaultSelected(SelectionEvent e) {
+                if (getSelectedItem() != null && getOkButton().isEnabled()) {
+                    buttonPressed(IDialogConstants.OK_ID);
+                }
+            }
+        });
+    }
+
     /**
      * Creates the radio button to switch between project and system resources.
      * @param top the parent composite
@@ -421,13 +526,10 @@ public class ResourceChooser extends AbstractElementListSelectionDialog implemen
             public void widgetSelected(SelectionEvent e) {
                 super.widgetSelected(e);
                 if (mProjectButton.getSelection()) {
-                    // Clear selection before changing the list contents. This works around
-                    // a bug in the superclass where switching to the framework resources,
-                    // choosing one of the last resources, then switching to the project
-                    // resources would cause an exception when calling getSelection() because
-                    // selection state doesn't get cleared when we set new contents on
-                    // the filtered list.
-                    fFilteredList.setSelection(new int[0]);
+                    // Clear selection before changing the list contents, such that the
+                    // first match of the new list is selected rather than the item at
+                    // the same position
+                    mList.deselectAll();
                     setupResourceList();
                     updateNewButton(false /*isSystem*/);
                     updateValue();
@@ -441,7 +543,7 @@ public class ResourceChooser extends AbstractElementListSelectionDialog implemen
             public void widgetSelected(SelectionEvent e) {
                 super.widgetSelected(e);
                 if (mSystemButton.getSelection()) {
-                    fFilteredList.setSelection(new int[0]);
+                    mList.deselectAll();
                     setupResourceList();
                     updateNewButton(true /*isSystem*/);
                     updateValue();
@@ -484,8 +586,8 @@ public class ResourceChooser extends AbstractElementListSelectionDialog implemen
                     if (files != null && files.size() > 0) {
                         String newName = AdtUtils.stripAllExtensions(files.get(0).getName());
                         // Recompute the "current resource" to select the new id
-                        ResourceItem[] items = setupResourceList();
-                        selectItemName(newName, items);
+                        setupResourceList();
+                        selectItemName(newName);
                     }
                 } else {
                     if (ResourceHelper.isValueBasedResourceType(mResourceType)) {
@@ -504,29 +606,20 @@ public class ResourceChooser extends AbstractElementListSelectionDialog implemen
 
             private void selectAddedItem(@NonNull String newName) {
                 // Recompute the "current resource" to select the new id
-                ResourceItem[] items = setupResourceList();
+                ResourceNameIndex index = setupResourceList();
 
                 // Ensure that the name is in the list. There's a delay after
                 // an item is added (until the builder runs and processes the delta)
                 // so if it's not in the list, add it
-                boolean found = false;
-                for (ResourceItem item : items) {
-                    if (newName.equals(item.getName())) {
-                        found = true;
-                        break;
-                    }
-                }
-                if (!found) {
-                    ResourceItem[] newItems = new ResourceItem[items.length + 1];
-                    System.arraycopy(items, 0, newItems, 0, items.length);
-                    newItems[items.length] = new ResourceItem(newName);
-                    items = newItems;
-                    Arrays.sort(items);
-                    setListElements(items);
-                    fFilteredList.setEnabled(newItems.length > 0);
+                if (index.indexOf(newName) == -1) {
+                    List<ResourceItem> items =
+                            new ArrayList<ResourceItem>(index.getItems().length + 1);
+                    Collections.addAll(items, index.getItems());
+                    items.add(new ResourceItem(newName));
+                    setIndex(new ResourceNameIndex(items));
                 }
 
-                selectItemName(newName, items);
+                selectItemName(newName);
             }
         });
     }
@@ -592,24 +685,23 @@ public class ResourceChooser extends AbstractElementListSelectionDialog implemen
         mResolvedLabel.setText(String.format("Resolved Value: %1$s", v));
     }
 
-    @Override
-    protected void handleSelectionChanged() {
-        super.handleSelectionChanged();
-        if (mInputValidator != null) {
-            Object[] elements = getSelectedElements();
-            if (elements.length == 1 && elements[0] instanceof ResourceItem) {
-                ResourceItem item = (ResourceItem)elements[0];
-                String current = item.getXmlString(mResourceType, mSystemButton.getSelection());
-                String error = mInputValidator.isValid(current);
-                IStatus status;
-                if (error != null) {
-                    status = new Status(IStatus.ERROR, AdtPlugin.PLUGIN_ID, error);
-                } else {
-                    status = new Status(IStatus.OK, AdtPlugin.PLUGIN_ID, null);
-                }
-                updateStatus(status);
+    private void handleSelectionChanged() {
+        ResourceItem item = getSelectedItem();
+        IStatus status;
+        if (item == null) {
+            status = new Status(IStatus.ERROR, AdtPlugin.PLUGIN_ID, ""); //$NON-NLS-1$
+        } else if (mInputValidator != null) {
+            String current = item.getXmlString(mResourceType, mSystemButton.getSelection());
+            String error = mInputValidator.isValid(current);
+            if (error != null) {
+                status = new Status(IStatus.ERROR, AdtPlugin.PLUGIN_ID, error);
+            } else {
+                status = new Status(IStatus.OK, AdtPlugin.PLUGIN_ID, null);
             }
+        } else {
+            status = new Status(IStatus.OK, AdtPlugin.PLUGIN_ID, null);
         }
+        updateStatus(status);
 
         updateValue();
     }
@@ -678,7 +770,7 @@ public class ResourceChooser extends AbstractElementListSelectionDialog implemen
         if (shell == null) {
             return null;
         }
-        NameValueDialog dialog = new NameValueDialog(shell, getFilter());
+        NameValueDialog dialog = new NameValueDialog(shell, mFilterText.getText());
         if (dialog.open() != Window.OK) {
             return null;
         }
@@ -718,8 +810,9 @@ public class ResourceChooser extends AbstractElementListSelectionDialog implemen
     /**
      * Setups the current list.
      */
-    private ResourceItem[] setupResourceList() {
+    private ResourceNameIndex setupResourceList() {
         Collection<ResourceItem> items = null;
+        ResourceNameIndex index = null;
         if (mProjectButton.getSelection()) {
             if (mProjectResources.size() == 1) {
                 items = mProjectResources.get(0).getResourceItemsOfType(mResourceType);
@@ -735,37 +828,92 @@ public class ResourceChooser extends AbstractElementListSelectionDialog implemen
                 items = merged.values();
             }
         } else if (mSystemButton.getSelection()) {
-            items = mFrameworkResources.getResourceItemsOfType(mResourceType);
+            // The framework resources don't change, so their index is shared
+            index = ResourceNameIndex.get(mFrameworkResources, mResourceType);
         }
 
-        if (items == null) {
-            items = Collections.emptyList();
+        if (index == null) {
+            if (items == null) {
+                items = Collections.emptyList();
+            }
+            index = new ResourceNameIndex(items);
         }
 
-        ResourceItem[] arrayItems = items.toArray(new ResourceItem[items.size()]);
+        setIndex(index);
+
+        return index;
+    }
+
+    /**
+     * Sets the resources listed, and updates the list for the current filter.
+     */
+    private void setIndex(ResourceNameIndex index) {
+        mIndex = index;
+        mList.setEnabled(index.getItems().length > 0);
+        updateList();
+    }
+
+    /**
+     * Updates the list with the resources matching the current filter. The selected
+     * resource stays selected if it still matches, otherwise the first match is selected.
+     */
+    private void updateList() {
+        ResourceItem selected = getSelectedItem();
+        mMatches = mIndex.find(mFilterText.getText());
+        mList.clearAll();
+        mList.setItemCount(mMatches.length);
+
+        int position = -1;
+        if (selected != null) {
+            position = findPosition(mIndex.indexOf(selected.getName()));
+        }
+        if (position == -1 && mMatches.length > 0) {
+            position = 0;
+        }
+        if (position != -1) {
+            mList.setSelection(position);
+        } else {
+            mList.deselectAll();
+        }
 
-        // sort the array
-        Arrays.sort(arrayItems);
+        handleSelectionChanged();
+    }
 
-        setListElements(arrayItems);
-        fFilteredList.setEnabled(arrayItems.length > 0);
+    /** Returns the position in the list of the item at the given index, or -1 */
+    private int findPosition(int index) {
+        if (index != -1) {
+            for (int position = 0; position < mMatches.length; position++) {
+                if (mMatches[position] == index) {
+                    return position;
+                }
+            }
+        }
 
-        return arrayItems;
+        return -1;
     }
 
     /**
      * Select an item by its name, if possible.
      */
-    private void selectItemName(String itemName, ResourceItem[] items) {
-        if (itemName == null || items == null) {
+    private void selectItemName(String itemName) {
+        if (itemName == null || mIndex == null) {
             return;
         }
 
-        for (ResourceItem item : items) {
-            if (itemName.equals(item.getName())) {
-                setSelection(new Object[] { item });
-                break;
-            }
+        int index = mIndex.indexOf(itemName);
+        if (index == -1) {
+            return;
+        }
+
+        int position = findPosition(index);
+        if (position == -1) {
+            // Filtered out: clear the filter, which updates the list
+            mFilterText.setText(""); //$NON-NLS-1$
+            position = findPosition(index);
+        }
+        if (position != -1 && position != mList.getSelectionIndex()) {
+            mList.setSelection(position);
+            handleSelectionChanged();
         }
     }
 
@@ -801,11 +949,11 @@ public class ResourceChooser extends AbstractElementListSelectionDialog implemen
         updateNewButton(isSystem);
 
         // Update the list
-        ResourceItem[] items = setupResourceList();
+        setupResourceList();
 
         // If we have a selection name, select it
         if (itemName != null) {
-            selectItemName(itemName, items);
+            selectItemName(itemName);
         }
     }
 
@@ -817,7 +965,9 @@ public class ResourceChooser extends AbstractElementListSelectionDialog implemen
 
     @Override
     public void modifyText(ModifyEvent e) {
-       if (e.getSource() == mEditValueText && mResourceResolver != null) {
+       if (e.getSource() == mFilterText) {
+           updateList();
+       } else if (e.getSource() == mEditValueText && mResourceResolver != null) {
            mCurrentResource = mEditValueText.getText();
 
            if (mCurrentResource.startsWith(PREFIX_RESOURCE_REF)) {
@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.ui;
+
+import com.android.annotations.NonNull;
+import com.android.ide.common.resources.ResourceItem;
+import com.android.ide.common.resources.ResourceRepository;
+import com.android.resources.ResourceType;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * A table of resource items sorted by name, indexed such that the items whose names
+ * start with or contain a filter string can be found without comparing the filter
+ * against every name.
+ * <p>
+ * Names starting with the filter form a range in a case insensitive ordering of the
+ * names, found with a binary search. Names containing the filter are found through the
+ * names containing each three character sequence of the filter.
+ */
+class ResourceNameIndex {
+    /** Indices for the framework resources, which don't change, per repository and type */
+    private static final Map<ResourceRepository, Map<ResourceType, ResourceNameIndex>> sCache =
+            new WeakHashMap<ResourceRepository, Map<ResourceType, ResourceNameIndex>>();
+
+    private static final int[] NONE = new int[0];
+
+    /** The items, sorted by name */
+    private final ResourceItem[] mItems;
+
+    /** The lower case name of each item */
+    private final String[] mNames;
+
+    /** The indices of the items, sorted by lower case name */
+    private final int[] mOrder;
+
+    /**
+     * Map from each three character sequence, packed into a long, to the sorted indices
+     * of the items whose lower case name contain it
+     */
+    private final Map<Long, int[]> mTrigrams;
+
+    /**
+     * Creates an index of the given items
+     *
+     * @param items the items to index
+     */
+    ResourceNameIndex(@NonNull Collection<ResourceItem> items) {
+        mItems = items.toArray(new ResourceItem[items.size()]);
+        Arrays.sort(mItems);
+
+        int count = mItems.length;
+        mNames = new String[count];
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            mNames[i] = mItems[i].getName().toLowerCase(Locale.US);
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer i1, Integer i2) {
+                return mNames[i1].compareTo(mNames[i2]);
+            }
+        });
+        mOrder = new int[count];
+        for (int i = 0; i < count; i++) {
+            mOrder[i] = order[i];
+        }
+
+        // Build the postings in item order, such that they are sorted. While building,
+        // the first element of each list is the number of indices in it.
+        Map<Long, int[]> postings = new HashMap<Long, int[]>();
+        for (int i = 0; i < count; i++) {
+            String name = mNames[i];
+            for (int j = 0; j + 3 <= name.length(); j++) {
+                Long key = trigram(name, j);
+                int[] list = postings.get(key);
+                if (list == null) {
+                    list = new int[4];
+                    postings.put(key, list);
+                } else if (list[list[0]] == i) {
+                    // Sequence occurring more than once in the name
+                    continue;
+                } else if (list[0] + 1 == list.length) {
+                    list = Arrays.copyOf(list, 2 * list.length);
+                    postings.put(key, list);
+                }
+                list[++list[0]] = i;
+            }
+        }
+        for (Map.Entry<Long, int[]> entry : postings.entrySet()) {
+            int[] list = entry.getValue();
+            entry.setValue(Arrays.copyOfRange(list, 1, list[0] + 1));
+        }
+        mTrigrams = postings;
+    }
+
+    /**
+     * Returns the index of the items of the given type in the given repository. The
+     * index is computed once for each repository, so this should only be used for
+     * repositories which don't change, such as the framework resources.
+     *
+     * @param repository the repository
+     * @param type the resource type
+     * @return the index of the items of the type
+     */
+    @NonNull
+    static ResourceNameIndex get(@NonNull ResourceRepository repository,
+            @NonNull ResourceType type) {
+        synchronized (sCache) {
+            Map<ResourceType, ResourceNameIndex> indices = sCache.get(repository);
+            if (indices == null) {
+                indices = new HashMap<ResourceType, ResourceNameIndex>();
+                sCache.put(repository, indices);
+            }
+            ResourceNameIndex index = indices.get(type);
+            if (index == null) {
+                index = new ResourceNameIndex(repository.getResourceItemsOfType(type));
+                indices.put(type, index);
+            }
+            return index;
+        }
+    }
+
+    private static Long trigram(String s, int offset) {
+        return Long.valueOf(((long) s.charAt(offset) << 32)
+                | ((long) s.charAt(offset + 1) << 16)
+                | s.charAt(offset + 2));
+    }
+
+    /**
+     * Returns the items, sorted by name
+     *
+     * @return the items
+     */
+    @NonNull
+    ResourceItem[] getItems() {
+        return mItems;
+    }
+
+    /**
+     * Returns the index of the item with the given name
+     *
+     * @param name the name to look up
+     * @return the index of the item, or -1
+     */
+    int indexOf(@NonNull String name) {
+        String lowerName = name.toLowerCase(Locale.US);
+        int position = findFirst(lowerName);
+        for (; position < mOrder.length && mNames[mOrder[position]].equals(lowerName);
+                position++) {
+            if (mItems[mOrder[position]].getName().equals(name)) {
+                return mOrder[position];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the indices of the items matching the given filter, ignoring case. The
+     * items whose names start with the filter come first, followed by the items whose
+     * names contain the filter elsewhere, each in the order of the items. If the filter
+     * contains the wildcards * or ?, only names starting with the pattern match.
+     *
+     * @param filter the filter
+     * @return the indices of the matching items
+     */
+    @NonNull
+    int[] find(@NonNull String filter) {
+        int count = mItems.length;
+        if (filter.length() == 0) {
+            int[] all = new int[count];
+            for (int i = 0; i < count; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+
+        String lowerFilter = filter.toLowerCase(Locale.US);
+        if (lowerFilter.indexOf('*') != -1 || lowerFilter.indexOf('?') != -1) {
+            return findPattern(lowerFilter);
+        }
+
+        // Names starting with the filter
+        int start = findFirst(lowerFilter);
+        int end = start;
+        while (end < count && mNames[mOrder[end]].startsWith(lowerFilter)) {
+            end++;
+        }
+        int[] prefixMatches = Arrays.copyOfRange(mOrder, start, end);
+        Arrays.sort(prefixMatches);
+
+        // Names containing the filter elsewhere: only the names containing the least
+        // common sequence of the filter can match
+        int[] candidates = null;
+        if (lowerFilter.length() >= 3) {
+            for (int j = 0; j + 3 <= lowerFilter.length(); j++) {
+                int[] list = mTrigrams.get(trigram(lowerFilter, j));
+                if (list == null) {
+                    candidates = NONE;
+                    break;
+                } else if (candidates == null || list.length < candidates.length) {
+                    candidates = list;
+                }
+            }
+        }
+
+        int[] matches = Arrays.copyOf(prefixMatches,
+                prefixMatches.length + (candidates != null ? candidates.length : count));
+        int matchCount = prefixMatches.length;
+        int candidateCount = candidates != null ? candidates.length : count;
+        for (int k = 0; k < candidateCount; k++) {
+            int i = candidates != null ? candidates[k] : k;
+            String name = mNames[i];
+            if (name.indexOf(lowerFilter, 1) != -1 && !name.startsWith(lowerFilter)) {
+                matches[matchCount++] = i;
+            }
+        }
+
+        return Arrays.copyOf(matches, matchCount);
+    }
+
+    /** Returns the position in {@link #mOrder} of the first name not less than the key */
+    private int findFirst(String key) {
+        int low = 0;
+        int high = mOrder.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mNames[mOrder[mid]].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /** Finds the names starting with the given lower case wildcard pattern */
+    private int[] findPattern(String pattern) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '*') {
+                sb.append(".*"); //$NON-NLS-1$
+            } else if (c == '?') {
+                sb.append('.');
+            } else {
+                sb.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        sb.append(".*"); //$NON-NLS-1$
+        Pattern regexp = Pattern.compile(sb.toString(), Pattern.DOTALL);
+
+        int[] matches = new int[mItems.length];
+        int matchCount = 0;
+        for (int i = 0; i < mItems.length; i++) {
+            if (regexp.matcher(mNames[i]).matches()) {
+                matches[matchCount++] = i;
+            }
+        }
+
+        return Arrays.copyOf(matches, matchCount);
+    }
+}
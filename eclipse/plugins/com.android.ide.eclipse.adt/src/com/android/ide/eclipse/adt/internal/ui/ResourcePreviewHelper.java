@@ -29,7 +29,10 @@ import com.android.ide.eclipse.adt.internal.editors.layout.gle2.SwtUtils;
 import com.android.ide.eclipse.adt.internal.resources.ResourceHelper;
 import com.android.resources.ResourceType;
 
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.dialogs.DialogTray;
 import org.eclipse.jface.dialogs.TrayDialog;
 import org.eclipse.swt.SWT;
@@ -44,12 +47,18 @@ import org.eclipse.swt.widgets.Label;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.imageio.ImageIO;
 
 /**
  * The {@link ResourcePreviewHelper} provides help to {@link TrayDialog} resource choosers
  * where some resources (such as drawables and colors) are previewed in the tray area.
+ * <p>
+ * Drawable previews are decoded or rendered in the background, such that moving through
+ * the resources of a chooser doesn't wait for each preview, and the most recent previews
+ * are cached.
  */
 public class ResourcePreviewHelper {
     /**
@@ -61,6 +70,29 @@ public class ResourcePreviewHelper {
     /** The height of the preview rendering */
     private static final int HEIGHT = 100;
 
+    /** The number of previews of image files cached, across all helpers */
+    private static final int MAX_CACHED_IMAGES = 100;
+
+    /** The number of rendered drawable previews cached by each helper */
+    private static final int MAX_CACHED_RENDERINGS = 50;
+
+    /**
+     * Previews of image files, keyed by the path and the modification time of the file.
+     * Image files are not rendered with the configuration of an editor, so their previews
+     * can be shared.
+     */
+    private static final Map<String, BufferedImage> sImageCache =
+            createCache(MAX_CACHED_IMAGES);
+
+    /** Previews rendered with the configuration of {@link #mEditor}, keyed by resource */
+    private final Map<String, BufferedImage> mRenderCache = createCache(MAX_CACHED_RENDERINGS);
+
+    /** Job computing the drawable previews */
+    private final PreviewJob mPreviewJob = new PreviewJob();
+
+    /** The resource url of the drawable currently previewed */
+    private String mPreviewResource;
+
     private final GraphicalEditorPart mEditor;
     private final TrayDialog mTrayDialog;
 
@@ -122,6 +154,7 @@ public class ResourcePreviewHelper {
                 mTrayDialog.openTray(mPreviewTray);
             }
 
+            mPreviewResource = resource;
             BufferedImage image = null;
             try {
                 if (type == ResourceType.COLOR) {
@@ -141,33 +174,36 @@ public class ResourcePreviewHelper {
                     if (drawable != null) {
                         String path = drawable.getValue();
 
-                        // Special-case image files (other than 9-patch files) and render these
+                        // Special-case image files (other than 9-patch files) and decode these
                         // directly, in order to provide proper aspect ratio handling and
                         // to handle scaling to show the full contents:
+                        String key;
+                        Map<String, BufferedImage> cache;
+                        RenderService renderService = null;
                         if (ImageUtils.hasImageExtension(path)
                                 && !endsWithIgnoreCase(path, DOT_9PNG)) {
-                            File file = new File(path);
-                            if (file.exists()) {
-                                try {
-                                    image = ImageIO.read(file);
-                                    int width = image.getWidth();
-                                    int height = image.getHeight();
-                                    if (width > WIDTH || height > HEIGHT) {
-                                        double xScale = WIDTH / (double) width;
-                                        double yScale = HEIGHT / (double) height;
-                                        double scale = Math.min(xScale, yScale);
-                                        image = ImageUtils.scale(image, scale, scale);
-                                    }
-                                } catch (IOException e) {
-                                    AdtPlugin.log(e, "Can't read preview image %1$s", path);
-                                }
-                            }
+                            key = path + '@' + new File(path).lastModified();
+                            cache = sImageCache;
+                        } else {
+                            key = resource;
+                            cache = mRenderCache;
                         }
 
-                        if (image == null) {
-                            RenderService renderService = RenderService.create(mEditor);
-                            renderService.setOverrideRenderSize(WIDTH, HEIGHT);
-                            image = renderService.renderDrawable(drawable);
+                        boolean cached;
+                        synchronized (cache) {
+                            cached = cache.containsKey(key);
+                            image = cache.get(key);
+                        }
+                        if (!cached) {
+                            if (cache == mRenderCache) {
+                                // The render service reads the editor configuration, so
+                                // it is set up here, and only the rendering is done in
+                                // the background
+                                renderService = RenderService.create(mEditor);
+                                renderService.setOverrideRenderSize(WIDTH, HEIGHT);
+                            }
+                            mPreviewJob.request(resource, drawable, key, cache, renderService,
+                                    mEditor.getSite().getShell().getDisplay());
                         }
                     }
                 }
@@ -180,16 +216,146 @@ public class ResourcePreviewHelper {
                 AdtPlugin.log(IStatus.WARNING, "Can't generate preview for %1$s", resource);
             }
 
-            Display display = mEditor.getSite().getShell().getDisplay();
-            if (image != null) {
-                mPreviewImageControl.setImage(SwtUtils.convertToSwt(display, image, true, -1));
-            } else {
-                mPreviewImageControl.setImage(SwtUtils.createEmptyImage(display, WIDTH, HEIGHT));
-            }
-            mPreviewImageControl.redraw();
+            // While a drawable preview is computed, show an empty image
+            showImage(image);
         } else if (mPreviewTray != null && mShowingPreview) {
             mTrayDialog.closeTray();
         }
         mShowingPreview = showPreview;
     }
+
+    private void showImage(BufferedImage image) {
+        Display display = mEditor.getSite().getShell().getDisplay();
+        if (image != null) {
+            mPreviewImageControl.setImage(SwtUtils.convertToSwt(display, image, true, -1));
+        } else {
+            mPreviewImageControl.setImage(SwtUtils.createEmptyImage(display, WIDTH, HEIGHT));
+        }
+        mPreviewImageControl.redraw();
+    }
+
+    /** Creates a map which only keeps the given number of most recently used entries */
+    private static Map<String, BufferedImage> createCache(final int size) {
+        return new LinkedHashMap<String, BufferedImage>(size, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, BufferedImage> eldest) {
+                return size() > size;
+            }
+        };
+    }
+
+    /** Decodes the image file of a drawable, scaled down to fit the preview, or null */
+    private static BufferedImage readImage(String path) {
+        File file = new File(path);
+        if (file.exists()) {
+            try {
+                BufferedImage image = ImageIO.read(file);
+                if (image != null) {
+                    int width = image.getWidth();
+                    int height = image.getHeight();
+                    if (width > WIDTH || height > HEIGHT) {
+                        double xScale = WIDTH / (double) width;
+                        double yScale = HEIGHT / (double) height;
+                        double scale = Math.min(xScale, yScale);
+                        image = ImageUtils.scale(image, scale, scale);
+                    }
+                }
+                return image;
+            } catch (IOException e) {
+                AdtPlugin.log(e, "Can't read preview image %1$s", path);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Job computing the preview of the most recently requested drawable. Requests made
+     * while a preview is being computed replace each other, such that only the preview
+     * of the last one is computed next.
+     */
+    private class PreviewJob extends Job {
+        private String mResource;
+        private ResourceValue mDrawable;
+        private String mKey;
+        private Map<String, BufferedImage> mCache;
+        private RenderService mRenderService;
+        private Display mDisplay;
+
+        PreviewJob() {
+            super("Preview Resource");
+            setSystem(true);
+        }
+
+        synchronized void request(String resource, ResourceValue drawable, String key,
+                Map<String, BufferedImage> cache, RenderService renderService,
+                Display display) {
+            mResource = resource;
+            mDrawable = drawable;
+            mKey = key;
+            mCache = cache;
+            mRenderService = renderService;
+            mDisplay = display;
+
+            // If the job is running, it is run again when done
+            schedule();
+        }
+
+        @Override
+        protected IStatus run(IProgressMonitor monitor) {
+            final String resource;
+            ResourceValue drawable;
+            String key;
+            Map<String, BufferedImage> cache;
+            RenderService renderService;
+            Display display;
+            synchronized (this) {
+                if (mResource == null) {
+                    return Status.OK_STATUS;
+                }
+                resource = mResource;
+                drawable = mDrawable;
+                key = mKey;
+                cache = mCache;
+                renderService = mRenderService;
+                display = mDisplay;
+                mResource = null;
+                mDrawable = null;
+                mRenderService = null;
+            }
+
+            BufferedImage image = null;
+            try {
+                if (renderService == null) {
+                    image = readImage(drawable.getValue());
+                } else {
+                    image = renderService.renderDrawable(drawable);
+                }
+            } catch (Throwable t) {
+                // See the logging comment in updatePreview
+                AdtPlugin.log(IStatus.WARNING, "Can't generate preview for %1$s", resource);
+            }
+
+            synchronized (cache) {
+                cache.put(key, image);
+            }
+
+            final BufferedImage preview = image;
+            if (!display.isDisposed()) {
+                display.asyncExec(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mPreviewImageControl != null && !mPreviewImageControl.isDisposed()
+                                && mShowingPreview && resource.equals(mPreviewResource)) {
+                            showImage(preview);
+                        }
+                    }
+                });
+            }
+
+            return Status.OK_STATUS;
+        }
+    }
 }
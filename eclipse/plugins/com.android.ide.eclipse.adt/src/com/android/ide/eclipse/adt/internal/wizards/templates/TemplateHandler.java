@@ -50,6 +50,7 @@ import com.google.common.base.Charsets;
 import com.google.common.collect.Lists;
 import com.google.common.io.Files;
 
+import freemarker.cache.MruCacheStorage;
 import freemarker.cache.TemplateLoader;
 import freemarker.template.Configuration;
 import freemarker.template.DefaultObjectWrapper;
@@ -94,18 +95,24 @@ import org.xml.sax.helpers.DefaultHandler;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringWriter;
 import java.io.Writer;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
@@ -199,6 +206,9 @@ class TemplateHandler {
     /** Default width to scale thumbnail preview images in wizards to */
     static final int PREVIEW_WIDTH = 200;
 
+    /** Number of compiled templates to hold on to strongly in the template cache */
+    private static final int TEMPLATE_CACHE_SIZE = 200;
+
     /**
      * List of files to open after the wizard has been created (these are
      * identified by {@link #TAG_OPEN} elements in the recipe file
@@ -217,8 +227,25 @@ class TemplateHandler {
     /** The project to write the template into */
     private IProject mProject;
 
-    /** The template loader which is responsible for finding (and sharing) template files */
-    private final MyTemplateLoader mLoader;
+    /**
+     * FreeMarker configuration shared by all template handlers. Its template cache
+     * holds the compiled templates, keyed by their absolute paths (which includes the
+     * template root) and validated against the file timestamps, so templates are only
+     * re-read and re-parsed when they change.
+     */
+    private static Configuration sFreemarker;
+
+    /**
+     * If non null, the directory to write the instantiated template into directly,
+     * instead of creating changes against {@link #mProject}. Used by
+     * {@link #renderAll(List, Map, File)}.
+     */
+    @Nullable
+    private File mOutputDir;
+
+    /** Most recent exception thrown by this handler during template instantiation */
+    @Nullable
+    private Exception mException;
 
     /** Agree to all file-overwrites from now on? */
     private boolean mYesToAll = false;
@@ -265,8 +292,6 @@ class TemplateHandler {
     private TemplateHandler(File rootPath, TemplateManager manager) {
         mRootPath = rootPath;
         mManager = manager;
-        mLoader = new MyTemplateLoader();
-        mLoader.setPrefix(mRootPath.getPath());
     }
 
     public TemplateManager getManager() {
@@ -288,9 +313,7 @@ class TemplateHandler {
 
         // Render the instruction list template.
         Map<String, Object> paramMap = createParameterMap(args);
-        Configuration freemarker = new Configuration();
-        freemarker.setObjectWrapper(new DefaultObjectWrapper());
-        freemarker.setTemplateLoader(mLoader);
+        Configuration freemarker = getFreemarker();
 
         processVariables(freemarker, TEMPLATE_XML, paramMap);
 
@@ -400,10 +423,11 @@ class TemplateHandler {
     /**
      * Most recent thrown exception during template instantiation. This should
      * basically always be null. Used by unit tests to see if any template
-     * instantiation recorded a failure.
+     * instantiation recorded a failure. Handlers rendering concurrently (see
+     * {@link #renderAll}) each keep their own exception as well.
      */
     @VisibleForTesting
-    public static Exception sMostRecentException;
+    public static volatile Exception sMostRecentException;
 
     /** Read the given FreeMarker file and process the variable definitions */
     private void processVariables(final Configuration freemarker,
@@ -417,8 +441,7 @@ class TemplateHandler {
                     return;
                 }
             } else {
-                mLoader.setTemplateFile(new File(mRootPath, file));
-                Template inputsTemplate = freemarker.getTemplate(file);
+                Template inputsTemplate = getTemplate(freemarker, new File(mRootPath, file));
                 StringWriter out = new StringWriter();
                 inputsTemplate.process(paramMap, out);
                 out.flush();
@@ -485,8 +508,7 @@ class TemplateHandler {
                 }
             });
         } catch (Exception e) {
-            sMostRecentException = e;
-            AdtPlugin.log(e, null);
+            recordException(e);
         }
     }
 
@@ -539,8 +561,7 @@ class TemplateHandler {
             String file,
             final Map<String, Object> paramMap) {
         try {
-            mLoader.setTemplateFile(new File(mRootPath, file));
-            Template freemarkerTemplate = freemarker.getTemplate(file);
+            Template freemarkerTemplate = getTemplate(freemarker, new File(mRootPath, file));
 
             StringWriter out = new StringWriter();
             freemarkerTemplate.process(paramMap, out);
@@ -596,15 +617,13 @@ class TemplateHandler {
                             System.err.println("WARNING: Unknown template directive " + name);
                         }
                     } catch (Exception e) {
-                        sMostRecentException = e;
-                        AdtPlugin.log(e, null);
+                        recordException(e);
                     }
                 }
             });
 
         } catch (Exception e) {
-            sMostRecentException = e;
-            AdtPlugin.log(e, null);
+            recordException(e);
         }
     }
 
@@ -631,6 +650,25 @@ class TemplateHandler {
         return mProject.getFile(path);
     }
 
+    @NonNull
+    private File getOutputFile(@NonNull IPath path) {
+        assert mOutputDir != null;
+        return new File(mOutputDir, path.toOSString());
+    }
+
+    private void writeOutput(@NonNull IPath path, @NonNull String contents)
+            throws IOException {
+        File file = getOutputFile(path);
+        file.getParentFile().mkdirs();
+        Files.write(contents, file, Charsets.UTF_8);
+    }
+
+    private void recordException(@NonNull Exception e) {
+        sMostRecentException = e;
+        mException = e;
+        AdtPlugin.log(e, null);
+    }
+
     private void merge(
             @NonNull final Configuration freemarker,
             @NonNull final Map<String, Object> paramMap,
@@ -639,9 +677,17 @@ class TemplateHandler {
 
         String currentXml = null;
 
-        IFile to = getTargetFile(toPath);
-        if (to.exists()) {
-            currentXml = AdtPlugin.readFile(to);
+        IFile to = null;
+        if (mOutputDir != null) {
+            File file = getOutputFile(toPath);
+            if (file.exists()) {
+                currentXml = Files.toString(file, Charsets.UTF_8);
+            }
+        } else {
+            to = getTargetFile(toPath);
+            if (to.exists()) {
+                currentXml = AdtPlugin.readFile(to);
+            }
         }
 
         if (currentXml == null) {
@@ -655,16 +701,15 @@ class TemplateHandler {
             return;
         }
 
-        if (!to.getFileExtension().equals(EXT_XML)) {
-            throw new RuntimeException("Only XML files can be merged at this point: " + to);
+        if (!EXT_XML.equals(toPath.getFileExtension())) {
+            throw new RuntimeException("Only XML files can be merged at this point: " + toPath);
         }
 
         String xml = null;
         File from = getFullPath(relativeFrom);
         if (relativeFrom.endsWith(DOT_FTL)) {
             // Perform template substitution of the template prior to merging
-            mLoader.setTemplateFile(from);
-            Template template = freemarker.getTemplate(from.getName());
+            Template template = getTemplate(freemarker, from);
             Writer out = new StringWriter();
             template.process(paramMap, out);
             out.flush();
@@ -684,12 +729,13 @@ class TemplateHandler {
         XmlFormatStyle formatStyle = XmlFormatStyle.MANIFEST;
         boolean modified;
         boolean ok;
-        String fileName = to.getName();
+        String fileName = toPath.lastSegment();
         if (fileName.equals(SdkConstants.FN_ANDROID_MANIFEST_XML)) {
             modified = ok = mergeManifest(currentDocument, fragment);
         } else {
             // Merge plain XML files
-            String parentFolderName = to.getParent().getName();
+            String parentFolderName = toPath.segmentCount() > 1
+                    ? toPath.segment(toPath.segmentCount() - 2) : ""; //$NON-NLS-1$
             ResourceFolderType folderType = ResourceFolderType.getFolderType(parentFolderName);
             if (folderType != null) {
                 formatStyle = EclipseXmlPrettyPrinter.getForFile(toPath);
@@ -721,7 +767,9 @@ class TemplateHandler {
                     + ">>>>>>> Added" + sep;
         }
 
-        if (contents != null) {
+        if (contents != null && mOutputDir != null) {
+            writeOutput(toPath, contents);
+        } else if (contents != null) {
             TextFileChange change = new TextFileChange("Merge " + fileName, to);
             MultiTextEdit rootEdit = new MultiTextEdit();
             rootEdit.addChild(new ReplaceEdit(0, currentXml.length(), contents));
@@ -895,14 +943,17 @@ class TemplateHandler {
             copyTemplateResource(relativeFrom, to);
         } else {
             File from = getFullPath(relativeFrom);
-            mLoader.setTemplateFile(from);
-            Template template = freemarker.getTemplate(from.getName());
+            Template template = getTemplate(freemarker, from);
             Writer out = new StringWriter(1024);
             template.process(paramMap, out);
             out.flush();
             String contents = out.toString();
 
             contents = format(mProject, contents, to);
+            if (mOutputDir != null) {
+                writeOutput(to, contents);
+                return;
+            }
             IFile targetFile = getTargetFile(to);
             TextFileChange change = createNewFileChange(targetFile);
             MultiTextEdit rootEdit = new MultiTextEdit();
@@ -1030,6 +1081,10 @@ class TemplateHandler {
                     copy(child, path.append(child.getName()));
                 }
             }
+        } else if (mOutputDir != null) {
+            File dest = getOutputFile(path);
+            dest.getParentFile().mkdirs();
+            Files.copy(src, dest);
         } else {
             IResource dest = mProject.getFile(path);
             if (dest.exists() && !(dest instanceof IFile)) {// Don't attempt to overwrite a folder
@@ -1071,41 +1126,62 @@ class TemplateHandler {
     }
 
     /**
-     * A custom {@link TemplateLoader} which locates and provides templates
-     * within the plugin .jar file
+     * Returns the FreeMarker configuration shared by all template handlers
+     *
+     * @return the shared configuration
      */
-    private static final class MyTemplateLoader implements TemplateLoader {
-        private String mPrefix;
-
-        public void setPrefix(String prefix) {
-            mPrefix = prefix;
+    @NonNull
+    private static synchronized Configuration getFreemarker() {
+        if (sFreemarker == null) {
+            Configuration freemarker = new Configuration();
+            freemarker.setObjectWrapper(new DefaultObjectWrapper());
+            freemarker.setTemplateLoader(new MyTemplateLoader());
+            // Keep the templates of the most recently used template sets around;
+            // check the file timestamps on every lookup so edits are picked up
+            freemarker.setCacheStorage(new MruCacheStorage(TEMPLATE_CACHE_SIZE,
+                    Integer.MAX_VALUE));
+            freemarker.setTemplateUpdateDelay(0);
+            freemarker.setLocalizedLookup(false);
+            sFreemarker = freemarker;
         }
 
-        public void setTemplateFile(File file) {
-            setTemplateParent(file.getParentFile());
-        }
+        return sFreemarker;
+    }
 
-        public void setTemplateParent(File parent) {
-            mPrefix = parent.getPath();
-        }
+    @NonNull
+    private static Template getTemplate(@NonNull Configuration freemarker, @NonNull File file)
+            throws IOException {
+        // Template names are absolute paths, such that templates with the same name
+        // in different template folders are cached separately, and such that relative
+        // includes are resolved relative to the including template
+        return freemarker.getTemplate(file.getAbsolutePath().replace('\\', '/'));
+    }
 
+    /**
+     * A custom {@link TemplateLoader} which locates and provides templates by
+     * their absolute paths
+     */
+    private static final class MyTemplateLoader implements TemplateLoader {
         @Override
         public Reader getReader(Object templateSource, String encoding) throws IOException {
-            URL url = (URL) templateSource;
-            return new InputStreamReader(url.openStream(), encoding);
+            File file = (File) templateSource;
+            return new InputStreamReader(new FileInputStream(file), encoding);
         }
 
         @Override
         public long getLastModified(Object templateSource) {
-            return 0;
+            return ((File) templateSource).lastModified();
         }
 
         @Override
         public Object findTemplateSource(String name) throws IOException {
-            String path = mPrefix != null ? mPrefix + '/' + name : name;
-            File file = new File(path);
-            if (file.exists()) {
-                return file.toURI().toURL();
+            File file = new File(name);
+            if (!file.isAbsolute()) {
+                // FreeMarker strips the leading slash of absolute Unix paths
+                file = new File('/' + name);
+            }
+            if (file.isFile()) {
+                return file;
             }
             return null;
         }
@@ -1115,6 +1191,76 @@ class TemplateHandler {
         }
     }
 
+    /**
+     * Instantiates the given templates in parallel, each into its own subdirectory
+     * of the given output directory, without involving the workspace. This is
+     * intended for testing sets of templates.
+     *
+     * @param templates the root folders of the templates to instantiate
+     * @param args the template parameters to use for all the templates (in addition
+     *            to the defaults declared by each template)
+     * @param outputDir the directory to write the templates into
+     * @return a map from the root folder of each template which failed to the most
+     *         recent exception recorded while instantiating it; empty if all the
+     *         templates were instantiated successfully
+     * @throws InterruptedException if the calling thread is interrupted while
+     *             waiting for the templates to be instantiated
+     */
+    @NonNull
+    static Map<File, Exception> renderAll(@NonNull List<File> templates,
+            @NonNull final Map<String, Object> args, @NonNull File outputDir)
+            throws InterruptedException {
+        List<Callable<Exception>> tasks = new ArrayList<Callable<Exception>>();
+        for (int i = 0, n = templates.size(); i < n; i++) {
+            final File template = templates.get(i);
+            final File dir = new File(outputDir, template.getName() + '_' + i);
+            tasks.add(new Callable<Exception>() {
+                @Override
+                public Exception call() {
+                    TemplateHandler handler = createFromPath(template);
+                    handler.mOutputDir = dir;
+                    handler.setBackupMergedFiles(false);
+                    try {
+                        handler.render(null, args);
+                    } catch (RuntimeException e) {
+                        handler.recordException(e);
+                    }
+                    return handler.mException;
+                }
+            });
+        }
+
+        int threads = Math.max(1, Math.min(templates.size(),
+                Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Template Renderer"); //$NON-NLS-1$
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            Map<File, Exception> failures = new HashMap<File, Exception>();
+            List<Future<Exception>> results = executor.invokeAll(tasks);
+            for (int i = 0, n = results.size(); i < n; i++) {
+                try {
+                    Exception exception = results.get(i).get();
+                    if (exception != null) {
+                        failures.put(templates.get(i), exception);
+                    }
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    failures.put(templates.get(i),
+                            cause instanceof Exception ? (Exception) cause : e);
+                }
+            }
+            return failures;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     /**
      * Validates this template to make sure it's supported
      * @param currentMinSdk the minimum SDK in the project, or -1 or 0 if unknown (e.g. codename)
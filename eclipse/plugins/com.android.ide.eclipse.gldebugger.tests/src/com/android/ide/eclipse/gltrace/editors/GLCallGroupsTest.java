@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.gltrace.editors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.android.ide.eclipse.gltrace.GLProtoBuf.GLMessage.Function;
+import com.android.ide.eclipse.gltrace.editors.GLCallGroups.GLCallNode;
+import com.android.ide.eclipse.gltrace.editors.GLCallGroups.GroupIndex;
+import com.android.ide.eclipse.gltrace.model.GLCall;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Stack;
+
+public class GLCallGroupsTest {
+    private static final int CONTEXT = 0;
+
+    private static List<GLCall> createCalls(String spec) {
+        // One call per character: '(' pushes a group, ')' pops it, 'x' is a call in
+        // the grouped context and '-' is a call in another context
+        List<GLCall> calls = new ArrayList<GLCall>();
+        for (int i = 0; i < spec.length(); i++) {
+            char c = spec.charAt(i);
+            Function function = c == '(' ? Function.glPushGroupMarkerEXT
+                    : c == ')' ? Function.glPopGroupMarkerEXT : Function.glDrawArrays;
+            int context = c == '-' ? CONTEXT + 1 : CONTEXT;
+            calls.add(new GLCall(i, 0, 0, Integer.toString(i), function, false, context, 0, 0));
+        }
+        return calls;
+    }
+
+    /** Describes the lazily computed hierarchy, e.g. "0(1 2) 3" */
+    private static String describe(GLCallNode node) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < node.getChildCount(); i++) {
+            GLCallNode child = node.getChild(i);
+            assertSame(child, node.getChildren().get(i));
+            assertSame(node.getCall() != null ? node : null, child.getParent());
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(child.getCall().getIndex());
+            assertEquals(child.getChildCount() > 0, child.hasChildren());
+            if (child.hasChildren()) {
+                sb.append('(').append(describe(child)).append(')');
+            }
+        }
+        return sb.toString();
+    }
+
+    /** Describes the hierarchy built by the original eager grouping */
+    private static String describeEager(List<GLCall> calls, int start, int end) {
+        Stack<StringBuilder> stack = new Stack<StringBuilder>();
+        stack.push(new StringBuilder());
+        for (int i = start; i < end; i++) {
+            GLCall c = calls.get(i);
+            if (c.getContextId() != CONTEXT) {
+                continue;
+            }
+
+            if (c.getFunction() == Function.glPopGroupMarkerEXT && stack.size() > 1) {
+                close(stack);
+                continue;
+            }
+
+            StringBuilder sb = stack.peek();
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(i);
+            if (c.getFunction() == Function.glPushGroupMarkerEXT) {
+                stack.push(new StringBuilder());
+            }
+        }
+        while (stack.size() > 1) {
+            close(stack);
+        }
+        return stack.pop().toString();
+    }
+
+    private static void close(Stack<StringBuilder> stack) {
+        String children = stack.pop().toString();
+        if (!children.isEmpty()) {
+            stack.peek().append('(').append(children).append(')');
+        }
+    }
+
+    private static String describe(List<GLCall> calls, int start, int end) {
+        GroupIndex index = new GroupIndex(calls, CONTEXT);
+        return describe(GLCallGroups.constructCallHierarchy(index, start, end));
+    }
+
+    @Test
+    public void testGrouping() {
+        List<GLCall> calls = createCalls("x(x-x(xx)x)x(");
+        assertEquals("0 1(2 4 5(6 7) 9) 11 12", describe(calls, 0, calls.size()));
+        assertEquals(describeEager(calls, 0, calls.size()), describe(calls, 0, calls.size()));
+    }
+
+    @Test
+    public void testEmptyGroups() {
+        List<GLCall> calls = createCalls("(x)()(--)x");
+        GLCallNode root = GLCallGroups.constructCallHierarchy(new GroupIndex(calls, CONTEXT),
+                0, calls.size());
+        assertEquals(4, root.getChildCount());
+        assertTrue(root.getChild(0).hasChildren());
+        assertFalse(root.getChild(1).hasChildren());
+        assertFalse(root.getChild(2).hasChildren());
+        assertFalse(root.getChild(3).hasChildren());
+        assertNull(root.getCall());
+    }
+
+    @Test
+    public void testUnbalanced() {
+        // Unmatched pops are shown like regular calls
+        List<GLCall> calls = createCalls("x)(x))x");
+        assertEquals("0 1 2(3) 5 6", describe(calls, 0, calls.size()));
+        assertEquals(describeEager(calls, 0, calls.size()), describe(calls, 0, calls.size()));
+    }
+
+    @Test
+    public void testRangeWithinGroup() {
+        // Groups opened before the range are shown as the parents of their calls
+        List<GLCall> calls = createCalls("(x(xx)x)x");
+        assertEquals("0(2(4) 6) 8", describe(calls, 4, calls.size()));
+        assertEquals("0(2(3 4))", describe(calls, 3, 5));
+        assertEquals("", describe(calls, 7, 8));
+    }
+
+    @Test
+    public void testMatchesEagerGrouping() {
+        Random random = new Random(42);
+        String alphabet = "((()))xxxx--";
+        for (int iteration = 0; iteration < 200; iteration++) {
+            StringBuilder spec = new StringBuilder();
+            int length = random.nextInt(40);
+            for (int i = 0; i < length; i++) {
+                spec.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            List<GLCall> calls = createCalls(spec.toString());
+
+            // The eager grouping only knows about the groups opened within the range, so
+            // compare all the ranges starting outside of any group
+            int depth = 0;
+            for (int start = 0; start <= calls.size(); start++) {
+                if (depth == 0) {
+                    for (int end = start; end <= calls.size(); end++) {
+                        assertEquals(spec + " [" + start + "," + end + ")",
+                                describeEager(calls, start, end),
+                                describe(calls, start, end));
+                    }
+                }
+                if (start < calls.size()) {
+                    char c = spec.charAt(start);
+                    if (c == '(') {
+                        depth++;
+                    } else if (c == ')' && depth > 0) {
+                        depth--;
+                    }
+                }
+            }
+        }
+    }
+}
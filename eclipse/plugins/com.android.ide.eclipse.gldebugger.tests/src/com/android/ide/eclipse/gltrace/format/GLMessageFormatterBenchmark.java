@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.gltrace.format;
+
+import com.android.ide.eclipse.gltrace.GLEnum;
+import com.android.ide.eclipse.gltrace.GLProtoBuf.GLMessage;
+import com.android.ide.eclipse.gltrace.GLProtoBuf.GLMessage.Builder;
+import com.android.ide.eclipse.gltrace.GLProtoBuf.GLMessage.DataType;
+import com.android.ide.eclipse.gltrace.GLProtoBuf.GLMessage.DataType.Type;
+import com.android.ide.eclipse.gltrace.GLProtoBuf.GLMessage.Function;
+import com.google.protobuf.ByteString;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Microbenchmark for {@link GLMessageFormatter}. Formats a synthetic stream of messages
+ * for all the functions in the API specification, using both the formatter and the
+ * original {@link String#format} based implementation, checks that they produce the
+ * same text, and prints the throughput of each.
+ * <p/>
+ * This is not a unit test; run it as a Java application.
+ */
+public class GLMessageFormatterBenchmark {
+    private static final int MESSAGE_COUNT = 100000;
+    private static final int ITERATIONS = 10;
+
+    private static final GLEnum[] ENUMS = GLEnum.values();
+
+    public static void main(String[] args) {
+        Map<String, GLAPISpec> specs = GLAPISpec.getSpecs();
+        List<GLMessage> messages = createMessages(specs, new Random(42));
+
+        GLMessageFormatter formatter = new GLMessageFormatter(specs);
+        OriginalFormatter original = new OriginalFormatter(specs);
+        for (GLMessage message : messages) {
+            String expected = original.format(message);
+            String actual = formatter.formatGLMessage(message);
+            if (!expected.equals(actual)) {
+                throw new AssertionError("Expected " + expected + " but was " + actual);
+            }
+        }
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            int length = 0;
+            for (GLMessage message : messages) {
+                length += original.format(message).length();
+            }
+            long before = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (GLMessage message : messages) {
+                length -= formatter.formatGLMessage(message).length();
+            }
+            long after = System.nanoTime() - start;
+            assert length == 0;
+
+            System.out.println(String.format(
+                    "Iteration %d: before %.0f messages/s, after %.0f messages/s (%.1fx)",
+                    i, messages.size() * 1e9 / before, messages.size() * 1e9 / after,
+                    before / (double) after));
+        }
+    }
+
+    private static List<GLMessage> createMessages(Map<String, GLAPISpec> specs,
+            Random random) {
+        List<GLAPISpec> functions = new ArrayList<GLAPISpec>();
+        for (Function function : Function.values()) {
+            GLAPISpec spec = specs.get(function.toString());
+            if (spec != null) {
+                functions.add(spec);
+            }
+        }
+
+        List<GLMessage> messages = new ArrayList<GLMessage>(MESSAGE_COUNT);
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            GLAPISpec spec = functions.get(random.nextInt(functions.size()));
+            Builder builder = GLMessage.newBuilder();
+            builder.setFunction(Function.valueOf(spec.getFunction()));
+            builder.setContextId(0);
+            builder.setStartTime(i);
+            builder.setDuration(1);
+            for (GLDataTypeSpec arg : spec.getArgs()) {
+                builder.addArgs(createValue(arg, random));
+            }
+            if (spec.getReturnValue().getDataType() != Type.VOID) {
+                builder.setReturnValue(createValue(spec.getReturnValue(), random));
+            }
+            messages.add(builder.build());
+        }
+
+        return messages;
+    }
+
+    private static DataType createValue(GLDataTypeSpec spec, Random random) {
+        DataType.Builder builder = DataType.newBuilder();
+        builder.setIsArray(spec.isPointer());
+        if (spec.isPointer() && random.nextInt(4) == 0) {
+            // Device memory pointer without the pointed to data
+            return builder.setType(Type.INT).addIntValue(random.nextInt()).build();
+        }
+
+        int count = spec.isPointer() ? 1 + random.nextInt(4) : 1;
+        Type type = spec.getDataType();
+        builder.setType(type);
+        for (int i = 0; i < count; i++) {
+            switch (type) {
+                case BOOL:
+                    builder.addBoolValue(random.nextBoolean());
+                    break;
+                case FLOAT:
+                    // Mostly integral values, like real traces
+                    builder.addFloatValue(random.nextBoolean()
+                            ? random.nextInt(3) : random.nextFloat());
+                    break;
+                case ENUM:
+                    builder.addIntValue((int) ENUMS[random.nextInt(ENUMS.length)].value);
+                    break;
+                case CHAR:
+                    builder.addCharValue(ByteString.copyFromUtf8("main"));  //$NON-NLS-1$
+                    break;
+                case VOID:
+                    if (spec.isPointer()) {
+                        builder.addRawBytes(ByteString.copyFrom(new byte[random.nextInt(64)]));
+                    }
+                    break;
+                default:
+                    builder.addIntValue(random.nextInt(1000));
+                    break;
+            }
+        }
+
+        return builder.build();
+    }
+
+    /** The formatter prior to compiling the specifications, used as the baseline */
+    private static class OriginalFormatter {
+        private final Map<String, GLAPISpec> mAPISpecs;
+
+        OriginalFormatter(Map<String, GLAPISpec> specs) {
+            mAPISpecs = specs;
+        }
+
+        String format(GLMessage glMessage) {
+            GLAPISpec apiSpec = mAPISpecs.get(glMessage.getFunction().toString());
+            StringBuilder sb = new StringBuilder();
+            List<GLDataTypeSpec> argSpecs = apiSpec.getArgs();
+            for (int i = 0; i < argSpecs.size(); i++) {
+                GLDataTypeSpec argSpec = argSpecs.get(i);
+                if (argSpec.getDataType() == Type.VOID && !argSpec.isPointer()) {
+                    sb.append("void");                                  //$NON-NLS-1$
+                } else {
+                    sb.append(argSpec.getArgName());
+                    sb.append(" = ");                                   //$NON-NLS-1$
+                    sb.append(formatDataValue(glMessage.getArgs(i), argSpec, false));
+                }
+                if (i < argSpecs.size() - 1) {
+                    sb.append(", ");                                    //$NON-NLS-1$
+                }
+            }
+            String call = String.format("%s(%s)", apiSpec.getFunction(), sb); //$NON-NLS-1$
+
+            GLDataTypeSpec returnSpec = apiSpec.getReturnValue();
+            if (returnSpec.getDataType() == Type.VOID) {
+                return call;
+            }
+            return call + String.format(" = (%s) %s", returnSpec.getCType(), //$NON-NLS-1$
+                    formatDataValue(glMessage.getReturnValue(), returnSpec, true));
+        }
+
+        private String formatDataValue(DataType var, GLDataTypeSpec typeSpec,
+                boolean returnValue) {
+            if (typeSpec.isPointer()) {
+                return formatPointer(var, typeSpec.getDataType());
+            }
+
+            switch (typeSpec.getDataType()) {
+                case VOID:
+                    return "";
+                case BOOL:
+                    return Boolean.toString(var.getBoolValue(0));
+                case FLOAT:
+                    return String.format("%f", var.getFloatValue(0)); //$NON-NLS-1$
+                case INT:
+                    return Integer.toString(var.getIntValue(0));
+                case ENUM:
+                    if (var.getIntValue(0) == 0 && returnValue) {
+                        return "GL_NO_ERROR";                           //$NON-NLS-1$
+                    }
+                    return GLEnum.valueOf(var.getIntValue(0)).toString();
+                default:
+                    return "(unknown type)";                            //$NON-NLS-1$
+            }
+        }
+
+        private String formatPointer(DataType var, Type typeSpec) {
+            if (var.getType() != typeSpec
+                    && !(var.getType() == Type.INT && typeSpec == Type.ENUM)) {
+                if (var.getIntValueCount() > 0) {
+                    return String.format("0x%x", var.getIntValue(0));   //$NON-NLS-1$
+                }
+                return "0x??";                                          //$NON-NLS-1$
+            }
+
+            switch (typeSpec) {
+                case BOOL:
+                    return var.getBoolValueList().toString();
+                case FLOAT:
+                    return var.getFloatValueList().toString();
+                case INT:
+                    return var.getIntValueList().toString();
+                case CHAR:
+                    return var.getCharValueList().get(0).toStringUtf8();
+                case ENUM:
+                    StringBuilder sb = new StringBuilder();
+                    sb.append('[');
+                    for (Integer v : var.getIntValueList()) {
+                        sb.append(GLEnum.valueOf(v.intValue()));
+                    }
+                    sb.append(']');
+                    return sb.toString();
+                case VOID:
+                    if (var.getRawBytesList().size() > 0) {
+                        return String.format("[ %d bytes ]",            //$NON-NLS-1$
+                                var.getRawBytesList().get(0).size());
+                    }
+                    return "[]";                                        //$NON-NLS-1$
+                default:
+                    break;
+            }
+
+            if (var.getIntValue(0) == 0) {
+                return "NULL";                                          //$NON-NLS-1$
+            }
+            return String.format("0x%x", var.getIntValue(0));           //$NON-NLS-1$
+        }
+    }
+}
@@ -40,7 +40,11 @@ public class GLMessageFormatterTest {
             "void, glMultMatrixf, const GLfloat* m",
             "GLenum, eglBindAPI, GLEnum arg",
             "void, glGetActiveAttrib, GLenum* type",
-            "void, glTexImage2D, GLint level, GLsizei width, const GLvoid* pixels");
+            "void, glTexImage2D, GLint level, GLsizei width, const GLvoid* pixels",
+            "void, glClearColor, GLclampf red, GLclampf green, GLclampf blue, GLclampf alpha",
+            "void, glUniform4fv, GLint location, GLsizei count, const GLfloat* v",
+            "GLboolean, glIsEnabled, GLenum cap",
+            "void, glFlush, void");
     private static GLMessageFormatter sGLMessageFormatter;
 
     static {
@@ -140,6 +144,88 @@ public class GLMessageFormatterTest {
         assertEquals(expected, actual);
     }
 
+    @Test
+    public void testFloats() {
+        GLMessage msg = constructGLMessage(null,
+                Function.glClearColor,
+                createFloatDataType(0),
+                createFloatDataType(-1),
+                createFloatDataType(0.25f),
+                createFloatDataType(1234.5678f));
+        String expected = String.format("glClearColor(red = %f, green = %f, blue = %f, "
+                + "alpha = %f)", 0f, -1f, 0.25f, 1234.5678f);
+        String actual = sGLMessageFormatter.formatGLMessage(msg);
+
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testFloatPointer() {
+        GLMessage msg = constructGLMessage(null,
+                Function.glUniform4fv,
+                createIntegerDataType(-3),
+                createIntegerDataType(1),
+                DataType.newBuilder()
+                        .addFloatValue(1)
+                        .addFloatValue(0.5f)
+                        .setIsArray(true)
+                        .setType(Type.FLOAT)
+                        .build());
+        String expected = "glUniform4fv(location = -3, count = 1, v = [1.0, 0.5])";
+        String actual = sGLMessageFormatter.formatGLMessage(msg);
+
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testBooleanReturnValue() {
+        GLMessage msg = constructGLMessage(
+                DataType.newBuilder()
+                        .addBoolValue(true)
+                        .setIsArray(false)
+                        .setType(Type.BOOL)
+                        .build(),
+                Function.glIsEnabled,
+                createEnumDataType((int) GLEnum.GL_BLEND.value));
+        String expected = "glIsEnabled(cap = GL_BLEND) = (GLboolean) true";
+        String actual = sGLMessageFormatter.formatGLMessage(msg);
+
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testVoidArgument() {
+        GLMessage msg = constructGLMessage(null, Function.glFlush);
+        assertEquals("glFlush(void)", sGLMessageFormatter.formatGLMessage(msg));
+    }
+
+    @Test
+    public void testMissingSpec() {
+        GLMessage msg = constructGLMessage(null, Function.glFinish);
+        assertEquals("glFinish", sGLMessageFormatter.formatGLMessage(msg));
+    }
+
+    @Test
+    public void testNegativePointer() {
+        GLMessage msg = constructGLMessage(null,
+                Function.glTexImage2D,
+                createIntegerDataType(0),
+                createIntegerDataType(0),
+                createIntegerPointerDataType(-16));
+        String expected = "glTexImage2D(level = 0, width = 0, pixels = 0xfffffff0)";
+        String actual = sGLMessageFormatter.formatGLMessage(msg);
+
+        assertEquals(expected, actual);
+    }
+
+    private DataType createFloatDataType(float val) {
+        return DataType.newBuilder()
+                .addFloatValue(val)
+                .setIsArray(false)
+                .setType(Type.FLOAT)
+                .build();
+    }
+
     private DataType createStringDataType(String retValue) {
         return DataType.newBuilder()
                 .addCharValue(ByteString.copyFromUtf8(retValue))
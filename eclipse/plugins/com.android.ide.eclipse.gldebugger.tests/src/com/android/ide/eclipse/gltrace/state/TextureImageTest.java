@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.gltrace.state;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TextureImageTest {
+    private static final int SIZE = 2 * TextureImage.TILE_SIZE;
+
+    private static byte[] createPixels(int width, int height, int seed) {
+        byte[] rgba = new byte[width * height * 4];
+        for (int i = 0; i < rgba.length; i++) {
+            rgba[i] = (byte) (i * 31 + seed);
+        }
+        return rgba;
+    }
+
+    /** Applies an update to a plain RGBA array, for comparison */
+    private static void update(byte[] image, int imageWidth, int x, int y, int width,
+            int height, byte[] rgba) {
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(rgba, row * width * 4, image, ((y + row) * imageWidth + x) * 4,
+                    width * 4);
+        }
+    }
+
+    @Test
+    public void testCreate() {
+        TextureStore store = new TextureStore(Long.MAX_VALUE);
+        byte[] rgba = createPixels(100, 70, 1);
+        TextureImage image = TextureImage.create(store, 100, 70, rgba);
+        assertEquals(100, image.getWidth());
+        assertEquals(70, image.getHeight());
+        assertArrayEquals(rgba, image.getRGBA());
+        assertEquals("100 x 70", image.toString());
+
+        TextureImage empty = TextureImage.create(store, 100, 70, null);
+        assertArrayEquals(new byte[100 * 70 * 4], empty.getRGBA());
+        assertNull(empty.getTile(0));
+    }
+
+    @Test
+    public void testUpdateSharesUnmodifiedTiles() {
+        TextureStore store = new TextureStore(Long.MAX_VALUE);
+        byte[] expected = createPixels(SIZE, SIZE, 2);
+        TextureImage image = TextureImage.create(store, SIZE, SIZE, expected);
+
+        // Update a region within the last tile only
+        byte[] sub = createPixels(10, 5, 3);
+        TextureImage updated = image.update(SIZE - 20, SIZE - 10, 10, 5, sub);
+        update(expected, SIZE, SIZE - 20, SIZE - 10, 10, 5, sub);
+        assertArrayEquals(expected, updated.getRGBA());
+
+        assertSame(image.getTile(0), updated.getTile(0));
+        assertSame(image.getTile(1), updated.getTile(1));
+        assertSame(image.getTile(2), updated.getTile(2));
+        assertNotSame(image.getTile(3), updated.getTile(3));
+
+        // The original is unchanged
+        assertArrayEquals(createPixels(SIZE, SIZE, 2), image.getRGBA());
+    }
+
+    @Test
+    public void testUpdateAcrossTiles() {
+        TextureStore store = new TextureStore(Long.MAX_VALUE);
+        byte[] expected = new byte[SIZE * SIZE * 4];
+        TextureImage image = TextureImage.create(store, SIZE, SIZE, null);
+
+        byte[] sub = createPixels(30, 40, 4);
+        int x = TextureImage.TILE_SIZE - 10;
+        int y = TextureImage.TILE_SIZE - 20;
+        image = image.update(x, y, 30, 40, sub);
+        update(expected, SIZE, x, y, 30, 40, sub);
+        assertArrayEquals(expected, image.getRGBA());
+
+        // Regions outside of the texture are clipped
+        sub = createPixels(20, 20, 5);
+        TextureImage clipped = image.update(SIZE - 10, -10, 20, 20, sub);
+        for (int row = 0; row < 10; row++) {
+            System.arraycopy(sub, ((row + 10) * 20) * 4, expected,
+                    (row * SIZE + SIZE - 10) * 4, 10 * 4);
+        }
+        assertArrayEquals(expected, clipped.getRGBA());
+        assertSame(image, image.update(SIZE, SIZE, 20, 20, sub));
+    }
+
+    @Test
+    public void testSpill() {
+        int tileBytes = TextureImage.TILE_SIZE * TextureImage.TILE_SIZE * 4;
+        TextureStore store = new TextureStore(2 * tileBytes);
+        byte[] rgba = createPixels(SIZE, SIZE, 6);
+        TextureImage image = TextureImage.create(store, SIZE, SIZE, rgba);
+        assertTrue(store.getResidentBytes() <= 2 * tileBytes);
+
+        // Reading the image back reloads the spilled tiles
+        assertArrayEquals(rgba, image.getRGBA());
+        assertTrue(store.getResidentBytes() <= 2 * tileBytes);
+
+        byte[] sub = createPixels(SIZE, 1, 7);
+        TextureImage updated = image.update(0, 0, SIZE, 1, sub);
+        update(rgba, SIZE, 0, 0, SIZE, 1, sub);
+        assertArrayEquals(rgba, updated.getRGBA());
+        assertArrayEquals(createPixels(SIZE, SIZE, 6), image.getRGBA());
+        assertTrue(store.getResidentBytes() <= 2 * tileBytes);
+    }
+}
@@ -61,6 +61,9 @@ public class DurationMinimap extends Canvas {
     /** List of GL Calls in the trace. */
     private List<GLCall> mCalls;
 
+    /** Summary of the call durations of the trace. */
+    private DurationSummary mSummary;
+
     /** Number of GL contexts in the trace. */
     private int mContextCount;
 
@@ -92,6 +95,12 @@ public class DurationMinimap extends Canvas {
     private Image mBackBufferImage;
     private GC mBackBufferGC;
 
+    /**
+     * The rendered background, headers and call durations, which only change when the
+     * frame, the trace or the size changes. Null if it needs to be rendered again.
+     */
+    private Image mContentImage;
+
     // mouse state
     private boolean mMouseInSelf;
     private int mMouseY;
@@ -164,10 +173,14 @@ public class DurationMinimap extends Canvas {
         if (trace != null) {
             mCalls = trace.getGLCalls();
             mContextCount = trace.getContexts().size();
+            mSummary = new DurationSummary(mCalls);
         } else {
             mCalls = null;
             mContextCount = 1;
+            mSummary = null;
         }
+
+        invalidateContent();
     }
 
     @Override
@@ -224,7 +237,16 @@ public class DurationMinimap extends Canvas {
         mBackBufferGC = new GC(mBackBufferImage);
     }
 
+    private void invalidateContent() {
+        if (mContentImage != null) {
+            mContentImage.dispose();
+            mContentImage = null;
+        }
+    }
+
     private void disposeBackBuffer() {
+        invalidateContent();
+
         if (mBackBufferImage != null) {
             mBackBufferImage.dispose();
             mBackBufferImage = null;
@@ -258,10 +280,18 @@ public class DurationMinimap extends Canvas {
             return;
         }
 
-        // draw contents onto the back buffer
-        drawBackground(mBackBufferGC, mBackBufferImage.getBounds());
-        drawContextHeaders(mBackBufferGC);
-        drawCallDurations(mBackBufferGC);
+        // draw contents onto the back buffer. Only the highlights change when the mouse
+        // moves or the table is scrolled, so the rest is rendered once and cached.
+        if (mContentImage == null) {
+            Rectangle bounds = mBackBufferImage.getBounds();
+            mContentImage = new Image(display, bounds.width, bounds.height);
+            GC contentGC = new GC(mContentImage);
+            drawBackground(contentGC, bounds);
+            drawContextHeaders(contentGC);
+            drawCallDurations(contentGC);
+            contentGC.dispose();
+        }
+        mBackBufferGC.drawImage(mContentImage, 0, 0);
         drawVisibleCallHighlights(mBackBufferGC);
         drawMouseMarkers(mBackBufferGC);
 
@@ -295,7 +325,8 @@ public class DurationMinimap extends Canvas {
      *
      * Calls are arranged on the y-axis based on the sequence in which they were originally
      * called by the application. If the display height is lesser than the number of calls, then
-     * not every call is shown - the calls are underscanned based the height of the display.
+     * each line represents a range of calls: the line shows the longest call of the range, or
+     * it shows the range in the error or draw call color if it contains such a call.
      *
      * The x-axis shows two pieces of information: the duration of the call, and the context
      * in which the call was made. The duration controls how long the displayed line is, and
@@ -306,40 +337,33 @@ public class DurationMinimap extends Canvas {
             return;
         }
 
-        gc.setBackground(mDurationLineColor);
-
-        int callUnderScan = mPositionHelper.getCallUnderScanValue();
-        for (int i = mStartCallIndex; i < mEndCallIndex; i += callUnderScan) {
-            boolean resetColor = false;
-            GLCall c = mCalls.get(i);
-
-            long duration = c.getWallDuration();
-
-            if (c.hasErrors()) {
-                gc.setBackground(mGlErrorColor);
-                resetColor = true;
-
-                // If the call has any errors, we want it to be visible in the minimap
-                // regardless of how long it took.
-                duration = mPositionHelper.getMaxDuration();
-            } else if (c.getFunction() == Function.glDrawArrays
-                    || c.getFunction() == Function.glDrawElements
-                    || c.getFunction() == Function.eglSwapBuffers) {
-                gc.setBackground(mGlDrawColor);
-                resetColor = true;
-
-                // render all draw calls & swap buffer at max length
-                duration = mPositionHelper.getMaxDuration();
-            }
-
-            Rectangle bounds = mPositionHelper.getDurationBounds(
-                    i - mStartCallIndex,
-                    c.getContextId(),
-                    duration);
-            gc.fillRectangle(bounds);
-
-            if (resetColor) {
-                gc.setBackground(mDurationLineColor);
+        int callsPerLine = mPositionHelper.getCallUnderScanValue();
+        for (int context = 0; context < mSummary.getContextCount(); context++) {
+            for (int i = mStartCallIndex; i < mEndCallIndex; i += callsPerLine) {
+                int value = mSummary.getMax(context, i, Math.min(i + callsPerLine, mEndCallIndex));
+
+                long duration;
+                if (value == DurationSummary.NONE) {
+                    continue;
+                } else if (value == DurationSummary.ERROR) {
+                    // If the call has any errors, we want it to be visible in the minimap
+                    // regardless of how long it took.
+                    gc.setBackground(mGlErrorColor);
+                    duration = mPositionHelper.getMaxDuration();
+                } else if (value == DurationSummary.DRAW) {
+                    // render all draw calls & swap buffer at max length
+                    gc.setBackground(mGlDrawColor);
+                    duration = mPositionHelper.getMaxDuration();
+                } else {
+                    gc.setBackground(mDurationLineColor);
+                    duration = value;
+                }
+
+                Rectangle bounds = mPositionHelper.getDurationBounds(
+                        i - mStartCallIndex,
+                        context,
+                        duration);
+                gc.fillRectangle(bounds);
             }
         }
     }
@@ -374,6 +398,7 @@ public class DurationMinimap extends Canvas {
         // regenerate back buffer on size changes
         disposeBackBuffer();
         initializeBackBuffer();
+        mPositionHelper.updateCallDensity(mEndCallIndex - mStartCallIndex, getClientArea().height);
 
         redraw();
     }
@@ -387,6 +412,7 @@ public class DurationMinimap extends Canvas {
         mStartCallIndex = startCallIndex;
         mEndCallIndex = endCallIndex;
         mPositionHelper.updateCallDensity(mEndCallIndex - mStartCallIndex, getClientArea().height);
+        invalidateContent();
         redraw();
     }
 
@@ -417,6 +443,92 @@ public class DurationMinimap extends Canvas {
         }
     }
 
+    /**
+     * Summary of the calls in a trace, used to draw any range of calls in time proportional
+     * to the log of its length. For each context, it stores a pyramid of levels where each
+     * entry in a level is the maximum of two entries in the level below. The entries at the
+     * bottom level are the durations of the calls, or {@link #DRAW} or {@link #ERROR} for
+     * calls which are displayed at full length regardless of their duration.
+     */
+    private static class DurationSummary {
+        /** Value for ranges without calls in the context. */
+        public static final int NONE = Integer.MIN_VALUE;
+
+        /** Value for ranges containing draw calls (but no calls with errors). */
+        public static final int DRAW = Integer.MAX_VALUE - 1;
+
+        /** Value for ranges containing calls with errors. */
+        public static final int ERROR = Integer.MAX_VALUE;
+
+        /** The levels of each context, from individual calls to the whole trace */
+        private final int[][][] mLevels;
+
+        public DurationSummary(List<GLCall> calls) {
+            int contextCount = 0;
+            for (GLCall c : calls) {
+                contextCount = Math.max(contextCount, c.getContextId() + 1);
+            }
+
+            int levelCount = 1;
+            for (int length = calls.size(); length > 1; length = (length + 1) / 2) {
+                levelCount++;
+            }
+
+            mLevels = new int[contextCount][levelCount][];
+            for (int context = 0; context < contextCount; context++) {
+                int[] values = new int[calls.size()];
+                for (int i = 0; i < values.length; i++) {
+                    GLCall c = calls.get(i);
+                    if (c.getContextId() != context) {
+                        values[i] = NONE;
+                    } else if (c.hasErrors()) {
+                        values[i] = ERROR;
+                    } else if (c.getFunction() == Function.glDrawArrays
+                            || c.getFunction() == Function.glDrawElements
+                            || c.getFunction() == Function.eglSwapBuffers) {
+                        values[i] = DRAW;
+                    } else {
+                        values[i] = Math.min(c.getWallDuration(), DRAW - 1);
+                    }
+                }
+                mLevels[context][0] = values;
+
+                for (int level = 1; level < levelCount; level++) {
+                    int[] below = mLevels[context][level - 1];
+                    values = new int[(below.length + 1) / 2];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = 2 * i + 1 < below.length
+                                ? Math.max(below[2 * i], below[2 * i + 1]) : below[2 * i];
+                    }
+                    mLevels[context][level] = values;
+                }
+            }
+        }
+
+        public int getContextCount() {
+            return mLevels.length;
+        }
+
+        /** Returns the maximum value of the calls [start, end) in the given context. */
+        public int getMax(int context, int start, int end) {
+            int[][] levels = mLevels[context];
+            int max = NONE;
+            for (int level = 0; start < end; level++) {
+                int[] values = levels[level];
+                if ((start & 1) != 0) {
+                    max = Math.max(max, values[start++]);
+                }
+                if ((end & 1) != 0) {
+                    max = Math.max(max, values[--end]);
+                }
+                start >>= 1;
+                end >>= 1;
+            }
+
+            return max;
+        }
+    }
+
     /** Utility class to help with the positioning and sizes of elements in the canvas. */
     private static class PositionHelper {
         /** Left Margin after which duration lines are drawn. */
@@ -21,9 +21,11 @@ import com.android.ide.eclipse.gltrace.model.GLCall;
 import com.android.ide.eclipse.gltrace.model.GLTrace;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Stack;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 public class GLCallGroups {
     /**
@@ -37,6 +39,12 @@ public class GLCallGroups {
         /** Returns a list of child nodes of this call. */
         List<GLCallNode> getChildren();
 
+        /** Returns the number of child nodes of this call. */
+        int getChildCount();
+
+        /** Returns the child node at the given index. */
+        GLCallNode getChild(int index);
+
         /** Returns the {@link GLCall} that is wrapped by this node. */
         GLCall getCall();
 
@@ -47,19 +55,174 @@ public class GLCallGroups {
         void setParent(GLCallNode parent);
     }
 
+    /** Group marker nesting of each context of each trace, computed on first use */
+    private static final Map<GLTrace, Map<Integer, GroupIndex>> sIndices =
+            new WeakHashMap<GLTrace, Map<Integer, GroupIndex>>();
+
+    private static final int[] NO_CHILDREN = new int[0];
+
+    /**
+     * The nesting of the {@link Function#glPushGroupMarkerEXT} and
+     * {@link Function#glPopGroupMarkerEXT} calls of a single context, over the whole trace.
+     * <p/>
+     * The calls of the context are numbered by their position among the calls of that
+     * context. Since groups nest, the calls within a group are the consecutive positions
+     * following its push marker, up to its matching pop marker.
+     */
+    static class GroupIndex {
+        /** Value in {@link #mEnds} for calls which are not push markers */
+        private static final int LEAF = -1;
+        /** Value in {@link #mEnds} for pop markers which close a group */
+        private static final int POP = -2;
+
+        private final List<GLCall> mTraceCalls;
+
+        /** The index in the trace of the call at each position */
+        private final int[] mCalls;
+
+        /** The position of the push marker enclosing each call, or -1 */
+        private final int[] mParents;
+
+        /**
+         * For push markers, the position of the matching pop marker (or the number of calls
+         * if the group is never closed). {@link #LEAF} or {@link #POP} for other calls.
+         */
+        private final int[] mEnds;
+
+        GroupIndex(List<GLCall> calls, int context) {
+            mTraceCalls = calls;
+
+            int count = 0;
+            for (GLCall c : calls) {
+                if (c.getContextId() == context) {
+                    count++;
+                }
+            }
+
+            mCalls = new int[count];
+            mParents = new int[count];
+            mEnds = new int[count];
+
+            int[] stack = new int[16];
+            int depth = 0;
+            int position = 0;
+            for (int i = 0; i < calls.size(); i++) {
+                GLCall c = calls.get(i);
+                if (c.getContextId() != context) {
+                    continue;
+                }
+
+                mCalls[position] = i;
+                mParents[position] = depth > 0 ? stack[depth - 1] : -1;
+                mEnds[position] = LEAF;
+
+                if (c.getFunction() == Function.glPushGroupMarkerEXT) {
+                    if (depth == stack.length) {
+                        stack = Arrays.copyOf(stack, 2 * depth);
+                    }
+                    stack[depth++] = position;
+                } else if (c.getFunction() == Function.glPopGroupMarkerEXT && depth > 0) {
+                    // The pop marker itself is not displayed
+                    mEnds[stack[--depth]] = position;
+                    mEnds[position] = POP;
+                }
+
+                position++;
+            }
+
+            // Groups which are never closed extend to the end of the trace
+            while (depth > 0) {
+                mEnds[stack[--depth]] = count;
+            }
+        }
+
+        GLCall getCall(int position) {
+            return mTraceCalls.get(mCalls[position]);
+        }
+
+        boolean isGroup(int position) {
+            return mEnds[position] >= 0;
+        }
+
+        /** Returns the first position whose call is at or after the given trace index */
+        int findPosition(int callIndex) {
+            int index = Arrays.binarySearch(mCalls, callIndex);
+            return index >= 0 ? index : -(index + 1);
+        }
+
+        /**
+         * Returns the positions of the displayed children of the given group (or of the
+         * root if the position is -1) which have calls in the range of positions [lo, hi).
+         * Groups which were opened before the range but extend into it are included, such
+         * that their calls within the range are shown in the right place.
+         */
+        int[] getChildren(int group, int lo, int hi) {
+            int end = group >= 0 ? mEnds[group] : mCalls.length;
+            int child;
+            if (group + 1 >= lo) {
+                child = group + 1;
+            } else if (lo < end) {
+                // Find the child of the group which contains the start of the range
+                child = lo;
+                while (mParents[child] != group) {
+                    child = mParents[child];
+                }
+            } else {
+                return NO_CHILDREN;
+            }
+
+            // A group opened before the range is only shown if it contains a displayed
+            // call within the range, and the first displayed call is the first one which
+            // doesn't close a group
+            int first = lo;
+            while (first < mEnds.length && mEnds[first] == POP) {
+                first++;
+            }
+
+            int[] children = new int[16];
+            int count = 0;
+            while (child < end && child < hi) {
+                boolean isGroup = isGroup(child);
+                if (child >= lo ? mEnds[child] != POP
+                        : isGroup && first < mEnds[child] && first < hi) {
+                    if (count == children.length) {
+                        children = Arrays.copyOf(children, 2 * count);
+                    }
+                    children[count++] = child;
+                }
+
+                // Skip over the contents of nested groups
+                child = isGroup ? mEnds[child] + 1 : child + 1;
+            }
+
+            return Arrays.copyOf(children, count);
+        }
+    }
+
+    /**
+     * A node for a push marker, or the root node, whose children are only computed and
+     * created when they are first requested.
+     */
     private static class GLTreeNode implements GLCallNode {
-        private final GLCall mCall;
+        private final GroupIndex mIndex;
+        private final int mPosition;
+        private final int mLo;
+        private final int mHi;
         private GLCallNode mParent;
-        private List<GLCallNode> mGLCallNodes;
-
-        public GLTreeNode(GLCall call) {
-            mCall = call;
-            mGLCallNodes = new ArrayList<GLCallNode>();
+        private int[] mChildPositions;
+        private GLCallNode[] mChildren;
+
+        public GLTreeNode(GroupIndex index, int position, int lo, int hi) {
+            mIndex = index;
+            mPosition = position;
+            mLo = lo;
+            mHi = hi;
         }
 
         @Override
         public boolean hasChildren() {
-            return true;
+            // Groups can be empty, or have no displayed calls within the range
+            return getChildCount() > 0;
         }
 
         @Override
@@ -74,17 +237,97 @@ public class GLCallGroups {
 
         @Override
         public List<GLCallNode> getChildren() {
-            return mGLCallNodes;
+            int count = getChildCount();
+            List<GLCallNode> children = new ArrayList<GLCallNode>(count);
+            for (int i = 0; i < count; i++) {
+                children.add(getChild(i));
+            }
+            return children;
+        }
+
+        @Override
+        public int getChildCount() {
+            if (mChildPositions == null) {
+                mChildPositions = mIndex.getChildren(mPosition, mLo, mHi);
+                mChildren = new GLCallNode[mChildPositions.length];
+            }
+            return mChildPositions.length;
         }
 
-        public void addChild(GLCallNode n) {
-            mGLCallNodes.add(n);
-            n.setParent(this);
+        @Override
+        public GLCallNode getChild(int index) {
+            getChildCount();
+            GLCallNode child = mChildren[index];
+            if (child == null) {
+                int position = mChildPositions[index];
+                if (mIndex.isGroup(position)) {
+                    child = new GLTreeNode(mIndex, position, mLo, mHi);
+                } else {
+                    child = new GLLeafNode(mIndex.getCall(position));
+                }
+                child.setParent(mPosition >= 0 ? this : null);
+                mChildren[index] = child;
+            }
+            return child;
         }
 
         @Override
         public GLCall getCall() {
-            return mCall;
+            return mPosition >= 0 ? mIndex.getCall(mPosition) : null;
+        }
+    }
+
+    /** The root node of a flat list of calls, whose nodes are created on demand */
+    private static class GLFlatNode implements GLCallNode {
+        private final List<GLCall> mCalls;
+        private final int mStart;
+        private final GLCallNode[] mChildren;
+
+        public GLFlatNode(List<GLCall> calls, int start, int end) {
+            mCalls = calls;
+            mStart = start;
+            mChildren = new GLCallNode[Math.max(end - start, 0)];
+        }
+
+        @Override
+        public boolean hasChildren() {
+            return true;
+        }
+
+        @Override
+        public List<GLCallNode> getChildren() {
+            List<GLCallNode> children = new ArrayList<GLCallNode>(mChildren.length);
+            for (int i = 0; i < mChildren.length; i++) {
+                children.add(getChild(i));
+            }
+            return children;
+        }
+
+        @Override
+        public int getChildCount() {
+            return mChildren.length;
+        }
+
+        @Override
+        public GLCallNode getChild(int index) {
+            if (mChildren[index] == null) {
+                mChildren[index] = new GLLeafNode(mCalls.get(mStart + index));
+            }
+            return mChildren[index];
+        }
+
+        @Override
+        public GLCall getCall() {
+            return null;
+        }
+
+        @Override
+        public GLCallNode getParent() {
+            return null;
+        }
+
+        @Override
+        public void setParent(GLCallNode parent) {
         }
     }
 
@@ -106,6 +349,16 @@ public class GLCallGroups {
             return null;
         }
 
+        @Override
+        public int getChildCount() {
+            return 0;
+        }
+
+        @Override
+        public GLCallNode getChild(int index) {
+            throw new IndexOutOfBoundsException();
+        }
+
         @Override
         public GLCallNode getParent() {
             return mParent;
@@ -126,77 +379,54 @@ public class GLCallGroups {
      * Impose a hierarchy on a list of {@link GLCall}'s based on the presence of
      * {@link Function#glPushGroupMarkerEXT} and {@link Function#glPopGroupMarkerEXT} calls.
      * Such a hierarchy is possible only if calls from a single context are considered.
+     * <p/>
+     * The nesting of the markers is computed once for the whole trace, so groups which
+     * were opened in an earlier frame are shown as the parents of their calls in the
+     * given range. The nodes of the hierarchy are only created as they are requested, so
+     * the cost of this method is independent of the number of calls in the range.
      * @param trace trace to look at
      * @param start starting call index
      * @param end ending call index
      * @param contextToGroup context from which calls should be grouped. If no such context
      *        is present, then all calls in the given range will be returned back as a flat
      *        list.
-     * @return a tree structured list of {@link GLCallNode} objects
+     * @return a root node (which has no call) whose children are the top level
+     *         {@link GLCallNode} objects
      */
-    public static List<GLCallNode> constructCallHierarchy(GLTrace trace, int start, int end,
+    public static GLCallNode constructCallHierarchy(GLTrace trace, int start, int end,
             int contextToGroup) {
         if (trace == null) {
-            return Collections.emptyList();
+            return new GLFlatNode(null, 0, 0);
         }
 
         if (contextToGroup < 0 || contextToGroup > trace.getContexts().size()) {
-            return flatHierarchy(trace, start, end);
+            return new GLFlatNode(trace.getGLCalls(), start, end);
         }
 
-        List<GLCall> calls = trace.getGLCalls();
-
-        Stack<GLTreeNode> hierarchyStack = new Stack<GLTreeNode>();
-        List<GLCallNode> items = new ArrayList<GLCallNode>();
-
-        for (int i = start; i < end; i++) {
-            GLCall c = calls.get(i);
-            if (c.getContextId() != contextToGroup) {
-                // skip this call if it is not part of the context we need to display
-                continue;
-            }
-
-            if (c.getFunction() == Function.glPushGroupMarkerEXT) {
-                GLTreeNode group = new GLTreeNode(c);
-                if (hierarchyStack.size() > 0) {
-                    hierarchyStack.peek().addChild(group);
-                } else {
-                    items.add(group);
-                }
-                hierarchyStack.push(group);
-            } else if (c.getFunction() == Function.glPopGroupMarkerEXT) {
-                if (hierarchyStack.size() > 0) {
-                    hierarchyStack.pop();
-                } else {
-                    // FIXME: If we are attempting to pop from an empty stack,
-                    // that implies that a push marker was seen in a prior frame
-                    // (in a call before @start). In such a case, we simply continue
-                    // adding further calls to the root of the hierarchy rather than
-                    // searching backwards in the call list for the corresponding
-                    // push markers.
-                    items.add(new GLLeafNode(c));
-                }
-            } else {
-              GLLeafNode leaf = new GLLeafNode(c);
-              if (hierarchyStack.size() > 0) {
-                  hierarchyStack.peek().addChild(leaf);
-              } else {
-                  items.add(leaf);
-              }
-            }
-        }
+        return constructCallHierarchy(getIndex(trace, contextToGroup), start, end);
+    }
 
-        return items;
+    /**
+     * Returns the root node of the hierarchy of the calls with indices in [start, end)
+     * of the context described by the given index
+     */
+    static GLCallNode constructCallHierarchy(GroupIndex index, int start, int end) {
+        return new GLTreeNode(index, -1, index.findPosition(start), index.findPosition(end));
     }
 
-    private static List<GLCallNode> flatHierarchy(GLTrace trace, int start, int end) {
-        List<GLCallNode> items = new ArrayList<GLCallNode>();
+    private static synchronized GroupIndex getIndex(GLTrace trace, int context) {
+        Map<Integer, GroupIndex> indices = sIndices.get(trace);
+        if (indices == null) {
+            indices = new HashMap<Integer, GroupIndex>();
+            sIndices.put(trace, indices);
+        }
 
-        List<GLCall> calls = trace.getGLCalls();
-        for (int i = start; i < end; i++) {
-            items.add(new GLLeafNode(calls.get(i)));
+        GroupIndex index = indices.get(context);
+        if (index == null) {
+            index = new GroupIndex(trace.getGLCalls(), context);
+            indices.put(context, index);
         }
 
-        return items;
+        return index;
     }
 }
@@ -46,7 +46,7 @@ import org.eclipse.jface.viewers.ColumnLabelProvider;
 import org.eclipse.jface.viewers.ISelection;
 import org.eclipse.jface.viewers.ISelectionChangedListener;
 import org.eclipse.jface.viewers.ISelectionProvider;
-import org.eclipse.jface.viewers.ITreeContentProvider;
+import org.eclipse.jface.viewers.ILazyTreeContentProvider;
 import org.eclipse.jface.viewers.TreeViewer;
 import org.eclipse.jface.viewers.TreeViewerColumn;
 import org.eclipse.jface.viewers.Viewer;
@@ -96,7 +96,9 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -118,7 +120,11 @@ public class GLFunctionTraceViewer extends EditorPart implements ISelectionProvi
     private GLTrace mTrace;
 
     private TreeViewer mFrameTreeViewer;
-    private List<GLCallNode> mTreeViewerNodes;
+    private GLFrameContentProvider mFrameContentProvider;
+    private GLCallNode mTreeViewerRoot;
+
+    /** Whether groups of calls are expanded as they are displayed */
+    private boolean mExpandGroups = true;
 
     private Text mFilterText;
     private GLCallFilter mGLCallFilter;
@@ -423,12 +429,11 @@ public class GLFunctionTraceViewer extends EditorPart implements ISelectionProvi
     }
 
     private void refreshTree(int startCallIndex, int endCallIndex, int contextToDisplay) {
-        mTreeViewerNodes = GLCallGroups.constructCallHierarchy(mTrace,
+        // The tree is virtual: nodes are only created (and expanded) as they are shown
+        mTreeViewerRoot = GLCallGroups.constructCallHierarchy(mTrace,
                 startCallIndex, endCallIndex,
                 contextToDisplay);
-        mFrameTreeViewer.setInput(mTreeViewerNodes);
-        mFrameTreeViewer.refresh();
-        mFrameTreeViewer.expandAll();
+        mFrameTreeViewer.setInput(mTreeViewerRoot);
     }
 
     private void createOptionsBar(Composite parent) {
@@ -517,7 +522,10 @@ public class GLFunctionTraceViewer extends EditorPart implements ISelectionProvi
 
     private void updateAppliedFilters() {
         mGLCallFilter.setFilters(mFilterText.getText().trim());
-        mFrameTreeViewer.refresh();
+        mFrameContentProvider.clearFilteredChildren();
+
+        // Recreate the items of the virtual tree, since the child counts have changed
+        mFrameTreeViewer.setInput(mTreeViewerRoot);
     }
 
     private void createFrameTraceView(Composite parent) {
@@ -526,13 +534,14 @@ public class GLFunctionTraceViewer extends EditorPart implements ISelectionProvi
         GridData gd = new GridData(GridData.FILL_BOTH);
         c.setLayoutData(gd);
 
-        final Tree tree = new Tree(c, SWT.BORDER | SWT.FULL_SELECTION | SWT.MULTI);
+        final Tree tree = new Tree(c, SWT.BORDER | SWT.FULL_SELECTION | SWT.MULTI | SWT.VIRTUAL);
         gd = new GridData(GridData.FILL_BOTH);
         tree.setLayoutData(gd);
         tree.setLinesVisible(true);
         tree.setHeaderVisible(true);
 
         mFrameTreeViewer = new TreeViewer(tree);
+        mFrameTreeViewer.setUseHashlookup(true);
         CellLabelProvider labelProvider = new GLFrameLabelProvider();
 
         // column showing the GL context id
@@ -558,10 +567,11 @@ public class GLFunctionTraceViewer extends EditorPart implements ISelectionProvi
         column.setWidth(150);
         column.setAlignment(SWT.RIGHT);
 
-        mFrameTreeViewer.setContentProvider(new GLFrameContentProvider());
-
+        // Lazy tree viewers don't support viewer filters, so the content provider
+        // applies the filter itself
         mGLCallFilter = new GLCallFilter();
-        mFrameTreeViewer.addFilter(mGLCallFilter);
+        mFrameContentProvider = new GLFrameContentProvider();
+        mFrameTreeViewer.setContentProvider(mFrameContentProvider);
 
         // when the control is resized, give all the additional space
         // to the function name column.
@@ -584,7 +594,8 @@ public class GLFunctionTraceViewer extends EditorPart implements ISelectionProvi
         mDurationMinimap.addCallSelectionListener(new ICallSelectionListener() {
             @Override
             public void callSelected(int selectedCallIndex) {
-                if (selectedCallIndex > 0 && selectedCallIndex < mTreeViewerNodes.size()) {
+                if (selectedCallIndex > 0 && mTreeViewerRoot != null
+                        && selectedCallIndex < tree.getItemCount()) {
                     TreeItem item = tree.getItem(selectedCallIndex);
                     tree.select(item);
                     tree.setTopItem(item);
@@ -628,54 +639,102 @@ public class GLFunctionTraceViewer extends EditorPart implements ISelectionProvi
         mFrameTreeViewer.getTree().setFocus();
     }
 
-    private static class GLFrameContentProvider implements ITreeContentProvider {
+    /**
+     * Content provider for the virtual frame tree, which only creates the nodes of the call
+     * hierarchy for the rows which are displayed. Since lazy content providers don't
+     * support viewer filters, the {@link GLCallFilter} is applied here.
+     */
+    private class GLFrameContentProvider implements ILazyTreeContentProvider {
+        /** The children of each node which match the filter, if there is one */
+        private final Map<GLCallNode, List<GLCallNode>> mFilteredChildren =
+                new HashMap<GLCallNode, List<GLCallNode>>();
+
         @Override
         public void dispose() {
         }
 
         @Override
         public void inputChanged(Viewer viewer, Object oldInput, Object newInput) {
+            clearFilteredChildren();
         }
 
-        @Override
-        public Object[] getElements(Object inputElement) {
-            return getChildren(inputElement);
+        public void clearFilteredChildren() {
+            mFilteredChildren.clear();
+        }
+
+        public int getChildCount(GLCallNode node) {
+            if (!mGLCallFilter.isFiltering()) {
+                return node.getChildCount();
+            }
+
+            return getFilteredChildren(node).size();
+        }
+
+        public GLCallNode getChild(GLCallNode node, int index) {
+            if (!mGLCallFilter.isFiltering()) {
+                return node.getChild(index);
+            }
+
+            return getFilteredChildren(node).get(index);
+        }
+
+        private List<GLCallNode> getFilteredChildren(GLCallNode node) {
+            List<GLCallNode> children = mFilteredChildren.get(node);
+            if (children == null) {
+                children = new ArrayList<GLCallNode>();
+                for (int i = 0; i < node.getChildCount(); i++) {
+                    GLCallNode child = node.getChild(i);
+                    if (mGLCallFilter.select(mFrameTreeViewer, node, child)) {
+                        children.add(child);
+                    }
+                }
+                mFilteredChildren.put(node, children);
+            }
+
+            return children;
         }
 
         @Override
-        public Object[] getChildren(Object parentElement) {
-            if (parentElement instanceof List<?>) {
-                return ((List<?>) parentElement).toArray();
+        public void updateElement(Object parent, int index) {
+            if (!(parent instanceof GLCallNode)) {
+                return;
             }
 
-            if (!(parentElement instanceof GLCallNode)) {
-                return null;
+            GLCallNode parentNode = (GLCallNode) parent;
+            if (index >= getChildCount(parentNode)) {
+                return;
             }
 
-            GLCallNode parent = (GLCallNode) parentElement;
-            if (parent.hasChildren()) {
-                return parent.getChildren().toArray();
-            } else {
-                return new Object[0];
+            GLCallNode child = getChild(parentNode, index);
+            mFrameTreeViewer.replace(parent, index, child);
+
+            int count = child.hasChildren() ? getChildCount(child) : 0;
+            mFrameTreeViewer.setChildCount(child, count);
+            if (count > 0 && mExpandGroups) {
+                mFrameTreeViewer.setExpandedState(child, true);
             }
         }
 
         @Override
-        public Object getParent(Object element) {
-            if (!(element instanceof GLCallNode)) {
-                return null;
+        public void updateChildCount(Object element, int currentChildCount) {
+            int count = 0;
+            if (element instanceof GLCallNode && ((GLCallNode) element).hasChildren()) {
+                count = getChildCount((GLCallNode) element);
             }
 
-            return ((GLCallNode) element).getParent();
+            if (count != currentChildCount) {
+                mFrameTreeViewer.setChildCount(element, count);
+            }
         }
 
         @Override
-        public boolean hasChildren(Object element) {
+        public Object getParent(Object element) {
             if (!(element instanceof GLCallNode)) {
-                return false;
+                return null;
             }
 
-            return ((GLCallNode) element).hasChildren();
+            GLCallNode parent = ((GLCallNode) element).getParent();
+            return parent != null ? parent : mTreeViewerRoot;
         }
     }
 
@@ -732,6 +791,10 @@ public class GLFunctionTraceViewer extends EditorPart implements ISelectionProvi
 
         public void setFilters(String filter) {
             mPatterns.clear();
+            if (filter.isEmpty()) {
+                // an empty regex would match everything
+                return;
+            }
 
             // split the user input into multiple regexes
             // we assume that the regexes are OR'ed together i.e., all text that matches
@@ -741,6 +804,10 @@ public class GLFunctionTraceViewer extends EditorPart implements ISelectionProvi
             }
         }
 
+        public boolean isFiltering() {
+            return mPatterns.size() > 0;
+        }
+
         @Override
         public boolean select(Viewer viewer, Object parentElement, Object element) {
             if (!(element instanceof GLCallNode)) {
@@ -926,8 +993,11 @@ public class GLFunctionTraceViewer extends EditorPart implements ISelectionProvi
             return;
         }
 
+        // Expanding all the items of a virtual tree would create all of them, so
+        // instead the groups are expanded as they are displayed
+        mExpandGroups = expand;
         if (expand) {
-            mFrameTreeViewer.expandAll();
+            mFrameTreeViewer.setInput(mTreeViewerRoot);
         } else {
             mFrameTreeViewer.collapseAll();
         }
@@ -941,11 +1011,13 @@ public class GLFunctionTraceViewer extends EditorPart implements ISelectionProvi
 
         @Override
         public String getItem(int index) {
-            Object data = mFrameTreeViewer.getTree().getItem(index).getData();
-            if (data instanceof GLCallNode) {
-                return ((GLCallNode) data).getCall().toString();
+            // Items of the virtual tree which have not been shown yet have no data
+            if (mTreeViewerRoot == null
+                    || index >= mFrameContentProvider.getChildCount(mTreeViewerRoot)) {
+                return null;
             }
-            return null;
+            GLCallNode node = mFrameContentProvider.getChild(mTreeViewerRoot, index);
+            return node.getCall().toString();
         }
 
         @Override
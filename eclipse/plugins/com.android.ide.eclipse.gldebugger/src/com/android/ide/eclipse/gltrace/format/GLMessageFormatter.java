@@ -20,7 +20,9 @@ import com.android.ide.eclipse.gltrace.GLEnum;
 import com.android.ide.eclipse.gltrace.GLProtoBuf.GLMessage;
 import com.android.ide.eclipse.gltrace.GLProtoBuf.GLMessage.DataType;
 import com.android.ide.eclipse.gltrace.GLProtoBuf.GLMessage.DataType.Type;
+import com.android.ide.eclipse.gltrace.GLProtoBuf.GLMessage.Function;
 
+import java.util.Formatter;
 import java.util.List;
 import java.util.Map;
 
@@ -28,139 +30,304 @@ import java.util.Map;
  * GLMessageFormatter is used to format and create a string representation for a {@link GLMessage}.
  * It is provided with a specification for all GL Functions. Using this information, each
  * GLMessage is parsed and formatted appropriately for display.
+ * <p/>
+ * Traces can contain millions of calls, so the specifications are compiled up front into a
+ * {@link CallFormatter} per function, indexed by the ordinal of the {@link Function}. The
+ * text for each call is built in a single reusable buffer, without going through
+ * {@link String#format} for the common cases.
  */
 public class GLMessageFormatter {
     private static final String GL_NO_ERROR = "GL_NO_ERROR";
-    private Map<String, GLAPISpec> mAPISpecs;
-    private enum DataTypeContext { CONTEXT_ARGUMENT, CONTEXT_RETURNVALUE };
 
-    public GLMessageFormatter(Map<String, GLAPISpec> specs) {
-        mAPISpecs = specs;
-    }
+    /** Enum values below this limit are looked up in {@link #sEnumNames} */
+    private static final int MAX_DENSE_ENUM_VALUE = 0x10000;
+
+    /** Names of the GL enums, indexed by value */
+    private static final String[] sEnumNames = createEnumNames();
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray(); //$NON-NLS-1$
+
+    private final CallFormatter[] mFormatters;
+
+    /** Buffer the formatted message is built in */
+    private final StringBuilder mBuffer = new StringBuilder(256);
 
-    public String formatGLMessage(GLMessage glMessage) {
-        GLAPISpec apiSpec = mAPISpecs.get(glMessage.getFunction().toString());
-        if (apiSpec == null) {
-            return glMessage.getFunction().toString();
+    /** Formatter used for the values which have no fast path */
+    private final Formatter mFormatter = new Formatter(mBuffer);
+
+    /**
+     * The decimal separator used by "%f", or 0 if the current locale formats numbers with
+     * something other than ASCII digits, in which case all numbers which are formatted
+     * with {@link String#format} are formatted with {@link #mFormatter}
+     */
+    private final char mDecimalSeparator;
+
+    public GLMessageFormatter(Map<String, GLAPISpec> specs) {
+        Function[] functions = Function.values();
+        mFormatters = new CallFormatter[functions.length];
+        for (Function function : functions) {
+            GLAPISpec spec = specs.get(function.toString());
+            if (spec != null) {
+                mFormatters[function.ordinal()] = new CallFormatter(spec);
+            }
         }
 
-        return formatCall(apiSpec, glMessage) + formatReturnValue(apiSpec, glMessage);
+        String sample = String.format("%f", Float.valueOf(1)); //$NON-NLS-1$
+        String digits = String.format("%d", Integer.valueOf(1234567890)); //$NON-NLS-1$
+        if (sample.length() == 8 && sample.charAt(0) == '1'
+                && sample.endsWith("000000")                        //$NON-NLS-1$
+                && digits.equals("1234567890")) {                   //$NON-NLS-1$
+            mDecimalSeparator = sample.charAt(1);
+        } else {
+            mDecimalSeparator = 0;
+        }
     }
 
-    private String formatReturnValue(GLAPISpec apiSpec, GLMessage glMessage) {
-        if (apiSpec.getReturnValue().getDataType() == Type.VOID) {
-            return "";
+    public synchronized String formatGLMessage(GLMessage glMessage) {
+        Function function = glMessage.getFunction();
+        CallFormatter formatter = mFormatters[function.ordinal()];
+        if (formatter == null) {
+            return function.toString();
         }
 
-        GLDataTypeSpec returnSpec = apiSpec.getReturnValue();
-        return String.format(" = (%s) %s", returnSpec.getCType(),   //$NON-NLS-1$
-                formatDataValue(glMessage.getReturnValue(),
-                        returnSpec,
-                        DataTypeContext.CONTEXT_RETURNVALUE));
+        mBuffer.setLength(0);
+        formatter.format(glMessage);
+        return mBuffer.toString();
     }
 
-    private String formatCall(GLAPISpec apiSpec, GLMessage glMessage) {
-        return String.format("%s(%s)", apiSpec.getFunction(),       //$NON-NLS-1$
-                formatArgs(glMessage, apiSpec.getArgs()));
-    }
+    /** Formatter for calls to a single GL function, compiled from its {@link GLAPISpec} */
+    private class CallFormatter {
+        /** The function name and opening parenthesis */
+        private final String mPrefix;
 
-    private String formatArgs(GLMessage glMessage, List<GLDataTypeSpec> argSpecs) {
-        int sizeEstimate = 10 + argSpecs.size() * 5;
-        StringBuilder sb = new StringBuilder(sizeEstimate);
+        /** Text preceding each argument: the separator, name and equals sign */
+        private final String[] mArgPrefixes;
 
-        for (int i = 0; i < argSpecs.size(); i++) {
-            GLDataTypeSpec argSpec = argSpecs.get(i);
+        /** The specification of each argument, or null for arguments which are just "void" */
+        private final GLDataTypeSpec[] mArgs;
 
-            if (argSpec.getDataType() == Type.VOID && !argSpec.isPointer()) {
-                sb.append("void");                                  //$NON-NLS-1$
-            } else {
-                sb.append(argSpec.getArgName());
-                sb.append(" = ");                                   //$NON-NLS-1$
-                sb.append(formatDataValue(glMessage.getArgs(i),
-                                argSpec,
-                                DataTypeContext.CONTEXT_ARGUMENT));
+        /** The closing parenthesis and the type of the return value, if any */
+        private final String mSuffix;
+
+        /** The specification of the return value, or null for void functions */
+        private final GLDataTypeSpec mReturnValue;
+
+        CallFormatter(GLAPISpec spec) {
+            mPrefix = spec.getFunction() + '(';
+
+            List<GLDataTypeSpec> argSpecs = spec.getArgs();
+            mArgPrefixes = new String[argSpecs.size()];
+            mArgs = new GLDataTypeSpec[argSpecs.size()];
+            for (int i = 0; i < argSpecs.size(); i++) {
+                GLDataTypeSpec argSpec = argSpecs.get(i);
+                String separator = i > 0 ? ", " : "";               //$NON-NLS-1$ //$NON-NLS-2$
+                if (argSpec.getDataType() == Type.VOID && !argSpec.isPointer()) {
+                    mArgPrefixes[i] = separator + "void";           //$NON-NLS-1$
+                } else {
+                    mArgPrefixes[i] = separator + argSpec.getArgName() + " = "; //$NON-NLS-1$
+                    mArgs[i] = argSpec;
+                }
             }
 
-            if (i < argSpecs.size() - 1) {
-                sb.append(", ");                                    //$NON-NLS-1$
+            GLDataTypeSpec returnSpec = spec.getReturnValue();
+            if (returnSpec.getDataType() == Type.VOID) {
+                mSuffix = ")";                                      //$NON-NLS-1$
+                mReturnValue = null;
+            } else {
+                mSuffix = ") = (" + returnSpec.getCType() + ") ";   //$NON-NLS-1$ //$NON-NLS-2$
+                mReturnValue = returnSpec;
             }
         }
 
-        return sb.toString();
+        void format(GLMessage glMessage) {
+            mBuffer.append(mPrefix);
+            for (int i = 0; i < mArgs.length; i++) {
+                mBuffer.append(mArgPrefixes[i]);
+                if (mArgs[i] != null) {
+                    appendDataValue(glMessage.getArgs(i), mArgs[i], false);
+                }
+            }
+
+            mBuffer.append(mSuffix);
+            if (mReturnValue != null) {
+                appendDataValue(glMessage.getReturnValue(), mReturnValue, true);
+            }
+        }
     }
 
-    private String formatDataValue(DataType var, GLDataTypeSpec typeSpec, DataTypeContext context) {
+    private void appendDataValue(DataType var, GLDataTypeSpec typeSpec, boolean returnValue) {
         if (typeSpec.isPointer()) {
-            return formatPointer(var, typeSpec.getDataType());
+            appendPointer(var, typeSpec.getDataType());
+            return;
         }
 
         switch (typeSpec.getDataType()) {
             case VOID:
-                return "";
+                break;
             case BOOL:
-                return Boolean.toString(var.getBoolValue(0));
+                mBuffer.append(var.getBoolValue(0));
+                break;
             case FLOAT:
-                return String.format("%f", var.getFloatValue(0));   //$NON-NLS-1$
+                appendFloat(var.getFloatValue(0));
+                break;
             case INT:
-                return Integer.toString(var.getIntValue(0));
+                mBuffer.append(var.getIntValue(0));
+                break;
             case ENUM:
-                if (var.getIntValue(0) == 0 && context == DataTypeContext.CONTEXT_RETURNVALUE) {
-                    return GL_NO_ERROR;
+                int value = var.getIntValue(0);
+                if (value == 0 && returnValue) {
+                    mBuffer.append(GL_NO_ERROR);
                 } else {
-                    return GLEnum.valueOf(var.getIntValue(0)).toString();
+                    String name = getEnumName(value);
+                    if (name == null) {
+                        throw new IllegalArgumentException("Unknown enum: " + value); //$NON-NLS-1$
+                    }
+                    mBuffer.append(name);
                 }
+                break;
             default:
-                return "(unknown type)";                            //$NON-NLS-1$
+                mBuffer.append("(unknown type)");                   //$NON-NLS-1$
+                break;
         }
     }
 
-    private String formatPointer(DataType var, Type typeSpec) {
+    private void appendPointer(DataType var, Type typeSpec) {
         if (var.getType() != typeSpec && !isEnumTypeWithIntData(var, typeSpec)) {
             // the type of the data in the message does not match expected specification.
             // in such a case, just print the data as a pointer and don't try to interpret it.
             if (var.getIntValueCount() > 0) {
-                return String.format("0x%x", var.getIntValue(0));   //$NON-NLS-1$
+                appendHex(var.getIntValue(0));
             } else {
-                return "0x??";                                      //$NON-NLS-1$
+                mBuffer.append("0x??");                             //$NON-NLS-1$
             }
+            return;
         }
 
         // Display as array if possible
         switch (typeSpec) {
             case BOOL:
-                return var.getBoolValueList().toString();
+                mBuffer.append('[');
+                for (int i = 0; i < var.getBoolValueCount(); i++) {
+                    if (i > 0) {
+                        mBuffer.append(", ");                       //$NON-NLS-1$
+                    }
+                    mBuffer.append(var.getBoolValue(i));
+                }
+                mBuffer.append(']');
+                return;
             case FLOAT:
-                return var.getFloatValueList().toString();
+                mBuffer.append('[');
+                for (int i = 0; i < var.getFloatValueCount(); i++) {
+                    if (i > 0) {
+                        mBuffer.append(", ");                       //$NON-NLS-1$
+                    }
+                    mBuffer.append(var.getFloatValue(i));
+                }
+                mBuffer.append(']');
+                return;
             case INT:
-                return var.getIntValueList().toString();
+                mBuffer.append('[');
+                for (int i = 0; i < var.getIntValueCount(); i++) {
+                    if (i > 0) {
+                        mBuffer.append(", ");                       //$NON-NLS-1$
+                    }
+                    mBuffer.append(var.getIntValue(i));
+                }
+                mBuffer.append(']');
+                return;
             case CHAR:
-                return var.getCharValueList().get(0).toStringUtf8();
+                mBuffer.append(var.getCharValue(0).toStringUtf8());
+                return;
             case ENUM:
-                List<Integer> vals = var.getIntValueList();
-                StringBuilder sb = new StringBuilder(vals.size() * 5);
-                sb.append('[');
-                for (Integer v: vals) {
-                    sb.append(GLEnum.valueOf(v.intValue()));
+                mBuffer.append('[');
+                for (int i = 0; i < var.getIntValueCount(); i++) {
+                    mBuffer.append(getEnumName(var.getIntValue(i)));
                 }
-                sb.append(']');
-                return sb.toString();
+                mBuffer.append(']');
+                return;
             case VOID:
-                if (var.getRawBytesList().size() > 0) {
-                    return String.format("[ %d bytes ]", var.getRawBytesList().get(0).size()); //$NON-NLS-1$
+                if (var.getRawBytesCount() > 0) {
+                    int size = var.getRawBytes(0).size();
+                    if (mDecimalSeparator != 0) {
+                        mBuffer.append("[ ");                       //$NON-NLS-1$
+                        mBuffer.append(size);
+                        mBuffer.append(" bytes ]");                 //$NON-NLS-1$
+                    } else {
+                        mFormatter.format("[ %d bytes ]", Integer.valueOf(size)); //$NON-NLS-1$
+                    }
+                    return;
                 }
-                return "[]"; //$NON-NLS-1$
+                mBuffer.append("[]");                               //$NON-NLS-1$
+                return;
         }
 
         // We have a pointer, but we don't have the data pointed to.
         // Just format and return the pointer (points to device memory)
-        if (var.getIntValue(0) == 0) {
-            return "NULL";                                          //$NON-NLS-1$
+        int pointer = var.getIntValue(0);
+        if (pointer == 0) {
+            mBuffer.append("NULL");                                 //$NON-NLS-1$
         } else {
-            return String.format("0x%x", var.getIntValue(0));       //$NON-NLS-1$
+            appendHex(pointer);
         }
     }
 
     private boolean isEnumTypeWithIntData(DataType var, Type typeSpec) {
         return var.getType() == Type.INT && typeSpec == Type.ENUM;
     }
+
+    /** Appends the value formatted the same way as {@code String.format("%f", value)} */
+    private void appendFloat(float value) {
+        // Integral values (such as 0 and 1) are by far the most common ones, and they
+        // are the ones which can be formatted without any rounding
+        if (mDecimalSeparator != 0 && value == (int) value && Math.abs(value) < 1e9f) {
+            if (Float.floatToRawIntBits(value) < 0) {
+                // Also handles -0.0, which is formatted as "-0.000000"
+                mBuffer.append('-');
+            }
+            mBuffer.append(Math.abs((int) value));
+            mBuffer.append(mDecimalSeparator);
+            mBuffer.append("000000");                               //$NON-NLS-1$
+        } else {
+            mFormatter.format("%f", Float.valueOf(value));          //$NON-NLS-1$
+        }
+    }
+
+    /** Appends the value formatted the same way as {@code String.format("0x%x", value)} */
+    private void appendHex(int value) {
+        mBuffer.append("0x");                                       //$NON-NLS-1$
+        int digits = Math.max(1, (32 - Integer.numberOfLeadingZeros(value) + 3) / 4);
+        for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+            mBuffer.append(HEX_DIGITS[(value >>> shift) & 0xf]);
+        }
+    }
+
+    /** Returns the name of the enum with the given value, or null if there is none */
+    private static String getEnumName(int value) {
+        if (value >= 0 && value < sEnumNames.length) {
+            return sEnumNames[value];
+        }
+
+        GLEnum e = GLEnum.valueOf(value);
+        return e != null ? e.toString() : null;
+    }
+
+    private static String[] createEnumNames() {
+        int max = 0;
+        for (GLEnum e : GLEnum.values()) {
+            if (e.value >= 0 && e.value < MAX_DENSE_ENUM_VALUE) {
+                max = Math.max(max, (int) e.value);
+            }
+        }
+
+        // Iterate in the same order as GLEnum#valueOf's map is built, such that
+        // the last of several enums with the same value wins there as well
+        String[] names = new String[max + 1];
+        for (GLEnum e : GLEnum.values()) {
+            if (e.value >= 0 && e.value < MAX_DENSE_ENUM_VALUE) {
+                names[(int) e.value] = e.toString();
+            }
+        }
+
+        return names;
+    }
 }
@@ -290,7 +290,7 @@ public class GLState {
                 GLEnum.GL_INVALID_VALUE);
         IGLProperty imageType = new GLEnumProperty(GLStateType.TEXTURE_IMAGE_TYPE,
                 GLEnum.GL_UNSIGNED_BYTE);
-        IGLProperty image = new GLStringProperty(GLStateType.TEXTURE_IMAGE, null);
+        IGLProperty image = new GLObjectProperty(GLStateType.TEXTURE_IMAGE, null);
 
         IGLProperty perTextureLevelState = new GLCompositeProperty(
                 GLStateType.PER_TEXTURE_LEVEL_STATE,
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.gltrace.state;
+
+import com.android.ide.eclipse.gltrace.state.TextureStore.Tile;
+
+/**
+ * An immutable snapshot of the contents of a texture, stored as a grid of RGBA tiles.
+ * <p/>
+ * A trace typically contains many glTexSubImage2D calls which each update a small
+ * part of a texture. Rather than copying the whole texture for every such call,
+ * {@link #update} returns a new image which shares all the tiles that are not touched
+ * by the update with the previous image, so each version of a texture only costs the
+ * memory of the tiles it modified. The tiles themselves are managed by a
+ * {@link TextureStore}, which spills them to disk when over its memory budget.
+ */
+public class TextureImage {
+    /** Width and height of a tile, in pixels */
+    static final int TILE_SIZE = 64;
+
+    private final TextureStore mStore;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mColumns;
+
+    /** Tiles in row major order. Null tiles have all pixels set to 0. */
+    private final Tile[] mTiles;
+
+    private TextureImage(TextureStore store, int width, int height, Tile[] tiles) {
+        mStore = store;
+        mWidth = width;
+        mHeight = height;
+        mColumns = (width + TILE_SIZE - 1) / TILE_SIZE;
+        mTiles = tiles;
+    }
+
+    /**
+     * Creates a new texture image in the default store.
+     *
+     * @param width width of the texture
+     * @param height height of the texture
+     * @param rgba the initial contents of the texture, 4 bytes per pixel, or null to
+     *            initialize all pixels to 0
+     * @return the new image
+     */
+    public static TextureImage create(int width, int height, byte[] rgba) {
+        return create(TextureStore.getDefault(), width, height, rgba);
+    }
+
+    /**
+     * Creates a new texture image.
+     *
+     * @param store the store which will hold the pixels of the texture
+     * @param width width of the texture
+     * @param height height of the texture
+     * @param rgba the initial contents of the texture, 4 bytes per pixel, or null to
+     *            initialize all pixels to 0
+     * @return the new image
+     */
+    public static TextureImage create(TextureStore store, int width, int height,
+            byte[] rgba) {
+        width = Math.max(width, 0);
+        height = Math.max(height, 0);
+        int columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+        int rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+        TextureImage image = new TextureImage(store, width, height, new Tile[columns * rows]);
+        if (rgba == null) {
+            return image;
+        }
+
+        return image.update(0, 0, width, height, rgba);
+    }
+
+    /**
+     * Returns a new image with the given region replaced by new contents. This image
+     * is not modified.
+     *
+     * @param xOffset x offset of the region to update
+     * @param yOffset y offset of the region to update
+     * @param width width of the region
+     * @param height height of the region
+     * @param rgba the new contents of the region, 4 bytes per pixel
+     * @return the updated image
+     */
+    public TextureImage update(int xOffset, int yOffset, int width, int height,
+            byte[] rgba) {
+        // Clip the region to the texture
+        int x0 = Math.max(xOffset, 0);
+        int y0 = Math.max(yOffset, 0);
+        int x1 = Math.min(xOffset + width, mWidth);
+        int y1 = Math.min(yOffset + height, mHeight);
+        if (x0 >= x1 || y0 >= y1) {
+            return this;
+        }
+
+        Tile[] tiles = mTiles.clone();
+        for (int row = y0 / TILE_SIZE; row <= (y1 - 1) / TILE_SIZE; row++) {
+            for (int column = x0 / TILE_SIZE; column <= (x1 - 1) / TILE_SIZE; column++) {
+                int tileX = column * TILE_SIZE;
+                int tileY = row * TILE_SIZE;
+                int tileWidth = Math.min(TILE_SIZE, mWidth - tileX);
+                int tileHeight = Math.min(TILE_SIZE, mHeight - tileY);
+
+                // Copy on write: start from the current tile contents unless the
+                // update covers the whole tile
+                int left = Math.max(x0, tileX);
+                int top = Math.max(y0, tileY);
+                int right = Math.min(x1, tileX + tileWidth);
+                int bottom = Math.min(y1, tileY + tileHeight);
+                boolean covered = left == tileX && top == tileY
+                        && right == tileX + tileWidth && bottom == tileY + tileHeight;
+                int index = row * mColumns + column;
+                byte[] pixels;
+                if (covered || tiles[index] == null) {
+                    pixels = new byte[tileWidth * tileHeight * 4];
+                } else {
+                    pixels = tiles[index].getPixels().clone();
+                }
+
+                int rowBytes = (right - left) * 4;
+                for (int y = top; y < bottom; y++) {
+                    int src = ((y - yOffset) * width + (left - xOffset)) * 4;
+                    int dst = ((y - tileY) * tileWidth + (left - tileX)) * 4;
+                    System.arraycopy(rgba, src, pixels, dst, rowBytes);
+                }
+
+                tiles[index] = mStore.createTile(tileWidth, tileHeight, pixels);
+            }
+        }
+
+        return new TextureImage(mStore, mWidth, mHeight, tiles);
+    }
+
+    /** Returns the width of the texture */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /** Returns the height of the texture */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Returns the contents of the entire texture.
+     *
+     * @return a new array with the pixels of the texture, 4 bytes per pixel in RGBA
+     *         order, rows from top to bottom
+     */
+    public byte[] getRGBA() {
+        byte[] rgba = new byte[mWidth * mHeight * 4];
+        for (int index = 0; index < mTiles.length; index++) {
+            Tile tile = mTiles[index];
+            if (tile == null) {
+                continue;
+            }
+
+            int tileX = (index % mColumns) * TILE_SIZE;
+            int tileY = (index / mColumns) * TILE_SIZE;
+            byte[] pixels = tile.getPixels();
+            int rowBytes = tile.getWidth() * 4;
+            for (int y = 0; y < tile.getHeight(); y++) {
+                System.arraycopy(pixels, y * rowBytes, rgba,
+                        ((tileY + y) * mWidth + tileX) * 4, rowBytes);
+            }
+        }
+
+        return rgba;
+    }
+
+    /** Returns the tile with the given index, for testing */
+    Tile getTile(int index) {
+        return mTiles[index];
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d x %d", mWidth, mHeight); //$NON-NLS-1$
+    }
+}
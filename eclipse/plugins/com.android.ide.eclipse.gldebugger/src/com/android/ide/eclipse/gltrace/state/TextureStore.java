@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.gltrace.state;
+
+import com.android.ide.eclipse.gltrace.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Storage for the raw RGBA pixel data of texture tiles. Tiles are immutable once
+ * created. The store keeps the most recently used tiles in memory, up to a memory
+ * budget; the pixels of the least recently used tiles are spilled to a temporary
+ * file and read back when the tile is accessed again.
+ */
+public class TextureStore {
+    private static final String SPILL_FILE_PREFIX = "tex";      //$NON-NLS-1$
+    private static final String SPILL_FILE_SUFFIX = ".raw";     //$NON-NLS-1$
+
+    private static TextureStore sDefault;
+
+    private final long mBudget;
+
+    /** Tiles whose pixels are in memory, in least recently used order */
+    private final LinkedHashMap<TileReference, Boolean> mResident =
+            new LinkedHashMap<TileReference, Boolean>(64, 0.75f, true);
+    /** Queue of tiles which have been garbage collected */
+    private final ReferenceQueue<Tile> mCollected = new ReferenceQueue<Tile>();
+    private long mResidentBytes;
+
+    private RandomAccessFile mSpillFile;
+    private long mSpillFileLength;
+
+    /**
+     * Returns the store shared by all texture images, with a memory budget of a
+     * quarter of the maximum heap size (but at most 256 MB)
+     *
+     * @return the default store
+     */
+    public static synchronized TextureStore getDefault() {
+        if (sDefault == null) {
+            long budget = Math.min(Runtime.getRuntime().maxMemory() / 4, 256L * 1024 * 1024);
+            sDefault = new TextureStore(budget);
+        }
+
+        return sDefault;
+    }
+
+    /**
+     * Creates a new store
+     *
+     * @param budget the number of bytes of pixel data to keep in memory
+     */
+    public TextureStore(long budget) {
+        mBudget = budget;
+    }
+
+    /**
+     * Creates a new tile holding the given pixels. The store takes ownership of the
+     * data array, which must not be modified afterwards.
+     *
+     * @param width the width of the tile
+     * @param height the height of the tile
+     * @param rgba the pixels of the tile, 4 bytes per pixel
+     * @return the new tile
+     */
+    public synchronized Tile createTile(int width, int height, byte[] rgba) {
+        assert rgba.length == width * height * 4;
+        Tile tile = new Tile(this, width, height, rgba);
+        tile.mReference = new TileReference(tile, mCollected);
+        mResident.put(tile.mReference, Boolean.TRUE);
+        mResidentBytes += rgba.length;
+        trim();
+        return tile;
+    }
+
+    /** Returns the number of bytes of pixel data currently held in memory */
+    public synchronized long getResidentBytes() {
+        expungeCollected();
+        return mResidentBytes;
+    }
+
+    private synchronized byte[] read(Tile tile) {
+        byte[] data = tile.mData;
+        if (data != null) {
+            // Mark as recently used
+            mResident.get(tile.mReference);
+            return data;
+        }
+
+        data = new byte[tile.mWidth * tile.mHeight * 4];
+        try {
+            mSpillFile.seek(tile.mFileOffset);
+            mSpillFile.readFully(data);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        tile.mData = data;
+        mResident.put(tile.mReference, Boolean.TRUE);
+        mResidentBytes += data.length;
+        trim();
+        return data;
+    }
+
+    /** Spills the least recently used tiles until the store is within its budget */
+    private void trim() {
+        expungeCollected();
+        Iterator<TileReference> iterator = mResident.keySet().iterator();
+        // Always keep the most recently used tile in memory
+        while (mResidentBytes > mBudget && mResident.size() > 1) {
+            TileReference reference = iterator.next();
+            iterator.remove();
+            Tile tile = reference.get();
+            if (tile == null) {
+                continue;
+            }
+
+            if (tile.mFileOffset < 0) {
+                // Tiles are immutable, so once written they never need to be written again
+                try {
+                    if (mSpillFile == null) {
+                        File file = FileUtils.createTempFile(SPILL_FILE_PREFIX,
+                                SPILL_FILE_SUFFIX);
+                        mSpillFile = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+                    }
+                    mSpillFile.seek(mSpillFileLength);
+                    mSpillFile.write(tile.mData);
+                } catch (IOException e) {
+                    // Can't spill: keep it in memory instead
+                    mResident.put(reference, Boolean.TRUE);
+                    return;
+                }
+                tile.mFileOffset = mSpillFileLength;
+                mSpillFileLength += tile.mData.length;
+            }
+
+            mResidentBytes -= tile.mData.length;
+            tile.mData = null;
+        }
+    }
+
+    /** Releases the memory accounted to tiles which have been garbage collected */
+    private void expungeCollected() {
+        TileReference reference;
+        while ((reference = (TileReference) mCollected.poll()) != null) {
+            if (mResident.remove(reference) != null) {
+                mResidentBytes -= reference.mSize;
+            }
+        }
+    }
+
+    /** A rectangular block of pixels */
+    public static class Tile {
+        private final TextureStore mStore;
+        private final int mWidth;
+        private final int mHeight;
+        private byte[] mData;
+        private long mFileOffset = -1;
+        private TileReference mReference;
+
+        private Tile(TextureStore store, int width, int height, byte[] data) {
+            mStore = store;
+            mWidth = width;
+            mHeight = height;
+            mData = data;
+        }
+
+        /** Returns the width of the tile */
+        public int getWidth() {
+            return mWidth;
+        }
+
+        /** Returns the height of the tile */
+        public int getHeight() {
+            return mHeight;
+        }
+
+        /**
+         * Returns the pixels of the tile, reading them back from disk if necessary.
+         * The returned array must not be modified.
+         */
+        public byte[] getPixels() {
+            return mStore.read(this);
+        }
+    }
+
+    private static class TileReference extends WeakReference<Tile> {
+        private final int mSize;
+
+        TileReference(Tile tile, ReferenceQueue<Tile> queue) {
+            super(tile, queue);
+            mSize = tile.mData.length;
+        }
+    }
+}
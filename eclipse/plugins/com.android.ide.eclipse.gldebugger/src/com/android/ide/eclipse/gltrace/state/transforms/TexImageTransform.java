@@ -16,30 +16,22 @@
 
 package com.android.ide.eclipse.gltrace.state.transforms;
 
-import com.android.ide.eclipse.gltrace.FileUtils;
 import com.android.ide.eclipse.gltrace.GLEnum;
-import com.android.ide.eclipse.gltrace.state.GLStringProperty;
+import com.android.ide.eclipse.gltrace.state.GLObjectProperty;
 import com.android.ide.eclipse.gltrace.state.IGLProperty;
+import com.android.ide.eclipse.gltrace.state.TextureImage;
 import com.google.common.io.Files;
 import com.google.common.primitives.UnsignedBytes;
 
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.FloatBuffer;
-
-import javax.imageio.ImageIO;
 
 /**
  * {@link TexImageTransform} transforms the state to reflect the effect of a
  * glTexImage2D or glTexSubImage2D GL call.
  */
 public class TexImageTransform implements IStateTransform {
-    private static final String PNG_IMAGE_FORMAT = "PNG";
-    private static final String TEXTURE_FILE_PREFIX = "tex";
-    private static final String TEXTURE_FILE_SUFFIX = ".png";
-
     private final IGLPropertyAccessor mAccessor;
     private final File mTextureDataFile;
 
@@ -48,8 +40,9 @@ public class TexImageTransform implements IStateTransform {
     private final int mWidth;
     private final int mHeight;
 
-    private String mOldValue;
-    private String mNewValue;
+    private TextureImage mOldValue;
+    private TextureImage mNewValue;
+    private boolean mApplied;
     private GLEnum mFormat;
     private GLEnum mType;
 
@@ -78,19 +71,19 @@ public class TexImageTransform implements IStateTransform {
 
     @Override
     public void apply(IGLProperty currentState) {
-        assert mOldValue == null : "Transform cannot be applied multiple times"; //$NON-NLS-1$
+        assert !mApplied : "Transform cannot be applied multiple times"; //$NON-NLS-1$
 
         IGLProperty property = mAccessor.getProperty(currentState);
-        if (!(property instanceof GLStringProperty)) {
+        if (!(property instanceof GLObjectProperty)) {
             return;
         }
 
-        GLStringProperty prop = (GLStringProperty) property;
-        mOldValue = prop.getStringValue();
+        Object value = property.getValue();
+        mOldValue = value instanceof TextureImage ? (TextureImage) value : null;
 
         // Applying texture transformations is a heavy weight process. So we perform
-        // it only once and save the result in a temporary file. The property is actually
-        // the path to the file.
+        // it only once and keep the result. Texture images are immutable and share
+        // the pixels which were not modified, so keeping every version is cheap.
         if (mNewValue == null) {
             try {
                 if (mOldValue == null) {
@@ -101,20 +94,20 @@ public class TexImageTransform implements IStateTransform {
                 }
             } catch (IOException e) {
                 throw new RuntimeException(e);
-            } catch (RuntimeException e) {
-                throw e;
             }
         }
 
-        prop.setValue(mNewValue);
+        property.setValue(mNewValue);
+        mApplied = true;
     }
 
     @Override
     public void revert(IGLProperty state) {
-        if (mOldValue != null) {
+        if (mApplied) {
             IGLProperty property = mAccessor.getProperty(state);
             property.setValue(mOldValue);
             mOldValue = null;
+            mApplied = false;
         }
     }
 
@@ -130,53 +123,40 @@ public class TexImageTransform implements IStateTransform {
      * @param textureDataFile path to texture data, could be null.
      * @param width width of texture
      * @param height height of texture
-     * @return path to cached texture
+     * @return the new texture
      */
-    private String createTexture(File textureDataFile, int width, int height) throws IOException {
-        File f = FileUtils.createTempFile(TEXTURE_FILE_PREFIX, TEXTURE_FILE_SUFFIX);
-
-        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
-
+    private TextureImage createTexture(File textureDataFile, int width, int height)
+            throws IOException {
+        byte[] initialData = null;
         if (textureDataFile != null) {
-            byte[] initialData = Files.toByteArray(textureDataFile);
-            img.getRaster().setDataElements(0, 0, width, height,
-                    formatSourceData(initialData, width, height));
+            initialData = formatSourceData(Files.toByteArray(textureDataFile), width, height);
         }
 
-        ImageIO.write(img, PNG_IMAGE_FORMAT, f);
-
-        return f.getAbsolutePath();
+        return TextureImage.create(width, height, initialData);
     }
 
     /**
      * Update part of an existing texture.
-     * @param currentImagePath current texture image.
+     * @param currentImage current texture image.
      * @param textureDataFile new data to update the current texture with
      * @param xOffset x offset for the update region
      * @param yOffset y offset for the update region
      * @param width width of the update region
      * @param height height of the update region
-     * @return path to the updated texture
+     * @return the updated texture, which shares unmodified tiles with the current one
      */
-    private String updateTextureData(String currentImagePath, File textureDataFile,
+    private TextureImage updateTextureData(TextureImage currentImage, File textureDataFile,
             int xOffset, int yOffset, int width, int height) throws IOException {
-        assert currentImagePath != null : "Attempt to update a null texture";
+        assert currentImage != null : "Attempt to update a null texture";
 
         if (textureDataFile == null) {
             // Do not perform any updates if we don't have the actual data.
-            return currentImagePath;
+            return currentImage;
         }
 
-        File f = FileUtils.createTempFile(TEXTURE_FILE_PREFIX, TEXTURE_FILE_SUFFIX);
-        BufferedImage image = null;
-        image = ImageIO.read(new File(currentImagePath));
-
         byte[] subImageData = Files.toByteArray(textureDataFile);
-        image.getRaster().setDataElements(xOffset, yOffset, width, height,
+        return currentImage.update(xOffset, yOffset, width, height,
                 formatSourceData(subImageData, width, height));
-        ImageIO.write(image, PNG_IMAGE_FORMAT, f);
-
-        return f.getAbsolutePath();
     }
 
     private byte[] formatSourceData(byte[] subImageData, int width, int height) {
@@ -19,8 +19,8 @@ package com.android.ide.eclipse.gltrace.views.detail;
 import com.android.ide.eclipse.gltrace.state.GLCompositeProperty;
 import com.android.ide.eclipse.gltrace.state.GLSparseArrayProperty;
 import com.android.ide.eclipse.gltrace.state.GLStateType;
-import com.android.ide.eclipse.gltrace.state.GLStringProperty;
 import com.android.ide.eclipse.gltrace.state.IGLProperty;
+import com.android.ide.eclipse.gltrace.state.TextureImage;
 import com.android.ide.eclipse.gltrace.views.FitToCanvasAction;
 import com.android.ide.eclipse.gltrace.views.SaveImageAction;
 import com.android.ide.eclipse.gltrace.widgets.ImageCanvas;
@@ -28,6 +28,8 @@ import com.android.ide.eclipse.gltrace.widgets.ImageCanvas;
 import org.eclipse.jface.action.ActionContributionItem;
 import org.eclipse.jface.action.IContributionItem;
 import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Control;
 import org.eclipse.swt.widgets.Display;
@@ -77,14 +79,40 @@ public class TextureImageDetailsProvider implements IStateDetailProvider {
             return;
         }
 
-        String texturePath = ((GLStringProperty) imageProperty).getStringValue();
-        if (texturePath != null) {
-            mImageCanvas.setImage(new Image(Display.getDefault(), texturePath));
+        Object texture = imageProperty.getValue();
+        if (texture instanceof TextureImage) {
+            ImageData data = createImageData((TextureImage) texture);
+            mImageCanvas.setImage(new Image(Display.getDefault(), data));
             mImageCanvas.setFitToCanvas(false);
             return;
         }
     }
 
+    /**
+     * Converts the RGBA pixels of a texture into SWT image data. The image is only
+     * encoded (as PNG) if the user saves it.
+     */
+    private static ImageData createImageData(TextureImage texture) {
+        int width = texture.getWidth();
+        int height = texture.getHeight();
+        byte[] rgba = texture.getRGBA();
+        if (width <= 0 || height <= 0 || rgba.length < width * height * 4) {
+            // Nothing to show: use a single transparent pixel
+            width = 1;
+            height = 1;
+            rgba = new byte[4];
+        }
+
+        PaletteData palette = new PaletteData(0xFF000000, 0x00FF0000, 0x0000FF00);
+        ImageData data = new ImageData(width, height, 32, palette, 1, rgba);
+        byte[] alpha = new byte[width * height];
+        for (int i = 0; i < alpha.length; i++) {
+            alpha[i] = rgba[i * 4 + 3];
+        }
+        data.alphaData = alpha;
+        return data;
+    }
+
     /**
      * Get the {@link GLStateType#TEXTURE_IMAGE} property given a node in
      * the state hierarchy.
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ide.eclipse.adt.internal.lint;
+
+import static com.android.ide.eclipse.adt.AdtConstants.MARKER_LINT;
+
+import com.android.ide.eclipse.adt.internal.editors.layout.refactoring.AdtProjectTest;
+import com.android.tools.lint.detector.api.Issue;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.swt.layout.FillLayout;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Shell;
+import org.eclipse.swt.widgets.Tree;
+
+import java.io.ByteArrayInputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+@SuppressWarnings("javadoc")
+public class LintListTest extends AdtProjectTest {
+    private static final int ISSUE_COUNT = 60;
+
+    public void testSelectInvisibleRows() throws Exception {
+        IFile file = getProject().getFile("res/layout/lintlist.xml");
+        if (!file.exists()) {
+            file.create(new ByteArrayInputStream("<FrameLayout/>".getBytes("UTF-8")), true,
+                    new NullProgressMonitor());
+        }
+        EclipseLintClient.clearMarkers(file);
+
+        // One marker for each of many issues, plus two more below the first issue
+        Set<IMarker> all = new HashSet<IMarker>();
+        List<Issue> issues = EclipseLintClient.getRegistry().getIssues();
+        assertTrue(issues.size() >= ISSUE_COUNT);
+        for (int i = 0; i < ISSUE_COUNT; i++) {
+            all.add(createMarker(file, issues.get(i), i + 1));
+        }
+        all.add(createMarker(file, issues.get(0), 100));
+        all.add(createMarker(file, issues.get(0), 101));
+
+        Shell shell = new Shell(Display.getCurrent());
+        try {
+            shell.setLayout(new FillLayout());
+            LintList list = new LintList(null, shell, null, false /*singleFile*/);
+            shell.setSize(400, 150);
+            shell.open();
+            list.setResources(Collections.singletonList(file));
+            while (Display.getCurrent().readAndDispatch()) {
+                // Process the pending paints
+            }
+
+            // Only a few rows fit, so most selected rows were never materialized
+            Tree tree = list.getTree();
+            tree.selectAll();
+            List<IMarker> selected = list.getSelectedMarkers();
+            assertEquals(ISSUE_COUNT, selected.size());
+            assertEquals(ISSUE_COUNT, new HashSet<IMarker>(selected).size());
+            assertTrue(all.containsAll(selected));
+
+            // Including the children of expanded issues
+            list.expandAll();
+            tree.selectAll();
+            selected = list.getSelectedMarkers();
+            assertEquals(all.size(), selected.size());
+            assertEquals(all, new HashSet<IMarker>(selected));
+        } finally {
+            shell.dispose();
+            EclipseLintClient.clearMarkers(file);
+        }
+    }
+
+    private static IMarker createMarker(IFile file, Issue issue, int line) throws Exception {
+        IMarker marker = file.createMarker(MARKER_LINT);
+        marker.setAttribute(IMarker.MESSAGE, issue.getDescription(Issue.OutputFormat.TEXT));
+        marker.setAttribute(IMarker.SEVERITY, IMarker.SEVERITY_WARNING);
+        marker.setAttribute(IMarker.LINE_NUMBER, line);
+        marker.setAttribute(EclipseLintClient.MARKER_CHECKID_PROPERTY, issue.getId());
+        return marker;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ide.eclipse.adt.internal.lint;
+
+import static com.android.ide.eclipse.adt.AdtConstants.MARKER_LINT;
+
+import com.android.ide.eclipse.adt.AdtUtils;
+import com.android.ide.eclipse.adt.internal.editors.layout.refactoring.AdtProjectTest;
+import com.android.tools.lint.checks.HardcodedValuesDetector;
+import com.android.tools.lint.client.api.IssueRegistry;
+import com.android.tools.lint.detector.api.Scope;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.runtime.NullProgressMonitor;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+
+@SuppressWarnings("javadoc")
+public class LintResultCacheTest extends AdtProjectTest {
+    private static final EnumSet<Scope> SCOPE = Scope.RESOURCE_FILE_SCOPE;
+
+    private IFile createLayout(String name, String contents) throws Exception {
+        IFile file = getProject().getFile("res/layout/" + name);
+        ByteArrayInputStream stream = new ByteArrayInputStream(contents.getBytes("UTF-8"));
+        if (file.exists()) {
+            file.setContents(stream, true, false, new NullProgressMonitor());
+        } else {
+            file.create(stream, true, new NullProgressMonitor());
+        }
+        return file;
+    }
+
+    private static byte[] computeKey(IFile file) {
+        return computeKey(file, SCOPE);
+    }
+
+    private static byte[] computeKey(IFile file, EnumSet<Scope> scope) {
+        IssueRegistry registry = EclipseLintClient.getRegistry();
+        EclipseLintClient client = new EclipseLintClient(registry,
+                Collections.singletonList(file), null, false);
+        return LintResultCache.computeKey(client, registry, Collections.singletonList(file),
+                file, scope);
+    }
+
+    public void testComputeKey() throws Exception {
+        IFile file = createLayout("cache1.xml", "<FrameLayout/>");
+        byte[] key = computeKey(file);
+        assertNotNull(key);
+        assertTrue(Arrays.equals(key, computeKey(file)));
+
+        createLayout("cache1.xml", "<LinearLayout/>");
+        byte[] edited = computeKey(file);
+        assertNotNull(edited);
+        assertFalse(Arrays.equals(key, edited));
+
+        // Path specific ignores in lint.xml affect the results without changing
+        // the severity of any issue
+        IProject project = getProject();
+        File lintXml = new File(AdtUtils.getAbsolutePath(project).toFile(), "lint.xml");
+        assertFalse(lintXml.exists());
+        try {
+            Files.write("<lint><issue id=\"HardcodedText\">"
+                    + "<ignore path=\"res/layout/cache1.xml\" /></issue></lint>",
+                    lintXml, Charsets.UTF_8);
+            byte[] configured = computeKey(file);
+            assertNotNull(configured);
+            assertFalse(Arrays.equals(edited, configured));
+        } finally {
+            lintXml.delete();
+        }
+        assertTrue(Arrays.equals(edited, computeKey(file)));
+    }
+
+    public void testJavaNotCached() throws Exception {
+        // Java checks depend on other types, such as the super classes of the file
+        IFile file = getProject().getFile("src/test/pkg/CacheTest.java");
+        AdtUtils.createWsParentDirectory(file.getParent());
+        ByteArrayInputStream stream = new ByteArrayInputStream(
+                "package test.pkg;\npublic class CacheTest {}\n".getBytes("UTF-8"));
+        file.create(stream, true, new NullProgressMonitor());
+        try {
+            assertNull(computeKey(file, Scope.JAVA_FILE_SCOPE));
+            assertNull(computeKey(file, Scope.CLASS_FILE_SCOPE));
+        } finally {
+            file.delete(true, new NullProgressMonitor());
+        }
+    }
+
+    public void testStoreAndRestore() throws Exception {
+        IFile file = createLayout("cache2.xml", "<Button android:text=\"Hello\"/>");
+        byte[] key = computeKey(file);
+        assertNotNull(key);
+
+        LintResultCache cache = new LintResultCache();
+        assertNull(cache.restore(file, key));
+
+        EclipseLintClient.clearMarkers(file);
+        IMarker marker = file.createMarker(MARKER_LINT);
+        marker.setAttribute(IMarker.MESSAGE, "Hardcoded string");
+        marker.setAttribute(EclipseLintClient.MARKER_CHECKID_PROPERTY,
+                HardcodedValuesDetector.ISSUE.getId());
+        cache.store(file, key, EclipseLintClient.getRegistry(), SCOPE, true);
+
+        EclipseLintClient.clearMarkers(file);
+        assertEquals(0, EclipseLintClient.getMarkers(file).length);
+        assertEquals(Boolean.TRUE, cache.restore(file, key));
+        IMarker[] markers = EclipseLintClient.getMarkers(file);
+        assertEquals(1, markers.length);
+        assertEquals("Hardcoded string", markers[0].getAttribute(IMarker.MESSAGE, ""));
+
+        // A different key is a cache miss
+        byte[] other = key.clone();
+        other[0]++;
+        EclipseLintClient.clearMarkers(file);
+        assertNull(cache.restore(file, other));
+        assertEquals(0, EclipseLintClient.getMarkers(file).length);
+    }
+
+    public void testRestoreFailure() throws Exception {
+        IFile file = createLayout("cache3.xml", "<Button android:text=\"Hello\"/>");
+        byte[] key = computeKey(file);
+        assertNotNull(key);
+
+        LintResultCache cache = new LintResultCache();
+        EclipseLintClient.clearMarkers(file);
+        IMarker marker = file.createMarker(MARKER_LINT);
+        marker.setAttribute(EclipseLintClient.MARKER_CHECKID_PROPERTY,
+                HardcodedValuesDetector.ISSUE.getId());
+        cache.store(file, key, EclipseLintClient.getRegistry(), SCOPE, false);
+
+        // Markers can't be created on a missing file; the entry is dropped
+        file.delete(true, new NullProgressMonitor());
+        assertNull(cache.restore(file, key));
+
+        createLayout("cache3.xml", "<Button android:text=\"Hello\"/>");
+        assertNull(cache.restore(file, key));
+        assertEquals(0, EclipseLintClient.getMarkers(file).length);
+    }
+}
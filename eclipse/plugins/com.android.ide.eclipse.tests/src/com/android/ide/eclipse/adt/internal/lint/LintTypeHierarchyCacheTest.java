@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ide.eclipse.adt.internal.lint;
+
+import com.android.ide.eclipse.adt.internal.editors.layout.refactoring.AdtProjectTest;
+
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.JavaCore;
+
+@SuppressWarnings("javadoc")
+public class LintTypeHierarchyCacheTest extends AdtProjectTest {
+    public void testSuperClasses() throws Exception {
+        IJavaProject project = JavaCore.create(getProject());
+        LintTypeHierarchyCache cache = new LintTypeHierarchyCache();
+
+        String[] superClasses = cache.getSuperClasses(project, "android/app/Activity");
+        assertNotNull(superClasses);
+        assertEquals("android/view/ContextThemeWrapper", superClasses[0]);
+        assertEquals("java/lang/Object", superClasses[superClasses.length - 1]);
+        assertSame(superClasses, cache.getSuperClasses(project, "android/app/Activity"));
+
+        assertNull(cache.getSuperClasses(project, "foo/bar/Missing"));
+        assertNull(cache.getSuperClasses(project, "foo/bar/Missing"));
+        assertEquals(2, cache.getCachedTypeCount(project));
+
+        cache.clear();
+        assertEquals(0, cache.getCachedTypeCount(project));
+    }
+
+    public void testBounded() throws Exception {
+        IJavaProject project = JavaCore.create(getProject());
+        LintTypeHierarchyCache cache = new LintTypeHierarchyCache();
+
+        int count = LintTypeHierarchyCache.MAX_TYPES + 10;
+        for (int i = 0; i < count; i++) {
+            assertNull(cache.getSuperClasses(project, "foo/bar/Missing" + i));
+        }
+        assertEquals(LintTypeHierarchyCache.MAX_TYPES, cache.getCachedTypeCount(project));
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ide.common.layout.relative;
+
+import static com.android.SdkConstants.ANDROID_URI;
+import static com.android.SdkConstants.ATTR_LAYOUT_ALIGN_PARENT_LEFT;
+import static com.android.SdkConstants.ATTR_LAYOUT_BELOW;
+import static com.android.SdkConstants.ATTR_LAYOUT_TO_RIGHT_OF;
+import static com.android.SdkConstants.VALUE_TRUE;
+import static com.android.ide.common.api.MarginType.NO_MARGIN;
+import static com.android.ide.common.api.MarginType.WITHOUT_MARGIN;
+import static com.android.ide.common.api.MarginType.WITH_MARGIN;
+import static com.android.ide.common.api.SegmentType.BOTTOM;
+import static com.android.ide.common.api.SegmentType.LEFT;
+import static com.android.ide.common.api.SegmentType.RIGHT;
+import static com.android.ide.common.api.SegmentType.TOP;
+
+import com.android.ide.common.api.INode;
+import com.android.ide.common.api.MarginType;
+import com.android.ide.common.api.Rect;
+import com.android.ide.common.api.Segment;
+import com.android.ide.common.api.SegmentType;
+import com.android.ide.common.layout.TestNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public class GuidelineHandlerTest extends TestCase {
+    private static final MarginType[] MARGIN_TYPES = new MarginType[] {
+        NO_MARGIN, WITHOUT_MARGIN, WITH_MARGIN
+    };
+
+    public void testFindClosest() {
+        TestNode layout = TestNode.create("android.widget.RelativeLayout").id("@+id/layout")
+                .bounds(new Rect(0, 0, 400, 800));
+        TestNode button1 = TestNode.create("android.widget.Button").id("@+id/button1")
+                .bounds(new Rect(10, 10, 100, 50));
+        TestNode button2 = TestNode.create("android.widget.Button").id("@+id/button2")
+                .bounds(new Rect(200, 10, 100, 50));
+        layout.add(button1, button2);
+
+        GuidelineHandler handler = new GuidelineHandler(layout, null, null);
+        handler.mVerticalEdges.add(new Segment(0, 0, 800, layout, "@+id/layout", LEFT,
+                NO_MARGIN));
+        handler.mVerticalEdges.add(new Segment(400, 0, 800, layout, "@+id/layout", RIGHT,
+                NO_MARGIN));
+        handler.mVerticalEdges.add(new Segment(10, 10, 60, button1, "@+id/button1", LEFT,
+                NO_MARGIN));
+        handler.mVerticalEdges.add(new Segment(110, 10, 60, button1, "@+id/button1", RIGHT,
+                NO_MARGIN));
+        handler.mVerticalEdges.add(new Segment(200, 10, 60, button2, "@+id/button2", LEFT,
+                NO_MARGIN));
+        handler.mVerticalEdges.add(new Segment(300, 10, 60, button2, "@+id/button2", RIGHT,
+                NO_MARGIN));
+
+        Segment dragged = new Segment(105, 100, 150, null, null, LEFT, NO_MARGIN);
+        List<Match> matches = handler.findClosest(dragged, handler.mVerticalEdges);
+        assertEquals(1, matches.size());
+        assertSame(button1, matches.get(0).edge.node);
+        assertEquals(5, matches.get(0).delta);
+
+        // Edges further away than the match distance only match behind the dragged edge
+        dragged = new Segment(155, 100, 150, null, null, LEFT, NO_MARGIN);
+        matches = handler.findClosest(dragged, handler.mVerticalEdges);
+        assertEquals(1, matches.size());
+        assertEquals(110, matches.get(0).edge.at);
+
+        // Adding edges after a query must be picked up by the next query
+        handler.mVerticalEdges.add(new Segment(150, 10, 60, button2, "@+id/button2",
+                RIGHT, NO_MARGIN));
+        matches = handler.findClosest(dragged, handler.mVerticalEdges);
+        assertEquals(1, matches.size());
+        assertEquals(150, matches.get(0).edge.at);
+    }
+
+    public void testFindClosestRandom() {
+        Random random = new Random(42);
+        TestNode layout = TestNode.create("android.widget.RelativeLayout").id("@+id/layout")
+                .bounds(new Rect(0, 0, 1000, 1000));
+        List<TestNode> children = new ArrayList<TestNode>();
+        for (int i = 0; i < 300; i++) {
+            TestNode child = TestNode.create("android.widget.Button").id("@+id/button" + i)
+                    .bounds(new Rect(random.nextInt(900), random.nextInt(900), 50, 50));
+            layout.add(child);
+            children.add(child);
+        }
+
+        for (SegmentType draggedType : new SegmentType[] { TOP, BOTTOM, LEFT, RIGHT }) {
+            GuidelineHandler handler = new GuidelineHandler(layout, null, null);
+            boolean horizontal = draggedType.isHorizontal();
+            List<Segment> edges = horizontal ? handler.mHorizontalEdges
+                    : handler.mVerticalEdges;
+            SegmentType[] types = horizontal ? new SegmentType[] { TOP, BOTTOM }
+                    : new SegmentType[] { LEFT, RIGHT };
+            for (int i = 0; i < 1000; i++) {
+                INode node = random.nextInt(20) == 0 ? layout
+                        : children.get(random.nextInt(children.size()));
+                edges.add(new Segment(random.nextInt(1000), 0, 50, node, null,
+                        types[random.nextInt(types.length)],
+                        MARGIN_TYPES[random.nextInt(MARGIN_TYPES.length)]));
+            }
+
+            for (int i = 0; i < 1000; i++) {
+                Segment dragged = new Segment(random.nextInt(1200) - 100, 0, 50, null, null,
+                        draggedType, NO_MARGIN);
+                List<Match> expected = new ArrayList<Match>();
+                List<Match> actual = new ArrayList<Match>();
+                if (random.nextBoolean()) {
+                    // Also check with matches carried over from a previous edge
+                    Segment other = new Segment(random.nextInt(1000), 0, 50, null, null,
+                            draggedType, NO_MARGIN);
+                    addClosestLinear(handler, other, edges, expected);
+                    handler.addClosest(other, edges, actual);
+                }
+                addClosestLinear(handler, dragged, edges, expected);
+                handler.addClosest(dragged, edges, actual);
+
+                assertEquals(describe(expected), describe(actual));
+            }
+        }
+    }
+
+    public void testDependencyGraphCache() {
+        TestNode layout = TestNode.create("android.widget.RelativeLayout").id("@+id/layout")
+                .bounds(new Rect(0, 0, 400, 800));
+        TestNode button1 = TestNode.create("android.widget.Button").id("@+id/button1")
+                .bounds(new Rect(10, 10, 100, 50))
+                .set(ANDROID_URI, ATTR_LAYOUT_ALIGN_PARENT_LEFT, VALUE_TRUE);
+        TestNode button2 = TestNode.create("android.widget.Button").id("@+id/button2")
+                .bounds(new Rect(200, 10, 100, 50))
+                .set(ANDROID_URI, ATTR_LAYOUT_TO_RIGHT_OF, "@+id/button1");
+        layout.add(button1, button2);
+
+        Object view = new Object();
+        DependencyGraph graph = DependencyGraph.get(layout, view);
+        assertSame(graph, DependencyGraph.get(layout, view));
+        Set<INode> deps = graph.dependsOn(Collections.singletonList(button1), true);
+        assertTrue(deps.contains(button2));
+        assertFalse(graph.dependsOn(Collections.singletonList(button1), false)
+                .contains(button2));
+
+        // Without a rendered view the graph can't be reused
+        assertNotSame(DependencyGraph.get(layout, null), DependencyGraph.get(layout, null));
+
+        // Editing the layout renders it again, which must produce a new graph
+        button2.setAttribute(ANDROID_URI, ATTR_LAYOUT_TO_RIGHT_OF, "@+id/button3");
+        button2.setAttribute(ANDROID_URI, ATTR_LAYOUT_BELOW, "@+id/button1");
+        view = new Object();
+        DependencyGraph updated = DependencyGraph.get(layout, view);
+        assertNotSame(graph, updated);
+        assertSame(updated, DependencyGraph.get(layout, view));
+        assertFalse(updated.dependsOn(Collections.singletonList(button1), true)
+                .contains(button2));
+        assertTrue(updated.dependsOn(Collections.singletonList(button1), false)
+                .contains(button2));
+    }
+
+    /** The linear scan previously done by {@link GuidelineHandler#addClosest} */
+    private static void addClosestLinear(GuidelineHandler handler, Segment draggedEdge,
+            List<Segment> edges, List<Match> closest) {
+        int at = draggedEdge.at;
+        int closestDelta = closest.size() > 0 ? closest.get(0).delta : Integer.MAX_VALUE;
+        int closestDistance = Math.abs(closestDelta);
+        for (Segment edge : edges) {
+            int delta = edge.at - at;
+            int distance = Math.abs(delta);
+            if (distance > closestDistance) {
+                continue;
+            }
+            if (!handler.isEdgeTypeCompatible(edge.edgeType, draggedEdge.edgeType, delta)) {
+                continue;
+            }
+            ConstraintType type = ConstraintType.forMatch(edge.node == handler.layout,
+                    draggedEdge.edgeType, edge.edgeType);
+            if (type == null) {
+                continue;
+            }
+            if (type.relativeToMargin && edge.marginType == WITHOUT_MARGIN) {
+                continue;
+            } else if (!type.relativeToMargin && edge.marginType == WITH_MARGIN) {
+                continue;
+            }
+            Match match = new Match(handler, edge, draggedEdge, type, delta);
+            if (distance < closestDistance) {
+                closest.clear();
+                closestDistance = distance;
+                closestDelta = delta;
+            } else if (delta * closestDelta < 0) {
+                continue;
+            }
+            closest.add(match);
+        }
+    }
+
+    private static List<String> describe(List<Match> matches) {
+        List<String> result = new ArrayList<String>(matches.size());
+        for (Match match : matches) {
+            result.add(System.identityHashCode(match.edge) + ":" + match.type + ":"
+                    + match.delta);
+        }
+        return result;
+    }
+}
@@ -129,6 +129,32 @@ public class GraphicsUtilitiesTest extends TestCase {
         }
     }
 
+    public void testCopyRegion() throws Exception {
+        String fileName = DIR + "no-patched.png";
+        Image image = new Image(Display.getDefault(),
+                getClass().getResourceAsStream(fileName));
+
+        ImageData baseData = image.getImageData();
+        ImageData copiedData = GraphicsUtilities.copy(baseData, 2, 3, 5, 4);
+
+        assertEquals(5, copiedData.width);
+        assertEquals(4, copiedData.height);
+        assertEquals(baseData.depth, copiedData.depth);
+
+        for (int y = 0; y < copiedData.height; y++) {
+            for (int x = 0; x < copiedData.width; x++) {
+                assertEquals(baseData.getPixel(x + 2, y + 3), copiedData.getPixel(x, y));
+                assertEquals(baseData.getAlpha(x + 2, y + 3), copiedData.getAlpha(x, y));
+            }
+        }
+
+        try {
+            GraphicsUtilities.copy(baseData, 1, 1, baseData.width, 1);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
     public void testGetVerticalPixelsIllegalArgument() throws Exception {
         String fileName = DIR + "no-patched.png";
         Image image = new Image(Display.getDefault(),
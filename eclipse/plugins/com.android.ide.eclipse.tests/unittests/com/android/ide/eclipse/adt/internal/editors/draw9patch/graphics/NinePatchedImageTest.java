@@ -895,6 +895,42 @@ public class NinePatchedImageTest extends TestCase {
         assertEquals(13, rect.height);
     }
 
+    public void testEditPatches() throws Exception {
+        String fileName = DIR + "patched1.9.png";
+        NinePatchedImage image = new NinePatchedImage(getClass()
+                .getResourceAsStream(fileName), fileName);
+        assertNotNull(image);
+        assertTrue(image.ensure9Patch());
+
+        List<Tick> horizontalPatches = image.getHorizontalPatches();
+        assertEquals(3, horizontalPatches.size());
+
+        // unchanged pixel
+        assertFalse(image.setPatch(1, 0, NinePatchedImage.BLACK_TICK));
+        assertFalse(image.isDirty());
+
+        assertTrue(image.erase(1, 0));
+        assertTrue(image.isDirty());
+        assertFalse(image.erase(1, 0));
+        image.findPatches();
+        assertEquals(2, horizontalPatches.size());
+        assertEquals(1, horizontalPatches.get(0).start);
+        assertEquals(72, horizontalPatches.get(0).end);
+
+        assertTrue(image.setPatch(10, 0, NinePatchedImage.BLACK_TICK));
+        image.findPatches();
+        assertEquals(4, horizontalPatches.size());
+        assertEquals(10, horizontalPatches.get(1).start);
+        assertEquals(11, horizontalPatches.get(1).end);
+        assertEquals(NinePatchedImage.BLACK_TICK, horizontalPatches.get(1).color);
+
+        // the projections follow the edited patches
+        Projection[][] projections = image.getProjections(74, 52, null);
+        assertEquals(3, projections.length);
+        assertEquals(4, projections[0].length);
+        assertEquals(10, projections[0][1].src.x);
+    }
+
     public void testReadLayoutBoundsOnlyImage() throws Exception {
         String fileName = DIR + "layout-bounds-only.9.png";
         NinePatchedImage image = new NinePatchedImage(getClass()
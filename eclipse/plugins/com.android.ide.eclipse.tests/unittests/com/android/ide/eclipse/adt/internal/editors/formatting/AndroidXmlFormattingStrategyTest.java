@@ -20,7 +20,9 @@ import com.android.ide.common.xml.XmlFormatPreferences;
 import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.Document;
 import org.eclipse.text.edits.MalformedTreeException;
+import org.eclipse.text.edits.MultiTextEdit;
 import org.eclipse.text.edits.ReplaceEdit;
+import org.eclipse.text.edits.TextEdit;
 
 import junit.framework.TestCase;
 
@@ -36,8 +38,17 @@ public class AndroidXmlFormattingStrategyTest extends TestCase {
         ReplaceEdit edit = AndroidXmlFormattingStrategy.createReplaceEdit(document, replaceStart,
                 replaceEnd, formatted, prefs);
         assertNotNull(edit);
+
+        // The minimal line edits must produce the same result as the single edit
+        Document lineDocument = new Document();
+        lineDocument.set(before);
+        MultiTextEdit lineEdits = new MultiTextEdit();
+        AndroidXmlFormattingStrategy.addLineEdits(lineDocument, edit, lineEdits);
+
         edit.apply(document);
         String contents = document.get();
+        lineEdits.apply(lineDocument);
+        assertEquals(contents, lineDocument.get());
         // Ensure that we don't have any mangled CRLFs
         char prev =  0;
         boolean haveCrlf = false;
@@ -332,4 +343,88 @@ public class AndroidXmlFormattingStrategyTest extends TestCase {
 
             XmlFormatPreferences.defaults());
     }
+
+    public void testLineEditsIndentation() throws Exception {
+        String before =
+            "<LinearLayout>\n" +
+            "  <Button\n" +
+            "      android:id=\"@+id/button\" />\n" +
+            "    <TextView />\n" +
+            "</LinearLayout>\n";
+        String after =
+            "<LinearLayout>\n" +
+            "    <Button\n" +
+            "        android:id=\"@+id/button\" />\n" +
+            "    <TextView />\n" +
+            "</LinearLayout>\n";
+        MultiTextEdit edits = checkLineEdits(before, after);
+
+        // Only the two reindented lines are edited, and only their indentation
+        assertEquals(2, edits.getChildrenSize());
+        for (TextEdit edit : edits.getChildren()) {
+            assertEquals(0, edit.getLength());
+            assertTrue(((ReplaceEdit) edit).getText().trim().isEmpty());
+        }
+    }
+
+    public void testLineEditsAttributeLayout() throws Exception {
+        String before =
+            "<LinearLayout>\n" +
+            "    <Button android:id=\"@+id/button\" android:text=\"@string/ok\" />\n" +
+            "    <TextView />\n" +
+            "</LinearLayout>\n";
+        String after =
+            "<LinearLayout>\n" +
+            "    <Button\n" +
+            "        android:id=\"@+id/button\"\n" +
+            "        android:text=\"@string/ok\" />\n" +
+            "    <TextView />\n" +
+            "</LinearLayout>\n";
+        MultiTextEdit edits = checkLineEdits(before, after);
+        assertEquals(1, edits.getChildrenSize());
+        TextEdit edit = edits.getChildren()[0];
+        assertTrue(edit.getOffset() > before.indexOf("<Button"));
+        assertTrue(edit.getExclusiveEnd() < before.indexOf("<TextView"));
+    }
+
+    public void testLineEditsLarge() throws Exception {
+        StringBuilder before = new StringBuilder();
+        StringBuilder after = new StringBuilder();
+        before.append("<resources>\r\n");
+        after.append("<resources>\r\n");
+        for (int i = 0; i < 2000; i++) {
+            String line = "<string name=\"s" + i + "\">Value " + i + "</string>\r\n";
+            before.append(i % 100 == 0 ? "  " : "    ").append(line);
+            if (i % 250 == 0) {
+                before.append("\r\n");
+            }
+            after.append("    ").append(line);
+        }
+        before.append("</resources>");
+        after.append("</resources>\r\n");
+
+        MultiTextEdit edits = checkLineEdits(before.toString(), after.toString());
+        assertEquals(20 + 8 + 1, edits.getChildrenSize());
+    }
+
+    public void testLineEditsUnrelated() throws Exception {
+        checkLineEdits("", "<LinearLayout />\n");
+        checkLineEdits("<LinearLayout />\n", "");
+        checkLineEdits("a\nb\nc\nd\n", "e\nf\ng\n");
+        checkLineEdits("a\nb\nc\nd\n", "d\nc\nb\na\n");
+        checkLineEdits("a\n\n\nb\n\nc", "\na\nb\n\n\n\nc\n");
+    }
+
+    private static MultiTextEdit checkLineEdits(String before, String after)
+            throws Exception {
+        Document document = new Document();
+        document.set("prefix" + before + "suffix");
+        ReplaceEdit replaceEdit = new ReplaceEdit(6, before.length(), after);
+        MultiTextEdit edits = new MultiTextEdit();
+        AndroidXmlFormattingStrategy.addLineEdits(document, replaceEdit, edits);
+        edits.apply(document);
+        assertEquals("prefix" + after + "suffix", document.get());
+
+        return edits;
+    }
 }
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ide.eclipse.adt.internal.editors.layout.gle2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public class CustomViewFinderTest extends TestCase {
+    private static final String SIGNATURE = "MyProject:/MyProject/src;";
+
+    private static List<String> lines(String contents) {
+        return Arrays.asList(contents.split("\n"));
+    }
+
+    public void testIndexRoundTrip() {
+        Map<String, List<String>> sourceViews = new LinkedHashMap<String, List<String>>();
+        sourceViews.put("/MyProject/src/com/example/Views.java",
+                Arrays.asList("com.example.Views", "com.example.Views.Inner"));
+        sourceViews.put("/MyLibrary/src/com/example/lib/Layout.java",
+                Collections.singletonList("com.example.lib.Layout"));
+        List<String> binaryViews = Arrays.asList("com.thirdparty.Chart",
+                "com.thirdparty.Grid");
+        Set<String> layouts = new HashSet<String>(Arrays.asList("com.example.lib.Layout",
+                "com.thirdparty.Grid"));
+        Map<String, String> stamps = new HashMap<String, String>();
+        stamps.put("/MyProject/src/com/example/Views.java", "1357000000000+2048");
+        stamps.put("/MyProject/src/com/example/Activity.java", "1357000000000+512");
+        stamps.put("/MyLibrary/src/com/example/lib/Layout.java", "1356000000000+1024");
+
+        String contents = CustomViewFinder.formatIndex(SIGNATURE, stamps, sourceViews,
+                binaryViews, layouts);
+
+        Map<String, String> readStamps = new HashMap<String, String>();
+        Map<String, List<String>> readSourceViews = new HashMap<String, List<String>>();
+        List<String> readBinaryViews = new ArrayList<String>();
+        Set<String> readLayouts = new HashSet<String>();
+        assertTrue(CustomViewFinder.parseIndex(lines(contents), SIGNATURE, readStamps,
+                readSourceViews, readBinaryViews, readLayouts));
+        assertEquals(stamps, readStamps);
+        assertEquals(sourceViews, readSourceViews);
+        assertEquals(binaryViews, readBinaryViews);
+        assertEquals(layouts, readLayouts);
+
+        // Empty index
+        contents = CustomViewFinder.formatIndex(SIGNATURE,
+                Collections.<String, String>emptyMap(),
+                Collections.<String, List<String>>emptyMap(), Collections.<String>emptyList(),
+                Collections.<String>emptySet());
+        readStamps.clear();
+        readSourceViews.clear();
+        readBinaryViews.clear();
+        readLayouts.clear();
+        assertTrue(CustomViewFinder.parseIndex(lines(contents), SIGNATURE, readStamps,
+                readSourceViews, readBinaryViews, readLayouts));
+        assertTrue(readStamps.isEmpty());
+        assertTrue(readSourceViews.isEmpty());
+        assertTrue(readBinaryViews.isEmpty());
+        assertTrue(readLayouts.isEmpty());
+    }
+
+    public void testIndexInvalid() {
+        Map<String, List<String>> sourceViews = new HashMap<String, List<String>>();
+        sourceViews.put("/MyProject/src/com/example/Views.java",
+                Collections.singletonList("com.example.Views"));
+        String contents = CustomViewFinder.formatIndex(SIGNATURE,
+                Collections.singletonMap("/MyProject/src/com/example/Views.java", "1+1"),
+                sourceViews, Collections.<String>emptyList(), Collections.<String>emptySet());
+        List<String> lines = lines(contents);
+
+        Map<String, String> readStamps = new HashMap<String, String>();
+        Map<String, List<String>> readSourceViews = new HashMap<String, List<String>>();
+        List<String> readBinaryViews = new ArrayList<String>();
+        Set<String> readLayouts = new HashSet<String>();
+
+        // The classpath changed since the index was written
+        assertFalse(CustomViewFinder.parseIndex(lines, SIGNATURE + "0", readStamps,
+                readSourceViews, readBinaryViews, readLayouts));
+        assertFalse(CustomViewFinder.parseIndex(lines, null, readStamps, readSourceViews,
+                readBinaryViews, readLayouts));
+
+        // Other versions, truncated and corrupt files
+        List<String> otherVersion = new ArrayList<String>(lines);
+        otherVersion.set(0, "2");
+        assertFalse(CustomViewFinder.parseIndex(otherVersion, SIGNATURE, readStamps,
+                readSourceViews, readBinaryViews, readLayouts));
+        assertFalse(CustomViewFinder.parseIndex(lines.subList(0, 1), SIGNATURE, readStamps,
+                readSourceViews, readBinaryViews, readLayouts));
+        List<String> corrupt = new ArrayList<String>(lines);
+        corrupt.add("s\tcom.example.Broken");
+        assertFalse(CustomViewFinder.parseIndex(corrupt, SIGNATURE, readStamps,
+                readSourceViews, readBinaryViews, readLayouts));
+    }
+
+    public void testIsRemoved() {
+        String unit = "/MyProject/src/com/example/Views.java";
+
+        // Removed compilation units
+        assertTrue(CustomViewFinder.isRemoved(unit, unit));
+        assertFalse(CustomViewFinder.isRemoved(unit, "/MyProject/src/com/example/View.java"));
+
+        // Removed packages only contain the compilation units directly within them
+        assertTrue(CustomViewFinder.isRemoved(unit, "/MyProject/src/com/example"));
+        assertFalse(CustomViewFinder.isRemoved(unit, "/MyProject/src/com"));
+        assertFalse(CustomViewFinder.isRemoved(unit, "/MyProject/src/com/example/sub"));
+
+        // Packages whose names are prefixes of other packages
+        assertFalse(CustomViewFinder.isRemoved(unit, "/MyProject/src/com/exam"));
+        assertFalse(CustomViewFinder.isRemoved("/MyProject/src/com/examples/Views.java",
+                "/MyProject/src/com/example"));
+    }
+}
@@ -357,6 +357,62 @@ public class ImageUtilsTest extends TestCase {
 
     }
 
+    public void testBoxScaleImage() throws Exception {
+        BufferedImage image = new BufferedImage(100, 100, BufferedImage.TYPE_4BYTE_ABGR);
+        Graphics g = image.getGraphics();
+        g.setColor(new Color(0xFF00FF00, true));
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g.setColor(new Color(0xFFFF0000, true));
+        g.fillRect(25, 25, 50, 50);
+        g.dispose();
+
+        BufferedImage scaled = ImageUtils.boxScale(image, 0.5, 0.5, 0, 0);
+        assertEquals(50, scaled.getWidth());
+        assertEquals(50, scaled.getHeight());
+        assertEquals(0xFF00FF00, scaled.getRGB(0, 0));
+        assertEquals(0xFF00FF00, scaled.getRGB(49, 49));
+        assertEquals(0xFFFF0000, scaled.getRGB(25, 25));
+        // Pixel covering one red and three green source pixels
+        assertEquals(0xFF40BF00, scaled.getRGB(12, 12));
+
+        scaled = ImageUtils.boxScale(image, 0.25, 0.25, 75, 95);
+        assertEquals(100, scaled.getWidth());
+        assertEquals(120, scaled.getHeight());
+        assertEquals(0xFF00FF00, scaled.getRGB(0, 0));
+        assertEquals(0xFF00FF00, scaled.getRGB(24, 24));
+        assertEquals(0xFFFF0000, scaled.getRGB(13, 13));
+        assertEquals(0, scaled.getRGB(90, 110));
+
+        // Large enough to be split across processors
+        image = new BufferedImage(1000, 2000, BufferedImage.TYPE_INT_ARGB);
+        g = image.getGraphics();
+        g.setColor(new Color(0xFF0000FF, true));
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g.dispose();
+        scaled = ImageUtils.boxScale(image, 0.9, 0.9, 0, 0);
+        assertEquals(900, scaled.getWidth());
+        assertEquals(1800, scaled.getHeight());
+        assertEquals(0xFF0000FF, scaled.getRGB(0, 0));
+        assertEquals(0xFF0000FF, scaled.getRGB(450, 900));
+        assertEquals(0xFF0000FF, scaled.getRGB(899, 1799));
+
+        // An interrupted thread still gets a completely scaled image
+        Thread.currentThread().interrupt();
+        try {
+            scaled = ImageUtils.boxScale(image, 0.9, 0.9, 0, 0);
+        } finally {
+            assertTrue(Thread.interrupted());
+        }
+        assertEquals(0xFF0000FF, scaled.getRGB(0, 0));
+        assertEquals(0xFF0000FF, scaled.getRGB(450, 900));
+        assertEquals(0xFF0000FF, scaled.getRGB(899, 1799));
+
+        // Scaling up is delegated to scale()
+        scaled = ImageUtils.boxScale(image, 2.0, 2.0, 0, 0);
+        assertEquals(2000, scaled.getWidth());
+        assertEquals(4000, scaled.getHeight());
+    }
+
     public void testCreateColoredImage() throws Exception {
         BufferedImage image = ImageUtils.createColoredImage(120, 110, new RGB(0xFE, 0xFD, 0xFC));
         assertEquals(120, image.getWidth());
@@ -16,6 +16,7 @@
 package com.android.ide.eclipse.adt.internal.editors.layout.gle2;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
@@ -124,5 +125,66 @@ public class IncludeFinderTest extends TestCase {
         assertEquals(Arrays.asList("myfragment"), includes);
     }
 
+    public void testFindIncludesMalformed() throws Exception {
+        String xml =
+            "<LinearLayout xmlns:android=\"http://schemas.android.com/apk/res/android\">\n" +
+            "    <include layout=\"@layout/layout1\" />\n" +
+            "    <include android:layout=\"@layout/layout2\" />\n" +
+            "    <include layout=\"@android:layout/simple_list_item_1\" />\n" +
+            "</LinearLayout>";
+        assertEquals(Arrays.asList("layout1"), IncludeFinder.findIncludes(xml));
+
+        // Unterminated document
+        assertEquals(Collections.emptyList(),
+                IncludeFinder.findIncludes(xml.substring(0, xml.length() - 2)));
+    }
+
+    public void testCycles() throws Exception {
+        IncludeGraph graph = new IncludeGraph();
+        graph.setIncludes("a", Arrays.asList("b"));
+        graph.setIncludes("b", Arrays.asList("c", "d"));
+        graph.setIncludes("d", Collections.<String>emptyList());
+        assertNull(graph.findCycle("a"));
+        assertNull(graph.findCycle("c"));
+
+        // Close a cycle b=>c=>b; a only includes the cycle and isn't part of it
+        Collection<String> affected = graph.setIncludes("c", Arrays.asList("b"));
+        assertTrue(affected.containsAll(Arrays.asList("b", "c")));
+        assertFalse(affected.contains("a"));
+        assertFalse(affected.contains("d"));
+        assertNull(graph.findCycle("a"));
+        assertEquals("b=>c=>b", graph.findCycle("b"));
+        assertEquals("c=>b=>c", graph.findCycle("c"));
+        assertNull(graph.findCycle("d"));
 
+        // Grow the cycle to b=>d=>a=>b
+        graph.setIncludes("d", Arrays.asList("a"));
+        assertNotNull(graph.findCycle("a"));
+        assertNotNull(graph.findCycle("d"));
+        assertNotNull(graph.findCycle("c"));
+
+        // Break the cycle through c; the other one remains
+        affected = graph.setIncludes("c", Collections.<String>emptyList());
+        assertTrue(affected.contains("c"));
+        assertNull(graph.findCycle("c"));
+        assertEquals("a=>b=>d=>a", graph.findCycle("a"));
+
+        graph.setIncludes("b", Arrays.asList("c"));
+        assertNull(graph.findCycle("a"));
+        assertNull(graph.findCycle("b"));
+        assertNull(graph.findCycle("d"));
+        assertEquals(Arrays.asList("b"), graph.getIncludedBy("c"));
+        assertEquals(Collections.emptyList(), graph.getIncludedBy("d"));
+        assertNull(graph.getIncludedBy("unknown"));
+    }
+
+    public void testSelfInclude() throws Exception {
+        IncludeGraph graph = new IncludeGraph();
+        graph.setIncludes("a", Arrays.asList("a", "b"));
+        assertEquals("a=>a", graph.findCycle("a"));
+        assertNull(graph.findCycle("b"));
+
+        graph.setIncludes("a", Arrays.asList("b"));
+        assertNull(graph.findCycle("a"));
+    }
 }
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ide.eclipse.adt.internal.editors.layout.gle2;
+
+import static com.android.ide.eclipse.adt.internal.editors.layout.gle2.CanvasViewInfoTest.createNode;
+
+import com.android.ide.common.rendering.api.ViewInfo;
+import com.android.ide.eclipse.adt.internal.editors.layout.uimodel.UiViewElementNode;
+
+import org.eclipse.swt.graphics.Rectangle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public class ViewHierarchyIndexTest extends TestCase {
+    /** Set to true to print query timings for the synthetic hierarchies */
+    private static final boolean BENCHMARK = Boolean.getBoolean("adt.benchmark"); //$NON-NLS-1$
+
+    private static final int SCREEN_WIDTH = 1080;
+    private static final int SCREEN_HEIGHT = 1920;
+
+    public void testSimple() throws Exception {
+        UiViewElementNode rootNode = createNode("android.widget.FrameLayout", true);
+        ViewInfo root = new ViewInfo("FrameLayout", rootNode, 0, 0, 100, 100);
+        UiViewElementNode child1Node = createNode(rootNode, "android.widget.Button", false);
+        ViewInfo child1 = new ViewInfo("Button", child1Node, 10, 10, 60, 60);
+        UiViewElementNode child2Node = createNode(rootNode, "android.widget.Button", false);
+        ViewInfo child2 = new ViewInfo("Button", child2Node, 40, 40, 90, 90);
+        root.setChildren(Arrays.asList(child1, child2));
+        CanvasViewInfo rootView = CanvasViewInfo.create(root, true).getFirst();
+        CanvasViewInfo view1 = rootView.getChildren().get(0);
+        CanvasViewInfo view2 = rootView.getChildren().get(1);
+
+        ViewHierarchyIndex index = new ViewHierarchyIndex(rootView);
+        assertEquals(3, index.size());
+        assertSame(rootView, index.findViewAt(5, 5));
+        assertSame(view1, index.findViewAt(20, 20));
+        // Later siblings are on top
+        assertSame(view2, index.findViewAt(50, 50));
+        assertNull(index.findViewAt(150, 50));
+        assertNull(index.findViewAt(-1, 50));
+
+        assertEquals(Arrays.asList(view1),
+                index.findWithin(new Rectangle(0, 0, 20, 20)));
+        assertEquals(Arrays.asList(view1, view2),
+                index.findWithin(new Rectangle(0, 0, 100, 100)));
+        assertEquals(0, index.findWithin(new Rectangle(200, 200, 10, 10)).size());
+    }
+
+    public void testDeepHierarchy() throws Exception {
+        checkAgainstTreeWalk("deep", createHierarchy(new Random(42), 12, 2));
+    }
+
+    public void testWideHierarchy() throws Exception {
+        UiViewElementNode rootNode = createNode("android.widget.LinearLayout", true);
+        ViewInfo root = new ViewInfo("LinearLayout", rootNode, 0, 0, SCREEN_WIDTH,
+                SCREEN_HEIGHT);
+        List<ViewInfo> children = new ArrayList<ViewInfo>();
+        for (int i = 0; i < 2000; i++) {
+            int x = (i % 40) * 27;
+            int y = (i / 40) * 38;
+            children.add(new ViewInfo("Button",
+                    createNode(rootNode, "android.widget.Button", false),
+                    x, y, x + 25, y + 36));
+        }
+        root.setChildren(children);
+        checkAgainstTreeWalk("wide", CanvasViewInfo.create(root, true).getFirst());
+    }
+
+    public void testRandomHierarchy() throws Exception {
+        checkAgainstTreeWalk("random", createHierarchy(new Random(7), 3, 13));
+    }
+
+    private static CanvasViewInfo createHierarchy(Random random, int depth, int fanout) {
+        UiViewElementNode rootNode = createNode("android.widget.FrameLayout", true);
+        ViewInfo root = new ViewInfo("FrameLayout", rootNode, 0, 0, SCREEN_WIDTH,
+                SCREEN_HEIGHT);
+        addChildren(random, root, rootNode, depth, fanout, SCREEN_WIDTH, SCREEN_HEIGHT);
+        return CanvasViewInfo.create(root, true).getFirst();
+    }
+
+    private static void addChildren(Random random, ViewInfo parent,
+            UiViewElementNode parentNode, int depth, int fanout, int width, int height) {
+        if (depth == 0 || width < 8 || height < 8) {
+            return;
+        }
+        List<ViewInfo> children = new ArrayList<ViewInfo>();
+        for (int i = 0; i < fanout; i++) {
+            int x = random.nextInt(width / 2);
+            int y = random.nextInt(height / 2);
+            int w = 1 + random.nextInt(width / 2);
+            int h = 1 + random.nextInt(height / 2);
+            boolean leaf = depth == 1;
+            UiViewElementNode node = createNode(parentNode,
+                    leaf ? "android.widget.Button" : "android.widget.FrameLayout", !leaf);
+            ViewInfo child = new ViewInfo(leaf ? "Button" : "FrameLayout", node,
+                    x, y, x + w, y + h);
+            addChildren(random, child, node, depth - 1, fanout, w, h);
+            children.add(child);
+        }
+        parent.setChildren(children);
+    }
+
+    private static void checkAgainstTreeWalk(String name, CanvasViewInfo root) {
+        Random random = new Random(1);
+        long indexStart = System.nanoTime();
+        ViewHierarchyIndex index = new ViewHierarchyIndex(root);
+        long indexTime = System.nanoTime() - indexStart;
+
+        int count = 20000;
+        int[] xs = new int[count];
+        int[] ys = new int[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = random.nextInt(SCREEN_WIDTH + 200) - 100;
+            ys[i] = random.nextInt(SCREEN_HEIGHT + 200) - 100;
+        }
+
+        for (int i = 0; i < count; i++) {
+            assertSame(findViewAt(root, xs[i], ys[i]), index.findViewAt(xs[i], ys[i]));
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            Rectangle rectangle = new Rectangle(random.nextInt(SCREEN_WIDTH),
+                    random.nextInt(SCREEN_HEIGHT), random.nextInt(400), random.nextInt(400));
+            List<CanvasViewInfo> expected = new ArrayList<CanvasViewInfo>();
+            addWithin(root, root, rectangle, expected);
+            assertEquals(expected, index.findWithin(rectangle));
+        }
+
+        if (BENCHMARK) {
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                findViewAt(root, xs[i], ys[i]);
+            }
+            long treeTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                index.findViewAt(xs[i], ys[i]);
+            }
+            long queryTime = System.nanoTime() - start;
+            System.out.println(String.format(
+                    "%1$s: %2$d views, index built in %3$.2f ms, "
+                    + "point query: tree walk %4$.2f us, index %5$.2f us",
+                    name, index.size(), indexTime / 1e6,
+                    treeTime / 1e3 / count, queryTime / 1e3 / count));
+        }
+    }
+
+    // Reference implementations: the tree walks previously done by ViewHierarchy
+
+    private static CanvasViewInfo findViewAt(CanvasViewInfo view, int x, int y) {
+        if (view.getSelectionRect().contains(x, y)) {
+            List<CanvasViewInfo> children = view.getChildren();
+            for (int i = children.size() - 1; i >= 0; i--) {
+                CanvasViewInfo match = findViewAt(children.get(i), x, y);
+                if (match != null) {
+                    return match;
+                }
+            }
+            return view;
+        }
+        return null;
+    }
+
+    private static void addWithin(CanvasViewInfo root, CanvasViewInfo view,
+            Rectangle rectangle, List<CanvasViewInfo> result) {
+        if (rectangle.intersects(view.getSelectionRect())) {
+            for (CanvasViewInfo child : view.getChildren()) {
+                addWithin(root, child, rectangle, result);
+            }
+            if (view != root) {
+                result.add(view);
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ide.eclipse.adt.internal.lint;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public class LintJobTest extends TestCase {
+    private static Map<String, List<String>> dependencies(String... pairs) {
+        Map<String, List<String>> map = new LinkedHashMap<String, List<String>>();
+        for (String pair : pairs) {
+            String[] split = pair.split(":");
+            List<String> libraries = split.length > 1
+                    ? Arrays.asList(split[1].split(",")) : Collections.<String>emptyList();
+            map.put(split[0], libraries);
+        }
+        return map;
+    }
+
+    private static String groups(Map<String, List<String>> dependencies) {
+        return LintJob.groupIndependent(dependencies).toString();
+    }
+
+    public void testIndependent() {
+        assertEquals("[[a], [b], [c]]", groups(dependencies("a", "b", "c")));
+        assertEquals("[]", groups(dependencies()));
+    }
+
+    public void testLibraries() {
+        // A project is checked along with its library
+        assertEquals("[[app, lib], [other]]",
+                groups(dependencies("app:lib", "lib", "other")));
+        // Libraries which are not being checked don't join projects
+        assertEquals("[[app1], [app2]]",
+                groups(dependencies("app1:lib", "app2:lib")));
+    }
+
+    public void testSharedLibraries() {
+        // Projects sharing a library are checked together, also transitively
+        assertEquals("[[app1, lib1, app2, lib2, app3], [app4]]",
+                groups(dependencies("app1:lib1", "lib1", "app2:lib1,lib2", "lib2",
+                        "app3:lib2", "app4")));
+        // Order of declaration does not matter
+        assertEquals("[[lib, app1, app2]]",
+                groups(dependencies("lib", "app1:lib", "app2:lib")));
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ide.eclipse.adt.internal.project;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public class JavadocUrlValidatorTest extends TestCase {
+    private HttpServer mServer;
+    private String mBaseUrl;
+    private int mScheduled;
+    private JavadocUrlValidator mValidator;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        // Local stand-in for the documentation server: only /reference/ exists
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = "docs".getBytes("UTF-8");
+                boolean found = exchange.getRequestURI().getPath().equals("/reference/");
+                exchange.sendResponseHeaders(found ? 200 : 404, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        mServer.start();
+        mBaseUrl = "http://127.0.0.1:" + mServer.getAddress().getPort() + "/";
+
+        mScheduled = 0;
+        mValidator = createValidator();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.stop(0);
+        super.tearDown();
+    }
+
+    private JavadocUrlValidator createValidator() {
+        JavadocUrlValidator.Listener listener = new JavadocUrlValidator.Listener() {
+            @Override
+            public void checked(String state, boolean changed) {
+            }
+        };
+        return new JavadocUrlValidator(listener, 1000) {
+            @Override
+            void scheduleCheck() {
+                // The tests run the checks themselves
+                mScheduled++;
+            }
+        };
+    }
+
+    public void testLocal() throws Exception {
+        File dir = new File(System.getProperty("java.io.tmpdir"));
+        assertTrue(mValidator.isValid(dir.toURI().toString()));
+        assertFalse(mValidator.isValid(new File(dir, "does-not-exist").toURI().toString()));
+        assertFalse(mValidator.isValid(AndroidClasspathContainerInitializer.NULL_API_URL));
+        assertFalse(mValidator.isValid(null));
+
+        // local locations are never checked in the background
+        assertEquals(0, mScheduled);
+    }
+
+    public void testRemote() throws Exception {
+        String valid = mBaseUrl + "reference/";
+        String invalid = mBaseUrl + "missing/";
+
+        // Assumed to be valid until checked
+        assertTrue(mValidator.isValid(valid));
+        assertTrue(mValidator.isValid(invalid));
+        assertEquals(2, mScheduled);
+
+        // Only the invalid location changes status
+        assertTrue(mValidator.checkPending());
+        assertTrue(mValidator.isValid(valid));
+        assertFalse(mValidator.isValid(invalid));
+        assertEquals(2, mScheduled);
+
+        // Nothing left to check
+        assertFalse(mValidator.checkPending());
+    }
+
+    public void testUnreachable() throws Exception {
+        String url = mBaseUrl + "reference/";
+        mServer.stop(0);
+
+        assertTrue(mValidator.isValid(url));
+        assertTrue(mValidator.checkPending());
+        assertFalse(mValidator.isValid(url));
+    }
+
+    public void testExpiry() throws Exception {
+        String url = mBaseUrl + "missing/";
+        long now = System.currentTimeMillis();
+        assertTrue(mValidator.setStatus(url, false, now));
+        assertFalse(mValidator.setStatus(url, false, now));
+
+        assertFalse(mValidator.isValid(url, now));
+        assertEquals(0, mScheduled);
+
+        // The last result is used while checking again
+        long later = now + JavadocUrlValidator.INVALID_EXPIRY;
+        assertFalse(mValidator.isValid(url, later));
+        assertEquals(1, mScheduled);
+        assertFalse(mValidator.isValid(url, later));
+        assertEquals(1, mScheduled);
+        assertFalse(mValidator.checkPending());
+    }
+
+    public void testPersistence() throws Exception {
+        String valid = mBaseUrl + "reference/";
+        String invalid = mBaseUrl + "missing/";
+        long now = System.currentTimeMillis();
+        mValidator.setStatus(valid, true, now);
+        mValidator.setStatus(invalid, false, now);
+
+        JavadocUrlValidator restored = createValidator();
+        restored.decode(mValidator.encode());
+        assertTrue(restored.isValid(valid, now));
+        assertFalse(restored.isValid(invalid, now));
+        assertEquals(0, mScheduled);
+        assertEquals(mValidator.encode(), restored.encode());
+
+        restored.decode("garbage\nmore\tgarbage\tx");
+        assertEquals(mValidator.encode(), restored.encode());
+
+        // The encoded results fit in a persistent property
+        StringBuilder sb = new StringBuilder(mBaseUrl);
+        for (int i = 0; i < 300; i++) {
+            sb.append('x');
+        }
+        for (int i = 0; i < 10; i++) {
+            mValidator.setStatus(sb.toString() + i, true, now);
+        }
+        String state = mValidator.encode();
+        assertTrue(state.length() <= 2000);
+        assertTrue(state.endsWith(sb.toString() + 9 + "\ttrue\t"
+                + (now + JavadocUrlValidator.VALID_EXPIRY)));
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ide.eclipse.adt.internal.refactorings.core;
+
+import com.google.common.base.Charsets;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public class ResourceReferenceFilterTest extends TestCase {
+    public void testMightContain() {
+        ResourceReferenceFilter filter = new ResourceReferenceFilter("app_name");
+        assertTrue(mightContain(filter, "<string name=\"app_name\">Foo</string>"));
+        assertTrue(mightContain(filter, "android:label=\"@string/app_name\""));
+        assertTrue(mightContain(filter, "<item>@string/app_name</item>"));
+        assertTrue(mightContain(filter, "<item>\n    @string/app_name\n</item>"));
+        assertTrue(mightContain(filter, "app_name"));
+        assertTrue(mightContain(filter, "?app_name"));
+
+        assertFalse(mightContain(filter, ""));
+        assertFalse(mightContain(filter, "<string name=\"app\">Foo</string>"));
+        assertFalse(mightContain(filter, "android:label=\"@string/app_name2\""));
+        assertFalse(mightContain(filter, "android:label=\"@string/my_app_name\""));
+        assertFalse(mightContain(filter, "android:label=\"@string/app_nam\""));
+        assertFalse(mightContain(filter, "app_nam"));
+    }
+
+    public void testEncodings() {
+        ResourceReferenceFilter filter = new ResourceReferenceFilter("app_name");
+        // Can't scan UTF-16 as bytes; these must always be included
+        assertTrue(mightContain(filter, "<string/>", "UTF-16"));
+        assertTrue(mightContain(filter, "<string/>", "UTF-16LE"));
+        assertTrue(mightContain(filter, "<string/>", "UTF-16BE"));
+        assertFalse(mightContain(filter, "<string name=\"æøå\"/>", "UTF-8"));
+        assertTrue(mightContain(filter, "<string name=\"app_name\">æøå</string>",
+                "UTF-8"));
+    }
+
+    public void testValidLength() {
+        ResourceReferenceFilter filter = new ResourceReferenceFilter("app_name");
+        byte[] data = "<string name=\"app_name\"/>".getBytes(Charsets.UTF_8);
+        assertTrue(filter.mightContain(data, data.length));
+        assertFalse(filter.mightContain(data, 18));
+    }
+
+    private static boolean mightContain(ResourceReferenceFilter filter, String s) {
+        return mightContain(filter, s, "UTF-8");
+    }
+
+    private static boolean mightContain(ResourceReferenceFilter filter, String s,
+            String encoding) {
+        try {
+            byte[] data = s.getBytes(encoding);
+            return filter.mightContain(data, data.length);
+        } catch (Exception e) {
+            fail(e.toString());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ide.eclipse.adt.internal.ui;
+
+import com.android.ide.common.resources.ResourceItem;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public class ResourceNameIndexTest extends TestCase {
+    private static ResourceNameIndex createIndex(String... names) {
+        List<ResourceItem> items = new ArrayList<ResourceItem>();
+        for (String name : names) {
+            items.add(new ResourceItem(name));
+        }
+        return new ResourceNameIndex(items);
+    }
+
+    private static List<String> find(ResourceNameIndex index, String filter) {
+        List<String> names = new ArrayList<String>();
+        for (int i : index.find(filter)) {
+            names.add(index.getItems()[i].getName());
+        }
+        return names;
+    }
+
+    public void testSorted() throws Exception {
+        ResourceNameIndex index = createIndex("btn_default", "arrow_up", "TextAppearance");
+        assertEquals(Arrays.asList("TextAppearance", "arrow_up", "btn_default"),
+                find(index, ""));
+        assertEquals(1, index.indexOf("arrow_up"));
+        assertEquals(0, index.indexOf("TextAppearance"));
+        assertEquals(-1, index.indexOf("textappearance"));
+        assertEquals(-1, index.indexOf("arrow"));
+    }
+
+    public void testPrefixFirst() throws Exception {
+        ResourceNameIndex index = createIndex("ic_menu_add", "menu_frame", "ic_menu_delete",
+                "Menu", "submenu_arrow", "dialog");
+        assertEquals(Arrays.asList("Menu", "menu_frame", "ic_menu_add", "ic_menu_delete",
+                "submenu_arrow"), find(index, "menu"));
+        assertEquals(Arrays.asList("ic_menu_add", "ic_menu_delete"), find(index, "ic_"));
+        assertEquals(Arrays.asList("menu_frame"), find(index, "MENU_F"));
+        assertEquals(Arrays.asList("ic_menu_add", "ic_menu_delete", "dialog"),
+                find(index, "i"));
+        assertEquals(Arrays.asList("ic_menu_delete"), find(index, "u_del"));
+        assertEquals(Arrays.<String>asList(), find(index, "menux"));
+    }
+
+    public void testWildcards() throws Exception {
+        ResourceNameIndex index = createIndex("ic_menu_add", "menu_frame", "ic_menu_delete",
+                "submenu_arrow");
+        assertEquals(Arrays.asList("ic_menu_add", "ic_menu_delete"), find(index, "ic*d"));
+        assertEquals(Arrays.asList("ic_menu_add", "ic_menu_delete"), find(index, "i?_"));
+        assertEquals(Arrays.asList("ic_menu_add", "ic_menu_delete", "menu_frame",
+                "submenu_arrow"), find(index, "*menu"));
+    }
+}
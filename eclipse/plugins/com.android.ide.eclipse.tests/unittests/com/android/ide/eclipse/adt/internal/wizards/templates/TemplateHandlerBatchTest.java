@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Eclipse Public License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.eclipse.org/org/documents/epl-v10.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ide.eclipse.adt.internal.wizards.templates;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public class TemplateHandlerBatchTest extends TestCase {
+    private File mDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDir = Files.createTempDir();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteRecursively(mDir);
+        super.tearDown();
+    }
+
+    public void testRenderAll() throws Exception {
+        List<File> templates = new ArrayList<File>();
+        for (int i = 0; i < 10; i++) {
+            templates.add(createTemplate("Template" + i, "Hello ${name} " + i));
+        }
+
+        Map<String, Object> args = new HashMap<String, Object>();
+        args.put("name", "World");
+        File output = new File(mDir, "out");
+        Map<File, Exception> failures = TemplateHandler.renderAll(templates, args, output);
+        assertEquals(Collections.emptyMap(), failures);
+
+        for (int i = 0; i < 10; i++) {
+            File file = new File(output, "Template" + i + '_' + i + "/src/hello.txt");
+            assertEquals("Hello World " + i, Files.toString(file, Charsets.UTF_8));
+        }
+    }
+
+    public void testModifiedTemplate() throws Exception {
+        File template = createTemplate("Modified", "Before ${name}");
+        Map<String, Object> args = new HashMap<String, Object>();
+        args.put("name", "edit");
+        List<File> templates = Collections.singletonList(template);
+
+        File output = new File(mDir, "out1");
+        assertTrue(TemplateHandler.renderAll(templates, args, output).isEmpty());
+        File file = new File(output, "Modified_0/src/hello.txt");
+        assertEquals("Before edit", Files.toString(file, Charsets.UTF_8));
+
+        // The compiled template is cached; make sure edits are picked up
+        File source = new File(template, "root/hello.txt.ftl");
+        long lastModified = source.lastModified();
+        Files.write("After ${name}", source, Charsets.UTF_8);
+        source.setLastModified(lastModified + 2000);
+
+        output = new File(mDir, "out2");
+        assertTrue(TemplateHandler.renderAll(templates, args, output).isEmpty());
+        file = new File(output, "Modified_0/src/hello.txt");
+        assertEquals("After edit", Files.toString(file, Charsets.UTF_8));
+    }
+
+    public void testSameNameInDifferentTemplates() throws Exception {
+        // Templates in different folders with the same file names must not share
+        // cache entries
+        File template1 = createTemplate("First", "first");
+        File template2 = createTemplate("Second", "second");
+        List<File> templates = new ArrayList<File>();
+        templates.add(template1);
+        templates.add(template2);
+        File output = new File(mDir, "out");
+        assertTrue(TemplateHandler.renderAll(templates, Collections.<String, Object>emptyMap(),
+                output).isEmpty());
+        assertEquals("first", Files.toString(new File(output, "First_0/src/hello.txt"),
+                Charsets.UTF_8));
+        assertEquals("second", Files.toString(new File(output, "Second_1/src/hello.txt"),
+                Charsets.UTF_8));
+    }
+
+    private File createTemplate(String name, String contents) throws IOException {
+        File template = new File(mDir, name);
+        File root = new File(template, "root");
+        root.mkdirs();
+        Files.write(
+                "<?xml version=\"1.0\"?>\n" +
+                "<template format=\"3\" revision=\"1\" name=\"" + name + "\">\n" +
+                "    <execute file=\"recipe.xml.ftl\" />\n" +
+                "</template>\n",
+                new File(template, TemplateHandler.TEMPLATE_XML), Charsets.UTF_8);
+        Files.write(
+                "<?xml version=\"1.0\"?>\n" +
+                "<recipe>\n" +
+                "    <instantiate from=\"hello.txt.ftl\" to=\"src/hello.txt\" />\n" +
+                "</recipe>\n",
+                new File(template, "recipe.xml.ftl"), Charsets.UTF_8);
+        Files.write(contents, new File(root, "hello.txt.ftl"), Charsets.UTF_8);
+        return template;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -37,11 +37,19 @@ import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Connects to a device using ddmlib and analyze its event log.
@@ -54,8 +62,17 @@ public class EventAnalyzer implements ILogListener {
     private final static String CVS_EXT = ".csv";
     private final static String TAG_FILE_EXT = ".tag"; //$NON-NLS-1$
 
-    private EventLogParser mParser;
-    private TreeMap<String, ArrayList<Long>> mLaunchMap = new TreeMap<String, ArrayList<Long>>();
+    /** Size of the header of each entry of a binary log, preceding the event data */
+    private final static int ENTRY_HEADER_SIZE = 20;
+    /** Size of the blocks in which binary logs are read */
+    private final static int BLOCK_SIZE = 1 << 20;
+
+    // types of the values in the binary event data
+    private final static int EVENT_TYPE_LONG = 1;
+    private final static int EVENT_TYPE_STRING = 2;
+    private final static int EVENT_TYPE_LIST = 3;
+
+    private TreeMap<String, LongList> mLaunchMap = new TreeMap<String, LongList>();
 
     String mInputTextFile = null;
     String mInputBinaryFile = null;
@@ -152,7 +169,7 @@ public class EventAnalyzer implements ILogListener {
             if (mInputBinaryFile != null) {
                 parseBinaryLogFile();
             } else if (mInputTextFile != null) {
-                parseTextLogFile(mInputTextFile);
+                parseTextLogFile(mInputTextFile, mLaunchMap);
             } else if (mInputFolder != null) {
                 parseFolder(mInputFolder);
             } else if (mInputDevice != null) {
@@ -168,49 +185,74 @@ public class EventAnalyzer implements ILogListener {
 
     /**
      * Parses a binary event log file located at {@link #mInputBinaryFile}.
+     * <p/>
+     * The binary event data is self-describing, so unlike text logs this doesn't need the
+     * event tag file.
      * @throws IOException
      */
     private void parseBinaryLogFile() throws IOException {
-        mParser = new EventLogParser();
-
-        String tagFile = mInputBinaryFile + TAG_FILE_EXT;
-        if (mParser.init(tagFile) == false) {
-            // if we have an alternate location
-            if (mAlternateTagFile != null) {
-                if (mParser.init(mAlternateTagFile) == false) {
-                    printAndExit("Failed to get event tags from " + mAlternateTagFile,
-                            false /* terminate*/);
-                }
-            } else {
-                printAndExit("Failed to get event tags from " + tagFile, false /* terminate*/);
-            }
+        FileInputStream fis = new FileInputStream(mInputBinaryFile);
+        try {
+            scanBinaryLog(fis, mLaunchMap);
+        } finally {
+            fis.close();
         }
+    }
 
-        LogReceiver receiver = new LogReceiver(this);
+    /**
+     * Reads binary log entries from a stream in large blocks, and adds the launch times found
+     * in them to the given map.
+     * <p/>
+     * Only the tag of each entry is looked at, and the event data is only decoded for the
+     * {@link #TAG_ACTIVITY_LAUNCH_TIME} events.
+     * @param in the stream to read
+     * @param launchMap the map receiving the launch times.
+     * @throws IOException
+     */
+    private static void scanBinaryLog(InputStream in, Map<String, LongList> launchMap)
+            throws IOException {
+        // the payload length of an entry is 16 bits, so a block always holds a whole entry
+        byte[] buffer = new byte[BLOCK_SIZE];
+        int end = 0;
 
-        byte[] buffer = new byte[256];
+        int count;
+        while ((count = in.read(buffer, end, buffer.length - end)) != -1) {
+            end += count;
+
+            // process all the complete entries in the buffer
+            int start = 0;
+            while (end - start >= ENTRY_HEADER_SIZE) {
+                int entrySize = ENTRY_HEADER_SIZE + readUnsignedShort(buffer, start);
+                if (end - start < entrySize) {
+                    break;
+                }
 
-        FileInputStream fis = new FileInputStream(mInputBinaryFile);
+                processBinaryEvent(buffer, start + ENTRY_HEADER_SIZE, start + entrySize,
+                        launchMap);
+                start += entrySize;
+            }
 
-        int count;
-        while ((count = fis.read(buffer)) != -1) {
-            receiver.parseNewData(buffer, 0, count);
+            // move the partial entry, if any, to the front of the buffer
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
         }
     }
 
     /**
      * Parse a text Log file.
      * @param filePath the location of the file.
+     * @param launchMap the map receiving the launch times.
      * @throws IOException
      */
-    private void parseTextLogFile(String filePath) throws IOException {
-        mParser = new EventLogParser();
+    private void parseTextLogFile(String filePath, Map<String, LongList> launchMap)
+            throws IOException {
+        EventLogParser parser = new EventLogParser();
 
         String tagFile = filePath + TAG_FILE_EXT;
-        if (mParser.init(tagFile) == false) {
+        if (parser.init(tagFile) == false) {
             // if we have an alternate location
             if (mAlternateTagFile != null) {
-                if (mParser.init(mAlternateTagFile) == false) {
+                if (parser.init(mAlternateTagFile) == false) {
                     printAndExit("Failed to get event tags from " + mAlternateTagFile,
                             false /* terminate*/);
                 }
@@ -219,13 +261,25 @@ public class EventAnalyzer implements ILogListener {
             }
         }
 
+        // lines for other events are skipped without parsing them, based on the tag name.
+        String tagName = parser.getTagMap().get(TAG_ACTIVITY_LAUNCH_TIME);
+        if (tagName == null) {
+            // the file cannot contain any launch time.
+            return;
+        }
+
         // read the lines from the file and process them.
         BufferedReader reader = new BufferedReader(
                 new InputStreamReader(new FileInputStream(filePath)));
-
-        String line;
-        while ((line = reader.readLine()) != null) {
-            processEvent(mParser.parse(line));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.indexOf(tagName) != -1) {
+                    processEvent(parser.parse(line), launchMap);
+                }
+            }
+        } finally {
+            reader.close();
         }
     }
 
@@ -273,44 +327,83 @@ public class EventAnalyzer implements ILogListener {
 
     /**
      * Parses the log files located in the folder, and its sub-folders.
+     * <p/>
+     * The files are parsed in parallel, each into its own map, and the maps are merged in
+     * the order of the files so that the output is the same as when parsing them one by one.
      * @param folderPath the path to the folder.
+     * @throws InterruptedException
      */
-    private void parseFolder(String folderPath) {
+    private void parseFolder(String folderPath) throws InterruptedException {
+        List<File> files = new ArrayList<File>();
+        collectLogFiles(folderPath, files);
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors());
+        try {
+            List<Future<Map<String, LongList>>> results =
+                new ArrayList<Future<Map<String, LongList>>>(files.size());
+            for (final File file : files) {
+                results.add(executor.submit(new Callable<Map<String, LongList>>() {
+                    public Map<String, LongList> call() throws IOException {
+                        Map<String, LongList> launchMap = new TreeMap<String, LongList>();
+                        parseTextLogFile(file.getAbsolutePath(), launchMap);
+                        return launchMap;
+                    }
+                }));
+            }
+
+            for (Future<Map<String, LongList>> result : results) {
+                Map<String, LongList> launchMap;
+                try {
+                    launchMap = result.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        // ignore this file.
+                        continue;
+                    }
+                    throw new RuntimeException(e.getCause());
+                }
+
+                for (Map.Entry<String, LongList> entry : launchMap.entrySet()) {
+                    getLaunchTimes(entry.getKey(), mLaunchMap).addAll(entry.getValue());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Collects the log files located in the folder, and its sub-folders.
+     * @param folderPath the path to the folder.
+     * @param files the list receiving the files.
+     */
+    private void collectLogFiles(String folderPath, List<File> files) {
         File f = new File(folderPath);
         if (f.isDirectory() == false) {
             printAndExit(String.format("%1$s is not a valid folder", folderPath),
                     false /* terminate */);
         }
 
-        String[] files = f.list(new FilenameFilter() {
+        String[] list = f.list(new FilenameFilter() {
             public boolean accept(File dir, String name) {
                 name = name.toLowerCase();
                 return name.endsWith(".tag") == false;
             }
         });
 
-        for (String file : files) {
-            try {
-                f = new File(folderPath + File.separator + file);
-                if (f.isDirectory()) {
-                    parseFolder(f.getAbsolutePath());
-                } else {
-                    parseTextLogFile(f.getAbsolutePath());
-                }
-            } catch (IOException e) {
-                // ignore this file.
+        for (String file : list) {
+            f = new File(folderPath + File.separator + file);
+            if (f.isDirectory()) {
+                collectLogFiles(f.getAbsolutePath(), files);
+            } else {
+                files.add(f);
             }
         }
     }
 
     private void grabLogFrom(IDevice device) throws IOException, TimeoutException,
             AdbCommandRejectedException {
-        mParser = new EventLogParser();
-        if (mParser.init(device) == false) {
-            printAndExit("Failed to get event-log-tags from " + device.getSerialNumber(),
-                    true /* terminate*/);
-        }
-
         LogReceiver receiver = new LogReceiver(this);
 
         device.runEventLogService(receiver);
@@ -349,10 +442,10 @@ public class EventAnalyzer implements ILogListener {
 
                 for (String activity : activities) {
                     // get the activity list.
-                    ArrayList<Long> list = mLaunchMap.get(activity);
+                    LongList list = mLaunchMap.get(activity);
                     if (index < list.size()) {
                         moreValues = true;
-                        builder.append(list.get(index).longValue()).append(DATA_SEPARATOR);
+                        builder.append(list.get(index)).append(DATA_SEPARATOR);
                     } else {
                         builder.append(DATA_SEPARATOR);
                     }
@@ -372,23 +465,23 @@ public class EventAnalyzer implements ILogListener {
                 builder.append(activity).append(DATA_SEPARATOR);
 
                 // get the activity list.
-                ArrayList<Long> list = mLaunchMap.get(activity);
+                LongList list = mLaunchMap.get(activity);
 
                 // sort the list
-                Collections.sort(list);
+                list.sort();
 
                 // write min/max
-                builder.append(list.get(0).longValue()).append(DATA_SEPARATOR);
-                builder.append(list.get(list.size()-1).longValue()).append(DATA_SEPARATOR);
+                builder.append(list.get(0)).append(DATA_SEPARATOR);
+                builder.append(list.get(list.size()-1)).append(DATA_SEPARATOR);
 
                 // write median value
-                builder.append(list.get(list.size()/2).longValue()).append(DATA_SEPARATOR);
+                builder.append(list.get(list.size()/2)).append(DATA_SEPARATOR);
 
                 // compute and write average
                 long total = 0; // despite being encoded on a long, the values are low enough that
                                 // a Long should be enough to compute the total
-                for (Long value : list) {
-                    total += value.longValue();
+                for (int i = 0 ; i < list.size() ; i++) {
+                    total += list.get(i);
                 }
                 builder.append(total / list.size()).append(DATA_SEPARATOR);
 
@@ -413,11 +506,14 @@ public class EventAnalyzer implements ILogListener {
      * @see com.android.ddmlib.log.LogReceiver.ILogListener#newEntry(com.android.ddmlib.log.LogReceiver.LogEntry)
      */
     public void newEntry(LogEntry entry) {
-        // parse and process the entry data.
-        processEvent(mParser.parse(entry));
+        try {
+            processBinaryEvent(entry.data, 0, entry.len, mLaunchMap);
+        } catch (IOException e) {
+            // Ignore this event.
+        }
     }
 
-    private void processEvent(EventContainer event) {
+    private static void processEvent(EventContainer event, Map<String, LongList> launchMap) {
         if (event != null && event.mTag == TAG_ACTIVITY_LAUNCH_TIME) {
             // get the activity name
             try {
@@ -426,7 +522,7 @@ public class EventAnalyzer implements ILogListener {
                 // get the launch time
                 Object value = event.getValue(1);
                 if (value instanceof Long) {
-                    addLaunchTime(name, (Long)value);
+                    getLaunchTimes(name, launchMap).add(((Long)value).longValue());
                 }
 
             } catch (InvalidTypeException e) {
@@ -436,15 +532,109 @@ public class EventAnalyzer implements ILogListener {
         }
     }
 
-    private void addLaunchTime(String name, Long value) {
-        ArrayList<Long> list = mLaunchMap.get(name);
+    /**
+     * Processes the data of a binary event. The tag is read first, and the rest of the data
+     * is only decoded if this is a {@link #TAG_ACTIVITY_LAUNCH_TIME} event, whose value is a
+     * list starting with the activity name and the launch time.
+     * @param data the array containing the event data.
+     * @param offset the offset of the event data, starting with the tag.
+     * @param end the offset of the end of the event data.
+     * @param launchMap the map receiving the launch time.
+     * @throws IOException if the activity name cannot be decoded.
+     */
+    private static void processBinaryEvent(byte[] data, int offset, int end,
+            Map<String, LongList> launchMap) throws IOException {
+        if (end - offset < 4 || readInt(data, offset) != TAG_ACTIVITY_LAUNCH_TIME) {
+            return;
+        }
+        offset += 4;
+
+        // list header: type and number of values.
+        if (end - offset < 2 || data[offset] != EVENT_TYPE_LIST || data[offset + 1] < 2) {
+            return;
+        }
+        offset += 2;
+
+        // the activity name: type, length and UTF-8 bytes.
+        if (end - offset < 5 || data[offset] != EVENT_TYPE_STRING) {
+            return;
+        }
+        int length = readInt(data, offset + 1);
+        offset += 5;
+        if (length < 0 || end - offset < length) {
+            return;
+        }
+        String name = new String(data, offset, length, "UTF-8"); //$NON-NLS-1$
+        offset += length;
+
+        // the launch time: type and value.
+        if (end - offset < 9 || data[offset] != EVENT_TYPE_LONG) {
+            return;
+        }
+        getLaunchTimes(name, launchMap).add(readLong(data, offset + 1));
+    }
+
+    private static LongList getLaunchTimes(String name, Map<String, LongList> launchMap) {
+        LongList list = launchMap.get(name);
 
         if (list == null) {
-            list = new ArrayList<Long>();
-            mLaunchMap.put(name, list);
+            list = new LongList();
+            launchMap.put(name, list);
         }
 
-        list.add(value);
+        return list;
+    }
+
+    // the binary log is in little endian.
+
+    private static int readUnsignedShort(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8;
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xFF)
+                | (data[offset + 1] & 0xFF) << 8
+                | (data[offset + 2] & 0xFF) << 16
+                | (data[offset + 3] & 0xFF) << 24;
+    }
+
+    private static long readLong(byte[] data, int offset) {
+        return (readInt(data, offset) & 0xFFFFFFFFL) | (long) readInt(data, offset + 4) << 32;
+    }
+
+    /**
+     * A growable list of primitive longs, to avoid boxing each launch time.
+     */
+    private static final class LongList {
+        private long[] mValues = new long[16];
+        private int mSize = 0;
+
+        void add(long value) {
+            if (mSize == mValues.length) {
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            mValues[mSize++] = value;
+        }
+
+        void addAll(LongList list) {
+            if (mSize + list.mSize > mValues.length) {
+                mValues = Arrays.copyOf(mValues, Math.max(mSize * 2, mSize + list.mSize));
+            }
+            System.arraycopy(list.mValues, 0, mValues, mSize, list.mSize);
+            mSize += list.mSize;
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        long get(int index) {
+            return mValues[index];
+        }
+
+        void sort() {
+            Arrays.sort(mValues, 0, mSize);
+        }
     }
 
     private void checkInputValidity(String option) {
@@ -21,7 +21,6 @@ import com.android.hierarchyviewer.device.Window;
 import com.android.hierarchyviewer.device.DeviceBridge;
 import com.android.hierarchyviewer.ui.util.PsdFile;
 
-import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.Point;
 import java.awt.image.BufferedImage;
@@ -35,14 +34,28 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.imageio.ImageIO;
 
 public class CaptureLoader {
+    /** Number of threads decoding and compressing the layers of a capture */
+    private static final int DECODER_COUNT =
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /** Maximum number of layers read from the device but not yet added to the file */
+    private static final int MAX_PENDING_LAYERS = 2 * DECODER_COUNT;
+
     public static boolean saveLayers(IDevice device, Window window, File file) {
         Socket socket = null;
         DataInputStream in = null;
         BufferedWriter out = null;
         boolean result = false;
+        ExecutorService decoders = Executors.newFixedThreadPool(DECODER_COUNT);
 
         try {
             socket = new Socket();
@@ -61,7 +74,24 @@ public class CaptureLoader {
 
             PsdFile psd = new PsdFile(width, height);
 
-            while (readLayer(in, psd)) {
+            // The layers are decoded in parallel as they are read, and added to the file
+            // in order. Reading stops while too many layers are pending, which bounds
+            // the memory used by the capture regardless of the number of layers.
+            LinkedList<Future<PsdFile.Layer>> pending = new LinkedList<Future<PsdFile.Layer>>();
+            boolean success = true;
+            while (success) {
+                Future<PsdFile.Layer> layer = readLayer(in, decoders);
+                if (layer == null) {
+                    break;
+                }
+                pending.add(layer);
+
+                if (pending.size() >= MAX_PENDING_LAYERS) {
+                    success = addLayer(psd, pending.removeFirst());
+                }
+            }
+            while (success && !pending.isEmpty()) {
+                success = addLayer(psd, pending.removeFirst());
             }
             
             psd.write(new FileOutputStream(file));
@@ -70,6 +100,7 @@ public class CaptureLoader {
         } catch (IOException e) {
             e.printStackTrace();
         } finally {
+            decoders.shutdownNow();
             try {
                 if (out != null) {
                     out.close();
@@ -88,38 +119,53 @@ public class CaptureLoader {
         return result;
     }
 
-    private static boolean readLayer(DataInputStream in, PsdFile psd) {
+    /**
+     * Reads the next layer from the device and submits it to the decoders.
+     * Returns null at the end of the layers list, or if the layer cannot be read.
+     */
+    private static Future<PsdFile.Layer> readLayer(DataInputStream in,
+            ExecutorService decoders) {
         try {
             if (in.read() == 2) {
                 System.out.println("Found end of layers list");
-                return false;
+                return null;
             }
-            String name = in.readUTF();
+            final String name = in.readUTF();
             System.out.println("name = " + name);
-            boolean visible = in.read() == 1;
-            int x = in.readInt();
-            int y = in.readInt();
+            final boolean visible = in.read() == 1;
+            final int x = in.readInt();
+            final int y = in.readInt();
             int dataSize = in.readInt();
 
-            byte[] data = new byte[dataSize];
-            int read = 0;
-            while (read < dataSize) {
-                read += in.read(data, read, dataSize - read);
-            }
-
-            ByteArrayInputStream arrayIn = new ByteArrayInputStream(data);
-            BufferedImage chunk = ImageIO.read(arrayIn);
+            final byte[] data = new byte[dataSize];
+            in.readFully(data);
 
-            // Ensure the image is in the right format
-            BufferedImage image = new BufferedImage(chunk.getWidth(), chunk.getHeight(),
-                    BufferedImage.TYPE_INT_ARGB);
-            Graphics2D g = image.createGraphics();
-            g.drawImage(chunk, null, 0, 0);
-            g.dispose();
-
-            psd.addLayer(name, image, new Point(x, y), visible);
+            return decoders.submit(new Callable<PsdFile.Layer>() {
+                public PsdFile.Layer call() throws IOException {
+                    BufferedImage image = ImageIO.read(new ByteArrayInputStream(data));
+                    if (image == null) {
+                        throw new IOException("Cannot decode layer " + name);
+                    }
+                    return PsdFile.createLayer(name, image, new Point(x, y), visible);
+                }
+            });
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
 
+    /**
+     * Waits for a layer to be decoded and adds it to the file.
+     * Returns false if the layer could not be decoded or added.
+     */
+    private static boolean addLayer(PsdFile psd, Future<PsdFile.Layer> layer) {
+        try {
+            psd.addLayer(layer.get());
             return true;
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+            return false;
         } catch (Exception e) {
             e.printStackTrace();
             return false;
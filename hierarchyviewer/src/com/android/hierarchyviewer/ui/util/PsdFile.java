@@ -19,18 +19,30 @@ package  com.android.hierarchyviewer.ui.util;
 import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * Writes PSD file.
  * 
- * Supports only 8 bits, RGB images with 4 channels.
+ * Supports only 8 bits, RGB images with 4 channels. The channels are compressed
+ * with PackBits RLE.
+ *
+ * The layer records precede the image data of all the layers in the file, so the
+ * compressed image data of each layer is written to a temporary file as soon as the
+ * layer is added, and the layer's image is released. Only the records and the merged
+ * image are kept in memory until the file is written.
  */
 public class PsdFile {
     private final Header mHeader;
@@ -53,16 +65,35 @@ public class PsdFile {
         mGraphics = mMergedImage.createGraphics();
     }
 
-    public void addLayer(String name, BufferedImage image, Point offset) {
+    /**
+     * Creates a layer, compressing its image. This does not modify the file, and can be
+     * called from any thread. The layer must then be added with {@link #addLayer(Layer)}.
+     */
+    public static Layer createLayer(String name, BufferedImage image, Point offset,
+            boolean visible) {
+        return new Layer(name, image, offset, visible);
+    }
+
+    public void addLayer(String name, BufferedImage image, Point offset) throws IOException {
         addLayer(name, image, offset, true);
     }
     
-    public void addLayer(String name, BufferedImage image, Point offset, boolean visible) {
-        mLayersInfo.addLayer(name, image, offset, visible);
-        if (visible) mGraphics.drawImage(image, null, offset.x, offset.y);
+    public void addLayer(String name, BufferedImage image, Point offset, boolean visible)
+            throws IOException {
+        addLayer(createLayer(name, image, offset, visible));
+    }
+
+    /**
+     * Adds a layer created by {@link #createLayer}. Layers are stacked in the order in
+     * which they are added.
+     */
+    public void addLayer(Layer layer) throws IOException {
+        if (layer.isVisible()) mGraphics.drawImage(layer.mImage, null, layer.mLeft, layer.mTop);
+        mLayersInfo.addLayer(layer);
     }
     
     public void write(OutputStream stream) {
+        mGraphics.dispose();
         mLayersMasksInfo.setLayersInfo(mLayersInfo);
 
         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
@@ -79,11 +110,12 @@ public class PsdFile {
             mLayersInfo.writeImageData(out);
             out.flush();
             
-            writeImage(mMergedImage, out, false);
+            writeMergedImage(new RleImage(mMergedImage), out);
             out.flush();
         } catch (IOException e) {
             e.printStackTrace();
         } finally {
+            mLayersInfo.dispose();
             try {
                 out.close();
             } catch (IOException e) {
@@ -92,41 +124,125 @@ public class PsdFile {
         }
     }
 
-    private static void writeImage(BufferedImage image, DataOutputStream out, boolean split)
+    private static void writeMergedImage(RleImage image, DataOutputStream out)
             throws IOException {
+        // The merged image stores the row lengths of all the channels first, then the
+        // data of all the channels, in RGBA order
+        final int[] channels = {
+                RleImage.RED, RleImage.GREEN, RleImage.BLUE, RleImage.ALPHA
+        };
+
+        out.writeShort(RleImage.COMPRESSION_RLE);
+        for (int channel : channels) {
+            image.writeRowLengths(channel, out);
+        }
+        for (int channel : channels) {
+            image.writeData(channel, out);
+        }
+    }
 
-        if (!split) out.writeShort(0);
-        
-        int width = image.getWidth();
-        int height = image.getHeight();
+    /**
+     * The four channels of an image, each compressed with PackBits one row at a time.
+     */
+    static class RleImage {
+        static final short COMPRESSION_RLE = 1;
+
+        // Channels, in the order of their bytes in ARGB pixels
+        static final int ALPHA = 0;
+        static final int RED = 1;
+        static final int GREEN = 2;
+        static final int BLUE = 3;
+
+        final int mHeight;
+        final int[][] mRowLengths = new int[4][];
+        final byte[][] mData = new byte[4][];
+        final int[] mDataLength = new int[4];
+
+        RleImage(BufferedImage image) {
+            final int width = image.getWidth();
+            final int height = image.getHeight();
+            mHeight = height;
+
+            final int[] pixels = new int[width];
+            final byte[] row = new byte[width];
+
+            for (int channel = 0; channel < 4; channel++) {
+                mRowLengths[channel] = new int[height];
+                mData[channel] = new byte[Math.max(64, width * height / 4)];
+            }
+
+            for (int y = 0; y < height; y++) {
+                image.getRGB(0, y, width, 1, pixels, 0, width);
+                for (int channel = 0; channel < 4; channel++) {
+                    final int shift = 24 - 8 * channel;
+                    for (int x = 0; x < width; x++) {
+                        row[x] = (byte) (pixels[x] >> shift);
+                    }
+                    mRowLengths[channel][y] = packBits(row, width, channel);
+                }
+            }
+        }
 
-        final int length = width * height;
-        int[] pixels = new int[length];
+        /** Compresses a row at the end of the channel data, returns its compressed length */
+        private int packBits(byte[] row, int length, int channel) {
+            // At most one header byte for every 128 bytes
+            ensureCapacity(channel, length + (length + 127) / 128);
+
+            final byte[] data = mData[channel];
+            final int start = mDataLength[channel];
+            int out = start;
+            int i = 0;
+            while (i < length) {
+                final byte value = row[i];
+                int run = 1;
+                while (i + run < length && run < 128 && row[i + run] == value) run++;
+
+                if (run >= 3) {
+                    // Replicate run
+                    data[out++] = (byte) (1 - run);
+                    data[out++] = value;
+                    i += run;
+                } else {
+                    // Literal run, up to the next run of 3 identical bytes
+                    final int literal = i;
+                    while (i < length && i - literal < 128) {
+                        if (i + 2 < length && row[i] == row[i + 1] && row[i] == row[i + 2]) {
+                            break;
+                        }
+                        i++;
+                    }
+                    data[out++] = (byte) (i - literal - 1);
+                    System.arraycopy(row, literal, data, out, i - literal);
+                    out += i - literal;
+                }
+            }
 
-        image.getData().getDataElements(0, 0, width, height, pixels);
+            mDataLength[channel] = out;
+            return out - start;
+        }
 
-        byte[] a = new byte[length];
-        byte[] r = new byte[length];
-        byte[] g = new byte[length];
-        byte[] b = new byte[length];
+        private void ensureCapacity(int channel, int length) {
+            final int needed = mDataLength[channel] + length;
+            if (needed > mData[channel].length) {
+                mData[channel] = Arrays.copyOf(mData[channel],
+                        Math.max(needed, mData[channel].length * 2));
+            }
+        }
 
-        for (int i = 0; i < length; i++) {
-            final int pixel = pixels[i];
-            a[i] = (byte) ((pixel >> 24) & 0xFF);
-            r[i] = (byte) ((pixel >> 16) & 0xFF);
-            g[i] = (byte) ((pixel >>  8) & 0xFF);
-            b[i] = (byte)  (pixel        & 0xFF);
+        /** Returns the size of the row lengths and data of a channel */
+        int getLength(int channel) {
+            return 2 * mHeight + mDataLength[channel];
         }
 
-        if (split) out.writeShort(0);
-        if (split) out.write(a);
-        if (split) out.writeShort(0);
-        out.write(r);
-        if (split) out.writeShort(0);
-        out.write(g);
-        if (split) out.writeShort(0);
-        out.write(b);
-        if (!split) out.write(a);
+        void writeRowLengths(int channel, DataOutputStream out) throws IOException {
+            for (int length : mRowLengths[channel]) {
+                out.writeShort(length);
+            }
+        }
+
+        void writeData(int channel, DataOutputStream out) throws IOException {
+            out.write(mData[channel], 0, mDataLength[channel]);
+        }
     }
 
     @SuppressWarnings({"UnusedDeclaration"})
@@ -244,8 +360,21 @@ public class PsdFile {
     static class LayersInfo {
         final List<Layer> mLayers = new ArrayList<Layer>();
 
-        void addLayer(String name, BufferedImage image, Point offset, boolean visible) {
-            mLayers.add(new Layer(name, image, offset, visible));
+        /** The image data of the layers, in the order of the layers */
+        private File mImageDataFile;
+        private DataOutputStream mImageData;
+
+        void addLayer(Layer layer) throws IOException {
+            if (mImageData == null) {
+                mImageDataFile = File.createTempFile("layers", ".psd");
+                mImageDataFile.deleteOnExit();
+                mImageData = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(mImageDataFile)));
+            }
+
+            layer.writeImageData(mImageData);
+            layer.release();
+            mLayers.add(layer);
         }
 
         int getLength() {
@@ -264,16 +393,48 @@ public class PsdFile {
         }
 
         void writeImageData(DataOutputStream out) throws IOException {
-            for (Layer layer : mLayers) {
-                layer.writeImageData(out);
+            if (mImageData != null) {
+                mImageData.close();
+                mImageData = null;
+
+                InputStream in = new BufferedInputStream(new FileInputStream(mImageDataFile));
+                try {
+                    byte[] buffer = new byte[65536];
+                    int count;
+                    while ((count = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, count);
+                    }
+                } finally {
+                    in.close();
+                }
             }
+            // The layer info is padded to a multiple of 2
+            if ((getLength() & 0x1) == 0x1) out.write(0);
             // Global layer mask info length
             out.writeInt(0);
         }
+
+        void dispose() {
+            if (mImageData != null) {
+                try {
+                    mImageData.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                mImageData = null;
+            }
+            if (mImageDataFile != null) {
+                mImageDataFile.delete();
+                mImageDataFile = null;
+            }
+        }
     }
     
+    /**
+     * A layer whose image has been compressed, created by {@link PsdFile#createLayer}.
+     */
     @SuppressWarnings({"UnusedDeclaration"})
-    static class Layer {
+    public static class Layer {
         static final byte OPACITY_TRANSPARENT = 0x0;
         static final byte OPACITY_OPAQUE = (byte) 0xFF;
         
@@ -311,17 +472,19 @@ public class PsdFile {
         int mLayerExtraLength;
         final String mOriginalName;
         
+        // Released once the layer has been added to the file
         private BufferedImage mImage;
+        private RleImage mImageData;
 
         Layer(String name, BufferedImage image, Point offset, boolean visible) {
             final int height = image.getHeight();
             final int width = image.getWidth();
-            final int length = width * height;
 
-            mChannelInfo[0] = new Channel(Channel.ID_ALPHA, length);
-            mChannelInfo[1] = new Channel(Channel.ID_RED, length);
-            mChannelInfo[2] = new Channel(Channel.ID_GREEN, length);
-            mChannelInfo[3] = new Channel(Channel.ID_BLUE, length);
+            mImageData = new RleImage(image);
+            mChannelInfo[0] = new Channel(Channel.ID_ALPHA, mImageData.getLength(RleImage.ALPHA));
+            mChannelInfo[1] = new Channel(Channel.ID_RED, mImageData.getLength(RleImage.RED));
+            mChannelInfo[2] = new Channel(Channel.ID_GREEN, mImageData.getLength(RleImage.GREEN));
+            mChannelInfo[3] = new Channel(Channel.ID_BLUE, mImageData.getLength(RleImage.BLUE));
 
             mTop = offset.y;
             mLeft = offset.x;
@@ -409,8 +572,26 @@ public class PsdFile {
             out.write(mOriginalName.getBytes("UTF-16"));
         }
 
+        boolean isVisible() {
+            return (mFlags & FLAG_INVISIBLE) == 0;
+        }
+
         void writeImageData(DataOutputStream out) throws IOException {
-            writeImage(mImage, out, true);
+            // The channels are in the same order as their records
+            final int[] channels = {
+                    RleImage.ALPHA, RleImage.RED, RleImage.GREEN, RleImage.BLUE
+            };
+
+            for (int channel : channels) {
+                out.writeShort(RleImage.COMPRESSION_RLE);
+                mImageData.writeRowLengths(channel, out);
+                mImageData.writeData(channel, out);
+            }
+        }
+
+        void release() {
+            mImage = null;
+            mImageData = null;
         }
     }
     